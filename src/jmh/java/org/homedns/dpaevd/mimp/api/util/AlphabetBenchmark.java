@@ -0,0 +1,67 @@
+/*
+ * @(#)AlphabetBenchmark.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the alphabet lookups.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlphabetBenchmark {
+
+    private final String path = "/api/v1/orders/4711/items?expand=true";
+
+    @Benchmark
+    public int contains() {
+        int count = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (Alphabet.ASCII_PRINTABLE.contains(path.charAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int toIndex() {
+        int sum = 0;
+        for (int i = 0; i < path.length(); i++) {
+            sum += Alphabet.ASCII_PRINTABLE.toIndex(path.charAt(i));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int[] toIndices() {
+        return Alphabet.ASCII_PRINTABLE.toIndices(path);
+    }
+
+    @Benchmark
+    public String toChars() {
+        return Alphabet.HEXADECIMAL.toChars(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15});
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * @(#)HexDumpBenchmark.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the hex dump functions.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexDumpBenchmark {
+
+    @Param({"4096", "65536"})
+    private int size;
+
+    private byte[] data;
+
+    private HexDumpEncoder encoder;
+
+    private OutputStream sink;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        data = new byte[size];
+        new Random(4711).nextBytes(data);
+        encoder = new HexDumpEncoder();
+        sink = new OutputStream() {
+            @Override public void write(final int b) {
+                blackhole.consume(b);
+            }
+
+            @Override public void write(final byte[] b, final int off, final int len) {
+                blackhole.consume(b);
+            }
+        };
+    }
+
+    @Benchmark
+    public void dumpToStream() throws IOException {
+        HexDumpFunctions.dump(data, 0, sink, 0, data.length);
+    }
+
+    @Benchmark
+    public void encoderToStream() throws IOException {
+        encoder.dump(data, 0, data.length, 0, sink);
+    }
+
+    @Benchmark
+    public String dumpToString() {
+        return HexDumpFunctions.dump(data, 0, 0);
+    }
+}
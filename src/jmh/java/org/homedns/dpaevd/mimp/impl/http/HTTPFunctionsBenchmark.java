@@ -0,0 +1,125 @@
+/*
+ * @(#)HTTPFunctionsBenchmark.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the HTTP parsing and serialization functions.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HTTPFunctionsBenchmark {
+
+    static final String REQUEST = """
+            GET /api/v1/orders?page=2 HTTP/1.1\r
+            Host: localhost:8182\r
+            Connection: keep-alive\r
+            Cache-Control: max-age=0\r
+            sec-ch-ua: "Chromium";v="124", "Google Chrome";v="124", "Not-A.Brand";v="99"\r
+            sec-ch-ua-mobile: ?0\r
+            sec-ch-ua-platform: "macOS"\r
+            Upgrade-Insecure-Requests: 1\r
+            User-Agent: Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36\r
+            Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r
+            Sec-Fetch-Site: none\r
+            Sec-Fetch-Mode: navigate\r
+            Accept-Encoding: gzip, deflate, br, zstd\r
+            Accept-Language: it,it-IT;q=0.9,de;q=0.8,en;q=0.7,en-US;q=0.6\r
+            If-Modified-Since: Sun, 19 May 2024 17:07:52 GMT\r
+            \r
+            """;
+
+    static final String RESPONSE = """
+            HTTP/1.1 200 OK\r
+            Date: Sun, 19 May 2024 17:07:52 GMT\r
+            Server: Apache/2.4.41 (Unix) OpenSSL/1.1.1d\r
+            Last-Modified: Sun, 19 May 2024 17:07:52 GMT\r
+            ETag: "2c-5c6e1f1b7a1e4"\r
+            Accept-Ranges: bytes\r
+            Content-Length: 44\r
+            Keep-Alive: timeout=5, max=100\r
+            Connection: Keep-Alive\r
+            Content-Type: text/html\r
+            \r
+            """;
+
+    private List<HTTPHeader> additionalHeaders;
+
+    private HTTPRequest request;
+
+    private byte[] requestBytes;
+
+    private HTTPRequestView requestView;
+
+    private byte[] responseBytes;
+
+    private HTTPResponseView responseView;
+
+    @Setup
+    public void setup() {
+        additionalHeaders = HTTPFunctions.getHeaders("X-Test-Run:4711:::X-Tenant:alpha,beta:::Accept-Language:en");
+        request = HTTPFunctions.createRequest(REQUEST);
+        requestBytes = REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+        requestView = new HTTPRequestView();
+        responseBytes = RESPONSE.getBytes(StandardCharsets.ISO_8859_1);
+        responseView = new HTTPResponseView();
+    }
+
+    @Benchmark
+    public HTTPRequest createRequest() {
+        return HTTPFunctions.createRequest(REQUEST);
+    }
+
+    @Benchmark
+    public HTTPResponse createResponse() {
+        return HTTPFunctions.createResponse(RESPONSE);
+    }
+
+    @Benchmark
+    public boolean wrapRequest() {
+        return requestView.wrap(requestBytes, 0, requestBytes.length) && requestView.hasToken("Connection", "keep-alive");
+    }
+
+    @Benchmark
+    public long wrapResponse() {
+        return responseView.wrap(responseBytes, 0, responseBytes.length) ? responseView.contentLength() : -1;
+    }
+
+    @Benchmark
+    public byte[] requestToBytes() {
+        return HTTPFunctions.requestToBytes(request);
+    }
+
+    @Benchmark
+    public HTTPRequest addOrReplaceHeaders() {
+        HTTPRequest copy = HTTPFunctions.createRequest(REQUEST);
+        HTTPFunctions.addOrReplaceHeaders(copy, additionalHeaders);
+        return copy;
+    }
+}
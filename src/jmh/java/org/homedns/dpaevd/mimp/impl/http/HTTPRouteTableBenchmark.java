@@ -0,0 +1,58 @@
+/*
+ * @(#)HTTPRouteTableBenchmark.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the route lookup over a table of 30 services.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HTTPRouteTableBenchmark {
+
+    private HTTPRouteTable routes;
+
+    @Setup
+    public void setup() {
+        StringBuilder routesString = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            routesString.append("8182@api.local/service").append(i).append("/v1=localhost:").append(9000 + i).append(',');
+        }
+        routesString.append("8182@/static=localhost:8999");
+        routes = HTTPRouteTable.of(routesString.toString(), 8182);
+    }
+
+    @Benchmark
+    public HTTPRoute matchHost() {
+        return routes.match("api.local:8182", "/service17/v1/orders/4711/items?expand=true");
+    }
+
+    @Benchmark
+    public HTTPRoute matchAnyHost() {
+        return routes.match("cdn.local", "/static/js/app.js");
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * @(#)MIMPIOCallbackBenchmark.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the IO callback over a loopback socket pair. Each invocation writes one payload and reads it back.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MIMPIOCallbackBenchmark {
+
+    @Param({"512", "16384"})
+    private int size;
+
+    private MIMPIOCallback iOCallback;
+
+    private byte[] payload;
+
+    private ServerSocket serverSocket;
+
+    private Socket client;
+
+    private Socket server;
+
+    private DataOutputStream out;
+
+    private DataInputStream in;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket();
+        client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+        client.setTcpNoDelay(true);
+        server = serverSocket.accept();
+        out = new DataOutputStream(client.getOutputStream());
+        in = new DataInputStream(server.getInputStream());
+        iOCallback = new MIMPIOCallback();
+        payload = new byte[size];
+        new Random(4711).nextBytes(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        serverSocket.close();
+    }
+
+    @Benchmark
+    public int outIn() {
+        iOCallback.out(out, payload);
+        int received = 0;
+        while (received < payload.length) {
+            received += iOCallback.in(in).length;
+        }
+        return received;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * @(#)MIMPServerSocketHandlerBenchmark.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the index scanners used by the socket handler on every relayed chunk.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MIMPServerSocketHandlerBenchmark {
+
+    private MIMPServerSocketHandler handler;
+
+    private byte[] request;
+
+    private byte[] response;
+
+    private byte[] body;
+
+    private ServerSocket serverSocket;
+
+    private Socket client;
+
+    private Socket server;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket();
+        client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+        server = serverSocket.accept();
+        handler = new MIMPServerSocketHandler(new MIMPIOCallback(), new MIMPProperties(), server, client);
+        request = ("POST /api/v1/orders HTTP/1.1\r\nHost: localhost:8182\r\nContent-Type: application/json\r\n"
+                + "Content-Length: 2048\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        response = ("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 2048\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        body = new byte[4096];
+        Arrays.fill(body, (byte) 'x');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        serverSocket.close();
+    }
+
+    @Benchmark
+    public int requestStartIndex() {
+        return handler.getRequestStartIndex(request);
+    }
+
+    @Benchmark
+    public int httpProtocolStartIndex() {
+        return handler.getHttpProtocolStartIndex(response);
+    }
+
+    @Benchmark
+    public int httpHeaderEndIndex() {
+        return handler.getHttpHeaderEndIndex(request);
+    }
+
+    @Benchmark
+    public int requestStartIndexBodyChunk() {
+        return handler.getRequestStartIndex(body);
+    }
+
+    @Benchmark
+    public int httpHeaderEndIndexBodyChunk() {
+        return handler.getHttpHeaderEndIndex(body);
+    }
+}
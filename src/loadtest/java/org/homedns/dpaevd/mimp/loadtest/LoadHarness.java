@@ -0,0 +1,374 @@
+/*
+ * @(#)LoadHarness.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServerStatusCallback;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketServerStatus;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.homedns.dpaevd.mimp.impl.network.MIMPIOCallback;
+import org.homedns.dpaevd.mimp.impl.network.MIMPSocketServer;
+
+/**
+ * End-to-end loopback load harness.
+ * <p>
+ * Starts a {@link StandInBackend}, puts an HTTP and a TCP {@link MIMPSocketServer} channel in front of it and runs each
+ * scenario twice, once directly against the backend and once through the proxy. The report shows throughput,
+ * connection rate and latency percentiles of both runs and the overhead added by the proxy.
+ * <p>
+ * Arguments are given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code clients} number of concurrent clients (16)</li>
+ *     <li>{@code duration} measured seconds per run (10)</li>
+ *     <li>{@code warmup} warmup seconds per run (2)</li>
+ *     <li>{@code scenarios} comma separated list of keepalive, close, pipeline, largebody, tcp (all)</li>
+ *     <li>{@code body} response body size of the small HTTP exchanges (1024)</li>
+ *     <li>{@code largeBody} request and response body size of the largebody scenario (1048576)</li>
+ *     <li>{@code depth} requests per batch in the pipeline scenario (8)</li>
+ *     <li>{@code message} message size of the tcp scenario (512)</li>
+ *     <li>{@code csv} file the results are appended to, tagged with {@code tag} (none)</li>
+ * </ul>
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class LoadHarness {
+
+    enum Scenario {
+        KEEPALIVE, CLOSE, PIPELINE, LARGEBODY, TCP
+    }
+
+    record Result(Scenario scenario, String target, double seconds, long requests, long connections, long bytes, long errors,
+                  LatencyHistogram latency) {
+
+        double requestsPerSecond() {
+            return requests / seconds;
+        }
+
+        double connectionsPerSecond() {
+            return connections / seconds;
+        }
+
+        double megabytesPerSecond() {
+            return bytes / seconds / (1024 * 1024);
+        }
+    }
+
+    private final Map<String, String> arguments;
+
+    private final int clients;
+
+    private final int depth;
+
+    private final long durationNanos;
+
+    private final int largeBody;
+
+    private final int message;
+
+    private final long warmupNanos;
+
+    public LoadHarness(final Map<String, String> arguments) {
+        this.arguments = arguments;
+        this.clients = Integer.parseInt(arguments.getOrDefault("clients", "16"));
+        this.depth = Integer.parseInt(arguments.getOrDefault("depth", "8"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(arguments.getOrDefault("duration", "10")));
+        this.largeBody = Integer.parseInt(arguments.getOrDefault("largeBody", "1048576"));
+        this.message = Integer.parseInt(arguments.getOrDefault("message", "512"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(arguments.getOrDefault("warmup", "2")));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.indexOf('=') > 2) {
+                arguments.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                System.err.println("Ignoring argument " + arg);
+            }
+        }
+        new LoadHarness(arguments).run(System.out);
+        System.exit(0);
+    }
+
+    /**
+     * Runs all selected scenarios and prints the report.
+     *
+     * @param out The report target.
+     */
+    public void run(final PrintStream out) throws Exception {
+        List<Scenario> scenarios = Arrays.stream(arguments.getOrDefault("scenarios", "keepalive,close,pipeline,largebody,tcp").split(","))
+                .map(s -> Scenario.valueOf(s.trim().toUpperCase(Locale.ROOT))).toList();
+        List<Result> results = new ArrayList<>();
+        try (StandInBackend backend = new StandInBackend(Integer.parseInt(arguments.getOrDefault("body", "1024")))) {
+            MIMPSocketServer httpProxy = startProxy(backend.getHttpPort());
+            MIMPSocketServer tcpProxy = startProxy(backend.getTcpPort());
+            try {
+                for (Scenario scenario : scenarios) {
+                    boolean tcp = scenario == Scenario.TCP;
+                    int directPort = tcp ? backend.getTcpPort() : backend.getHttpPort();
+                    int proxyPort = tcp ? tcpProxy.getProxyIpPort() : httpProxy.getProxyIpPort();
+                    Result direct = runScenario(scenario, "direct", directPort);
+                    Result proxied = runScenario(scenario, "proxy", proxyPort);
+                    results.add(direct);
+                    results.add(proxied);
+                    report(out, direct, proxied);
+                }
+            } finally {
+                httpProxy.cleanup();
+                tcpProxy.cleanup();
+            }
+        }
+        String csv = arguments.get("csv");
+        if (csv != null) {
+            appendCsv(Path.of(csv), arguments.getOrDefault("tag", "dev"), results);
+        }
+    }
+
+    private MIMPSocketServer startProxy(final int remotePort) throws Exception {
+        int proxyPort;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            proxyPort = probe.getLocalPort();
+        }
+        MIMPSocketServer proxy = new MIMPSocketServer(new MIMPIOCallback(), new MIMPProperties(), proxyPort,
+                InetAddress.getLoopbackAddress().getHostAddress(), remotePort);
+        CountDownLatch up = new CountDownLatch(1);
+        proxy.setCallback(new IMIMPSocketServerStatusCallback() {
+            @Override public void onServiceStatusChange(final MIMPSocketServerStatus status) {
+                if (MIMPSocketServerStatus.UP.equals(status)) {
+                    up.countDown();
+                }
+            }
+
+            @Override public void onHandler(final IMIMPServerSocketHandler handler) {
+            }
+        });
+        proxy.initialize();
+        if (!up.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Proxy on port " + proxyPort + " did not start");
+        }
+        return proxy;
+    }
+
+    private Result runScenario(final Scenario scenario, final String target, final int port) throws Exception {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            long start = System.nanoTime();
+            long measureFrom = start + warmupNanos;
+            long deadline = measureFrom + durationNanos;
+            List<Future<Client>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(() -> {
+                    Client client = new Client(scenario, port, measureFrom, deadline);
+                    client.run();
+                    return client;
+                }));
+            }
+            LatencyHistogram latency = new LatencyHistogram();
+            long requests = 0;
+            long connections = 0;
+            long bytes = 0;
+            long errors = 0;
+            for (Future<Client> future : futures) {
+                Client client = future.get();
+                latency.merge(client.latency);
+                requests += client.requests;
+                connections += client.connections;
+                bytes += client.bytes;
+                errors += client.errors;
+            }
+            return new Result(scenario, target, durationNanos / 1e9, requests, connections, bytes, errors, latency);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void report(final PrintStream out, final Result direct, final Result proxied) {
+        out.printf(Locale.ROOT, "%n== %s ==%n", direct.scenario().name().toLowerCase(Locale.ROOT));
+        out.printf(Locale.ROOT, "%-8s %12s %10s %10s %9s %9s %9s %9s %9s %7s%n",
+                "target", "req/s", "conn/s", "MB/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "errors");
+        for (Result result : List.of(direct, proxied)) {
+            LatencyHistogram h = result.latency();
+            out.printf(Locale.ROOT, "%-8s %12.1f %10.1f %10.2f %9.1f %9.1f %9.1f %9.1f %9.1f %7d%n",
+                    result.target(), result.requestsPerSecond(), result.connectionsPerSecond(), result.megabytesPerSecond(),
+                    h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3,
+                    h.getPercentile(99.9) / 1e3, h.getMax() / 1e3, result.errors());
+        }
+        double throughputLoss = direct.requestsPerSecond() == 0 ? 0 : 100.0 * (1 - proxied.requestsPerSecond() / direct.requestsPerSecond());
+        out.printf(Locale.ROOT, "overhead: throughput -%.1f%%, p50 +%.1f us, p99 +%.1f us%n", throughputLoss,
+                (proxied.latency().getPercentile(50) - direct.latency().getPercentile(50)) / 1e3,
+                (proxied.latency().getPercentile(99) - direct.latency().getPercentile(99)) / 1e3);
+    }
+
+    private void appendCsv(final Path file, final String tag, final List<Result> results) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        if (!Files.exists(file)) {
+            buf.append("timestamp,tag,scenario,target,clients,req_per_s,conn_per_s,mb_per_s,p50_us,p90_us,p99_us,p999_us,max_us,errors\n");
+        }
+        String timestamp = LocalDateTime.now().withNano(0).toString();
+        for (Result r : results) {
+            LatencyHistogram h = r.latency();
+            buf.append(String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%.1f,%.1f,%.2f,%.1f,%.1f,%.1f,%.1f,%.1f,%d%n",
+                    timestamp, tag, r.scenario().name().toLowerCase(Locale.ROOT), r.target(), clients,
+                    r.requestsPerSecond(), r.connectionsPerSecond(), r.megabytesPerSecond(),
+                    h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3,
+                    h.getPercentile(99.9) / 1e3, h.getMax() / 1e3, r.errors()));
+        }
+        Files.writeString(file, buf, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * A single load generating client. Results are only recorded between the end of the warmup and the deadline.
+     */
+    private final class Client {
+
+        private final byte[] buffer = new byte[65536];
+
+        private final long deadline;
+
+        private final StandInBackend.HttpHead head = new StandInBackend.HttpHead();
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private final long measureFrom;
+
+        private final int port;
+
+        private final Scenario scenario;
+
+        private long bytes;
+
+        private long connections;
+
+        private long errors;
+
+        private long requests;
+
+        Client(final Scenario scenario, final int port, final long measureFrom, final long deadline) {
+            this.scenario = scenario;
+            this.port = port;
+            this.measureFrom = measureFrom;
+            this.deadline = deadline;
+        }
+
+        void run() {
+            byte[] request = switch (scenario) {
+                case KEEPALIVE, PIPELINE -> request("GET", 0, false);
+                case CLOSE -> request("GET", 0, true);
+                case LARGEBODY -> request("POST", largeBody, false);
+                case TCP -> new byte[message];
+            };
+            if (scenario == Scenario.PIPELINE) {
+                byte[] batch = new byte[request.length * depth];
+                for (int i = 0; i < depth; i++) {
+                    System.arraycopy(request, 0, batch, i * request.length, request.length);
+                }
+                request = batch;
+            }
+            while (System.nanoTime() < deadline) {
+                try (Socket socket = connect()) {
+                    InputStream in = new BufferedInputStream(socket.getInputStream(), 65536);
+                    OutputStream out = socket.getOutputStream();
+                    do {
+                        long begin = System.nanoTime();
+                        out.write(request);
+                        long received = switch (scenario) {
+                            case TCP -> {
+                                in.readNBytes(buffer, 0, message);
+                                yield message;
+                            }
+                            case PIPELINE -> readResponses(in, depth);
+                            default -> readResponses(in, 1);
+                        };
+                        long end = System.nanoTime();
+                        if (begin >= measureFrom && end <= deadline) {
+                            int count = scenario == Scenario.PIPELINE ? depth : 1;
+                            for (int i = 0; i < count; i++) {
+                                latency.record(end - begin);
+                            }
+                            requests += count;
+                            bytes += received + request.length;
+                        }
+                    } while (scenario != Scenario.CLOSE && System.nanoTime() < deadline);
+                } catch (IOException ioe) {
+                    if (System.nanoTime() < deadline) {
+                        errors++;
+                    }
+                }
+            }
+        }
+
+        private Socket connect() throws IOException {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            long now = System.nanoTime();
+            if (now >= measureFrom && now <= deadline) {
+                connections++;
+            }
+            return socket;
+        }
+
+        private long readResponses(final InputStream in, final int count) throws IOException {
+            long received = 0;
+            for (int i = 0; i < count; i++) {
+                if (!head.read(in)) {
+                    throw new IOException("Connection closed by the server");
+                }
+                if (head.statusCode != 200) {
+                    throw new IOException("Unexpected status " + head.statusCode);
+                }
+                in.skipNBytes(head.contentLength);
+                received += head.contentLength;
+            }
+            return received;
+        }
+
+        private byte[] request(final String method, final int bodySize, final boolean close) {
+            StringBuilder buf = new StringBuilder();
+            buf.append(method).append(" /load/").append(scenario.name().toLowerCase(Locale.ROOT)).append(" HTTP/1.1\r\n");
+            buf.append("Host: localhost:").append(port).append("\r\n");
+            buf.append("Connection: ").append(close ? "close" : "keep-alive").append("\r\n");
+            if (bodySize > 0) {
+                buf.append("Content-Length: ").append(bodySize).append("\r\n");
+                buf.append("X-Response-Size: ").append(bodySize).append("\r\n");
+            }
+            buf.append("\r\n");
+            byte[] head = buf.toString().getBytes(StandardCharsets.US_ASCII);
+            byte[] request = Arrays.copyOf(head, head.length + bodySize);
+            Arrays.fill(request, head.length, request.length, (byte) 'y');
+            return request;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * @(#)StandInBackend.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal local backend used by the load harness.
+ * <p>
+ * The HTTP/1.1 listener answers every request with a fixed size body, honours keep-alive and consumes request bodies
+ * announced by {@code Content-Length}. The body size can be chosen per request with the {@code X-Response-Size} header.
+ * The TCP listener echoes every byte it receives.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class StandInBackend implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StandInBackend.class);
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ServerSocket httpServerSocket;
+
+    private final int responseBodySize;
+
+    private final Map<Integer, byte[]> responses = new ConcurrentHashMap<>();
+
+    private final ServerSocket tcpServerSocket;
+
+    private volatile boolean running = true;
+
+    /**
+     * Starts both listeners on ephemeral loopback ports.
+     *
+     * @param responseBodySize The size of the body returned for each HTTP request.
+     * @throws IOException if a listener cannot be opened.
+     */
+    public StandInBackend(final int responseBodySize) throws IOException {
+        this.responseBodySize = responseBodySize;
+        this.httpServerSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        this.tcpServerSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        executor.execute(() -> accept(httpServerSocket, true));
+        executor.execute(() -> accept(tcpServerSocket, false));
+    }
+
+    public int getHttpPort() {
+        return httpServerSocket.getLocalPort();
+    }
+
+    public int getTcpPort() {
+        return tcpServerSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        httpServerSocket.close();
+        tcpServerSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void accept(final ServerSocket serverSocket, final boolean http) {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> {
+                    try (socket) {
+                        if (http) {
+                            serveHttp(socket);
+                        } else {
+                            serveEcho(socket);
+                        }
+                    } catch (IOException ioe) {
+                        LOGGER.debug("Stand-in connection terminated: {}", ioe.getMessage());
+                    }
+                });
+            } catch (IOException ioe) {
+                if (running) {
+                    LOGGER.error("Stand-in listener failed: {}", ioe.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void serveEcho(final Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        byte[] buffer = new byte[16384];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private void serveHttp(final Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream(), 16384);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16384);
+        HttpHead head = new HttpHead();
+        while (head.read(in)) {
+            in.skipNBytes(head.contentLength);
+            out.write(responses.computeIfAbsent(head.responseSize < 0 ? responseBodySize : head.responseSize, StandInBackend::response));
+            // pipelined requests are answered together
+            if (in.available() == 0 || head.close) {
+                out.flush();
+            }
+            if (head.close) {
+                return;
+            }
+        }
+    }
+
+    private static byte[] response(final int bodySize) {
+        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\nContent-Length: " + bodySize
+                + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] response = Arrays.copyOf(head, head.length + bodySize);
+        Arrays.fill(response, head.length, response.length, (byte) 'x');
+        return response;
+    }
+
+    /**
+     * Reusable parser of the parts of a message head needed to frame HTTP/1.1 messages.
+     */
+    static final class HttpHead {
+
+        private final byte[] line = new byte[8192];
+
+        boolean close;
+
+        long contentLength;
+
+        int responseSize;
+
+        int statusCode;
+
+        /**
+         * @return false if the stream ended before a head was read.
+         */
+        boolean read(final InputStream in) throws IOException {
+            close = false;
+            contentLength = 0;
+            responseSize = -1;
+            statusCode = 0;
+            boolean first = true;
+            while (true) {
+                int length = readLine(in);
+                if (length < 0) {
+                    return false;
+                }
+                if (length == 0) {
+                    if (first) {
+                        continue;
+                    }
+                    return true;
+                }
+                String text = new String(line, 0, length, StandardCharsets.US_ASCII);
+                if (first) {
+                    if (text.startsWith("HTTP/")) {
+                        statusCode = Integer.parseInt(text.substring(9, 12));
+                    }
+                    first = false;
+                } else if (text.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    contentLength = Long.parseLong(text.substring(15).trim());
+                } else if (text.regionMatches(true, 0, "X-Response-Size:", 0, 16)) {
+                    responseSize = Integer.parseInt(text.substring(16).trim());
+                } else if (text.regionMatches(true, 0, "Connection:", 0, 11)) {
+                    close = text.substring(11).trim().equalsIgnoreCase("close");
+                }
+            }
+        }
+
+        private int readLine(final InputStream in) throws IOException {
+            int length = 0;
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == '\n') {
+                    return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+                }
+                if (length < line.length) {
+                    line[length++] = (byte) c;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -19,9 +19,59 @@ public interface MIMPConstants {
 
      String LOCAL_SERVER_BUFFER_SIZE_KEY = "mimp.proxy.buffer.size";
 
+     String PROXY_ADMISSION_KEY = "mimp.proxy.admission";
+
+     String PROXY_BREAKER_KEY = "mimp.proxy.breaker";
+
+     String PROXY_CACHE_ENABLED_KEY = "mimp.proxy.cache.enabled";
+
+     String PROXY_CACHE_ENTRY_SIZE_KEY = "mimp.proxy.cache.entry.size";
+
+     String PROXY_CACHE_SIZE_KEY = "mimp.proxy.cache.size";
+
      String PROXY_CHANNELS_KEY = "mimp.proxy.channels";
 
+     String PROXY_DATAGRAM_KEY = "mimp.proxy.datagram";
+
+     String PROXY_DRAIN_TIMEOUT_KEY = "mimp.proxy.drain.timeout";
+
+     String PROXY_FORWARD_KEY = "mimp.proxy.forward";
+
      String PROXY_HEADERS_KEY = "mimp.proxy.headers";
 
+     String PROXY_HEALTH_KEY = "mimp.proxy.health";
+
+     String PROXY_JFR_RELAY_SAMPLE_KEY = "mimp.proxy.jfr.relay.sample";
+
+     String PROXY_MEMORY_BUDGET_KEY = "mimp.proxy.memory.budget";
+
+     String PROXY_MEMORY_KEY = "mimp.proxy.memory";
+
+     String PROXY_POOL_KEY = "mimp.proxy.pool";
+
+     String PROXY_RELOAD_FILE_KEY = "mimp.proxy.reload.file";
+
+     String PROXY_RESPONSE_HEADERS_KEY = "mimp.proxy.response.headers";
+
+     String PROXY_ROUTES_KEY = "mimp.proxy.routes";
+
+     String PROXY_SCHEDULER_CAPACITY_KEY = "mimp.proxy.scheduler.capacity";
+
+     String PROXY_SCHEDULER_KEY = "mimp.proxy.scheduler";
+
+     String PROXY_SHAPING_KEY = "mimp.proxy.shaping";
+
+     String PROXY_SHARDS_KEY = "mimp.proxy.shards";
+
+     String PROXY_SOCKET_KEY = "mimp.proxy.socket";
+
+     String PROXY_STUBS_KEY = "mimp.proxy.stubs";
+
+     String PROXY_TIMEOUTS_KEY = "mimp.proxy.timeouts";
+
      String PROXY_TRACE_HEADERS_KEY = "mimp.proxy.trace.headers";
+
+     String PROXY_TRACE_PAYLOAD_KEY = "mimp.proxy.trace.payload";
+
+     String PROXY_UNIX_KEY = "mimp.proxy.unix";
 }
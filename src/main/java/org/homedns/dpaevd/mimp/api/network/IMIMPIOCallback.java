@@ -26,6 +26,30 @@ public interface IMIMPIOCallback {
      */
     byte[] in(DataInputStream in);
 
+    /**
+     * Handles the incoming reasonPhrase with a given read size, used by the relays to adapt their reads to the traffic.
+     * @param in The input stream of the reasonPhrase.
+     * @param length The maximal number of bytes to read.
+     * @return The incoming reasonPhrase or the first part of it.
+     */
+    default byte[] in(DataInputStream in, int length) {
+        return in(in);
+    }
+
+    /**
+     * Handles the incoming reasonPhrase reading into a given buffer, used by the relays to read into the buffers
+     * leased from the memory arena.
+     * @param in The input stream of the reasonPhrase.
+     * @param buffer The buffer receiving the bytes read.
+     * @param length The maximal number of bytes to read.
+     * @return The number of bytes read.
+     */
+    default int in(DataInputStream in, byte[] buffer, int length) {
+        byte[] read = in(in, length);
+        System.arraycopy(read, 0, buffer, 0, read.length);
+        return read.length;
+    }
+
     /**
      * Handles the incoming reasonPhrase.
      * @param in The input stream of the reasonPhrase.
@@ -40,6 +64,19 @@ public interface IMIMPIOCallback {
      */
     void out(DataOutputStream out, byte[] buffer);
 
+    /**
+     * Handles the outgoing part of a buffer without copying it.
+     * @param out The stream to write to.
+     * @param buffer The buffer containing the reasonPhrase.
+     * @param offset The first byte to write.
+     * @param length The number of bytes to write.
+     */
+    default void out(DataOutputStream out, byte[] buffer, int offset, int length) {
+        byte[] part = new byte[length];
+        System.arraycopy(buffer, offset, part, 0, length);
+        out(out, part);
+    }
+
     /**
      * Handles the data exchange between the proxy and the remote.
      *
@@ -22,6 +22,23 @@ public interface IMIMPServerSocketHandler {
      */
     void cleanup();
 
+    /**
+     * Closes the connection if no exchange is in flight and it has been quiet since the last response, used to drain
+     * keep-alive connections at a message boundary.
+     *
+     * @param quietNanos The time without traffic after which a connection is idle.
+     * @return true if the connection has been closed.
+     */
+    boolean closeIfIdle(long quietNanos);
+
+    /**
+     * Closes the connection if one of the timeouts of its channel has expired.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     * @return true if the connection has been closed.
+     */
+    boolean closeIfExpired(long now);
+
     /**
      * Performs the data exchange.
      */
@@ -6,6 +6,10 @@
  */
 package org.homedns.dpaevd.mimp.api.network;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Description of the public method of the socket server.
  *
@@ -20,6 +24,23 @@ public interface IMIMPSocketServer {
      */
     void cleanup();
 
+    /**
+     * Stops accepting connections and releases all resources once the open connections are finished. The listener is
+     * closed before the method returns, so its port can be bound again at once.
+     *
+     * @param timeout The time after which the remaining connections are closed.
+     * @param unit The unit of the timeout.
+     * @return completed once all resources are released.
+     */
+    CompletableFuture<Void> drain(long timeout, TimeUnit unit);
+
+    /**
+     * @return the counters and gauges of the channel sorted by name.
+     */
+    default Map<String, Long> getMetrics() {
+        return Map.of();
+    }
+
     /**
      * @return the proxy IP address.
      */
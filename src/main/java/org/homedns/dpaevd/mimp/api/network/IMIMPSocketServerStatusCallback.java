@@ -24,4 +24,32 @@ public interface IMIMPSocketServerStatusCallback {
      * @param handler The handler to be notified if something changes.
      */
     void onHandler(IMIMPServerSocketHandler handler);
+
+    /**
+     * Reports the progress of a drain, called whenever the number of open connections changes.
+     *
+     * @param openConnections The connections still open.
+     * @param remainingMillis The time left until the open connections are closed.
+     */
+    default void onDrainProgress(int openConnections, long remainingMillis) {
+    }
+
+    /**
+     * Reports a change of the circuit breaker of an upstream.
+     *
+     * @param upstream The upstream as {@code host:port}.
+     * @param state The new state of its breaker.
+     */
+    default void onCircuitBreakerChange(String upstream, MIMPCircuitState state) {
+    }
+
+    /**
+     * Reports a change of the health of an upstream found by the active health checks.
+     *
+     * @param upstream The upstream as {@code host:port}.
+     * @param healthy False if the upstream has been ejected, true once it is back and warming up.
+     * @param latencyMicros The duration of the check causing the change.
+     */
+    default void onUpstreamHealthChange(String upstream, boolean healthy, long latencyMicros) {
+    }
 }
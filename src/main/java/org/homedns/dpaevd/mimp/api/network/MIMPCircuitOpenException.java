@@ -0,0 +1,39 @@
+/*
+ * @(#)MIMPCircuitOpenException.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.network;
+
+import java.net.ConnectException;
+
+/**
+ * The exception thrown instead of connecting to an upstream whose circuit breaker is open or which is ejected or
+ * warming up after its health checks.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPCircuitOpenException extends ConnectException {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * The constructor.
+     * @param message The message of the exception.
+     * @param retryAfterSeconds The seconds after which the client may retry.
+     */
+    public MIMPCircuitOpenException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the seconds after which the client may retry.
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
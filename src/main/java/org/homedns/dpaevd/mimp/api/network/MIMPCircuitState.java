@@ -0,0 +1,23 @@
+/*
+ * @(#)MIMPCircuitState.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.network;
+
+/**
+ * The state of the circuit breaker of an upstream.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public enum MIMPCircuitState {
+    /** The upstream is connected normally. */
+    CLOSED,
+    /** The upstream has failed, new connections fail at once. */
+    OPEN,
+    /** The open time has passed, a few probes may connect to the upstream. */
+    HALF_OPEN
+}
@@ -0,0 +1,25 @@
+/*
+ * @(#)MIMPEndOfStreamException.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.network;
+
+/**
+ * The exception thrown when the peer has closed its side of the connection, the other direction may still be open.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPEndOfStreamException extends MIMPServerSocketHandlerException {
+
+    /**
+     * The constructor.
+     * @param message The message of the exception.
+     */
+    public MIMPEndOfStreamException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * @(#)MIMPPoolExhaustedException.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.network;
+
+import java.io.IOException;
+
+/**
+ * The exception thrown when no upstream connection of a pool becomes free within the wait time.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPPoolExhaustedException extends IOException {
+
+    /**
+     * The constructor.
+     * @param message The message of the exception.
+     */
+    public MIMPPoolExhaustedException(String message) {
+        super(message);
+    }
+}
@@ -14,5 +14,5 @@
  * @since 2024.1
  */
 public enum MIMPSocketServerStatus {
-    CONNECTED, DISCONNECTED, DOWN, ERROR, UP
+    CONNECTED, DISCONNECTED, DOWN, DRAINING, ERROR, UP
 }
@@ -0,0 +1,243 @@
+/*
+ * @(#)HexDumpEncoder.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Table driven hex dump encoder.
+ * <p>
+ * Produces the same line layout as {@link HexDumpFunctions#dump(byte[], long, OutputStream, int, int)}
+ * (8 digits offset, 16 hex pairs, printable characters) but encodes directly into a reusable byte array.
+ * The encoder holds its scratch buffer, so an instance must not be shared between threads.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class HexDumpEncoder {
+
+    /** Number of data bytes rendered on a single line. */
+    public static final int BYTES_PER_LINE = 16;
+
+    private static final int LINES_PER_BLOCK = 256;
+
+    private static final byte[] HEX_PAIRS = new byte[512];
+
+    private static final byte[] PRINTABLE = new byte[256];
+
+    private static final byte[] HEX_DIGITS = new byte[16];
+
+    static {
+        for (int i = 0; i < 16; i++) {
+            HEX_DIGITS[i] = (byte) HexDumpFunctions._hexcodes[i];
+        }
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[i << 1] = HEX_DIGITS[i >> 4];
+            HEX_PAIRS[(i << 1) + 1] = HEX_DIGITS[i & 15];
+            PRINTABLE[i] = (byte) (i >= ' ' && i < 127 ? i : '.');
+        }
+    }
+
+    private final byte[] eol;
+
+    private final int lineLength;
+
+    private byte[] block;
+
+    private char[] chars;
+
+    /**
+     * Creates an encoder using the platform line separator.
+     */
+    public HexDumpEncoder() {
+        this(HexDumpFunctions.EOL);
+    }
+
+    /**
+     * @param eol The line separator appended to each line.
+     */
+    public HexDumpEncoder(final String eol) {
+        this.eol = eol.getBytes(StandardCharsets.US_ASCII);
+        this.lineLength = 9 + BYTES_PER_LINE * 3 + BYTES_PER_LINE + this.eol.length;
+    }
+
+    /**
+     * @param length The number of data bytes.
+     * @return the maximum number of bytes produced by encoding {@code length} data bytes.
+     */
+    public int encodedLength(final int length) {
+        return ((length + BYTES_PER_LINE - 1) / BYTES_PER_LINE) * lineLength;
+    }
+
+    /**
+     * Encodes a region of a byte array into the target array.
+     *
+     * @param data The data to encode.
+     * @param index The first byte to encode.
+     * @param length The number of bytes to encode.
+     * @param offset The display offset of the first byte.
+     * @param target The target array, must provide at least {@link #encodedLength(int)} bytes.
+     * @param targetIndex The first position written in the target array.
+     * @return the number of bytes written into the target.
+     */
+    public int encode(final byte[] data, final int index, final int length, final long offset, final byte[] target, final int targetIndex) {
+        return encode(ByteBuffer.wrap(data), index, index + length, offset, target, targetIndex);
+    }
+
+    /**
+     * Encodes the remaining bytes of a buffer into the target buffer.
+     * Neither the position nor the limit of the source buffer are changed; slices are read in place.
+     *
+     * @param data The buffer to encode.
+     * @param offset The display offset of the first remaining byte.
+     * @param target The target buffer, its position is advanced by the number of bytes written.
+     */
+    public void encode(final ByteBuffer data, final long offset, final ByteBuffer target) {
+        int from = data.position();
+        final int to = data.limit();
+        long displayOffset = offset;
+        while (from < to) {
+            final int count = Math.min(to - from, LINES_PER_BLOCK * BYTES_PER_LINE);
+            final byte[] scratch = block();
+            final int written = encode(data, from, from + count, displayOffset, scratch, 0);
+            target.put(scratch, 0, written);
+            from += count;
+            displayOffset += count;
+        }
+    }
+
+    /**
+     * Dumps a region of a byte array to a stream. The stream is flushed once at the end.
+     *
+     * @param data The data to dump.
+     * @param index The first byte to dump.
+     * @param length The number of bytes to dump.
+     * @param offset The display offset of the first byte.
+     * @param stream The target stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void dump(final byte[] data, final int index, final int length, final long offset, final OutputStream stream) throws IOException {
+        dump(ByteBuffer.wrap(data, index, length), offset, stream);
+    }
+
+    /**
+     * Dumps the remaining bytes of a buffer to a stream. The stream is flushed once at the end.
+     *
+     * @param data The buffer to dump, its position and limit are not changed.
+     * @param offset The display offset of the first remaining byte.
+     * @param stream The target stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void dump(final ByteBuffer data, final long offset, final OutputStream stream) throws IOException {
+        int from = data.position();
+        final int to = data.limit();
+        long displayOffset = offset;
+        while (from < to) {
+            final int count = Math.min(to - from, LINES_PER_BLOCK * BYTES_PER_LINE);
+            final byte[] scratch = block();
+            stream.write(scratch, 0, encode(data, from, from + count, displayOffset, scratch, 0));
+            from += count;
+            displayOffset += count;
+        }
+        stream.flush();
+    }
+
+    /**
+     * Dumps a region of a byte array to an appendable.
+     *
+     * @param data The data to dump.
+     * @param index The first byte to dump.
+     * @param length The number of bytes to dump.
+     * @param offset The display offset of the first byte.
+     * @param out The target, {@link StringBuilder} and {@link Writer} are written without intermediate Strings.
+     * @throws IOException if the appendable cannot be written.
+     */
+    public void dump(final byte[] data, final int index, final int length, final long offset, final Appendable out) throws IOException {
+        dump(ByteBuffer.wrap(data, index, length), offset, out);
+    }
+
+    /**
+     * Dumps the remaining bytes of a buffer to an appendable.
+     *
+     * @param data The buffer to dump, its position and limit are not changed.
+     * @param offset The display offset of the first remaining byte.
+     * @param out The target, {@link StringBuilder} and {@link Writer} are written without intermediate Strings.
+     * @throws IOException if the appendable cannot be written.
+     */
+    public void dump(final ByteBuffer data, final long offset, final Appendable out) throws IOException {
+        int from = data.position();
+        final int to = data.limit();
+        long displayOffset = offset;
+        if (out instanceof StringBuilder sb) {
+            sb.ensureCapacity(sb.length() + encodedLength(to - from));
+        }
+        while (from < to) {
+            final int count = Math.min(to - from, LINES_PER_BLOCK * BYTES_PER_LINE);
+            final byte[] scratch = block();
+            final int written = encode(data, from, from + count, displayOffset, scratch, 0);
+            if (chars == null) {
+                chars = new char[scratch.length];
+            }
+            for (int i = 0; i < written; i++) {
+                chars[i] = (char) scratch[i];
+            }
+            if (out instanceof StringBuilder sb) {
+                sb.append(chars, 0, written);
+            } else if (out instanceof Writer writer) {
+                writer.write(chars, 0, written);
+            } else {
+                out.append(CharBuffer.wrap(chars, 0, written));
+            }
+            from += count;
+            displayOffset += count;
+        }
+    }
+
+    private byte[] block() {
+        if (block == null) {
+            block = new byte[LINES_PER_BLOCK * lineLength];
+        }
+        return block;
+    }
+
+    private int encode(final ByteBuffer data, final int from, final int to, final long offset, final byte[] target, final int targetIndex) {
+        int pos = targetIndex;
+        long displayOffset = offset;
+        for (int j = from; j < to; j += BYTES_PER_LINE) {
+            final int count = Math.min(BYTES_PER_LINE, to - j);
+            for (int shift = 28; shift >= 0; shift -= 4) {
+                target[pos++] = HEX_DIGITS[(int) (displayOffset >> shift) & 15];
+            }
+            target[pos++] = ' ';
+            for (int k = 0; k < BYTES_PER_LINE; k++) {
+                if (k < count) {
+                    final int pair = (data.get(j + k) & 0xff) << 1;
+                    target[pos++] = HEX_PAIRS[pair];
+                    target[pos++] = HEX_PAIRS[pair + 1];
+                } else {
+                    target[pos++] = ' ';
+                    target[pos++] = ' ';
+                }
+                target[pos++] = ' ';
+            }
+            for (int k = 0; k < count; k++) {
+                target[pos++] = PRINTABLE[data.get(j + k) & 0xff];
+            }
+            for (final byte b : eol) {
+                target[pos++] = b;
+            }
+            displayOffset += count;
+        }
+        return pos - targetIndex;
+    }
+}
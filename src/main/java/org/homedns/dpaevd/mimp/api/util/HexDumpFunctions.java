@@ -67,41 +67,8 @@ static void dump(final byte[] data, final long offset, final OutputStream stream
             throw new IllegalArgumentException("cannot write to nullstream");
         }
 
-        long display_offset = offset + index;
-        final StringBuilder buffer = new StringBuilder(74);
-
         final int data_length = Math.min(data.length, index + length);
-        for (int j = index; j < data_length; j += 16) {
-            int chars_read = data_length - j;
-
-            if (chars_read > 16) {
-                chars_read = 16;
-            }
-            buffer.append(dump(display_offset)).append(' ');
-            for (int k = 0; k < 16; k++) {
-                if (k < chars_read) {
-                    buffer.append(dump(data[k + j]));
-                }
-                else {
-                    buffer.append("  ");
-                }
-                buffer.append(' ');
-            }
-            for (int k = 0; k < chars_read; k++) {
-                if (data[k + j] >= ' ' && data[k + j] < 127) {
-                    buffer.append((char) data[k + j]);
-                }
-                else {
-                    buffer.append('.');
-                }
-            }
-            buffer.append(EOL);
-            stream.write(buffer.toString().getBytes());
-            stream.flush();
-            buffer.setLength(0);
-            display_offset += chars_read;
-        }
-
+        new HexDumpEncoder(EOL).dump(data, index, data_length - index, offset + index, stream);
     }
 
     /**
@@ -143,35 +110,12 @@ static String dump(final byte[] data, final long offset, final int index) {
         if (index < 0 || index >= data.length) {
             throw new ArrayIndexOutOfBoundsException("illegal index: " + index + " into array of length " + data.length);
         }
-        long display_offset = offset + index;
-        buffer = new StringBuilder(74);
-
-        for (int j = index; j < data.length; j += 16) {
-            int chars_read = data.length - j;
-
-            if (chars_read > 16) {
-                chars_read = 16;
-            }
-            buffer.append(dump(display_offset)).append(' ');
-            for (int k = 0; k < 16; k++) {
-                if (k < chars_read) {
-                    buffer.append(dump(data[k + j]));
-                }
-                else {
-                    buffer.append("  ");
-                }
-                buffer.append(' ');
-            }
-            for (int k = 0; k < chars_read; k++) {
-                if (data[k + j] >= ' ' && data[k + j] < 127) {
-                    buffer.append((char) data[k + j]);
-                }
-                else {
-                    buffer.append('.');
-                }
-            }
-            buffer.append(EOL);
-            display_offset += chars_read;
+        buffer = new StringBuilder(74 * ((data.length - index + 15) / 16));
+        try {
+            new HexDumpEncoder(EOL).dump(data, index, data.length - index, offset + index, buffer);
+        } catch (IOException ioe) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(ioe);
         }
         return buffer.toString();
     }
@@ -0,0 +1,166 @@
+/*
+ * @(#)PrefixTrie.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.util;
+
+/**
+ * R-way trie over an {@link Alphabet}.
+ * <p>
+ * Keys are added while the trie is built, lookups walk at most the length of the key and do not allocate.
+ * Characters outside the alphabet end a lookup. Optionally ASCII letters are folded to lower case, both when keys are
+ * added and when they are looked up. A trie is not synchronized; once built it can be read by any number of threads.
+ *
+ * @param <V> The type of the values.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class PrefixTrie<V> {
+
+    private final Alphabet alphabet;
+
+    private final boolean ignoreCase;
+
+    private final Node root;
+
+    private int size;
+
+    /**
+     * Creates a case-sensitive trie.
+     *
+     * @param alphabet The alphabet of the keys.
+     */
+    public PrefixTrie(final Alphabet alphabet) {
+        this(alphabet, false);
+    }
+
+    /**
+     * @param alphabet The alphabet of the keys.
+     * @param ignoreCase true to fold ASCII letters to lower case.
+     */
+    public PrefixTrie(final Alphabet alphabet, final boolean ignoreCase) {
+        this.alphabet = alphabet;
+        this.ignoreCase = ignoreCase;
+        this.root = new Node(alphabet.R());
+    }
+
+    /**
+     * @param key The key.
+     * @param from The index of the first character of the key.
+     * @param to The index after the last character of the key.
+     * @return the value of the key or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final CharSequence key, final int from, final int to) {
+        Node node = root;
+        for (int i = from; i < to && node != null; i++) {
+            int index = index(key.charAt(i));
+            node = index < 0 ? null : node.next[index];
+        }
+        return node == null ? null : (V) node.value;
+    }
+
+    /**
+     * @param key The key.
+     * @return the value of the key or null.
+     */
+    public V get(final CharSequence key) {
+        return get(key, 0, key.length());
+    }
+
+    /**
+     * Finds the value of the longest key which is a prefix of the given characters.
+     *
+     * @param key The characters.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @return the value of the longest matching key or null.
+     */
+    public V longestPrefixValue(final CharSequence key, final int from, final int to) {
+        return longestPrefixValue(key, from, to, null);
+    }
+
+    /**
+     * Finds the value of the longest key which is a prefix of the given characters and ends at a segment boundary:
+     * the key ends with a delimiter, or is followed by a delimiter or by the end of the characters.
+     *
+     * @param key The characters.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @param delimiters The characters delimiting the segments, null to match any prefix.
+     * @return the value of the longest matching key or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V longestPrefixValue(final CharSequence key, final int from, final int to, final String delimiters) {
+        Node node = root;
+        Object value = root.value;
+        for (int i = from; i < to; i++) {
+            char c = key.charAt(i);
+            int index = index(c);
+            node = index < 0 ? null : node.next[index];
+            if (node == null) {
+                break;
+            }
+            if (node.value != null && (delimiters == null || i + 1 == to || delimiters.indexOf(c) >= 0
+                    || delimiters.indexOf(key.charAt(i + 1)) >= 0)) {
+                value = node.value;
+            }
+        }
+        return (V) value;
+    }
+
+    /**
+     * Adds or replaces a key.
+     *
+     * @param key The key.
+     * @param value The value, not null.
+     * @throws IllegalArgumentException if the key contains characters outside the alphabet.
+     */
+    public void put(final CharSequence key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid value");
+        }
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            int index = index(key.charAt(i));
+            if (index < 0) {
+                throw new IllegalArgumentException(String.format("Character %c not in alphabet", key.charAt(i)));
+            }
+            if (node.next[index] == null) {
+                node.next[index] = new Node(alphabet.R());
+            }
+            node = node.next[index];
+        }
+        if (node.value == null) {
+            size++;
+        }
+        node.value = value;
+    }
+
+    /**
+     * @return the number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int index(final char c) {
+        char folded = ignoreCase && c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return alphabet.contains(folded) ? alphabet.toIndex(folded) : -1;
+    }
+
+    private static final class Node {
+
+        private final Node[] next;
+
+        private Object value;
+
+        private Node(final int radix) {
+            this.next = new Node[radix];
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * @(#)TimerWheel.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel.
+ * <p>
+ * A single thread advances the wheel by one slot per tick and hands the expired tasks to an executor, so the cost of a
+ * pending task does not depend on the number of pending tasks and the tasks may block without delaying the wheel.
+ * Tasks scheduled from any thread are queued and moved to their slot on the next tick. A task runs at the earliest
+ * on the first tick after its deadline, the precision is one tick.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class TimerWheel implements AutoCloseable {
+
+    private final Executor executor;
+
+    private final Queue<Timeout> scheduled;
+
+    private final String name;
+
+    private final List<List<Timeout>> slots;
+
+    private final long startNanos;
+
+    private Thread thread;
+
+    private final long tickNanos;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates the wheel, it advances once {@link #start()} has been called.
+     *
+     * @param name The name of the thread.
+     * @param tickNanos The duration of a tick in nanoseconds.
+     * @param size The number of slots, rounded up to a power of two.
+     * @param executor Runs the expired tasks.
+     */
+    public TimerWheel(final String name, final long tickNanos, final int size, final Executor executor) {
+        if (tickNanos <= 0 || size <= 0) {
+            throw new IllegalArgumentException("Invalid tick or size");
+        }
+        this.executor = executor;
+        this.name = name;
+        this.tickNanos = tickNanos;
+        this.scheduled = new ConcurrentLinkedQueue<>();
+        int length = Integer.highestOneBit(size * 2 - 1);
+        this.slots = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Starts the daemon thread of the wheel, a second call has no effect.
+     *
+     * @return this wheel.
+     */
+    public synchronized TimerWheel start() {
+        if (thread == null) {
+            thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * @return the duration of a tick in nanoseconds.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task The task.
+     * @param delay The delay, not negative.
+     * @param unit The unit of the delay.
+     * @return the handle of the task.
+     * @throws RejectedExecutionException if the wheel is closed.
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        if (closed) {
+            throw new RejectedExecutionException("Timer wheel closed");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!closed) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long now = System.nanoTime();
+            while (now < deadline && !closed) {
+                LockSupport.parkNanos(this, deadline - now);
+                now = System.nanoTime();
+            }
+            transfer(tick);
+            expire(slots.get((int) (tick & (slots.size() - 1))));
+            tick++;
+        }
+    }
+
+    /**
+     * Moves the newly scheduled tasks to their slots. A task whose tick has already passed goes to the current slot.
+     */
+    private void transfer(final long tick) {
+        for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long due = Math.max(tick, (timeout.deadline - startNanos + tickNanos - 1) / tickNanos - 1);
+            timeout.rounds = (due - tick) / slots.size();
+            slots.get((int) (due & (slots.size() - 1))).add(timeout);
+        }
+    }
+
+    private void expire(final List<Timeout> slot) {
+        int kept = 0;
+        for (int i = 0; i < slot.size(); i++) {
+            Timeout timeout = slot.get(i);
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                slot.set(kept++, timeout);
+            } else {
+                try {
+                    executor.execute(timeout.task);
+                } catch (RejectedExecutionException ree) {
+                    // the executor has been shut down, the task is dropped
+                }
+            }
+        }
+        slot.subList(kept, slot.size()).clear();
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public static final class Timeout {
+
+        private volatile boolean cancelled;
+
+        private final long deadline;
+
+        private long rounds;
+
+        private final Runnable task;
+
+        private Timeout(final Runnable task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task if it has not been handed to the executor yet.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return the {@link System#nanoTime()} after which the task runs.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
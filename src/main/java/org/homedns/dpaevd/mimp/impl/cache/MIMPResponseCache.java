@@ -0,0 +1,431 @@
+/*
+ * @(#)MIMPResponseCache.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.cache;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.homedns.dpaevd.mimp.impl.http.HTTPMethod;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRequest;
+import org.homedns.dpaevd.mimp.impl.http.HTTPResponse;
+import org.homedns.dpaevd.mimp.impl.network.MIMPChannelMetrics;
+
+/**
+ * Shared HTTP response cache of a proxy channel.
+ * <p>
+ * Complete responses (head and body) to {@code GET} requests are kept in a {@link MIMPSlabStore}, the index is an
+ * access ordered map evicted in LRU order whenever the store runs out of pages. Only {@code 200} responses framed by
+ * {@code Content-Length} are stored. The freshness is taken from {@code Cache-Control} ({@code s-maxage}, {@code max-age},
+ * {@code no-cache}) or {@code Expires}; responses with {@code no-store}, {@code private}, {@code Set-Cookie} or
+ * {@code Vary: *} are never stored. Stale entries carrying an {@code ETag} or {@code Last-Modified} validator are
+ * revalidated with a conditional request. One variant is kept per key, it is selected by the request headers named
+ * in {@code Vary}.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPResponseCache {
+
+    private final Map<String, Entry> entries;
+
+    private final LongAdder evictions;
+
+    private final LongAdder hits;
+
+    private final int maxEntrySize;
+
+    private final LongAdder misses;
+
+    private final LongAdder notModified;
+
+    private final LongAdder revalidations;
+
+    private final MIMPSlabStore store;
+
+    private final LongAdder stores;
+
+    private MIMPResponseCache(final long capacity, final int pageSize, final int maxEntrySize, final MIMPChannelMetrics metrics) {
+        this.store = new MIMPSlabStore(capacity, pageSize);
+        this.maxEntrySize = (int) Math.min(maxEntrySize, store.getCapacity());
+        this.entries = new LinkedHashMap<>(256, 0.75f, true);
+        this.hits = metrics.counter("cache.hits");
+        this.misses = metrics.counter("cache.misses");
+        this.revalidations = metrics.counter("cache.revalidations");
+        this.notModified = metrics.counter("cache.not.modified");
+        this.stores = metrics.counter("cache.stores");
+        this.evictions = metrics.counter("cache.evictions");
+    }
+
+    /**
+     * Creates a cache and publishes its gauges once it is fully constructed.
+     *
+     * @param capacity The byte budget of the off-heap store.
+     * @param pageSize The size of a store page.
+     * @param maxEntrySize The maximum size of a stored response, head included.
+     * @param metrics The metrics of the channel receiving the cache counters.
+     * @return the cache.
+     */
+    public static MIMPResponseCache of(final long capacity, final int pageSize, final int maxEntrySize, final MIMPChannelMetrics metrics) {
+        MIMPResponseCache cache = new MIMPResponseCache(capacity, pageSize, maxEntrySize, metrics);
+        MIMPSlabStore store = cache.store;
+        metrics.gauge("cache.entries", cache::size);
+        metrics.gauge("cache.bytes.capacity", store::getCapacity);
+        metrics.gauge("cache.bytes.used", () -> store.getCapacity() - store.getFreeBytes());
+        return cache;
+    }
+
+    /**
+     * @param request The request.
+     * @return the cache key of the request or null if the response to the request must not be taken from the cache.
+     */
+    public static String key(final HTTPRequest request) {
+        if (request.method() != HTTPMethod.GET
+                || request.headers().getCombined("Authorization") != null
+                || request.headers().getCombined("Range") != null
+                || request.headers().getCombined("If-None-Match") != null
+                || request.headers().getCombined("If-Modified-Since") != null
+                || hasDirective(request.headers().getCombined("Cache-Control"), "no-store")) {
+            return null;
+        }
+        String host = request.headers().getCombined("Host");
+        return (host == null ? "" : host.toLowerCase(Locale.ROOT)) + request.requestURI();
+    }
+
+    /**
+     * Starts storing a response. The response head and body are appended as they are relayed, the entry replaces the
+     * previous one only once complete.
+     *
+     * @param key The cache key of the request.
+     * @param request The request.
+     * @param response The response.
+     * @param headLength The length of the response head including the terminating empty line.
+     * @param contentLength The length of the body.
+     * @return the capture or null if the response is not storable.
+     */
+    public Capture capture(final String key, final HTTPRequest request, final HTTPResponse response, final int headLength, final long contentLength) {
+        if (response.statusCode() != 200 || contentLength < 0 || headLength + contentLength > maxEntrySize
+                || response.headers().getCombined("Transfer-Encoding") != null) {
+            return null;
+        }
+        long freshness = freshness(response);
+        if (freshness < 0) {
+            return null;
+        }
+        String vary = response.headers().getCombined("Vary");
+        String[] varyNames = vary == null ? new String[0] : vary.split(",");
+        String[] varyValues = new String[varyNames.length];
+        for (int i = 0; i < varyNames.length; i++) {
+            varyNames[i] = varyNames[i].trim();
+            varyValues[i] = request.headers().getCombined(varyNames[i]);
+        }
+        int length = headLength + (int) contentLength;
+        int[] pages = reserve(length);
+        if (pages == null) {
+            return null;
+        }
+        Entry entry = new Entry(key, pages, length, headLength, response.headers().getCombined("ETag"),
+                response.headers().getCombined("Last-Modified"), varyNames, varyValues, freshness);
+        return new Capture(entry);
+    }
+
+    /**
+     * Copies a stored response.
+     *
+     * @param entry The entry.
+     * @return the response or null if the entry has been evicted in the meantime.
+     */
+    public byte[] read(final Entry entry) {
+        synchronized (this) {
+            if (entry.pages == null) {
+                return null;
+            }
+            byte[] response = new byte[entry.length];
+            store.read(entry.pages, response, entry.length);
+            hits.increment();
+            return response;
+        }
+    }
+
+    /**
+     * Looks up the stored response of a request.
+     *
+     * @param key The cache key of the request.
+     * @param request The request.
+     * @return the stored entry, fresh or stale, or null.
+     */
+    public Entry lookup(final String key, final HTTPRequest request) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            for (int i = 0; i < entry.varyNames.length; i++) {
+                if (!equals(entry.varyValues[i], request.headers().getCombined(entry.varyNames[i]))) {
+                    entry = null;
+                    break;
+                }
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * @param entry The entry.
+     * @param request The request.
+     * @return true if the entry can be served without revalidation.
+     */
+    public boolean isFresh(final Entry entry, final HTTPRequest request) {
+        String cacheControl = request.headers().getCombined("Cache-Control");
+        if (hasDirective(cacheControl, "no-cache") || "0".equals(directive(cacheControl, "max-age"))
+                || hasDirective(request.headers().getCombined("Pragma"), "no-cache")) {
+            return false;
+        }
+        return entry.expiresNanos - System.nanoTime() > 0;
+    }
+
+    /**
+     * Adds the validator of a stale entry to the request.
+     *
+     * @param entry The entry.
+     * @param request The request forwarded to the remote.
+     * @return false if the entry has no validator.
+     */
+    public boolean prepareRevalidation(final Entry entry, final HTTPRequest request) {
+        if (entry.etag != null) {
+            request.headers().add("If-None-Match", entry.etag);
+        } else if (entry.lastModified != null) {
+            request.headers().add("If-Modified-Since", entry.lastModified);
+        } else {
+            return false;
+        }
+        revalidations.increment();
+        return true;
+    }
+
+    /**
+     * Extends the freshness of an entry confirmed by a {@code 304} response.
+     *
+     * @param entry The entry.
+     * @param response The {@code 304} response.
+     */
+    public void revalidated(final Entry entry, final HTTPResponse response) {
+        long freshness = freshness(response);
+        entry.expiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(freshness < 0 ? entry.freshness : freshness);
+        notModified.increment();
+    }
+
+    /**
+     * @return the number of stored responses.
+     */
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the freshness lifetime in milliseconds or -1 if the response must not be stored.
+     */
+    static long freshness(final HTTPResponse response) {
+        String cacheControl = response.headers().getCombined("Cache-Control");
+        if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "private")
+                || response.headers().getCombined("Set-Cookie") != null || "*".equals(response.headers().getCombined("Vary"))) {
+            return -1;
+        }
+        boolean validator = response.headers().getCombined("ETag") != null || response.headers().getCombined("Last-Modified") != null;
+        if (hasDirective(cacheControl, "no-cache")) {
+            return validator ? 0 : -1;
+        }
+        String maxAge = directive(cacheControl, "s-maxage");
+        if (maxAge == null) {
+            maxAge = directive(cacheControl, "max-age");
+        }
+        if (maxAge != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(maxAge)));
+            } catch (NumberFormatException nfe) {
+                return validator ? 0 : -1;
+            }
+        }
+        String expires = response.headers().getCombined("Expires");
+        String date = response.headers().getCombined("Date");
+        if (expires != null && date != null) {
+            try {
+                long lifetime = ZonedDateTime.parse(expires, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli()
+                        - ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, lifetime);
+            } catch (DateTimeParseException dtpe) {
+                return validator ? 0 : -1;
+            }
+        }
+        return validator ? 0 : -1;
+    }
+
+    /**
+     * @return the value of the directive, an empty String for directives without value or null if it is missing.
+     */
+    static String directive(final String headerValue, final String name) {
+        if (headerValue == null) {
+            return null;
+        }
+        for (String part : headerValue.split(",")) {
+            String directive = part.trim();
+            if (directive.regionMatches(true, 0, name, 0, name.length())) {
+                if (directive.length() == name.length()) {
+                    return "";
+                }
+                if (directive.charAt(name.length()) == '=') {
+                    return directive.substring(name.length() + 1).replace("\"", "").trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean equals(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean hasDirective(final String headerValue, final String name) {
+        return directive(headerValue, name) != null;
+    }
+
+    private synchronized void commit(final Entry entry) {
+        Entry previous = entries.put(entry.key, entry);
+        if (previous != null) {
+            release(previous);
+        }
+        stores.increment();
+    }
+
+    private synchronized void release(final Entry entry) {
+        if (entry.pages != null) {
+            store.free(entry.pages);
+            entry.pages = null;
+        }
+    }
+
+    private synchronized int[] reserve(final int length) {
+        int[] pages = store.allocate(length);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (pages == null && eldest.hasNext()) {
+            release(eldest.next());
+            eldest.remove();
+            evictions.increment();
+            pages = store.allocate(length);
+        }
+        return pages;
+    }
+
+    /**
+     * Stored response.
+     */
+    public static final class Entry {
+
+        private final String etag;
+
+        private final long freshness;
+
+        private final int headLength;
+
+        private final String key;
+
+        private final String lastModified;
+
+        private final int length;
+
+        private final String[] varyNames;
+
+        private final String[] varyValues;
+
+        private volatile long expiresNanos;
+
+        private int[] pages;
+
+        private Entry(final String key, final int[] pages, final int length, final int headLength, final String etag,
+                      final String lastModified, final String[] varyNames, final String[] varyValues, final long freshness) {
+            this.key = key;
+            this.pages = pages;
+            this.length = length;
+            this.headLength = headLength;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.varyNames = varyNames;
+            this.varyValues = varyValues;
+            this.freshness = freshness;
+            this.expiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(freshness);
+        }
+
+        /**
+         * @return the length of the response head including the terminating empty line.
+         */
+        public int getHeadLength() {
+            return headLength;
+        }
+    }
+
+    /**
+     * Response being stored while it is relayed. A capture is used by a single thread.
+     */
+    public final class Capture {
+
+        private final Entry entry;
+
+        private int position;
+
+        private Capture(final Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * Releases the reserved pages of an incomplete response.
+         */
+        public void abort() {
+            if (position < entry.length) {
+                release(entry);
+                position = entry.length;
+            }
+        }
+
+        /**
+         * Appends relayed bytes, the entry is published once the last byte is appended.
+         *
+         * @param buffer The buffer.
+         * @param offset The first byte to append.
+         * @param length The number of bytes, bytes beyond the announced length are ignored.
+         * @return the number of bytes appended.
+         */
+        public int append(final byte[] buffer, final int offset, final int length) {
+            int count = Math.min(length, entry.length - position);
+            if (count > 0) {
+                store.write(entry.pages, position, buffer, offset, count);
+                position += count;
+                if (position == entry.length) {
+                    entry.expiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(entry.freshness);
+                    commit(entry);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return the number of bytes still expected.
+         */
+        public int remaining() {
+            return entry.length - position;
+        }
+    }
+}
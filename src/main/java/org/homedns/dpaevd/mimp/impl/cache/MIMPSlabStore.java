@@ -0,0 +1,130 @@
+/*
+ * @(#)MIMPSlabStore.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap storage made of fixed size pages carved out of a single direct buffer.
+ * <p>
+ * Allocations return the indexes of the pages holding the data, so a stored object does not need contiguous memory
+ * and the store never fragments. Page bookkeeping is synchronized, data is copied with absolute bulk operations which
+ * do not touch the buffer position and can run concurrently on different pages.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class MIMPSlabStore {
+
+    private final int[] freePages;
+
+    private final ByteBuffer memory;
+
+    private final int pageSize;
+
+    private int freeCount;
+
+    /**
+     * @param capacity The byte budget of the store, rounded down to whole pages.
+     * @param pageSize The size of a page.
+     */
+    public MIMPSlabStore(final long capacity, final int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+        long pages = Math.min(capacity, Integer.MAX_VALUE) / pageSize;
+        this.pageSize = pageSize;
+        this.memory = ByteBuffer.allocateDirect((int) (pages * pageSize));
+        this.freePages = new int[(int) pages];
+        for (int i = 0; i < pages; i++) {
+            freePages[i] = (int) pages - 1 - i;
+        }
+        this.freeCount = (int) pages;
+    }
+
+    /**
+     * @param length The number of bytes to store.
+     * @return the pages reserved for the bytes or null if there are not enough free pages.
+     */
+    public synchronized int[] allocate(final int length) {
+        int count = pagesFor(length);
+        if (count > freeCount) {
+            return null;
+        }
+        int[] pages = new int[count];
+        for (int i = 0; i < count; i++) {
+            pages[i] = freePages[--freeCount];
+        }
+        return pages;
+    }
+
+    /**
+     * @param pages The pages to release.
+     */
+    public synchronized void free(final int[] pages) {
+        for (int page : pages) {
+            freePages[freeCount++] = page;
+        }
+    }
+
+    public long getCapacity() {
+        return memory.capacity();
+    }
+
+    public synchronized long getFreeBytes() {
+        return (long) freeCount * pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param length The number of bytes to store.
+     * @return the number of pages needed.
+     */
+    public int pagesFor(final int length) {
+        return (length + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * Copies bytes out of the store.
+     *
+     * @param pages The pages of the object.
+     * @param target The target array.
+     * @param length The number of bytes to copy, starting with the first byte of the object.
+     */
+    public void read(final int[] pages, final byte[] target, final int length) {
+        int done = 0;
+        for (int i = 0; done < length; i++) {
+            int count = Math.min(pageSize, length - done);
+            memory.get(pages[i] * pageSize, target, done, count);
+            done += count;
+        }
+    }
+
+    /**
+     * Copies bytes into the store.
+     *
+     * @param pages The pages reserved for the object.
+     * @param position The position within the object of the first byte written.
+     * @param source The source array.
+     * @param offset The first byte of the source to copy.
+     * @param length The number of bytes to copy.
+     */
+    public void write(final int[] pages, final int position, final byte[] source, final int offset, final int length) {
+        int done = 0;
+        while (done < length) {
+            int page = (position + done) / pageSize;
+            int inPage = (position + done) % pageSize;
+            int count = Math.min(pageSize - inPage, length - done);
+            memory.put(pages[page] * pageSize + inPage, source, offset + done, count);
+            done += count;
+        }
+    }
+}
@@ -7,7 +7,6 @@
 package org.homedns.dpaevd.mimp.impl.http;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import org.homedns.dpaevd.mimp.api.network.Protocol;
@@ -21,21 +20,19 @@
  */
 public interface HTTPFunctions {
 
+    /**
+     * Adds the headers missing in the request, the names are compared ignoring the case.
+     *
+     * @param request The request.
+     * @param additionalHeaders The headers to add.
+     */
     static void addOrReplaceHeaders(HTTPRequest request,  final List<HTTPHeader> additionalHeaders) {
-        List<HTTPHeader> newHeaders = new ArrayList<>();
-        additionalHeaders.forEach(h -> {
-            boolean found = false;
-            for( HTTPHeader header : request.headers() ) {
-                if(h.name().equals(header.name()) ) {
-                    found = true;
-                    break;
-                }
+        HTTPHeaders headers = request.headers();
+        for (HTTPHeader header : additionalHeaders) {
+            if (!headers.contains(header.name())) {
+                headers.add(header);
             }
-            if( !found ) {
-                newHeaders.add(h);
-            }
-        });
-        request.headers().addAll(newHeaders);
+        }
     }
 
     static HTTPRequest createRequest(final String buffer) {
@@ -47,17 +44,8 @@ static HTTPRequest createRequest(final String buffer) {
         if( requestLine.length != 3 ) {
             throw new IllegalArgumentException("Invalid HTTP request line, 3 parts are required");
         }
-        HTTPRequest request = new HTTPRequest(HTTPMethod.valueOf(requestLine[0]), requestLine[1], Protocol.getProtocol(requestLine[2]), new ArrayList<>());
-
-        for( int i = 1; i < lines.length; i++ ) {
-            String[] header = lines[i].split(": ");
-            if( header.length == 2 ) {
-                String headerName = header[0];
-                String[] headerValues = header[1].split(",");
-                HTTPHeader httpHeader = new HTTPHeader(headerName, List.of(headerValues));
-                request.headers().add(httpHeader);
-            }
-        }
+        HTTPRequest request = new HTTPRequest(HTTPMethod.valueOf(requestLine[0]), requestLine[1], Protocol.getProtocol(requestLine[2]), new HTTPHeaders(lines.length));
+        parseHeaders(lines, request.headers());
         return request;
     }
 
@@ -71,17 +59,8 @@ static HTTPResponse createResponse(final String buffer) {
             throw new IllegalArgumentException("Invalid HTTP response line, 2 parts are required");
         }
         String reasonPhrase = responseLine.length > 2 ? responseLine[2] : "N/A";
-        HTTPResponse response = new HTTPResponse(Protocol.getProtocol(responseLine[0]), Integer.parseInt(responseLine[1]), reasonPhrase, new ArrayList<>());
-
-        for( int i = 1; i < lines.length; i++ ) {
-            String[] header = lines[i].split(": ");
-            if( header.length == 2 ) {
-                String headerName = header[0];
-                String[] headerValues = header[1].split(",");
-                HTTPHeader httpHeader = new HTTPHeader(headerName, List.of(headerValues));
-                response.headers().add(httpHeader);
-            }
-        }
+        HTTPResponse response = new HTTPResponse(Protocol.getProtocol(responseLine[0]), Integer.parseInt(responseLine[1]), reasonPhrase, new HTTPHeaders(lines.length));
+        parseHeaders(lines, response.headers());
         return response;
     }
 
@@ -101,6 +80,22 @@ static byte[] getBody(final byte[] buffer) {
         return body;
     }
 
+    /**
+     * @param headers The headers of a message.
+     * @return the value of the {@code Content-Length} header or -1 if it is missing or invalid.
+     */
+    static long getContentLength(final HTTPHeaders headers) {
+        String value = headers.get("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
     static String getHead(final byte[] buffer) {
         StringBuilder requestHeadBuffer = new StringBuilder();
         for(int i=0; i < (buffer.length - 4); i++) {
@@ -119,22 +114,61 @@ static List<HTTPHeader> getHeaders(final String headersString) {
         for( String headerPart : headerParts ) {
             String[] header = headerPart.split(":");
             if( header.length == 2 ) {
-                String headerName = header[0];
-                String[] headerValues = header[1].split(",");
-                HTTPHeader httpHeader = new HTTPHeader(headerName, Arrays.asList(headerValues));
-                headers.add(httpHeader);
+                headers.add(new HTTPHeader(header[0], header[1]));
             }
         }
         return headers;
     }
 
+    /**
+     * Parses header rules. Rules are separated by three colons; {@code Name:value} replaces the header,
+     * {@code +Name:value} appends it and {@code -Name} removes it.
+     *
+     * @param rulesString The rules.
+     * @return the parsed rules, invalid rules are skipped.
+     */
+    static List<HTTPHeaderRule> getHeaderRules(final String rulesString) {
+        List<HTTPHeaderRule> rules = new ArrayList<>();
+        for (String rulePart : rulesString.split(":::")) {
+            String rule = rulePart.trim();
+            if (rule.startsWith("-") && rule.length() > 1 && rule.indexOf(':') < 0) {
+                rules.add(new HTTPHeaderRule(HTTPHeaderRule.Action.REMOVE, rule.substring(1), null));
+                continue;
+            }
+            HTTPHeaderRule.Action action = HTTPHeaderRule.Action.SET;
+            if (rule.startsWith("+")) {
+                action = HTTPHeaderRule.Action.ADD;
+                rule = rule.substring(1);
+            }
+            int separator = rule.indexOf(':');
+            if (separator > 0 && separator < rule.length() - 1) {
+                rules.add(new HTTPHeaderRule(action, rule.substring(0, separator), rule.substring(separator + 1)));
+            }
+        }
+        return rules;
+    }
+
     static byte[] requestToBytes(final HTTPRequest request) {
         StringBuilder buf = new StringBuilder();
         buf.append(request.method().name()).append(" ").append(request.requestURI()).append(" ").append(request.protocol().getProtocolString()).append("\r\n");
-        for( HTTPHeader header : request.headers() ) {
-            buf.append(header.name()).append(": ").append(String.join(",", header.values())).append("\r\n");
-        }
-        buf.append("\r\n");
+        buf.append(request.headers()).append("\r\n");
         return buf.toString().getBytes();
     }
+
+    /**
+     * Parses the header lines of a message head, the values are kept as received without the surrounding whitespace.
+     * Lines without a colon are skipped.
+     *
+     * @param lines The lines of the head, the first one is the start line.
+     * @param headers The headers to fill.
+     */
+    private static void parseHeaders(final String[] lines, final HTTPHeaders headers) {
+        for( int i = 1; i < lines.length; i++ ) {
+            String line = lines[i];
+            int separator = line.indexOf(':');
+            if( separator > 0 && line.charAt(separator - 1) != ' ' ) {
+                headers.add(new HTTPHeader(HTTPHeaders.name(line, 0, separator), line.substring(separator + 1).trim()));
+            }
+        }
+    }
 }
@@ -6,22 +6,56 @@
  */
 package org.homedns.dpaevd.mimp.impl.http;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Simplified HTTP header for proxy purposes.
+ * <p>
+ * The value is kept as received, it is split only on demand.
  *
  * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
  * @version 2024.1
  * @since 2024.1
  */
-public record HTTPHeader(String name, List<String> values) {
+public record HTTPHeader(String name, String value) {
     public HTTPHeader {
         if (name == null || name.isBlank()) {
             throw new IllegalArgumentException("Invalid header name");
         }
-        if (values == null || values.isEmpty()) {
-            throw new IllegalArgumentException("Invalid header values");
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid header value");
         }
     }
+
+    /**
+     * @param name The name.
+     * @param values The values, joined by commas.
+     */
+    public HTTPHeader(final String name, final List<String> values) {
+        this(name, values == null || values.isEmpty() ? null : String.join(",", values));
+    }
+
+    /**
+     * Splits the value of a list header on the commas outside of quoted strings. Do not use it for headers whose
+     * values contain commas, like {@code Date} or {@code Set-Cookie}.
+     *
+     * @return the trimmed list elements.
+     */
+    public List<String> values() {
+        List<String> elements = new ArrayList<>(4);
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' && (i == 0 || value.charAt(i - 1) != '\\')) {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                elements.add(value.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        elements.add(value.substring(start).trim());
+        return elements;
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * @(#)HTTPHeaderRewriter.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Applies compiled header rules to a raw header block.
+ * <p>
+ * The header block is spliced at byte level: the start line and all untouched header lines are copied as they are,
+ * removed and replaced lines are skipped and the new lines are appended before the empty line closing the block.
+ * No Strings are created while rewriting. Instances are immutable and can be shared between threads.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class HTTPHeaderRewriter {
+
+    /** Rewriter without rules. */
+    public static final HTTPHeaderRewriter EMPTY = new HTTPHeaderRewriter(List.of());
+
+    private static final int MAX_RULES = 64;
+
+    private final HTTPHeaderRule.Action[] actions;
+
+    private final int addedLength;
+
+    private final byte[][] lines;
+
+    private final byte[][] lowerCaseNames;
+
+    private final List<HTTPHeaderRule> rules;
+
+    /**
+     * @param rules The rules in the order their headers are appended.
+     */
+    public HTTPHeaderRewriter(final List<HTTPHeaderRule> rules) {
+        if (rules.size() > MAX_RULES) {
+            throw new IllegalArgumentException("At most " + MAX_RULES + " header rules are supported");
+        }
+        this.rules = List.copyOf(rules);
+        this.actions = new HTTPHeaderRule.Action[rules.size()];
+        this.lines = new byte[rules.size()][];
+        this.lowerCaseNames = new byte[rules.size()][];
+        int added = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            HTTPHeaderRule rule = rules.get(i);
+            actions[i] = rule.action();
+            lowerCaseNames[i] = rule.name().trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+            if (rule.action() != HTTPHeaderRule.Action.REMOVE) {
+                lines[i] = (rule.name().trim() + ": " + rule.value().trim() + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                added += lines[i].length;
+            }
+        }
+        this.addedLength = added;
+    }
+
+    /**
+     * @param rule The rule applied after the rules of this rewriter.
+     * @return a rewriter applying the rules of this rewriter and the rule.
+     */
+    public HTTPHeaderRewriter with(final HTTPHeaderRule rule) {
+        List<HTTPHeaderRule> extended = new ArrayList<>(rules);
+        extended.add(rule);
+        return new HTTPHeaderRewriter(extended);
+    }
+
+    /**
+     * @return the compiled rules.
+     */
+    public List<HTTPHeaderRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * @return true if there are no rules to apply.
+     */
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @param headLength The length of the header block to rewrite.
+     * @return the maximum length of the rewritten header block.
+     */
+    public int maxLength(final int headLength) {
+        return headLength + addedLength;
+    }
+
+    /**
+     * Rewrites a header block.
+     *
+     * @param buffer The buffer containing the message.
+     * @param start The index of the start line.
+     * @param end The index following the empty line closing the header block.
+     * @param target The target array, it must provide at least {@link #maxLength(int)} bytes.
+     * @return the length of the rewritten header block.
+     */
+    public int rewrite(final byte[] buffer, final int start, final int end, final byte[] target) {
+        int pos = 0;
+        int lineStart = start;
+        int lineEnd = lineEnd(buffer, lineStart, end);
+        // start line
+        System.arraycopy(buffer, lineStart, target, pos, lineEnd - lineStart);
+        pos += lineEnd - lineStart;
+        lineStart = lineEnd;
+        while (lineStart < end) {
+            lineEnd = lineEnd(buffer, lineStart, end);
+            if (lineEnd - lineStart <= 2) {
+                // empty line closing the block
+                break;
+            }
+            boolean keep = true;
+            for (int i = 0; i < actions.length; i++) {
+                if (actions[i] != HTTPHeaderRule.Action.ADD && matches(buffer, lineStart, lineEnd, lowerCaseNames[i])) {
+                    keep = false;
+                }
+            }
+            if (keep) {
+                System.arraycopy(buffer, lineStart, target, pos, lineEnd - lineStart);
+                pos += lineEnd - lineStart;
+            }
+            lineStart = lineEnd;
+        }
+        for (int i = 0; i < actions.length; i++) {
+            if (actions[i] != HTTPHeaderRule.Action.REMOVE) {
+                System.arraycopy(lines[i], 0, target, pos, lines[i].length);
+                pos += lines[i].length;
+            }
+        }
+        target[pos++] = '\r';
+        target[pos++] = '\n';
+        return pos;
+    }
+
+    private static int lineEnd(final byte[] buffer, final int from, final int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static boolean matches(final byte[] buffer, final int lineStart, final int lineEnd, final byte[] lowerCaseName) {
+        int length = lowerCaseName.length;
+        if (lineEnd - lineStart <= length || buffer[lineStart + length] != ':') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            int c = buffer[lineStart + i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lowerCaseName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * @(#)HTTPHeaderRule.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+/**
+ * Modification applied to the header block of an HTTP message.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record HTTPHeaderRule(Action action, String name, String value) {
+
+    /**
+     * The supported modifications.
+     */
+    public enum Action {
+        /** Appends the header, existing headers with the same name are kept. */
+        ADD,
+        /** Removes all headers with the name. */
+        REMOVE,
+        /** Replaces all headers with the name by a single header. */
+        SET
+    }
+
+    public HTTPHeaderRule {
+        if (action == null) {
+            throw new IllegalArgumentException("Invalid header rule action");
+        }
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Invalid header name");
+        }
+        if (action != Action.REMOVE && (value == null || value.isBlank())) {
+            throw new IllegalArgumentException("Invalid header value");
+        }
+    }
+}
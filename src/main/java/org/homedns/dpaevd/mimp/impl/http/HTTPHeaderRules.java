@@ -0,0 +1,42 @@
+/*
+ * @(#)HTTPHeaderRules.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.util.List;
+
+/**
+ * The compiled header rules of a channel, swapped as a whole when the configuration is reloaded.
+ *
+ * @param requestHeaders The headers added to or replaced in the requests.
+ * @param responseRewriter The rules applied to the responses.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record HTTPHeaderRules(List<HTTPHeader> requestHeaders, HTTPHeaderRewriter responseRewriter) {
+
+    /** No rules. */
+    public static final HTTPHeaderRules EMPTY = new HTTPHeaderRules(List.of(), HTTPHeaderRewriter.EMPTY);
+
+    public HTTPHeaderRules {
+        requestHeaders = List.copyOf(requestHeaders);
+    }
+
+    /**
+     * Compiles the header rules of a channel.
+     *
+     * @param requestHeadersString The request headers in the format of {@code mimp.proxy.headers}.
+     * @param responseHeadersString The response rules in the format of {@code mimp.proxy.response.headers}.
+     * @return the compiled rules.
+     * @throws IllegalArgumentException if there are too many response rules.
+     */
+    public static HTTPHeaderRules of(final String requestHeadersString, final String responseHeadersString) {
+        return new HTTPHeaderRules(HTTPFunctions.getHeaders(requestHeadersString),
+                new HTTPHeaderRewriter(HTTPFunctions.getHeaderRules(responseHeadersString)));
+    }
+}
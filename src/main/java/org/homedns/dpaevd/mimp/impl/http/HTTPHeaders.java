@@ -0,0 +1,409 @@
+/*
+ * @(#)HTTPHeaders.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Header fields of an HTTP message.
+ * <p>
+ * The fields keep the order and the raw values in which they were received. Names are compared ignoring the case
+ * through a small open addressing index, so lookups and replacements do not scan the fields. Fields with the same name
+ * are chained in their order and values are split only when {@link HTTPHeader#values()} is called, headers like
+ * {@code Date} or {@code Set-Cookie} containing commas are never altered. The well-known names are interned, a name
+ * received in its usual spelling shares one instance. The container is not synchronized.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class HTTPHeaders implements Iterable<HTTPHeader> {
+
+    private static final String[] WELL_KNOWN_NAMES = {
+            "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges", "Age", "Allow",
+            "Authorization", "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding",
+            "Content-Language", "Content-Length", "Content-Location", "Content-Range", "Content-Type", "Cookie", "Date",
+            "DNT", "ETag", "Expect", "Expires", "Forwarded", "From", "Host", "If-Match", "If-Modified-Since",
+            "If-None-Match", "If-Range", "If-Unmodified-Since", "Keep-Alive", "Last-Modified", "Link", "Location",
+            "Max-Forwards", "Origin", "Pragma", "Proxy-Authenticate", "Proxy-Authorization", "Proxy-Connection",
+            "Range", "Referer", "Retry-After", "Sec-Fetch-Dest", "Sec-Fetch-Mode", "Sec-Fetch-Site", "Sec-Fetch-User",
+            "Sec-WebSocket-Accept", "Sec-WebSocket-Key", "Sec-WebSocket-Protocol", "Sec-WebSocket-Version", "Server",
+            "Set-Cookie", "Strict-Transport-Security", "TE", "Trailer", "Transfer-Encoding", "Upgrade",
+            "Upgrade-Insecure-Requests", "User-Agent", "Vary", "Via", "WWW-Authenticate", "X-Forwarded-For",
+            "X-Forwarded-Host", "X-Forwarded-Proto", "X-Real-IP", "X-Request-ID"
+    };
+
+    private static final String[] WELL_KNOWN_TABLE = new String[256];
+
+    static {
+        for (String name : WELL_KNOWN_NAMES) {
+            int slot = hash(name, 0, name.length()) & (WELL_KNOWN_TABLE.length - 1);
+            while (WELL_KNOWN_TABLE[slot] != null) {
+                slot = (slot + 1) & (WELL_KNOWN_TABLE.length - 1);
+            }
+            WELL_KNOWN_TABLE[slot] = name;
+        }
+    }
+
+    private int[] hashes;
+
+    private int[] index;
+
+    private String[] names;
+
+    private int[] next;
+
+    private int size;
+
+    private String[] values;
+
+    public HTTPHeaders() {
+        this(16);
+    }
+
+    /**
+     * @param capacity The expected number of fields.
+     */
+    public HTTPHeaders(final int capacity) {
+        int length = Math.max(4, capacity);
+        this.hashes = new int[length];
+        this.names = new String[length];
+        this.next = new int[length];
+        this.values = new String[length];
+        this.index = new int[tableLength(length)];
+    }
+
+    /**
+     * Returns the shared instance of a well-known header name.
+     *
+     * @param name The characters of the name.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @return the interned name if the characters spell a well-known name exactly, otherwise a new string.
+     */
+    public static String name(final CharSequence name, final int from, final int to) {
+        int slot = hash(name, from, to) & (WELL_KNOWN_TABLE.length - 1);
+        for (String candidate = WELL_KNOWN_TABLE[slot]; candidate != null; candidate = WELL_KNOWN_TABLE[slot]) {
+            if (candidate.length() == to - from && regionMatches(candidate, name, from)) {
+                return candidate;
+            }
+            slot = (slot + 1) & (WELL_KNOWN_TABLE.length - 1);
+        }
+        return name.subSequence(from, to).toString();
+    }
+
+    /**
+     * Appends a field, other fields with the same name are kept.
+     *
+     * @param name The name.
+     * @param value The raw value.
+     */
+    public void add(final String name, final String value) {
+        add(new HTTPHeader(name, value));
+    }
+
+    /**
+     * Appends a field, other fields with the same name are kept.
+     *
+     * @param header The field.
+     */
+    public void add(final HTTPHeader header) {
+        if (size == names.length) {
+            grow();
+        }
+        String name = name(header.name(), 0, header.name().length());
+        int hash = hash(name, 0, name.length());
+        int position = size++;
+        hashes[position] = hash;
+        names[position] = name;
+        values[position] = header.value();
+        next[position] = -1;
+        int first = find(name, hash);
+        if (first < 0) {
+            insert(position);
+        } else {
+            int last = first;
+            while (next[last] >= 0) {
+                last = next[last];
+            }
+            next[last] = position;
+        }
+    }
+
+    /**
+     * @param name The name.
+     * @return true if a field with the name is present.
+     */
+    public boolean contains(final String name) {
+        return find(name, hash(name, 0, name.length())) >= 0;
+    }
+
+    /**
+     * @param name The name.
+     * @return the raw value of the first field with the name or null.
+     */
+    public String get(final String name) {
+        int position = find(name, hash(name, 0, name.length()));
+        return position < 0 ? null : values[position];
+    }
+
+    /**
+     * @param name The name.
+     * @return the raw values of all fields with the name in their order.
+     */
+    public List<String> getAll(final String name) {
+        List<String> all = new ArrayList<>(2);
+        for (int position = find(name, hash(name, 0, name.length())); position >= 0; position = next[position]) {
+            all.add(values[position]);
+        }
+        return all;
+    }
+
+    /**
+     * Combines the fields with the same name as a list would, do not use it for {@code Set-Cookie}.
+     *
+     * @param name The name.
+     * @return the values of all fields with the name joined by commas or null.
+     */
+    public String getCombined(final String name) {
+        int position = find(name, hash(name, 0, name.length()));
+        if (position < 0) {
+            return null;
+        }
+        if (next[position] < 0) {
+            return values[position];
+        }
+        StringBuilder combined = new StringBuilder(values[position]);
+        for (position = next[position]; position >= 0; position = next[position]) {
+            combined.append(", ").append(values[position]);
+        }
+        return combined.toString();
+    }
+
+    /**
+     * Searches a token in the comma separated values of the fields, ignoring the case. Token parameters like
+     * {@code ;q=0.5} are not part of the token.
+     *
+     * @param name The name.
+     * @param token The token.
+     * @return true if one of the fields with the name lists the token.
+     */
+    public boolean hasToken(final String name, final String token) {
+        for (int position = find(name, hash(name, 0, name.length())); position >= 0; position = next[position]) {
+            String value = values[position];
+            int start = 0;
+            while (start <= value.length()) {
+                int end = value.indexOf(',', start);
+                end = end < 0 ? value.length() : end;
+                int parameter = value.indexOf(';', start);
+                int tokenEnd = parameter >= 0 && parameter < end ? parameter : end;
+                int from = start;
+                while (from < tokenEnd && isWhitespace(value.charAt(from))) {
+                    from++;
+                }
+                while (tokenEnd > from && isWhitespace(value.charAt(tokenEnd - 1))) {
+                    tokenEnd--;
+                }
+                if (tokenEnd - from == token.length() && value.regionMatches(true, from, token, 0, token.length())) {
+                    return true;
+                }
+                start = end + 1;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<HTTPHeader> iterator() {
+        return new Iterator<>() {
+
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public HTTPHeader next() {
+                if (position >= size) {
+                    throw new NoSuchElementException();
+                }
+                HTTPHeader header = new HTTPHeader(names[position], values[position]);
+                position++;
+                return header;
+            }
+        };
+    }
+
+    /**
+     * Removes all fields with the name.
+     *
+     * @param name The name.
+     * @return true if a field has been removed.
+     */
+    public boolean remove(final String name) {
+        int position = find(name, hash(name, 0, name.length()));
+        if (position < 0) {
+            return false;
+        }
+        for (; position >= 0; position = next[position]) {
+            names[position] = null;
+        }
+        compact();
+        return true;
+    }
+
+    /**
+     * Replaces the fields with the name by a single field. The field keeps the position of the first replaced one or
+     * is appended.
+     *
+     * @param name The name.
+     * @param value The raw value.
+     */
+    public void set(final String name, final String value) {
+        int position = find(name, hash(name, 0, name.length()));
+        if (position < 0) {
+            add(name, value);
+            return;
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid header value");
+        }
+        values[position] = value;
+        if (next[position] >= 0) {
+            for (int duplicate = next[position]; duplicate >= 0; duplicate = next[duplicate]) {
+                names[duplicate] = null;
+            }
+            compact();
+        }
+    }
+
+    /**
+     * @return the number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Stream<HTTPHeader> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            buf.append(names[i]).append(": ").append(values[i]).append("\r\n");
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Removes the fields without name and rebuilds the index.
+     */
+    private void compact() {
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            if (names[i] != null) {
+                hashes[live] = hashes[i];
+                names[live] = names[i];
+                values[live] = values[i];
+                live++;
+            }
+        }
+        Arrays.fill(names, live, size, null);
+        Arrays.fill(values, live, size, null);
+        size = live;
+        reindex();
+    }
+
+    private int find(final String name, final int hash) {
+        int mask = index.length - 1;
+        for (int slot = hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int position = index[slot] - 1;
+            if (hashes[position] == hash && names[position].equalsIgnoreCase(name)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private void grow() {
+        int length = names.length * 2;
+        hashes = Arrays.copyOf(hashes, length);
+        names = Arrays.copyOf(names, length);
+        next = Arrays.copyOf(next, length);
+        values = Arrays.copyOf(values, length);
+        index = new int[tableLength(length)];
+        reindex();
+    }
+
+    private static int hash(final CharSequence name, final int from, final int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            char c = name.charAt(i);
+            hash = 31 * hash + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private void insert(final int position) {
+        int mask = index.length - 1;
+        int slot = hashes[position] & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean regionMatches(final String name, final CharSequence other, final int from) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != other.charAt(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the index and the chains of the fields with the same name.
+     */
+    private void reindex() {
+        Arrays.fill(index, 0);
+        int[] last = new int[size];
+        for (int i = 0; i < size; i++) {
+            next[i] = -1;
+            int first = find(names[i], hashes[i]);
+            if (first < 0) {
+                insert(i);
+                last[i] = i;
+            } else {
+                next[last[first]] = i;
+                last[first] = i;
+            }
+        }
+    }
+
+    private static int tableLength(final int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+}
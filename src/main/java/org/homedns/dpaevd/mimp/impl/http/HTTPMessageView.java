@@ -0,0 +1,345 @@
+/*
+ * @(#)HTTPMessageView.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Flyweight over the head of an HTTP message held in a byte buffer.
+ * <p>
+ * Wrapping a head only records the offsets of the start line parts and of the header names and values, nothing is
+ * copied or decoded. Lookups compare the bytes, strings are created only by the accessors returning them. A view is
+ * reused for the next head and is not synchronized; the buffer must not change while the view is used.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public abstract class HTTPMessageView {
+
+    private static final int NAME_START = 0;
+
+    private static final int NAME_END = 1;
+
+    private static final int VALUE_START = 2;
+
+    private static final int VALUE_END = 3;
+
+    /** The buffer of the wrapped head. */
+    protected byte[] buffer;
+
+    private int count;
+
+    /** The index after the empty line ending the head. */
+    protected int end;
+
+    private int[] spans;
+
+    /** The index of the first byte of the head. */
+    protected int start;
+
+    protected HTTPMessageView() {
+        this.spans = new int[4 * 16];
+    }
+
+    /**
+     * Wraps the head of a message.
+     *
+     * @param buffer The buffer.
+     * @param from The index of the start line.
+     * @param to The index after the empty line ending the head.
+     * @return false if the start line is invalid, the view must not be used then.
+     */
+    public boolean wrap(final byte[] buffer, final int from, final int to) {
+        this.buffer = buffer;
+        this.start = from;
+        this.end = to;
+        this.count = 0;
+        int lineEnd = lineEnd(from);
+        return lineEnd >= 0 && parseStartLine(from, lineEnd) && parseHeaders(lineEnd);
+    }
+
+    /**
+     * @param name The header name.
+     * @return true if a header with the name (case-insensitive) is present.
+     */
+    public boolean contains(final String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * @return the value of the {@code Content-Length} header or -1 if it is missing or invalid.
+     */
+    public long contentLength() {
+        int i = indexOf("Content-Length");
+        if (i < 0 || spans[4 * i + VALUE_START] == spans[4 * i + VALUE_END]) {
+            return -1;
+        }
+        long length = 0;
+        for (int p = spans[4 * i + VALUE_START]; p < spans[4 * i + VALUE_END]; p++) {
+            int digit = buffer[p] - '0';
+            if (digit < 0 || digit > 9 || length > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            length = length * 10 + digit;
+        }
+        return length;
+    }
+
+    /**
+     * @param name The header name.
+     * @return the decoded value of the first header with the name (case-insensitive) or null.
+     */
+    public String get(final String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : headerValue(i);
+    }
+
+    /**
+     * Searches a token in the comma separated values of the headers, ignoring the case. Token parameters like
+     * {@code ;q=0.5} are not part of the token.
+     *
+     * @param name The header name.
+     * @param token The token.
+     * @return true if one of the headers with the name lists the token.
+     */
+    public boolean hasToken(final String name, final String token) {
+        for (int i = 0; i < count; i++) {
+            if (!nameEquals(i, name)) {
+                continue;
+            }
+            int valueEnd = spans[4 * i + VALUE_END];
+            int p = spans[4 * i + VALUE_START];
+            while (p <= valueEnd) {
+                int elementEnd = p;
+                while (elementEnd < valueEnd && buffer[elementEnd] != ',') {
+                    elementEnd++;
+                }
+                int tokenEnd = p;
+                while (tokenEnd < elementEnd && buffer[tokenEnd] != ';') {
+                    tokenEnd++;
+                }
+                int tokenStart = p;
+                while (tokenStart < tokenEnd && isWhitespace(buffer[tokenStart])) {
+                    tokenStart++;
+                }
+                while (tokenEnd > tokenStart && isWhitespace(buffer[tokenEnd - 1])) {
+                    tokenEnd--;
+                }
+                if (equalsIgnoreCase(tokenStart, tokenEnd, token)) {
+                    return true;
+                }
+                p = elementEnd + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param i The index of the header.
+     * @return the decoded name of the header.
+     */
+    public String headerName(final int i) {
+        return HTTPHeaders.name(new Latin1Sequence(buffer), spans[4 * i + NAME_START], spans[4 * i + NAME_END]);
+    }
+
+    /**
+     * @param i The index of the header.
+     * @return the decoded value of the header without the surrounding whitespace.
+     */
+    public String headerValue(final int i) {
+        return decode(spans[4 * i + VALUE_START], spans[4 * i + VALUE_END]);
+    }
+
+    /**
+     * @param name The header name.
+     * @return the index of the first header with the name (case-insensitive) or -1.
+     */
+    public int indexOf(final String name) {
+        for (int i = 0; i < count; i++) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the length of the head in bytes.
+     */
+    public int length() {
+        return end - start;
+    }
+
+    /**
+     * @return the number of headers.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return a copy of the headers.
+     */
+    public HTTPHeaders toHeaders() {
+        HTTPHeaders headers = new HTTPHeaders(count);
+        for (int i = 0; i < count; i++) {
+            headers.add(new HTTPHeader(headerName(i), headerValue(i)));
+        }
+        return headers;
+    }
+
+    /**
+     * Decodes a span of the buffer, header bytes are ISO-8859-1.
+     */
+    protected String decode(final int from, final int to) {
+        return new String(buffer, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return true if the span equals the string, ignoring the case of ASCII letters.
+     */
+    protected boolean equalsIgnoreCase(final int from, final int to, final String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int a = buffer[from + i];
+            int b = s.charAt(i);
+            if (a != b && (!isLetter(a) || (a | 0x20) != (b | 0x20))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the span equals the string.
+     */
+    protected boolean regionEquals(final int from, final int to, final String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the first space or the line end within the span.
+     */
+    protected int indexOfSpace(final int from, final int to) {
+        int p = from;
+        while (p < to && buffer[p] != ' ') {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Parses the start line.
+     *
+     * @param from The index of the start line.
+     * @param to The index of the line break ending it.
+     * @return false if the start line is invalid.
+     */
+    protected abstract boolean parseStartLine(int from, int to);
+
+    private static boolean isLetter(final int c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static boolean isWhitespace(final byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * @return the index of the CR or LF ending the line or -1 if the line does not end within the head.
+     */
+    private int lineEnd(final int from) {
+        for (int p = from; p < end; p++) {
+            if (buffer[p] == '\n') {
+                return p > from && buffer[p - 1] == '\r' ? p - 1 : p;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(final int i, final String name) {
+        return equalsIgnoreCase(spans[4 * i + NAME_START], spans[4 * i + NAME_END], name);
+    }
+
+    /**
+     * Indexes the header lines following the start line, lines without a name are skipped.
+     */
+    private boolean parseHeaders(final int startLineEnd) {
+        int lineStart = startLineEnd + (buffer[startLineEnd] == '\r' ? 2 : 1);
+        while (lineStart < end) {
+            int lineEnd = lineEnd(lineStart);
+            if (lineEnd < 0) {
+                return false;
+            }
+            if (lineEnd == lineStart) {
+                return true;
+            }
+            int colon = lineStart;
+            while (colon < lineEnd && buffer[colon] != ':') {
+                colon++;
+            }
+            if (colon > lineStart && colon < lineEnd && !isWhitespace(buffer[colon - 1])) {
+                int valueStart = colon + 1;
+                int valueEnd = lineEnd;
+                while (valueStart < valueEnd && isWhitespace(buffer[valueStart])) {
+                    valueStart++;
+                }
+                while (valueEnd > valueStart && isWhitespace(buffer[valueEnd - 1])) {
+                    valueEnd--;
+                }
+                if (4 * count == spans.length) {
+                    spans = Arrays.copyOf(spans, spans.length * 2);
+                }
+                spans[4 * count + NAME_START] = lineStart;
+                spans[4 * count + NAME_END] = colon;
+                spans[4 * count + VALUE_START] = valueStart;
+                spans[4 * count + VALUE_END] = valueEnd;
+                count++;
+            }
+            lineStart = lineEnd + (buffer[lineEnd] == '\r' ? 2 : 1);
+        }
+        return true;
+    }
+
+    /**
+     * Characters of an ISO-8859-1 buffer, used to intern the header names without decoding them first.
+     */
+    private record Latin1Sequence(byte[] bytes) implements CharSequence {
+
+        @Override
+        public char charAt(final int index) {
+            return (char) (bytes[index] & 0xff);
+        }
+
+        @Override
+        public int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
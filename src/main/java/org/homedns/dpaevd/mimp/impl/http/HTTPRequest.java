@@ -6,8 +6,6 @@
  */
 package org.homedns.dpaevd.mimp.impl.http;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Optional;
 
 import org.homedns.dpaevd.mimp.api.network.Protocol;
@@ -19,7 +17,7 @@
  * @version 2024.1
  * @since 2024.1
  */
-public record HTTPRequest(HTTPMethod method, String requestURI, Protocol protocol, List<HTTPHeader> headers) {
+public record HTTPRequest(HTTPMethod method, String requestURI, Protocol protocol, HTTPHeaders headers) {
     public HTTPRequest {
         if (method == null) {
             throw new IllegalArgumentException("Invalid HTTP method");
@@ -31,26 +29,23 @@ public record HTTPRequest(HTTPMethod method, String requestURI, Protocol protoco
              protocol = Protocol.UNKNOWN;
         }
         if (headers == null) {
-            headers = new ArrayList<>();
+            headers = new HTTPHeaders();
         }
     }
 
     public Optional<HTTPHeader> getHeader(String name) {
-        return headers.stream().filter(h -> h.name().equals(name)).findFirst();
+        String value = headers.get(name);
+        return value == null ? Optional.empty() : Optional.of(new HTTPHeader(name, value));
     }
 
     public boolean isKeepAlive() {
-        Optional<HTTPHeader> connectionHeader = getHeader("Connection");
-        return connectionHeader.map(httpHeader -> httpHeader.values().contains("keep-alive")).orElse(false);
+        return headers.hasToken("Connection", "keep-alive");
     }
 
     @Override public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append(method.name()).append(" ").append(requestURI).append(" ").append(protocol).append("\r\n");
-        for (HTTPHeader header : headers) {
-            buf.append(header.name()).append(": ").append(String.join(",", header.values())).append("\r\n");
-        }
-        buf.append("\r\n");
+        buf.append(headers).append("\r\n");
         return buf.toString();
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * @(#)HTTPRequestView.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import org.homedns.dpaevd.mimp.api.network.Protocol;
+
+/**
+ * Flyweight over a request head, see {@link HTTPMessageView}.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class HTTPRequestView extends HTTPMessageView {
+
+    private static final HTTPMethod[] METHODS = HTTPMethod.values();
+
+    private static final Protocol[] PROTOCOLS = Protocol.values();
+
+    private HTTPMethod method;
+
+    private Protocol protocol;
+
+    private int uriEnd;
+
+    private int uriStart;
+
+    /**
+     * @return the method.
+     */
+    public HTTPMethod method() {
+        return method;
+    }
+
+    /**
+     * @return the protocol, {@link Protocol#UNKNOWN} if the version is not supported.
+     */
+    public Protocol protocol() {
+        return protocol;
+    }
+
+    /**
+     * @return the decoded request URI.
+     */
+    public String requestURI() {
+        return decode(uriStart, uriEnd);
+    }
+
+    /**
+     * @return the request as record, the headers are copied.
+     */
+    public HTTPRequest toRequest() {
+        return new HTTPRequest(method, requestURI(), protocol, toHeaders());
+    }
+
+    @Override
+    protected boolean parseStartLine(final int from, final int to) {
+        int methodEnd = indexOfSpace(from, to);
+        method = null;
+        for (HTTPMethod candidate : METHODS) {
+            if (regionEquals(from, methodEnd, candidate.name())) {
+                method = candidate;
+                break;
+            }
+        }
+        uriStart = methodEnd + 1;
+        uriEnd = uriStart >= to ? to : indexOfSpace(uriStart, to);
+        if (method == null || uriEnd <= uriStart || uriEnd >= to) {
+            return false;
+        }
+        protocol = Protocol.UNKNOWN;
+        for (Protocol candidate : PROTOCOLS) {
+            if (candidate != Protocol.UNKNOWN && regionEquals(uriEnd + 1, to, candidate.getProtocolString())) {
+                protocol = candidate;
+                break;
+            }
+        }
+        return true;
+    }
+}
@@ -6,8 +6,6 @@
  */
 package org.homedns.dpaevd.mimp.impl.http;
 
-import java.util.List;
-
 import org.homedns.dpaevd.mimp.api.network.Protocol;
 
 /**
@@ -17,7 +15,7 @@
  * @version 2024.1
  * @since 2024.1
  */
-public record HTTPResponse(Protocol protocol, int statusCode, String reasonPhrase, List<HTTPHeader> headers) {
+public record HTTPResponse(Protocol protocol, int statusCode, String reasonPhrase, HTTPHeaders headers) {
     public HTTPResponse {
         if(protocol == null) {
             protocol = Protocol.UNKNOWN;
@@ -29,21 +27,18 @@ public record HTTPResponse(Protocol protocol, int statusCode, String reasonPhras
             throw new IllegalArgumentException("Invalid HTTP status reasonPhrase");
         }
         if (headers == null) {
-            headers = List.of();
+            headers = new HTTPHeaders();
         }
     }
 
     public boolean isWebSocketUpgrade() {
-        return statusCode == 101 && headers.stream().anyMatch(h -> h.name().equalsIgnoreCase("Upgrade") && h.values().contains("websocket"));
+        return statusCode == 101 && headers.hasToken("Upgrade", "websocket");
     }
 
     @Override public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append("HTTP/1.1 ").append(statusCode).append(" ").append(reasonPhrase).append("\r\n");
-        for (HTTPHeader header : headers) {
-            buf.append(header.name()).append(": ").append(String.join(",", header.values())).append("\r\n");
-        }
-        buf.append("\r\n");
+        buf.append(headers).append("\r\n");
         return buf.toString();
     }
 }
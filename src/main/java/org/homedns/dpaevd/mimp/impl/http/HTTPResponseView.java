@@ -0,0 +1,86 @@
+/*
+ * @(#)HTTPResponseView.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import org.homedns.dpaevd.mimp.api.network.Protocol;
+
+/**
+ * Flyweight over a response head, see {@link HTTPMessageView}.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class HTTPResponseView extends HTTPMessageView {
+
+    private static final Protocol[] PROTOCOLS = Protocol.values();
+
+    private Protocol protocol;
+
+    private int reasonEnd;
+
+    private int reasonStart;
+
+    private int statusCode;
+
+    /**
+     * @return the protocol, {@link Protocol#UNKNOWN} if the version is not supported.
+     */
+    public Protocol protocol() {
+        return protocol;
+    }
+
+    /**
+     * @return the decoded reason phrase, {@code N/A} if it is empty.
+     */
+    public String reasonPhrase() {
+        return reasonEnd > reasonStart ? decode(reasonStart, reasonEnd) : "N/A";
+    }
+
+    /**
+     * @return the status code.
+     */
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the response as record, the headers are copied.
+     */
+    public HTTPResponse toResponse() {
+        return new HTTPResponse(protocol, statusCode, reasonPhrase(), toHeaders());
+    }
+
+    @Override
+    protected boolean parseStartLine(final int from, final int to) {
+        int protocolEnd = indexOfSpace(from, to);
+        if (protocolEnd + 4 > to || (protocolEnd + 4 < to && buffer[protocolEnd + 4] != ' ')) {
+            return false;
+        }
+        statusCode = 0;
+        for (int p = protocolEnd + 1; p < protocolEnd + 4; p++) {
+            int digit = buffer[p] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            statusCode = statusCode * 10 + digit;
+        }
+        if (statusCode < 100 || statusCode > 599) {
+            return false;
+        }
+        protocol = Protocol.UNKNOWN;
+        for (Protocol candidate : PROTOCOLS) {
+            if (candidate != Protocol.UNKNOWN && regionEquals(from, protocolEnd, candidate.getProtocolString())) {
+                protocol = candidate;
+                break;
+            }
+        }
+        reasonStart = Math.min(protocolEnd + 5, to);
+        reasonEnd = to;
+        return true;
+    }
+}
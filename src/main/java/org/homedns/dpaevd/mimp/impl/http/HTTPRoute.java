@@ -0,0 +1,42 @@
+/*
+ * @(#)HTTPRoute.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+/**
+ * Upstream selected for the requests matching a host and a path prefix.
+ *
+ * @param host The lower case host name or {@code *} for any host.
+ * @param pathPrefix The prefix of the request URI, starting with a slash.
+ * @param remoteHostName The upstream host.
+ * @param remoteIpPort The upstream port.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record HTTPRoute(String host, String pathPrefix, String remoteHostName, int remoteIpPort) {
+
+    public HTTPRoute {
+        if (host == null || host.isBlank()) {
+            throw new IllegalArgumentException("Invalid route host");
+        }
+        if (pathPrefix == null || !pathPrefix.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid route path prefix");
+        }
+        if (remoteHostName == null || remoteHostName.isBlank()) {
+            throw new IllegalArgumentException("Invalid route remote host");
+        }
+        if (remoteIpPort <= 0 || remoteIpPort > 65535) {
+            throw new IllegalArgumentException("Invalid route remote port");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + pathPrefix + " -> " + remoteHostName + ":" + remoteIpPort;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * @(#)HTTPRouteTable.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.homedns.dpaevd.mimp.api.util.Alphabet;
+import org.homedns.dpaevd.mimp.api.util.PrefixTrie;
+
+/**
+ * Routes compiled into tries.
+ * <p>
+ * The host is matched exactly (case-insensitive, without port) and selects a path trie, the longest path prefix
+ * ending at a segment boundary wins.
+ * Requests whose host has no matching route are matched against the routes defined for any host ({@code *}).
+ * A lookup walks the host and the request URI once and does not allocate. Tables are immutable.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class HTTPRouteTable {
+
+    /** Table without routes. */
+    public static final HTTPRouteTable EMPTY = new HTTPRouteTable(List.of());
+
+    private static final String SEGMENT_DELIMITERS = "/?";
+
+    private final PrefixTrie<PrefixTrie<HTTPRoute>> hosts;
+
+    private final List<HTTPRoute> routes;
+
+    private final PrefixTrie<HTTPRoute> anyHost;
+
+    /**
+     * @param routes The routes, a later route replaces an earlier one with the same host and path prefix.
+     */
+    public HTTPRouteTable(final List<HTTPRoute> routes) {
+        this.routes = List.copyOf(routes);
+        this.hosts = new PrefixTrie<>(Alphabet.ASCII, true);
+        this.anyHost = new PrefixTrie<>(Alphabet.ASCII);
+        for (HTTPRoute route : routes) {
+            PrefixTrie<HTTPRoute> paths = anyHost;
+            if (!"*".equals(route.host())) {
+                paths = hosts.get(route.host());
+                if (paths == null) {
+                    paths = new PrefixTrie<>(Alphabet.ASCII);
+                    hosts.put(route.host(), paths);
+                }
+            }
+            paths.put(route.pathPrefix(), route);
+        }
+    }
+
+    /**
+     * Parses the routes of a proxy port. Routes are separated by commas, each route has the form
+     * {@code port@host/path=remoteHost:remotePort}; the host can be omitted or {@code *} to match any host and the
+     * path defaults to {@code /}.
+     *
+     * @param routesString The routes of all ports.
+     * @param proxyIpPort The proxy port.
+     * @return the table of the routes of the port.
+     * @throws IllegalArgumentException if a route of the port is invalid.
+     */
+    public static HTTPRouteTable of(final String routesString, final int proxyIpPort) {
+        List<HTTPRoute> routes = new ArrayList<>();
+        for (String routePart : routesString.split(",")) {
+            String route = routePart.trim();
+            int at = route.indexOf('@');
+            int equals = route.indexOf('=');
+            if (route.isEmpty() || at < 0 || equals < at) {
+                continue;
+            }
+            if (!isPort(route.substring(0, at).trim(), proxyIpPort)) {
+                continue;
+            }
+            String match = route.substring(at + 1, equals).trim();
+            String target = route.substring(equals + 1).trim();
+            int slash = match.indexOf('/');
+            String host = slash < 0 ? match : match.substring(0, slash);
+            String path = slash < 0 ? "/" : match.substring(slash);
+            int colon = target.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Invalid route target: " + route);
+            }
+            int remotePort;
+            try {
+                remotePort = Integer.parseInt(target.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid route target: " + route, e);
+            }
+            routes.add(new HTTPRoute(host.isEmpty() ? "*" : host.toLowerCase(Locale.ROOT), path,
+                    target.substring(0, colon), remotePort));
+        }
+        return new HTTPRouteTable(routes);
+    }
+
+    /**
+     * @return the routes.
+     */
+    public List<HTTPRoute> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * @return true if there are no routes.
+     */
+    public boolean isEmpty() {
+        return routes.isEmpty();
+    }
+
+    /**
+     * Matches a request. Path prefixes match whole segments: {@code /users} matches {@code /users},
+     * {@code /users/1} and {@code /users?id=1} but not {@code /users-admin}.
+     *
+     * @param host The value of the {@code Host} header, the port is ignored, or null.
+     * @param requestURI The request URI.
+     * @return the matching route or null for the default upstream of the channel.
+     */
+    public HTTPRoute match(final String host, final String requestURI) {
+        HTTPRoute route = null;
+        if (host != null) {
+            // the port follows the last colon, unless the colon is part of an IPv6 literal
+            int colon = host.lastIndexOf(':');
+            int end = colon > host.lastIndexOf(']') ? colon : host.length();
+            PrefixTrie<HTTPRoute> paths = hosts.get(host, 0, end);
+            if (paths != null) {
+                route = paths.longestPrefixValue(requestURI, 0, requestURI.length(), SEGMENT_DELIMITERS);
+            }
+        }
+        return route != null ? route : anyHost.longestPrefixValue(requestURI, 0, requestURI.length(), SEGMENT_DELIMITERS);
+    }
+
+    private static boolean isPort(final String text, final int proxyIpPort) {
+        // anything else than a short run of digits is no port number and cannot match
+        if (text.isEmpty() || text.length() > 9 || !text.chars().allMatch(Character::isDigit)) {
+            return false;
+        }
+        return Integer.parseInt(text) == proxyIpPort;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * @(#)HTTPStub.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Canned response returned by the proxy for the matching requests.
+ *
+ * @param name The name of the stub.
+ * @param method The method to match or null for any method.
+ * @param path The pattern matching the request URI.
+ * @param headers The patterns matching the request headers by lower case name.
+ * @param response The encoded response.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record HTTPStub(String name, HTTPMethod method, Pattern path, Map<String, Pattern> headers, byte[] response) {
+
+    public HTTPStub {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Invalid stub name");
+        }
+        if (path == null) {
+            throw new IllegalArgumentException("Invalid stub path");
+        }
+        if (response == null || response.length == 0) {
+            throw new IllegalArgumentException("Invalid stub response");
+        }
+        headers = headers == null ? Map.of() : Map.copyOf(headers);
+    }
+
+    /**
+     * @param request The request.
+     * @return true if the method, the request URI and all header conditions match.
+     */
+    public boolean matches(final HTTPRequest request) {
+        if (method != null && method != request.method()) {
+            return false;
+        }
+        if (!path.matcher(request.requestURI()).matches()) {
+            return false;
+        }
+        for (Map.Entry<String, Pattern> condition : headers.entrySet()) {
+            String value = request.headers().getCombined(condition.getKey());
+            if (value == null || !condition.getValue().matcher(value).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
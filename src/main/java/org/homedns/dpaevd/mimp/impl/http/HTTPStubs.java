@@ -0,0 +1,197 @@
+/*
+ * @(#)HTTPStubs.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Ordered set of stubs.
+ * <p>
+ * Stubs are defined in a properties file, each property is prefixed by {@code stub.<name>.}:
+ * <pre>
+ * stub.health.method=GET
+ * stub.health.path=/actuator/health*
+ * stub.health.header.Accept=*json*
+ * stub.health.status=200
+ * stub.health.headers=Content-Type:application/json:::Cache-Control:no-store
+ * stub.health.body={"status":"UP"}
+ * </pre>
+ * The path and the header conditions are globs ({@code *} matches any sequence), a leading {@code ~} makes them
+ * regular expressions. The body is taken from {@code body} or from the file named by {@code body.file}, relative
+ * to the stubs file. {@code Content-Length} is added unless defined. Stubs are tried in the order of their names.
+ * The responses are encoded once while loading.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class HTTPStubs {
+
+    /** No stubs. */
+    public static final HTTPStubs EMPTY = new HTTPStubs(List.of());
+
+    private static final String PREFIX = "stub.";
+
+    private static final Map<Integer, String> REASONS = Map.ofEntries(
+            Map.entry(200, "OK"), Map.entry(201, "Created"), Map.entry(202, "Accepted"), Map.entry(204, "No Content"),
+            Map.entry(301, "Moved Permanently"), Map.entry(302, "Found"), Map.entry(304, "Not Modified"),
+            Map.entry(400, "Bad Request"), Map.entry(401, "Unauthorized"), Map.entry(403, "Forbidden"),
+            Map.entry(404, "Not Found"), Map.entry(409, "Conflict"), Map.entry(429, "Too Many Requests"),
+            Map.entry(500, "Internal Server Error"), Map.entry(502, "Bad Gateway"), Map.entry(503, "Service Unavailable"),
+            Map.entry(504, "Gateway Timeout"));
+
+    private final List<HTTPStub> stubs;
+
+    /**
+     * @param stubs The stubs in matching order.
+     */
+    public HTTPStubs(final List<HTTPStub> stubs) {
+        this.stubs = List.copyOf(stubs);
+    }
+
+    /**
+     * Loads the stubs file.
+     *
+     * @param file The stubs file.
+     * @return the stubs.
+     * @throws IOException if the stubs file or a body file cannot be read.
+     */
+    public static HTTPStubs load(final Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return of(properties, file.toAbsolutePath().getParent());
+    }
+
+    /**
+     * @param properties The stub definitions.
+     * @param baseDirectory The directory used to resolve the body files.
+     * @return the stubs.
+     * @throws IOException if a body file cannot be read.
+     */
+    public static HTTPStubs of(final Properties properties, final Path baseDirectory) throws IOException {
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PREFIX) && key.indexOf('.', PREFIX.length()) > 0) {
+                names.add(key.substring(PREFIX.length(), key.indexOf('.', PREFIX.length())));
+            }
+        }
+        List<HTTPStub> stubs = new ArrayList<>();
+        for (String name : names) {
+            String prefix = PREFIX + name + ".";
+            String method = properties.getProperty(prefix + "method", "").trim();
+            Map<String, Pattern> headers = new HashMap<>();
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(prefix + "header.")) {
+                    headers.put(key.substring(prefix.length() + 7).toLowerCase(Locale.ROOT), pattern(properties.getProperty(key).trim()));
+                }
+            }
+            byte[] body;
+            String bodyFile = properties.getProperty(prefix + "body.file");
+            if (bodyFile != null) {
+                body = Files.readAllBytes(baseDirectory == null ? Path.of(bodyFile.trim()) : baseDirectory.resolve(bodyFile.trim()));
+            } else {
+                body = properties.getProperty(prefix + "body", "").getBytes(StandardCharsets.UTF_8);
+            }
+            int status = Integer.parseInt(properties.getProperty(prefix + "status", "200").trim());
+            stubs.add(new HTTPStub(name,
+                    method.isEmpty() || "*".equals(method) ? null : HTTPMethod.valueOf(method.toUpperCase(Locale.ROOT)),
+                    pattern(properties.getProperty(prefix + "path", "*").trim()),
+                    headers,
+                    encode(status, properties.getProperty(prefix + "reason"), HTTPFunctions.getHeaderRules(properties.getProperty(prefix + "headers", "")), body)));
+        }
+        return new HTTPStubs(stubs);
+    }
+
+    /**
+     * Encodes a complete HTTP/1.1 response.
+     *
+     * @param status The status code.
+     * @param reason The reason phrase or null for the standard one.
+     * @param headers The headers, only the names and values of the rules are used.
+     * @param body The body.
+     * @return the response bytes.
+     */
+    static byte[] encode(final int status, final String reason, final List<HTTPHeaderRule> headers, final byte[] body) {
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(status).append(' ')
+                .append(reason != null && !reason.isBlank() ? reason.trim() : REASONS.getOrDefault(status, "Stub")).append("\r\n");
+        boolean contentLength = false;
+        for (HTTPHeaderRule header : headers) {
+            if (header.action() != HTTPHeaderRule.Action.REMOVE) {
+                head.append(header.name().trim()).append(": ").append(header.value().trim()).append("\r\n");
+                contentLength |= header.name().trim().equalsIgnoreCase("Content-Length");
+            }
+        }
+        if (!contentLength) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        ByteArrayOutputStream response = new ByteArrayOutputStream(head.length() + body.length);
+        response.writeBytes(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        response.writeBytes(body);
+        return response.toByteArray();
+    }
+
+    private static Pattern pattern(final String expression) {
+        if (expression.startsWith("~")) {
+            return Pattern.compile(expression.substring(1));
+        }
+        StringBuilder regex = new StringBuilder();
+        String[] parts = expression.split("\\*", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            if (!parts[i].isEmpty()) {
+                regex.append(Pattern.quote(parts[i]));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * @return the stubs in matching order.
+     */
+    public List<HTTPStub> getStubs() {
+        return stubs;
+    }
+
+    /**
+     * @return true if there are no stubs.
+     */
+    public boolean isEmpty() {
+        return stubs.isEmpty();
+    }
+
+    /**
+     * @param request The request.
+     * @return the first matching stub or null.
+     */
+    public HTTPStub match(final HTTPRequest request) {
+        for (HTTPStub stub : stubs) {
+            if (stub.matches(request)) {
+                return stub;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * @(#)MIMPAdmissionControl.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control of the connections accepted by a channel.
+ * <p>
+ * A connection is admitted while the channel and its client address are below their connection caps and while the
+ * client address conforms to its rate of new connections. The rates are kept in a fixed number of token buckets
+ * selected by the hash of the client address, so the memory does not grow with the number of clients and a client
+ * address costs no allocation; clients sharing a stripe share its rate. The connection counts per address are kept
+ * exactly and removed with the last connection of the address.
+ * <p>
+ * A connection over the limits is closed at once, queued until it fits the limits or answered with
+ * {@code 429 Too Many Requests} on HTTP channels. The queue is bounded in length and in waiting time.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPAdmissionControl {
+
+    /** The number of rate buckets, a power of two. */
+    public static final int STRIPES = 256;
+
+    private static final long DEFAULT_QUEUE_TIMEOUT_MILLIS = 5000;
+
+    private static final int DEFAULT_QUEUE_SIZE = 100;
+
+    private static final long REQUEST_DRAIN_TIMEOUT_MILLIS = 100;
+
+    private final AtomicInteger active;
+
+    private final LongAdder admitted;
+
+    private final Map<InetAddress, Integer> clients;
+
+    private final LongAdder connectionLimited;
+
+    private final Limits limits;
+
+    private final LongAdder queued;
+
+    private final LongAdder queueTimeouts;
+
+    private final LongAdder rateLimited;
+
+    private final LongAdder rejected;
+
+    private long releases;
+
+    private final MIMPTokenBucket[] stripes;
+
+    private final AtomicInteger waiting;
+
+    /**
+     * @param limits The limits of the channel.
+     * @param metrics The metrics of the channel.
+     */
+    public MIMPAdmissionControl(final Limits limits, final MIMPChannelMetrics metrics) {
+        this.limits = limits;
+        this.active = new AtomicInteger();
+        this.waiting = new AtomicInteger();
+        this.clients = new ConcurrentHashMap<>();
+        this.stripes = limits.clientRate() > 0 ? new MIMPTokenBucket[STRIPES] : null;
+        if (stripes != null) {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new MIMPTokenBucket(limits.clientRate(), limits.clientBurst());
+            }
+        }
+        this.admitted = metrics.counter("admission.admitted");
+        this.connectionLimited = metrics.counter("admission.limited.connections");
+        this.rateLimited = metrics.counter("admission.limited.rate");
+        this.queued = metrics.counter("admission.queued");
+        this.queueTimeouts = metrics.counter("admission.queue.timeouts");
+        this.rejected = metrics.counter("admission.rejected");
+        metrics.gauge("admission.active", active::get);
+        metrics.gauge("admission.clients", clients::size);
+        metrics.gauge("admission.waiting", waiting::get);
+    }
+
+    /**
+     * Parses the admission limits of a proxy port. Channels are separated by commas, each channel has the form
+     * {@code port@setting=value;setting=value}. The settings are {@code connections}, the cap of the channel,
+     * {@code client.connections}, the cap per client address, {@code client.rate} and {@code client.burst}, the new
+     * connections per second and at once of a client address, {@code mode}, one of {@code reject}, {@code queue} or
+     * {@code 429}, and {@code queue.size} and {@code queue.timeout} in milliseconds for the queue mode.
+     *
+     * @param admissionString The admission limits of all ports.
+     * @param proxyIpPort The proxy port.
+     * @param metrics The metrics of the channel.
+     * @return the admission control of the port or null if the port is not limited.
+     * @throws IllegalArgumentException if a setting of the port is invalid.
+     */
+    public static MIMPAdmissionControl of(final String admissionString, final int proxyIpPort, final MIMPChannelMetrics metrics) {
+        int connections = 0;
+        int clientConnections = 0;
+        long clientRate = 0;
+        long clientBurst = 0;
+        Mode mode = Mode.REJECT;
+        int queueSize = DEFAULT_QUEUE_SIZE;
+        long queueTimeoutMillis = DEFAULT_QUEUE_TIMEOUT_MILLIS;
+        boolean limited = false;
+        for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(admissionString, proxyIpPort, "admission")) {
+            switch (setting.name()) {
+                case "connections" -> connections = setting.intValue();
+                case "client.connections" -> clientConnections = setting.intValue();
+                case "client.rate" -> clientRate = setting.longValue();
+                case "client.burst" -> clientBurst = setting.longValue();
+                case "mode" -> mode = setting.as(Mode::of);
+                case "queue.size" -> queueSize = setting.intValue();
+                case "queue.timeout" -> queueTimeoutMillis = setting.longValue();
+                default -> throw setting.invalid();
+            }
+            limited = true;
+        }
+        if (connections < 0 || clientConnections < 0 || clientRate < 0 || clientBurst < 0 || queueSize < 0 || queueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Negative admission limit for port " + proxyIpPort);
+        }
+        return limited ? new MIMPAdmissionControl(new Limits(connections, clientConnections, clientRate,
+                clientBurst == 0 ? Math.max(1, clientRate) : clientBurst, mode, queueSize,
+                TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis)), metrics) : null;
+    }
+
+    /**
+     * Admits a connection if it fits the limits, an admitted connection must be released.
+     *
+     * @param client The client address.
+     * @param now The current {@link System#nanoTime()}.
+     * @return the result, nothing has been taken unless the connection has been admitted.
+     */
+    public Result admit(final InetAddress client, final long now) {
+        Result result = tryAdmit(client, now);
+        switch (result) {
+            case CONNECTION_LIMITED -> connectionLimited.increment();
+            case RATE_LIMITED -> rateLimited.increment();
+            default -> admitted.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Waits until a connection fits the limits, used by the queue mode.
+     *
+     * @param client The client address.
+     * @return true if the connection has been admitted, false if the queue is full or the wait timed out.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public boolean await(final InetAddress client) throws InterruptedException {
+        if (waiting.incrementAndGet() > limits.queueSize()) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        queued.increment();
+        try {
+            long deadline = System.nanoTime() + limits.queueTimeoutNanos();
+            long retryNanos = limits.clientRate() > 0 ? TimeUnit.SECONDS.toNanos(1) / limits.clientRate() : Long.MAX_VALUE;
+            while (true) {
+                long version;
+                synchronized (this) {
+                    version = releases;
+                }
+                long now = System.nanoTime();
+                Result result = tryAdmit(client, now);
+                if (result == Result.ADMITTED) {
+                    admitted.increment();
+                    return true;
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    queueTimeouts.increment();
+                    return false;
+                }
+                long wait = result == Result.RATE_LIMITED ? Math.max(1, Math.min(remaining, retryNanos)) : remaining;
+                synchronized (this) {
+                    if (version == releases) {
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                    }
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public Limits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Refuses a connection according to the mode, a queued connection is refused after waiting in vain.
+     *
+     * @param socket The socket of the connection.
+     * @param result The reason of the refusal.
+     */
+    public void refuse(final Socket socket, final Result result) {
+        rejected.increment();
+        if (limits.mode() == Mode.TOO_MANY_REQUESTS) {
+            long retryAfter = result == Result.RATE_LIMITED && limits.clientRate() > 0
+                    ? Math.max(1, (limits.clientBurst() + limits.clientRate() - 1) / limits.clientRate()) : 1;
+            answer(socket, "429 Too Many Requests", retryAfter);
+        } else {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // the client is gone
+            }
+        }
+    }
+
+    /**
+     * Answers the request of a connection with an empty response and closes the connection. The answer is written
+     * without waiting for the request, the request head is then drained for a short while because a close with unread
+     * data would reset the connection and lose the answer.
+     *
+     * @param socket The connection.
+     * @param status The status code and reason phrase.
+     * @param retryAfter The seconds after which the client may retry, 0 for none.
+     */
+    static void answer(final Socket socket, final String status, final long retryAfter) {
+        try (socket) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 " + status + (retryAfter > 0 ? "\r\nRetry-After: " + retryAfter : "")
+                    + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            socket.shutdownOutput();
+            socket.setSoTimeout((int) REQUEST_DRAIN_TIMEOUT_MILLIS);
+            skipRequestHead(socket.getInputStream());
+        } catch (IOException ioe) {
+            // the client is gone, nothing to answer
+        }
+    }
+
+    /**
+     * Releases an admitted connection and wakes up the queued ones.
+     *
+     * @param client The client address.
+     */
+    public void release(final InetAddress client) {
+        releaseClient(client);
+        active.decrementAndGet();
+        if (waiting.get() > 0) {
+            synchronized (this) {
+                releases++;
+                notifyAll();
+            }
+        }
+    }
+
+    private void releaseChannel() {
+        if (limits.connections() > 0) {
+            active.decrementAndGet();
+        }
+    }
+
+    private void releaseClient(final InetAddress client) {
+        if (limits.clientConnections() > 0) {
+            clients.computeIfPresent(client, (address, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private static void skipRequestHead(final InputStream in) throws IOException {
+        int matched = 0;
+        int read;
+        while (matched < 4 && (read = in.read()) >= 0) {
+            matched = read == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : read == '\r' ? 1 : 0;
+        }
+    }
+
+    private static int stripe(final InetAddress client) {
+        return (client.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES));
+    }
+
+    private Result tryAdmit(final InetAddress client, final long now) {
+        if (limits.connections() > 0 && active.incrementAndGet() > limits.connections()) {
+            active.decrementAndGet();
+            return Result.CONNECTION_LIMITED;
+        }
+        if (limits.clientConnections() > 0) {
+            boolean[] fits = new boolean[1];
+            clients.compute(client, (address, count) -> {
+                int connections = count == null ? 0 : count;
+                fits[0] = connections < limits.clientConnections();
+                return fits[0] ? connections + 1 : count;
+            });
+            if (!fits[0]) {
+                releaseChannel();
+                return Result.CONNECTION_LIMITED;
+            }
+        }
+        if (stripes != null && !stripes[stripe(client)].tryAcquire(1, now)) {
+            releaseClient(client);
+            releaseChannel();
+            return Result.RATE_LIMITED;
+        }
+        if (limits.connections() == 0) {
+            active.incrementAndGet();
+        }
+        return Result.ADMITTED;
+    }
+
+    /**
+     * Limits of a channel.
+     *
+     * @param connections The cap of the channel, 0 if unlimited.
+     * @param clientConnections The cap per client address, 0 if unlimited.
+     * @param clientRate The new connections per second per client address, 0 if unlimited.
+     * @param clientBurst The new connections at once per client address after an idle period.
+     * @param mode What happens to a connection over the limits.
+     * @param queueSize The maximal number of queued connections.
+     * @param queueTimeoutNanos The maximal waiting time of a queued connection.
+     */
+    public record Limits(int connections, int clientConnections, long clientRate, long clientBurst, Mode mode,
+                         int queueSize, long queueTimeoutNanos) {
+    }
+
+    /**
+     * What happens to a connection over the limits.
+     */
+    public enum Mode {
+
+        /** The connection is closed. */
+        REJECT,
+
+        /** The connection waits until it fits the limits. */
+        QUEUE,
+
+        /** The request is answered with {@code 429 Too Many Requests}. */
+        TOO_MANY_REQUESTS;
+
+        static Mode of(final String value) {
+            return switch (value.toLowerCase(Locale.ROOT)) {
+                case "reject" -> REJECT;
+                case "queue" -> QUEUE;
+                case "429" -> TOO_MANY_REQUESTS;
+                default -> throw new IllegalArgumentException("Invalid admission mode: " + value);
+            };
+        }
+    }
+
+    /**
+     * Result of an admission.
+     */
+    public enum Result {
+
+        /** The connection fits the limits. */
+        ADMITTED,
+
+        /** The channel or the client address has reached its connection cap. */
+        CONNECTION_LIMITED,
+
+        /** The client address opens connections faster than its rate. */
+        RATE_LIMITED
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * @(#)MIMPBufferArena.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The arena of the relay buffers of all channels, with a global byte budget.
+ * <p>
+ * Buffers are handed out in power of two size classes and given back after use; given back buffers are kept per
+ * class, up to a quarter of the budget, and reused before new ones are created. The leased and the kept buffers
+ * together never exceed the budget: kept buffers of other classes are dropped to make room and, once the leased
+ * buffers alone fill the budget, an allocation waits until a buffer is given back. A relay waiting for a buffer does
+ * not read, so the sender is slowed down by the flow control of TCP instead of the proxy running out of memory.
+ * <p>
+ * Each channel allocates through its {@link Account}, which counts the bytes the channel holds, optionally caps them
+ * and decides what happens to new connections while the memory is exhausted.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPBufferArena {
+
+    /** The smallest size class, 512 bytes. */
+    private static final int MIN_CLASS_SHIFT = 9;
+
+    /** The largest size class, 1 MB; larger buffers are counted but not kept. */
+    private static final int MAX_CLASS_SHIFT = 20;
+
+    /** The share of the budget kept in given back buffers. */
+    private static final int POOLED_SHARE = 4;
+
+    private long budget;
+
+    private final List<ArrayDeque<byte[]>> free;
+
+    private long leased;
+
+    private long peak;
+
+    private long pooled;
+
+    private int waiting;
+
+    /**
+     * @param budget The bytes of all leased and kept buffers.
+     * @throws IllegalArgumentException if the budget is not positive.
+     */
+    public MIMPBufferArena(final long budget) {
+        this.budget = checkBudget(budget);
+        this.free = new ArrayList<>(MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1);
+        for (int shift = MIN_CLASS_SHIFT; shift <= MAX_CLASS_SHIFT; shift++) {
+            free.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * @return the arena shared by all channels of the process, created on first use with a quarter of the heap.
+     */
+    public static MIMPBufferArena shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * @return the bytes of all leased and kept buffers.
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the share of the kept buffers in the memory of the arena, in per mille.
+     */
+    public synchronized long getFragmentation() {
+        return leased + pooled == 0 ? 0 : 1000 * pooled / (leased + pooled);
+    }
+
+    /**
+     * @return the bytes of the leased buffers.
+     */
+    public synchronized long getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return the highest number of leased bytes.
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return the bytes of the kept buffers.
+     */
+    public synchronized long getPooled() {
+        return pooled;
+    }
+
+    /**
+     * @return true if the leased buffers fill the budget.
+     */
+    public synchronized boolean isExhausted() {
+        return leased >= budget;
+    }
+
+    /**
+     * Opens the account of a channel, the arena metrics are published to the channel too.
+     *
+     * @param settings The memory settings of the channel.
+     * @param metrics The metrics of the channel.
+     * @return the account.
+     */
+    public Account register(final Settings settings, final MIMPChannelMetrics metrics) {
+        metrics.gauge("arena.budget", this::getBudget);
+        metrics.gauge("arena.used", this::getLeased);
+        metrics.gauge("arena.peak", this::getPeak);
+        metrics.gauge("arena.pooled", this::getPooled);
+        metrics.gauge("arena.fragmentation.permille", this::getFragmentation);
+        return new Account(this, settings, metrics);
+    }
+
+    /**
+     * Changes the budget, buffers over a lower budget are dropped as they are given back.
+     *
+     * @param budget The new budget.
+     */
+    public synchronized void setBudget(final long budget) {
+        this.budget = checkBudget(budget);
+        trim(leased);
+        notifyAll();
+    }
+
+    /**
+     * Leases a buffer, waiting for memory if the arena or the account is full.
+     *
+     * @param account The account of the channel.
+     * @param size The smallest size of the buffer.
+     * @param waitNanos The time to wait for memory.
+     * @return the buffer, its length is the size of its class, or null if no memory was given back in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private byte[] allocate(final Account account, final int size, final long waitNanos) throws InterruptedException {
+        final int shift = classShift(size);
+        final int length = shift > MAX_CLASS_SHIFT ? size : 1 << shift;
+        final ArrayDeque<byte[]> kept = shift > MAX_CLASS_SHIFT ? null : free.get(shift - MIN_CLASS_SHIFT);
+        byte[] buffer;
+        synchronized (this) {
+            long deadline = System.nanoTime() + waitNanos;
+            boolean counted = false;
+            while (!fits(account, length, kept)) {
+                if (!counted) {
+                    account.waits.increment();
+                    counted = true;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    account.timeouts.increment();
+                    return null;
+                }
+                waiting++;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } finally {
+                    waiting--;
+                }
+            }
+            buffer = kept == null ? null : kept.pollFirst();
+            if (buffer != null) {
+                pooled -= length;
+            }
+            leased += length;
+            peak = Math.max(peak, leased);
+            account.used += length;
+            account.peak = Math.max(account.peak, account.used);
+        }
+        // a new buffer is created outside of the lock, its memory is already reserved
+        return buffer != null ? buffer : new byte[length];
+    }
+
+    /**
+     * Gives a leased buffer back.
+     *
+     * @param account The account of the channel.
+     * @param buffer The buffer.
+     */
+    private synchronized void release(final Account account, final byte[] buffer) {
+        leased -= buffer.length;
+        account.used -= buffer.length;
+        int shift = classShift(buffer.length);
+        if (shift <= MAX_CLASS_SHIFT && buffer.length == 1 << shift && leased + pooled + buffer.length <= budget
+                && pooled + buffer.length <= budget / POOLED_SHARE) {
+            free.get(shift - MIN_CLASS_SHIFT).offerFirst(buffer);
+            pooled += buffer.length;
+        }
+        if (waiting > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return true if a buffer of the length can be leased, kept buffers of other classes are dropped to make room.
+     */
+    private boolean fits(final Account account, final int length, final ArrayDeque<byte[]> kept) {
+        if (account.settings.limit() > 0 && account.used + length > account.settings.limit()) {
+            return false;
+        }
+        if (kept != null && !kept.isEmpty()) {
+            return true;
+        }
+        if (leased + pooled + length > budget) {
+            trim(leased + length);
+        }
+        return leased + pooled + length <= budget;
+    }
+
+    /**
+     * Drops kept buffers, the largest first, until the memory of the arena leaves room for a number of bytes.
+     */
+    private void trim(final long needed) {
+        for (int i = free.size() - 1; i >= 0 && pooled + needed > budget; i--) {
+            ArrayDeque<byte[]> kept = free.get(i);
+            for (byte[] buffer = kept.pollFirst(); buffer != null; buffer = kept.pollFirst()) {
+                pooled -= buffer.length;
+                if (pooled + needed <= budget) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int classShift(final int size) {
+        return Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+    }
+
+    private static long checkBudget(final long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Invalid buffer arena budget: " + budget);
+        }
+        return budget;
+    }
+
+    /**
+     * The buffers a channel holds in the arena. Publishes {@code memory.used}, {@code memory.peak},
+     * {@code memory.waits} and {@code memory.timeouts} to the metrics of the channel.
+     */
+    public static final class Account {
+
+        private final MIMPBufferArena arena;
+
+        private long peak;
+
+        private final Settings settings;
+
+        private final LongAdder timeouts;
+
+        private long used;
+
+        private final LongAdder waits;
+
+        private Account(final MIMPBufferArena arena, final Settings settings, final MIMPChannelMetrics metrics) {
+            this.arena = arena;
+            this.settings = settings;
+            this.waits = metrics.counter("memory.waits");
+            this.timeouts = metrics.counter("memory.timeouts");
+            metrics.gauge("memory.used", this::getUsed);
+            metrics.gauge("memory.peak", this::getPeak);
+        }
+
+        /**
+         * Leases a buffer, waiting up to the wait time of the channel for memory.
+         *
+         * @param size The smallest size of the buffer.
+         * @return the buffer, it may be longer than the size, or null if no memory was given back in time.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public byte[] allocate(final int size) throws InterruptedException {
+            return arena.allocate(this, size, settings.waitNanos());
+        }
+
+        /**
+         * @return the highest number of bytes held by the channel.
+         */
+        public long getPeak() {
+            synchronized (arena) {
+                return peak;
+            }
+        }
+
+        /**
+         * @return the memory settings of the channel.
+         */
+        public Settings getSettings() {
+            return settings;
+        }
+
+        /**
+         * @return the bytes held by the channel.
+         */
+        public long getUsed() {
+            synchronized (arena) {
+                return used;
+            }
+        }
+
+        /**
+         * @return true if the arena or the limit of the channel is full.
+         */
+        public boolean isExhausted() {
+            synchronized (arena) {
+                return arena.isExhausted() || settings.limit() > 0 && used >= settings.limit();
+            }
+        }
+
+        /**
+         * Gives a leased buffer back.
+         *
+         * @param buffer The buffer returned by {@link #allocate(int)}.
+         */
+        public void release(final byte[] buffer) {
+            arena.release(this, buffer);
+        }
+    }
+
+    /**
+     * What a channel does with new connections while the memory is exhausted, the reads of the open connections wait
+     * in both cases.
+     */
+    public enum Policy {
+
+        /** New connections are accepted, their reads wait for memory like the others. */
+        PAUSE,
+
+        /** New connections are answered with {@code 503 Service Unavailable}. */
+        REJECT
+    }
+
+    /**
+     * The memory settings of a proxy channel.
+     *
+     * @param policy What happens to new connections while the memory is exhausted.
+     * @param limit The bytes the channel may hold, 0 for the budget of the arena.
+     * @param waitNanos The time a read waits for memory before its connection is closed.
+     */
+    public record Settings(Policy policy, long limit, long waitNanos) {
+
+        /** The settings of a channel without memory settings. */
+        public static final Settings DEFAULT = new Settings(Policy.PAUSE, 0, TimeUnit.SECONDS.toNanos(30));
+
+        public Settings {
+            if (limit < 0 || waitNanos < 0) {
+                throw new IllegalArgumentException("Invalid memory settings: limit " + limit + ", wait "
+                        + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+            }
+        }
+
+        /**
+         * Parses the memory settings of a proxy port. Channels are separated by commas, each channel has the form
+         * {@code port@setting=value;setting=value}. The settings are {@code policy} ({@code pause} or
+         * {@code reject}), {@code limit} in bytes and {@code wait} in milliseconds.
+         *
+         * @param memoryString The memory settings of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the settings of the port, {@link #DEFAULT} if the port has none.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Settings of(final String memoryString, final int proxyIpPort) {
+            Policy policy = DEFAULT.policy();
+            long limit = DEFAULT.limit();
+            long waitMillis = TimeUnit.NANOSECONDS.toMillis(DEFAULT.waitNanos());
+            for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(memoryString, proxyIpPort, "memory")) {
+                switch (setting.name()) {
+                    case "policy" -> policy = setting.as(value -> Policy.valueOf(value.toUpperCase(Locale.ROOT)));
+                    case "limit" -> limit = setting.longValue();
+                    case "wait" -> waitMillis = setting.longValue();
+                    default -> throw setting.invalid();
+                }
+            }
+            return new Settings(policy, limit, TimeUnit.MILLISECONDS.toNanos(waitMillis));
+        }
+    }
+
+    /**
+     * The arena shared by all channels, created on first use.
+     */
+    private static final class Shared {
+
+        private static final MIMPBufferArena INSTANCE = new MIMPBufferArena(Runtime.getRuntime().maxMemory() / 4);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * @(#)MIMPChannelContext.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.homedns.dpaevd.mimp.impl.cache.MIMPResponseCache;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRewriter;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRule;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRules;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRouteTable;
+import org.homedns.dpaevd.mimp.impl.http.HTTPStubs;
+
+/**
+ * State shared by the handlers of a proxy channel.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPChannelContext {
+
+    private static final HTTPHeaderRule CONNECTION_CLOSE = new HTTPHeaderRule(HTTPHeaderRule.Action.SET, "Connection", "close");
+
+    private final MIMPAdmissionControl admission;
+
+    private volatile HTTPHeaderRewriter drainRewriter;
+
+    private volatile HTTPHeaderRules headerRules;
+
+    private volatile MIMPBufferArena.Account memory;
+
+    private final MIMPChannelMetrics metrics;
+
+    private final MIMPRemoteConnector remoteConnector;
+
+    private final MIMPResponseCache responseCache;
+
+    private final HTTPRouteTable routes;
+
+    private final MIMPTrafficShaper shaper;
+
+    private final MIMPSocketProfile socketProfile;
+
+    private final HTTPStubs stubs;
+
+    private final MIMPTimeouts timeouts;
+
+    /**
+     * Context without cache, stubs and routes, the remote sockets are connected before the handlers are created.
+     */
+    public MIMPChannelContext() {
+        this(new MIMPChannelMetrics(), null, HTTPStubs.EMPTY, HTTPRouteTable.EMPTY, null, null, null, MIMPSocketProfile.DEFAULT, MIMPTimeouts.NONE);
+    }
+
+    /**
+     * @param metrics The metrics of the channel.
+     * @param responseCache The response cache or null if disabled.
+     * @param stubs The stubs served by the proxy.
+     * @param routes The routes to other upstreams than the default one of the channel.
+     * @param remoteConnector Connects the remote sockets on demand, null if they are connected before the handlers
+     *                        are created; required by stubs and routes.
+     * @param shaper The traffic shaper or null if the channel is not shaped.
+     * @param admission The admission control or null if the channel is not limited, the handlers release their
+     *                  connection when they are cleaned up.
+     * @param socketProfile The socket options and read sizes of the channel.
+     * @param timeouts The timeouts of the connections, enforced by the server of the channel.
+     */
+    public MIMPChannelContext(final MIMPChannelMetrics metrics, final MIMPResponseCache responseCache, final HTTPStubs stubs,
+                              final HTTPRouteTable routes, final MIMPRemoteConnector remoteConnector,
+                              final MIMPTrafficShaper shaper, final MIMPAdmissionControl admission,
+                              final MIMPSocketProfile socketProfile, final MIMPTimeouts timeouts) {
+        this.admission = admission;
+        this.headerRules = HTTPHeaderRules.EMPTY;
+        this.metrics = metrics;
+        this.shaper = shaper;
+        this.socketProfile = socketProfile == null ? MIMPSocketProfile.DEFAULT : socketProfile;
+        this.responseCache = responseCache;
+        this.timeouts = timeouts == null ? MIMPTimeouts.NONE : timeouts;
+        this.stubs = stubs == null ? HTTPStubs.EMPTY : stubs;
+        this.routes = routes == null ? HTTPRouteTable.EMPTY : routes;
+        this.remoteConnector = remoteConnector;
+    }
+
+    public MIMPAdmissionControl getAdmission() {
+        return admission;
+    }
+
+    /**
+     * @return the current header rules, read once per message so a message is rewritten by a single set of rules.
+     */
+    public HTTPHeaderRules getHeaderRules() {
+        return headerRules;
+    }
+
+    /**
+     * @return the rules applied to the responses, while draining they also ask the clients to close the connection.
+     */
+    public HTTPHeaderRewriter getResponseRewriter() {
+        HTTPHeaderRewriter rewriter = drainRewriter;
+        return rewriter != null ? rewriter : headerRules.responseRewriter();
+    }
+
+    /**
+     * @return the account of the relay buffers of the channel or null if the relays allocate their own buffers.
+     */
+    public MIMPBufferArena.Account getMemory() {
+        return memory;
+    }
+
+    public MIMPChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    public MIMPRemoteConnector getRemoteConnector() {
+        return remoteConnector;
+    }
+
+    public MIMPResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public HTTPRouteTable getRoutes() {
+        return routes;
+    }
+
+    public MIMPTrafficShaper getShaper() {
+        return shaper;
+    }
+
+    public MIMPSocketProfile getSocketProfile() {
+        return socketProfile;
+    }
+
+    public HTTPStubs getStubs() {
+        return stubs;
+    }
+
+    public MIMPTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return true if the channel is draining.
+     */
+    public boolean isDraining() {
+        return drainRewriter != null;
+    }
+
+    /**
+     * Marks the channel as draining, from now on the responses carry {@code Connection: close}.
+     */
+    public void setDraining() {
+        drainRewriter = closing(headerRules);
+    }
+
+    /**
+     * Replaces the header rules, the open connections apply them from their next message on.
+     *
+     * @param headerRules The new rules.
+     */
+    public void setHeaderRules(final HTTPHeaderRules headerRules) {
+        this.headerRules = headerRules == null ? HTTPHeaderRules.EMPTY : headerRules;
+        if (drainRewriter != null) {
+            drainRewriter = closing(this.headerRules);
+        }
+    }
+
+    /**
+     * @param memory The account of the relay buffers of the channel.
+     */
+    public void setMemory(final MIMPBufferArena.Account memory) {
+        this.memory = memory;
+    }
+
+    private static HTTPHeaderRewriter closing(final HTTPHeaderRules headerRules) {
+        try {
+            return headerRules.responseRewriter().with(CONNECTION_CLOSE);
+        } catch (IllegalArgumentException iae) {
+            // too many rules, the clients are not asked to close
+            return headerRules.responseRewriter();
+        }
+    }
+}
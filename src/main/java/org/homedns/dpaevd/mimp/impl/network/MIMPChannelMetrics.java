@@ -0,0 +1,73 @@
+/*
+ * @(#)MIMPChannelMetrics.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and gauges of a proxy channel.
+ * <p>
+ * Counters are striped ({@link LongAdder}) so they can be updated from the relay threads without contention.
+ * Hot paths should keep the adder returned by {@link #counter(String)} instead of looking it up each time.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPChannelMetrics {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * @param name The name of the counter.
+     * @param delta The value to add.
+     */
+    public void add(final String name, final long delta) {
+        counter(name).add(delta);
+    }
+
+    /**
+     * @param name The name of the counter.
+     * @return the counter, it is created on first use.
+     */
+    public LongAdder counter(final String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Registers or replaces a gauge.
+     *
+     * @param name The name of the gauge.
+     * @param supplier Supplies the current value.
+     */
+    public void gauge(final String name, final LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * @param name The name of the counter.
+     */
+    public void increment(final String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * @return the current values of all counters and gauges sorted by name.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        return snapshot;
+    }
+}
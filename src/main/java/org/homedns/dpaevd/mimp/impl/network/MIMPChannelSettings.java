@@ -0,0 +1,151 @@
+/*
+ * @(#)MIMPChannelSettings.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The settings of a proxy port in a channel settings string. Channels are separated by commas, each channel has the
+ * form {@code port@setting=value;setting=value}.
+ * <p>
+ * Only the entries of the port are parsed, the entries of the other ports are matched by their port text and skipped,
+ * so a malformed entry fails the channel it belongs to and no other. Every invalid setting is reported with the same
+ * message naming its kind and the setting.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public final class MIMPChannelSettings implements Iterable<MIMPChannelSettings.Setting> {
+
+    private final boolean configured;
+
+    private final List<Setting> settings;
+
+    private MIMPChannelSettings(final boolean configured, final List<Setting> settings) {
+        this.configured = configured;
+        this.settings = settings;
+    }
+
+    /**
+     * Parses the settings of a proxy port.
+     *
+     * @param settingsString The settings of all ports.
+     * @param proxyIpPort The proxy port.
+     * @param kind The kind of the settings, as named in the error messages.
+     * @return the settings of the port in their order, empty if the port has none.
+     * @throws IllegalArgumentException if a setting of the port is not of the form {@code setting=value}.
+     */
+    public static MIMPChannelSettings of(final String settingsString, final int proxyIpPort, final String kind) {
+        boolean configured = false;
+        List<Setting> settings = new ArrayList<>();
+        for (String channelPart : settingsString.split(",")) {
+            String channel = channelPart.trim();
+            int at = channel.indexOf('@');
+            if (at < 0 || !isPort(channel.substring(0, at).trim(), proxyIpPort)) {
+                continue;
+            }
+            configured = true;
+            for (String settingPart : channel.substring(at + 1).split(";")) {
+                String setting = settingPart.trim();
+                int equals = setting.indexOf('=');
+                if (setting.isEmpty()) {
+                    continue;
+                }
+                if (equals <= 0) {
+                    throw invalid(kind, setting, null);
+                }
+                settings.add(new Setting(kind, setting.substring(0, equals).trim(), setting.substring(equals + 1).trim()));
+            }
+        }
+        return new MIMPChannelSettings(configured, settings);
+    }
+
+    /**
+     * @return true if the string has an entry for the port, even without settings.
+     */
+    public boolean isConfigured() {
+        return configured;
+    }
+
+    @Override
+    public Iterator<Setting> iterator() {
+        return settings.iterator();
+    }
+
+    private static boolean isPort(final String text, final int proxyIpPort) {
+        // anything else than a short run of digits is no port number and cannot match
+        if (text.isEmpty() || text.length() > 9 || !text.chars().allMatch(Character::isDigit)) {
+            return false;
+        }
+        return Integer.parseInt(text) == proxyIpPort;
+    }
+
+    private static IllegalArgumentException invalid(final String kind, final String setting, final Throwable cause) {
+        return new IllegalArgumentException("Invalid " + kind + " setting: " + setting, cause);
+    }
+
+    /**
+     * A setting of a proxy port.
+     *
+     * @param kind The kind of the settings.
+     * @param name The name of the setting.
+     * @param value The value of the setting, trimmed.
+     */
+    public record Setting(String kind, String name, String value) {
+
+        /**
+         * Converts the value.
+         *
+         * @param parser The conversion of the value.
+         * @param <T> The type of the value.
+         * @return the converted value.
+         * @throws IllegalArgumentException if the conversion fails.
+         */
+        public <T> T as(final Function<String, T> parser) {
+            try {
+                return parser.apply(value);
+            } catch (RuntimeException e) {
+                throw invalid(e);
+            }
+        }
+
+        /**
+         * @return the value as an int.
+         * @throws IllegalArgumentException if the value is not an int.
+         */
+        public int intValue() {
+            return as(Integer::parseInt);
+        }
+
+        /**
+         * @return the value as a long.
+         * @throws IllegalArgumentException if the value is not a long.
+         */
+        public long longValue() {
+            return as(Long::parseLong);
+        }
+
+        /**
+         * @return the exception reporting the setting as invalid.
+         */
+        public IllegalArgumentException invalid() {
+            return invalid(null);
+        }
+
+        /**
+         * @param cause The reason why the setting is invalid.
+         * @return the exception reporting the setting as invalid.
+         */
+        public IllegalArgumentException invalid(final Throwable cause) {
+            return MIMPChannelSettings.invalid(kind, name + "=" + value, cause);
+        }
+    }
+}
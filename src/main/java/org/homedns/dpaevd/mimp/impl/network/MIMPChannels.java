@@ -0,0 +1,314 @@
+/*
+ * @(#)MIMPChannels.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServer;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServerStatusCallback;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRules;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The running proxy channels, reconfigured by applying a new set of channel definitions.
+ * <p>
+ * A reload compares the definitions by proxy port: new ports are started, the channels of removed ports are drained,
+ * channels whose remote or settings changed are drained and started again on the same port, and channels where only
+ * the header rules changed keep running with the new rules swapped in, their open connections are not interrupted.
+ * A drained channel stops accepting at once and is released once its open connections are finished or after the
+ * drain timeout.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPChannels {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MIMPChannels.class);
+
+    private static final Set<String> HEADER_KEYS = Set.of(MIMPConstants.PROXY_HEADERS_KEY, MIMPConstants.PROXY_RESPONSE_HEADERS_KEY);
+
+    private IMIMPSocketServerStatusCallback callback;
+
+    private final Map<Integer, Channel> channels;
+
+    private final long drainTimeoutMillis;
+
+    /**
+     * @param drainTimeoutMillis The time after which the open connections of a removed channel are closed.
+     */
+    public MIMPChannels(final long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.channels = new LinkedHashMap<>();
+    }
+
+    /**
+     * Parses the channels in the format of {@code mimp.proxy.channels},
+     * {@code port:remoteHost:remotePort[:secure|:udp][:listen=path]} separated by commas. A remote Unix domain socket is
+     * written {@code port:unix:path}, a listening one is added with {@code listen=path}; both are merged into the
+     * {@code mimp.proxy.unix} setting of the channel. A forward proxy, whose destinations are taken from the requests, is
+     * written {@code port:forward[:flags]} and added to the {@code mimp.proxy.forward} setting unless it is there
+     * already. Invalid channels are logged and skipped.
+     *
+     * @param channelsString The channels.
+     * @param properties The settings shared by the channels.
+     * @return the definitions in the order of the channels.
+     */
+    public static List<Definition> parse(final String channelsString, final Map<String, String> properties) {
+        List<Definition> definitions = new ArrayList<>();
+        for (String proxyChannel : channelsString.split(",")) {
+            String[] proxyChannelParts = proxyChannel.trim().split(":");
+            if (proxyChannel.isBlank()) {
+                continue;
+            }
+            boolean forward = proxyChannelParts.length > 1 && "forward".equalsIgnoreCase(proxyChannelParts[1]);
+            int firstFlag = forward ? 2 : 3;
+            if (proxyChannelParts.length < firstFlag || proxyChannelParts.length > firstFlag + 2) {
+                LOGGER.error("Invalid proxy channel: {}", proxyChannel);
+                continue;
+            }
+            try {
+                int proxyIpPort = Integer.parseInt(proxyChannelParts[0]);
+                boolean unixRemote = "unix".equalsIgnoreCase(proxyChannelParts[1]);
+                boolean secure = false;
+                Transport transport = Transport.TCP;
+                StringBuilder unix = new StringBuilder(unixRemote ? "remote=" + proxyChannelParts[2] : "");
+                for (int i = firstFlag; i < proxyChannelParts.length; i++) {
+                    String flag = proxyChannelParts[i];
+                    if ("secure".equalsIgnoreCase(flag)) {
+                        secure = true;
+                    } else if ("udp".equalsIgnoreCase(flag)) {
+                        transport = Transport.UDP;
+                    } else if (flag.startsWith("listen=") && flag.length() > "listen=".length()) {
+                        unix.append(unix.isEmpty() ? "" : ";").append(flag);
+                    } else {
+                        throw new NumberFormatException("Invalid flag: " + flag);
+                    }
+                }
+                if (!unix.isEmpty() && transport == Transport.UDP) {
+                    throw new NumberFormatException("Unix domain sockets are not supported for UDP");
+                }
+                if (forward && (transport == Transport.UDP || unix.indexOf("remote=") >= 0)) {
+                    throw new NumberFormatException("A forward proxy relays HTTP over TCP");
+                }
+                Map<String, String> channelProperties = properties;
+                if (!unix.isEmpty()) {
+                    channelProperties = new HashMap<>(properties);
+                    channelProperties.merge(MIMPConstants.PROXY_UNIX_KEY, proxyIpPort + "@" + unix, (a, b) -> a.isBlank() ? b : a + "," + b);
+                }
+                if (forward && !isConfigured(channelProperties.getOrDefault(MIMPConstants.PROXY_FORWARD_KEY, ""), proxyIpPort)) {
+                    channelProperties = new HashMap<>(channelProperties);
+                    channelProperties.merge(MIMPConstants.PROXY_FORWARD_KEY, proxyIpPort + "@", (a, b) -> a.isBlank() ? b : a + "," + b);
+                }
+                definitions.add(new Definition(proxyIpPort, unixRemote || forward ? proxyChannelParts[1].toLowerCase(Locale.ROOT) : proxyChannelParts[1],
+                        unixRemote || forward ? 0 : Integer.parseInt(proxyChannelParts[2]), secure, transport, channelProperties));
+            } catch (NumberFormatException nfe) {
+                LOGGER.error("Invalid proxy channel: {}", proxyChannel);
+            }
+        }
+        return definitions;
+    }
+
+    private static boolean isConfigured(final String settingsString, final int proxyIpPort) {
+        for (String channel : settingsString.split(",")) {
+            int at = channel.indexOf('@');
+            if (at > 0 && channel.substring(0, at).trim().equals(String.valueOf(proxyIpPort))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reconfigures the channels.
+     *
+     * @param definitions The channels to run, a later definition of a port replaces an earlier one.
+     * @return the changes.
+     */
+    public synchronized Reload apply(final List<Definition> definitions) {
+        long start = System.nanoTime();
+        Map<Integer, Definition> next = new LinkedHashMap<>();
+        definitions.forEach(definition -> next.put(definition.proxyIpPort(), definition));
+        List<Integer> added = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        List<Integer> restarted = new ArrayList<>();
+        List<Integer> updated = new ArrayList<>();
+        for (Iterator<Map.Entry<Integer, Channel>> it = channels.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Channel> entry = it.next();
+            Channel channel = entry.getValue();
+            Definition definition = next.get(entry.getKey());
+            if (definition == null || !definition.isSameListener(channel.definition())) {
+                channel.server().drain(drainTimeoutMillis, TimeUnit.MILLISECONDS);
+                it.remove();
+                (definition == null ? removed : restarted).add(entry.getKey());
+            } else if (!definition.equals(channel.definition())) {
+                try {
+                    if (channel.server() instanceof MIMPSocketServer server) {
+                        server.setHeaderRules(definition.headerRules());
+                    }
+                    entry.setValue(new Channel(definition, channel.server()));
+                    updated.add(entry.getKey());
+                } catch (RuntimeException re) {
+                    LOGGER.error("Invalid header rules for port {}, the channel keeps its rules. Reason: {}", entry.getKey(), re.getMessage());
+                }
+            }
+        }
+        for (Definition definition : next.values()) {
+            if (!channels.containsKey(definition.proxyIpPort())) {
+                IMIMPSocketServer server = definition.transport() == Transport.UDP
+                        ? new MIMPDatagramServer(definition.toProperties(), definition.proxyIpPort(), definition.remoteHostName(), definition.remoteIpPort())
+                        : new MIMPSocketServer(new MIMPIOCallback(), definition.toProperties(),
+                                definition.proxyIpPort(), definition.remoteHostName(), definition.remoteIpPort());
+                if (callback != null) {
+                    server.setCallback(callback);
+                }
+                server.initialize();
+                channels.put(definition.proxyIpPort(), new Channel(definition, server));
+                if (!restarted.contains(definition.proxyIpPort())) {
+                    added.add(definition.proxyIpPort());
+                }
+            }
+        }
+        Reload reload = new Reload(added, removed, restarted, updated, (System.nanoTime() - start) / 1000);
+        LOGGER.info("Applied proxy channels: {}", reload);
+        return reload;
+    }
+
+    /**
+     * Drains all channels and waits until their resources are released.
+     */
+    public synchronized void cleanup() {
+        CompletableFuture<?>[] drained = channels.values().stream()
+                .map(channel -> channel.server().drain(drainTimeoutMillis, TimeUnit.MILLISECONDS))
+                .toArray(CompletableFuture[]::new);
+        channels.clear();
+        try {
+            CompletableFuture.allOf(drained).get(drainTimeoutMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.error("Cannot drain the proxy channels. Reason: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return the running channels in the order of their definitions.
+     */
+    public synchronized List<IMIMPSocketServer> getServers() {
+        return channels.values().stream().map(Channel::server).toList();
+    }
+
+    /**
+     * @param callback Registers or replaces the callback given to the channels started from now on.
+     */
+    public synchronized void setCallback(final IMIMPSocketServerStatusCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Running channel.
+     */
+    private record Channel(Definition definition, IMIMPSocketServer server) {
+    }
+
+    /**
+     * The transport of a channel.
+     */
+    public enum Transport {
+        /** Connections relayed as streams. */
+        TCP,
+        /** Datagrams relayed per client session. */
+        UDP
+    }
+
+    /**
+     * Definition of a channel.
+     *
+     * @param proxyIpPort The proxy port.
+     * @param remoteHostName The remote host name.
+     * @param remoteIpPort The remote port.
+     * @param secure True if the remote is secure.
+     * @param transport The transport of the channel.
+     * @param properties The settings of the channel.
+     */
+    public record Definition(int proxyIpPort, String remoteHostName, int remoteIpPort, boolean secure, Transport transport,
+                             Map<String, String> properties) {
+
+        public Definition {
+            properties = Map.copyOf(properties);
+        }
+
+        /**
+         * Definition of a TCP channel.
+         *
+         * @param proxyIpPort The proxy port.
+         * @param remoteHostName The remote host name.
+         * @param remoteIpPort The remote port.
+         * @param secure True if the remote is secure.
+         * @param properties The settings of the channel.
+         */
+        public Definition(int proxyIpPort, String remoteHostName, int remoteIpPort, boolean secure, Map<String, String> properties) {
+            this(proxyIpPort, remoteHostName, remoteIpPort, secure, Transport.TCP, properties);
+        }
+
+        /**
+         * @return the header rules of the channel.
+         * @throws IllegalArgumentException if the rules are invalid.
+         */
+        public HTTPHeaderRules headerRules() {
+            return HTTPHeaderRules.of(properties.getOrDefault(MIMPConstants.PROXY_HEADERS_KEY, ""),
+                    properties.getOrDefault(MIMPConstants.PROXY_RESPONSE_HEADERS_KEY, ""));
+        }
+
+        /**
+         * @param other The definition of the running channel.
+         * @return true if the definitions differ at most in their header rules.
+         */
+        boolean isSameListener(final Definition other) {
+            return proxyIpPort == other.proxyIpPort && remoteIpPort == other.remoteIpPort && secure == other.secure && transport == other.transport
+                    && remoteHostName.equals(other.remoteHostName) && withoutHeaders(properties).equals(withoutHeaders(other.properties));
+        }
+
+        private MIMPProperties toProperties() {
+            MIMPProperties channelProperties = new MIMPProperties();
+            channelProperties.putAll(properties);
+            return channelProperties;
+        }
+
+        private static Map<String, String> withoutHeaders(final Map<String, String> properties) {
+            Map<String, String> settings = new HashMap<>(properties);
+            settings.keySet().removeAll(HEADER_KEYS);
+            return settings;
+        }
+    }
+
+    /**
+     * Changes of a reload.
+     *
+     * @param added The ports of the started channels.
+     * @param removed The ports of the drained channels.
+     * @param restarted The ports of the channels drained and started again.
+     * @param updated The ports of the channels with new header rules.
+     * @param micros The duration of the reload.
+     */
+    public record Reload(List<Integer> added, List<Integer> removed, List<Integer> restarted, List<Integer> updated, long micros) {
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * @(#)MIMPCircuitBreaker.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.homedns.dpaevd.mimp.api.network.MIMPCircuitState;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The circuit breaker of an upstream.
+ * <p>
+ * After a number of consecutive failed connects the breaker opens and new connections fail at once instead of
+ * blocking on a connect that is known to fail. Once the open time has passed the breaker is half open and lets a few
+ * probes connect: a successful probe closes it, a failed one opens it again.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPCircuitBreaker {
+
+    private int failures;
+
+    private final Consumer<MIMPCircuitState> listener;
+
+    private long openedAt;
+
+    private int probes;
+
+    private final Settings settings;
+
+    private MIMPCircuitState state;
+
+    /**
+     * @param settings The settings of the breaker.
+     * @param listener Receives the new state on each change, called outside the lock of the breaker.
+     */
+    public MIMPCircuitBreaker(final Settings settings, final Consumer<MIMPCircuitState> listener) {
+        this.settings = settings;
+        this.listener = listener;
+        this.state = MIMPCircuitState.CLOSED;
+    }
+
+    /**
+     * @return the current state.
+     */
+    public synchronized MIMPCircuitState getState() {
+        return state;
+    }
+
+    /**
+     * Records a successful connect, the breaker closes.
+     */
+    public void onSuccess() {
+        boolean changed;
+        synchronized (this) {
+            changed = state != MIMPCircuitState.CLOSED;
+            state = MIMPCircuitState.CLOSED;
+            failures = 0;
+            probes = 0;
+        }
+        if (changed) {
+            listener.accept(MIMPCircuitState.CLOSED);
+        }
+    }
+
+    /**
+     * Records a failed connect, the breaker opens after the configured number of consecutive failures or on a failed
+     * probe.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    public void onFailure(final long now) {
+        boolean opened = false;
+        synchronized (this) {
+            failures++;
+            if (state == MIMPCircuitState.HALF_OPEN || state == MIMPCircuitState.CLOSED && failures >= settings.failures()) {
+                state = MIMPCircuitState.OPEN;
+                openedAt = now;
+                probes = 0;
+                opened = true;
+            }
+        }
+        if (opened) {
+            listener.accept(MIMPCircuitState.OPEN);
+        }
+    }
+
+    /**
+     * @param now The current {@link System#nanoTime()}.
+     * @return the whole seconds until the breaker lets a probe through, at least 1.
+     */
+    public synchronized long retryAfterSeconds(final long now) {
+        long remaining = state == MIMPCircuitState.OPEN ? openedAt + settings.openNanos() - now : 0;
+        return Math.max(1, (TimeUnit.NANOSECONDS.toMillis(remaining) + 999) / 1000);
+    }
+
+    /**
+     * Asks to connect to the upstream.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     * @return true if the connect may be attempted, false if it must fail at once.
+     */
+    public boolean tryAcquire(final long now) {
+        boolean halfOpened = false;
+        boolean acquired;
+        synchronized (this) {
+            if (state == MIMPCircuitState.OPEN && now - openedAt >= settings.openNanos()) {
+                state = MIMPCircuitState.HALF_OPEN;
+                halfOpened = true;
+            }
+            acquired = switch (state) {
+                case CLOSED -> true;
+                case OPEN -> false;
+                case HALF_OPEN -> probes++ < settings.probes();
+            };
+        }
+        if (halfOpened) {
+            listener.accept(MIMPCircuitState.HALF_OPEN);
+        }
+        return acquired;
+    }
+
+    /**
+     * How the connections of an open breaker are failed.
+     */
+    public enum Mode {
+        /** The connection is closed. */
+        REJECT,
+        /** The request is answered with 503 Service Unavailable and Retry-After, a failed connect with 502 Bad Gateway. */
+        SERVICE_UNAVAILABLE
+    }
+
+    /**
+     * The settings of the breakers of a proxy channel.
+     *
+     * @param failures The consecutive failed connects opening the breaker.
+     * @param openNanos The time the breaker stays open before it lets probes through.
+     * @param probes The connects allowed while the breaker is half open.
+     * @param mode How the connections are failed.
+     */
+    public record Settings(int failures, long openNanos, int probes, Mode mode) {
+
+        /** The consecutive failed connects opening a breaker by default. */
+        public static final int DEFAULT_FAILURES = 5;
+
+        /** The open time of a breaker by default. */
+        public static final long DEFAULT_OPEN_MILLIS = 5000;
+
+        public Settings {
+            if (failures <= 0 || openNanos <= 0 || probes <= 0) {
+                throw new IllegalArgumentException("Invalid breaker settings: failures " + failures
+                        + ", open " + TimeUnit.NANOSECONDS.toMillis(openNanos) + " ms, probes " + probes);
+            }
+        }
+
+        /**
+         * Parses the breaker settings of a proxy port. Channels are separated by commas, each channel has the form
+         * {@code port@setting=value;setting=value}. The settings are {@code failures}, {@code open} in milliseconds,
+         * {@code probes} and {@code mode} ({@code reject} or {@code 503}).
+         *
+         * @param breakerString The breaker settings of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the settings of the port, null if the port has no breaker.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Settings of(final String breakerString, final int proxyIpPort) {
+            int failures = DEFAULT_FAILURES;
+            long openMillis = DEFAULT_OPEN_MILLIS;
+            int probes = 1;
+            Mode mode = Mode.REJECT;
+            MIMPChannelSettings settings = MIMPChannelSettings.of(breakerString, proxyIpPort, "breaker");
+            for (MIMPChannelSettings.Setting setting : settings) {
+                switch (setting.name()) {
+                    case "failures" -> failures = setting.intValue();
+                    case "open" -> openMillis = setting.longValue();
+                    case "probes" -> probes = setting.intValue();
+                    case "mode" -> mode = switch (setting.value()) {
+                        case "reject" -> Mode.REJECT;
+                        case "503" -> Mode.SERVICE_UNAVAILABLE;
+                        default -> throw setting.invalid();
+                    };
+                    default -> throw setting.invalid();
+                }
+            }
+            return settings.isConfigured() ? new Settings(failures, TimeUnit.MILLISECONDS.toNanos(openMillis), probes, mode) : null;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * @(#)MIMPConnectionAcceptedEvent.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event committed when a proxy channel accepts a client connection.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@Name("org.homedns.dpaevd.mimp.ConnectionAccepted")
+@Label("Connection Accepted")
+@Category({"MIMP", "Network"})
+@Description("Client connection accepted by a proxy channel")
+class MIMPConnectionAcceptedEvent extends Event {
+
+    @Label("Proxy Port")
+    int proxyPort;
+
+    @Label("Client Address")
+    String clientAddress;
+}
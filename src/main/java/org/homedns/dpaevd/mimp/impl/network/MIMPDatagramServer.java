@@ -0,0 +1,467 @@
+/*
+ * @(#)MIMPDatagramServer.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.api.config.IMIMPProperties;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServer;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServerStatusCallback;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketServerStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The MIMP datagram server, relaying UDP traffic between the clients of a proxy port and an upstream.
+ * <p>
+ * Each client address gets a session with its own socket connected to the upstream, so the answers of the upstream
+ * find their way back to the client; a session without traffic expires after the idle time of the channel. A single
+ * thread serves the listener and all sessions: on each wake-up it drains up to a batch of datagrams from a socket into
+ * direct buffers allocated once per channel and then sends the whole batch. UDP keeps no promise of delivery, a
+ * datagram that finds no free session or no room in the send buffer is dropped and counted.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPDatagramServer implements IMIMPSocketServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MIMPDatagramServer.class);
+
+    /** The largest payload of a UDP datagram. */
+    private static final int DATAGRAM_SIZE = 65507;
+
+    private final ByteBuffer[] buffers;
+
+    private IMIMPSocketServerStatusCallback callback;
+
+    private final SocketAddress[] clients;
+
+    private final LongAdder down;
+
+    private final LongAdder downBytes;
+
+    private final LongAdder dropped;
+
+    private volatile DatagramChannel listener;
+
+    private final MIMPChannelMetrics metrics;
+
+    private final int proxyIpPort;
+
+    private final String remoteHostName;
+
+    private final int remoteIpPort;
+
+    private volatile Selector selector;
+
+    private final Map<SocketAddress, Session> sessions;
+
+    private final Settings settings;
+
+    private volatile MIMPSocketServerStatus serviceStatus;
+
+    private final CompletableFuture<Void> stopped;
+
+    private final LongAdder up;
+
+    private final LongAdder upBytes;
+
+    private SocketAddress upstream;
+
+    /**
+     * @param properties Properties.
+     * @param proxyIpPort Proxy port.
+     * @param remoteHostName Remote host name.
+     * @param remoteIpPort Remote port.
+     */
+    public MIMPDatagramServer(final IMIMPProperties properties, final int proxyIpPort, final String remoteHostName, final int remoteIpPort) {
+        this.proxyIpPort = proxyIpPort;
+        this.remoteHostName = remoteHostName;
+        this.remoteIpPort = remoteIpPort;
+        this.metrics = new MIMPChannelMetrics();
+        Settings settings = Settings.DEFAULT;
+        try {
+            settings = Settings.of(properties.getProperty(MIMPConstants.PROXY_DATAGRAM_KEY, ""), proxyIpPort);
+            LOGGER.info("Datagrams on port {}: {}", proxyIpPort, settings);
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid datagram settings for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        this.settings = settings;
+        this.buffers = new ByteBuffer[settings.batch()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(DATAGRAM_SIZE);
+        }
+        this.clients = new SocketAddress[settings.batch()];
+        this.sessions = new ConcurrentHashMap<>();
+        this.stopped = new CompletableFuture<>();
+        this.up = metrics.counter("datagrams.up");
+        this.upBytes = metrics.counter("datagrams.up.bytes");
+        this.down = metrics.counter("datagrams.down");
+        this.downBytes = metrics.counter("datagrams.down.bytes");
+        this.dropped = metrics.counter("datagrams.dropped");
+        metrics.gauge("sessions.open", sessions::size);
+    }
+
+    public void cleanup() {
+        LOGGER.info("Cleaning up MIMP datagram server on port {} -> {}:{}", proxyIpPort, remoteHostName, remoteIpPort);
+        closeListener();
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        } else {
+            stopped.complete(null);
+        }
+    }
+
+    private void changeStatus(final MIMPSocketServerStatus status) {
+        serviceStatus = status;
+        if (callback != null) {
+            callback.onServiceStatusChange(status);
+        }
+    }
+
+    private void closeListener() {
+        DatagramChannel listener = this.listener;
+        if (listener != null && listener.isOpen()) {
+            try {
+                listener.close();
+            } catch (IOException ioe) {
+                LOGGER.error("Cannot close the datagram channel on port {}. Reason: {}", proxyIpPort, ioe.getMessage());
+            }
+            LOGGER.info("Closed the datagram channel on port {}", proxyIpPort);
+        }
+    }
+
+    private void closeSession(final Session session) {
+        sessions.remove(session.client);
+        try {
+            session.channel.close();
+        } catch (IOException ioe) {
+            LOGGER.debug("Cannot close the session of {}. Reason: {}", session.client, ioe.getMessage());
+        }
+    }
+
+    /**
+     * Datagrams have no connections to finish, the channel is closed at once.
+     */
+    @Override
+    public CompletableFuture<Void> drain(final long timeout, final TimeUnit unit) {
+        changeStatus(MIMPSocketServerStatus.DRAINING);
+        cleanup();
+        return stopped;
+    }
+
+    /**
+     * Closes the sessions idle for longer than the idle time.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    private void expire(final long now) {
+        for (Session session : sessions.values()) {
+            if (now - session.lastActive > settings.sessionIdleNanos()) {
+                LOGGER.debug("Session of {} on port {} expired", session.client, proxyIpPort);
+                metrics.increment("sessions.expired");
+                closeSession(session);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Long> getMetrics() {
+        return metrics.snapshot();
+    }
+
+    @Override
+    public int getProxyIpPort() {
+        return proxyIpPort;
+    }
+
+    @Override
+    public String getRemoteHostName() {
+        return remoteHostName;
+    }
+
+    @Override
+    public int getRemoteIpPort() {
+        return remoteIpPort;
+    }
+
+    /**
+     * @return the current status of the channel.
+     */
+    public MIMPSocketServerStatus getServiceStatus() {
+        return serviceStatus;
+    }
+
+    public void initialize() {
+        LOGGER.info("Initializing MIMP datagram server on port {} -> {}:{}", proxyIpPort, remoteHostName, remoteIpPort);
+        try {
+            selector = Selector.open();
+            listener = DatagramChannel.open();
+            listener.bind(new InetSocketAddress(proxyIpPort));
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_READ);
+            upstream = new InetSocketAddress(remoteHostName, remoteIpPort);
+        } catch (IOException ioe) {
+            LOGGER.error("Cannot open the datagram channel on port {}. Reason: {}", proxyIpPort, ioe.getMessage());
+            closeListener();
+            changeStatus(MIMPSocketServerStatus.ERROR);
+            stopped.complete(null);
+            return;
+        }
+        changeStatus(MIMPSocketServerStatus.UP);
+        // a selector blocks its carrier, the loop owns a platform thread
+        Thread loop = new Thread(this::relay, "mimp-udp-" + proxyIpPort);
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * Opens the session of a new client, the answers of the upstream arrive on its own socket.
+     *
+     * @param client The address of the client.
+     * @return the session, null if the channel has no free session.
+     */
+    private Session openSession(final SocketAddress client) {
+        if (sessions.size() >= settings.sessions()) {
+            return null;
+        }
+        try {
+            DatagramChannel channel = DatagramChannel.open();
+            Session session = new Session(client, channel);
+            try {
+                channel.connect(upstream);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, session);
+            } catch (IOException ioe) {
+                channel.close();
+                throw ioe;
+            }
+            sessions.put(client, session);
+            metrics.increment("sessions.opened");
+            LOGGER.debug("Session of {} on port {} opened", client, proxyIpPort);
+            return session;
+        } catch (IOException ioe) {
+            LOGGER.error("Cannot open a session with remote {}. Reason: {}", remoteHostName, ioe.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Receives a batch of datagrams from the clients and sends it to the upstream.
+     */
+    private void receiveFromClients() throws IOException {
+        int count = 0;
+        while (count < buffers.length) {
+            ByteBuffer buffer = buffers[count].clear();
+            SocketAddress client = listener.receive(buffer);
+            if (client == null) {
+                break;
+            }
+            clients[count++] = client;
+        }
+        final long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = buffers[i].flip();
+            SocketAddress client = clients[i];
+            clients[i] = null;
+            Session session = sessions.get(client);
+            if (session == null) {
+                session = openSession(client);
+            }
+            int length = buffer.remaining();
+            if (session == null || !send(session, buffer)) {
+                dropped.increment();
+                continue;
+            }
+            session.lastActive = now;
+            up.increment();
+            upBytes.add(length);
+        }
+    }
+
+    /**
+     * Receives a batch of datagrams of the upstream of a session and sends it to its client.
+     *
+     * @param session The session.
+     */
+    private void receiveFromUpstream(final Session session) {
+        int count = 0;
+        try {
+            while (count < buffers.length) {
+                ByteBuffer buffer = buffers[count].clear();
+                if (session.channel.read(buffer) <= 0) {
+                    break;
+                }
+                count++;
+            }
+        } catch (IOException ioe) {
+            // e.g. the upstream port is unreachable, the session stays until it expires
+            LOGGER.debug("Cannot receive from remote {} for {}. Reason: {}", remoteHostName, session.client, ioe.getMessage());
+            dropped.increment();
+        }
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = buffers[i].flip();
+            int length = buffer.remaining();
+            try {
+                if (listener.send(buffer, session.client) == 0) {
+                    dropped.increment();
+                    continue;
+                }
+            } catch (IOException ioe) {
+                LOGGER.debug("Cannot send to {}. Reason: {}", session.client, ioe.getMessage());
+                dropped.increment();
+                continue;
+            }
+            session.lastActive = System.nanoTime();
+            down.increment();
+            downBytes.add(length);
+        }
+    }
+
+    /**
+     * The loop serving the listener and the sessions until the listener is closed.
+     */
+    private void relay() {
+        final long checkNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(100), Math.min(TimeUnit.SECONDS.toNanos(1), settings.sessionIdleNanos() / 4));
+        long nextCheck = System.nanoTime() + checkNanos;
+        try {
+            while (listener.isOpen()) {
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextCheck - System.nanoTime())));
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.attachment() instanceof Session session) {
+                        receiveFromUpstream(session);
+                    } else {
+                        receiveFromClients();
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - nextCheck >= 0) {
+                    expire(now);
+                    nextCheck = now + checkNanos;
+                }
+            }
+        } catch (IOException ioe) {
+            if (listener.isOpen()) {
+                LOGGER.error("Datagram channel on port {} failed. Reason: {}", proxyIpPort, ioe.getMessage());
+            }
+        } finally {
+            closeListener();
+            sessions.values().forEach(this::closeSession);
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                LOGGER.debug("Cannot close the selector of port {}. Reason: {}", proxyIpPort, ioe.getMessage());
+            }
+            LOGGER.info("Datagram channel terminated on port {}", proxyIpPort);
+            changeStatus(MIMPSocketServerStatus.DOWN);
+            stopped.complete(null);
+        }
+    }
+
+    /**
+     * @return true if the datagram has been handed to the socket of the session.
+     */
+    private boolean send(final Session session, final ByteBuffer buffer) {
+        try {
+            return session.channel.write(buffer) > 0 || !buffer.hasRemaining();
+        } catch (IOException ioe) {
+            // a connected socket reports the rejection of an earlier datagram on the next write
+            LOGGER.debug("Cannot send to remote {} for {}. Reason: {}", remoteHostName, session.client, ioe.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param callback Registers or replaces a callback handler to get the status changes.
+     */
+    public void setCallback(final IMIMPSocketServerStatusCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * The relay of a client, touched only by the loop except for its removal.
+     */
+    private static final class Session {
+
+        private final DatagramChannel channel;
+
+        private final SocketAddress client;
+
+        private volatile long lastActive;
+
+        private Session(final SocketAddress client, final DatagramChannel channel) {
+            this.client = client;
+            this.channel = channel;
+            this.lastActive = System.nanoTime();
+        }
+    }
+
+    /**
+     * The datagram settings of a proxy channel.
+     *
+     * @param sessionIdleNanos The time without traffic after which the session of a client expires.
+     * @param sessions The sessions open at once.
+     * @param batch The datagrams received from a socket before they are sent.
+     */
+    public record Settings(long sessionIdleNanos, int sessions, int batch) {
+
+        /** The settings of a channel without settings. */
+        public static final Settings DEFAULT = new Settings(TimeUnit.SECONDS.toNanos(60), 1024, 32);
+
+        public Settings {
+            if (sessionIdleNanos <= 0 || sessions <= 0 || batch <= 0) {
+                throw new IllegalArgumentException("Invalid datagram settings: session idle "
+                        + TimeUnit.NANOSECONDS.toMillis(sessionIdleNanos) + " ms, sessions " + sessions + ", batch " + batch);
+            }
+        }
+
+        /**
+         * Parses the datagram settings of a proxy port. Channels are separated by commas, each channel has the form
+         * {@code port@setting=value;setting=value}. The settings are {@code session.idle} in milliseconds,
+         * {@code sessions} and {@code batch}.
+         *
+         * @param datagramString The datagram settings of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the settings of the port, {@link #DEFAULT} if the port has none.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Settings of(final String datagramString, final int proxyIpPort) {
+            long sessionIdleMillis = TimeUnit.NANOSECONDS.toMillis(DEFAULT.sessionIdleNanos);
+            int sessions = DEFAULT.sessions;
+            int batch = DEFAULT.batch;
+            for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(datagramString, proxyIpPort, "datagram")) {
+                switch (setting.name()) {
+                    case "session.idle" -> sessionIdleMillis = setting.longValue();
+                    case "sessions" -> sessions = setting.intValue();
+                    case "batch" -> batch = setting.intValue();
+                    default -> throw setting.invalid();
+                }
+            }
+            return new Settings(TimeUnit.MILLISECONDS.toNanos(sessionIdleMillis), sessions, batch);
+        }
+    }
+}
@@ -0,0 +1,895 @@
+/*
+ * @(#)MIMPExchangeHandler.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.MIMPCircuitOpenException;
+import org.homedns.dpaevd.mimp.api.network.MIMPPoolExhaustedException;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketHandlerStatus;
+import org.homedns.dpaevd.mimp.api.network.Protocol;
+import org.homedns.dpaevd.mimp.impl.http.HTTPFunctions;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeader;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRewriter;
+import org.homedns.dpaevd.mimp.impl.http.HTTPMethod;
+import org.homedns.dpaevd.mimp.impl.http.HTTPMessageView;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRequest;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRequestView;
+import org.homedns.dpaevd.mimp.impl.http.HTTPResponseView;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRoute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handler relaying the HTTP/1.1 exchanges of a client connection one request at a time.
+ * <p>
+ * Each request head is parsed, the upstream connection is leased from the pool of the channel for the exchange only
+ * and given back once the response has been relayed, so the client connection stays open without holding an upstream
+ * connection while it is idle. The bodies are relayed following their framing, {@code Content-Length} or chunked; a
+ * response delimited by the end of the connection ends both connections. A request without a body that finds its
+ * pooled connection closed by the upstream is sent again on a new one. A {@code 101 Switching Protocols} response
+ * turns the exchange into a tunnel holding its upstream connection until one side closes.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPExchangeHandler implements IMIMPServerSocketHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MIMPExchangeHandler.class);
+
+    /** The buffer of the relayed bodies and of the client streams. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** The answer to an accepted {@code CONNECT} request. */
+    private static final byte[] CONNECTION_ESTABLISHED = "HTTP/1.1 200 Connection Established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /** The scheme of the absolute URIs relayed by a forward proxy, HTTPS goes through {@code CONNECT}. */
+    private static final String HTTP_SCHEME = "http://";
+
+    /** The first size of the head buffers, they grow up to the longest message head. */
+    private static final int HEAD_SIZE = 1024;
+
+    /** The longest message head. */
+    private static final int HEAD_LIMIT = 64 * 1024;
+
+    /** The longest chunk size or trailer line. */
+    private static final int LINE_LIMIT = 8 * 1024;
+
+    private final MIMPAdmissionControl admission;
+
+    /** The buffer of the bodies, leased from the memory arena of the channel for the time of an exchange. */
+    private byte[] body;
+
+    private ClientInputStream clientIn;
+
+    private ClientOutputStream clientOut;
+
+    private final MIMPChannelContext context;
+
+    private final long createdNanos;
+
+    private final MIMPForwardProxy forward;
+
+    private volatile MIMPUpstreamPool.Connection current;
+
+    private final LongAdder exchanges;
+
+    /** The bytes consumed by the last {@link #readHead(InputStream, boolean)}, blank lines included. */
+    private int headBytes;
+
+    private volatile boolean inExchange;
+
+    private volatile long lastActivityNanos;
+
+    private final LongAdder lifetimeTimeouts;
+
+    private byte[] line;
+
+    private final MIMPUpstreamPool pool;
+
+    private final Socket proxySocket;
+
+    private final LongAdder readIdleTimeouts;
+
+    private final AtomicBoolean released;
+
+    private byte[] requestHead;
+
+    private final HTTPRequestView requestView;
+
+    private byte[] responseHead;
+
+    private byte[] responseRewritten;
+
+    private final HTTPResponseView responseView;
+
+    private final LongAdder retries;
+
+    private volatile MIMPSocketHandlerStatus status;
+
+    private final MIMPBufferArena.Account memory;
+
+    private final MIMPTimeouts timeouts;
+
+    private volatile Socket tunnelSocket;
+
+    /**
+     * @param proxySocket The socket of the client connection.
+     * @param pool The pool of the upstream connections of the channel.
+     * @param context The state shared by the handlers of the channel.
+     */
+    public MIMPExchangeHandler(final Socket proxySocket, final MIMPUpstreamPool pool, final MIMPChannelContext context) {
+        this(proxySocket, pool, null, context);
+    }
+
+    /**
+     * @param proxySocket The socket of the client connection.
+     * @param pool The pool of the upstream connections of the channel.
+     * @param forward The forward proxy taking the destinations from the requests or null for the upstreams of the
+     *                channel.
+     * @param context The state shared by the handlers of the channel.
+     */
+    public MIMPExchangeHandler(final Socket proxySocket, final MIMPUpstreamPool pool, final MIMPForwardProxy forward,
+                               final MIMPChannelContext context) {
+        this.proxySocket = proxySocket;
+        this.forward = forward;
+        this.pool = pool;
+        this.context = context;
+        this.admission = context.getAdmission();
+        this.timeouts = context.getTimeouts();
+        this.status = MIMPSocketHandlerStatus.CONNECTED;
+        this.createdNanos = System.nanoTime();
+        this.lastActivityNanos = createdNanos;
+        this.released = new AtomicBoolean();
+        this.requestView = new HTTPRequestView();
+        this.responseView = new HTTPResponseView();
+        this.responseRewritten = new byte[0];
+        this.memory = context.getMemory();
+        this.body = memory == null ? new byte[BUFFER_SIZE] : null;
+        this.exchanges = context.getMetrics().counter("exchanges");
+        this.retries = context.getMetrics().counter("pool.retries");
+        this.readIdleTimeouts = context.getMetrics().counter("timeouts.read.idle");
+        this.lifetimeTimeouts = context.getMetrics().counter("timeouts.lifetime");
+    }
+
+    @Override
+    public void cleanup() {
+        cleanup("closed");
+    }
+
+    @Override
+    public boolean closeIfIdle(final long quietNanos) {
+        if (!inExchange && System.nanoTime() - lastActivityNanos >= quietNanos && !isNotConnectedOrOpen()) {
+            cleanup("drained while idle");
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean closeIfExpired(final long now) {
+        if (timeouts.isEmpty() || isNotConnectedOrOpen()) {
+            return false;
+        }
+        if (timeouts.lifetimeNanos() > 0 && now - createdNanos >= timeouts.lifetimeNanos()) {
+            return expire(lifetimeTimeouts, "lifetime expired");
+        }
+        if (timeouts.readIdleNanos() > 0 && now - lastActivityNanos >= timeouts.readIdleNanos()) {
+            return expire(readIdleTimeouts, "read idle");
+        }
+        return false;
+    }
+
+    private boolean expire(final LongAdder counter, final String reason) {
+        counter.increment();
+        LOGGER.info("Closing connection from {}: {}", proxySocket.getRemoteSocketAddress(), reason);
+        cleanup(reason);
+        return true;
+    }
+
+    /**
+     * Releases all resources.
+     *
+     * @param reason The reason reported to the flight recorder by the first call.
+     */
+    protected void cleanup(final String reason) {
+        status = MIMPSocketHandlerStatus.DISCONNECTED;
+        if (released.compareAndSet(false, true)) {
+            MIMPHandlerCleanupEvent event = new MIMPHandlerCleanupEvent();
+            if (event.shouldCommit()) {
+                event.proxyPort = proxySocket.getLocalPort();
+                event.reason = reason;
+                event.lifetime = (System.nanoTime() - createdNanos) / 1_000_000;
+                event.commit();
+            }
+            if (admission != null) {
+                admission.release(proxySocket.getInetAddress());
+            }
+        }
+        // the exchange in flight fails and gives its connection back
+        MIMPUpstreamPool.Connection connection = current;
+        if (connection != null) {
+            connection.close();
+        }
+        Socket tunnel = tunnelSocket;
+        if (tunnel != null) {
+            try {
+                tunnel.close();
+            } catch (IOException ioe) {
+                LOGGER.debug("Cannot close the tunnel. Reason: {}", ioe.getMessage());
+            }
+        }
+        if (!proxySocket.isClosed()) {
+            try {
+                proxySocket.close();
+            } catch (IOException ioe) {
+                LOGGER.error("Cannot close proxy socket! Cause: {}", ioe.getMessage());
+            }
+            LOGGER.debug("Closed proxy socket");
+        }
+    }
+
+    @Override
+    public void execute() {
+        Thread.ofVirtual().name("mimp-exchange-" + proxySocket.getLocalPort()).start(() -> {
+            String reason = "closed by the client";
+            try {
+                InputStream in = proxySocket.getInputStream();
+                OutputStream out = proxySocket.getOutputStream();
+                // the buffers of the connection are counted by the memory arena like the bodies
+                requestHead = allocate(HEAD_SIZE);
+                responseHead = allocate(HEAD_SIZE);
+                line = allocate(LINE_LIMIT);
+                clientIn = new ClientInputStream(in, allocate(BUFFER_SIZE));
+                clientOut = new ClientOutputStream(out, allocate(BUFFER_SIZE));
+                while (!isNotConnectedOrOpen()) {
+                    if (!exchange()) {
+                        break;
+                    }
+                }
+            } catch (IOException ioe) {
+                reason = "exchange: " + ioe.getMessage();
+                if (!isNotConnectedOrOpen()) {
+                    LOGGER.debug("Exchange with {} failed. Reason: {}", proxySocket.getRemoteSocketAddress(), ioe.getMessage());
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                reason = "interrupted";
+            }
+            cleanup(reason);
+            releaseBuffers();
+        });
+    }
+
+    /**
+     * Leases a buffer from the memory arena of the channel, or creates it if the channel has none.
+     *
+     * @param size The size of the buffer.
+     * @return the buffer.
+     * @throws IOException if the memory stayed exhausted for the wait time of the channel.
+     * @throws InterruptedException if interrupted while waiting for memory.
+     */
+    private byte[] allocate(final int size) throws IOException, InterruptedException {
+        if (memory == null) {
+            return new byte[size];
+        }
+        byte[] buffer = memory.allocate(size);
+        if (buffer == null) {
+            throw new IOException("memory exhausted");
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer leased by {@link #allocate(int)} back.
+     */
+    private void release(final byte[] buffer) {
+        if (memory != null && buffer != null) {
+            memory.release(buffer);
+        }
+    }
+
+    /**
+     * Gives the buffers of the connection back, once the thread of the connection no longer uses them.
+     */
+    private void releaseBuffers() {
+        release(requestHead);
+        release(responseHead);
+        release(line);
+        release(clientIn == null ? null : clientIn.buffer);
+        release(clientOut == null ? null : clientOut.buffer);
+        requestHead = null;
+        responseHead = null;
+        line = null;
+    }
+
+    /**
+     * Relays one exchange.
+     *
+     * @return true if the client connection stays open for the next request.
+     */
+    private boolean exchange() throws IOException, InterruptedException {
+        int requestLength = readHead(clientIn, true);
+        if (requestLength < 0) {
+            return false;
+        }
+        inExchange = true;
+        lastActivityNanos = System.nanoTime();
+        try {
+            if (memory != null && (body = memory.allocate(BUFFER_SIZE)) == null) {
+                // the memory stayed exhausted for the wait time of the channel
+                respond("503 Service Unavailable", 1);
+                return false;
+            }
+            if (requestLength == 0) {
+                respond("431 Request Header Fields Too Large", 0);
+                return false;
+            }
+            if (!requestView.wrap(requestHead, 0, requestLength)) {
+                respond("400 Bad Request", 0);
+                return false;
+            }
+            final boolean chunked = requestView.hasToken("Transfer-Encoding", "chunked");
+            final long length = chunked ? -1 : requestView.contentLength();
+            if (!chunked && length < 0 && requestView.contains("Content-Length")) {
+                respond("400 Bad Request", 0);
+                return false;
+            }
+            final HTTPMethod method = requestView.method();
+            final boolean keepAlive = isKeepAlive(requestView, requestView.protocol());
+            if (forward != null && method == HTTPMethod.CONNECT) {
+                connect();
+                return false;
+            }
+            HTTPRoute route;
+            byte[] head = requestHead;
+            int headLength = requestLength;
+            List<HTTPHeader> additionalHeaders = context.getHeaderRules().requestHeaders();
+            if (forward != null) {
+                HTTPRequest request = toOriginForm(requestView.toRequest());
+                if (request == null) {
+                    respond("400 Bad Request", 0);
+                    return false;
+                }
+                route = MIMPForwardProxy.destination(request.headers().get("Host"), 80);
+                HTTPFunctions.addOrReplaceHeaders(request, additionalHeaders);
+                head = HTTPFunctions.requestToBytes(request);
+                headLength = head.length;
+            } else {
+                route = context.getRoutes().isEmpty() ? null
+                        : context.getRoutes().match(requestView.get("Host"), requestView.requestURI());
+                if (!additionalHeaders.isEmpty() && additionalHeaders.stream().anyMatch(h -> !requestView.contains(h.name()))) {
+                    HTTPRequest request = requestView.toRequest();
+                    HTTPFunctions.addOrReplaceHeaders(request, additionalHeaders);
+                    head = HTTPFunctions.requestToBytes(request);
+                    headLength = head.length;
+                }
+            }
+
+            MIMPUpstreamPool.Connection connection;
+            int responseLength;
+            while (true) {
+                try {
+                    connection = pool.lease(route);
+                } catch (MIMPCircuitOpenException | MIMPPoolExhaustedException e) {
+                    LOGGER.debug("Failing request from {}. Reason: {}", proxySocket.getRemoteSocketAddress(), e.getMessage());
+                    respond("503 Service Unavailable", e instanceof MIMPCircuitOpenException open ? open.getRetryAfterSeconds() : 1);
+                    return false;
+                } catch (IOException ioe) {
+                    LOGGER.error("Cannot establish connection with remote. Reason: {}", ioe.getMessage());
+                    respond("502 Bad Gateway", 0);
+                    return false;
+                }
+                current = connection;
+                headBytes = 0;
+                try {
+                    OutputStream upstreamOut = connection.getOutputStream();
+                    upstreamOut.write(head, 0, headLength);
+                    if (chunked) {
+                        relayChunked(clientIn, upstreamOut);
+                    } else if (length > 0) {
+                        relay(clientIn, upstreamOut, length);
+                    }
+                    upstreamOut.flush();
+                    responseLength = readHead(connection.getInputStream(), false);
+                    if (responseLength < 0) {
+                        throw new EOFException("closed by the upstream");
+                    }
+                    break;
+                } catch (IOException ioe) {
+                    final boolean reused = connection.isReused();
+                    current = null;
+                    pool.release(connection, false);
+                    if (isNotConnectedOrOpen()) {
+                        throw ioe;
+                    }
+                    if (reused && !chunked && length <= 0 && headBytes == 0 && pool.getSettings().retry().allows(method)) {
+                        // the upstream closed the idle connection without answering, the request is safe to send again
+                        retries.increment();
+                        continue;
+                    }
+                    LOGGER.error("Exchange with remote {} failed. Reason: {}", connection.getUpstream(), ioe.getMessage());
+                    respond("502 Bad Gateway", 0);
+                    return false;
+                }
+            }
+
+            boolean reusable = false;
+            try {
+                while (true) {
+                    if (responseLength == 0 || !responseView.wrap(responseHead, 0, responseLength)) {
+                        throw new IOException("invalid response head");
+                    }
+                    writeResponseHead(responseLength);
+                    int statusCode = responseView.statusCode();
+                    if (statusCode == 101) {
+                        clientOut.flush();
+                        tunnel(connection.getInputStream(), connection.getOutputStream(), connection::close);
+                        return false;
+                    }
+                    if (statusCode >= 200) {
+                        break;
+                    }
+                    // interim response, the final one follows
+                    clientOut.flush();
+                    responseLength = readHead(connection.getInputStream(), false);
+                    if (responseLength < 0) {
+                        throw new EOFException("closed by the upstream");
+                    }
+                }
+                final int statusCode = responseView.statusCode();
+                final boolean bodyless = method == HTTPMethod.HEAD || statusCode == 204 || statusCode == 304;
+                final boolean responseChunked = !bodyless && responseView.hasToken("Transfer-Encoding", "chunked");
+                final long responseLengthOfBody = bodyless ? 0 : responseChunked ? -1 : responseView.contentLength();
+                final boolean untilClose = !bodyless && !responseChunked && responseLengthOfBody < 0;
+                final boolean upstreamKeepAlive = !untilClose && isKeepAlive(responseView, responseView.protocol());
+                if (responseChunked) {
+                    relayChunked(connection.getInputStream(), clientOut);
+                } else if (untilClose) {
+                    relay(connection.getInputStream(), clientOut, Long.MAX_VALUE);
+                } else if (responseLengthOfBody > 0) {
+                    relay(connection.getInputStream(), clientOut, responseLengthOfBody);
+                }
+                clientOut.flush();
+                reusable = upstreamKeepAlive;
+                exchanges.increment();
+                return keepAlive && upstreamKeepAlive && !context.isDraining();
+            } finally {
+                current = null;
+                pool.release(connection, reusable);
+            }
+        } finally {
+            if (memory != null && body != null) {
+                memory.release(body);
+                body = null;
+            }
+            lastActivityNanos = System.nanoTime();
+            inExchange = false;
+        }
+    }
+
+    /**
+     * Opens the tunnel of a {@code CONNECT} request and relays it until one side closes.
+     */
+    private void connect() throws IOException, InterruptedException {
+        final HTTPRoute destination;
+        try {
+            destination = MIMPForwardProxy.destination(requestView.requestURI(), 443);
+        } catch (IllegalArgumentException iae) {
+            respond("400 Bad Request", 0);
+            return;
+        }
+        final Socket socket;
+        try {
+            socket = forward.openTunnel(destination);
+        } catch (MIMPCircuitOpenException | MIMPPoolExhaustedException e) {
+            LOGGER.debug("Failing tunnel from {}. Reason: {}", proxySocket.getRemoteSocketAddress(), e.getMessage());
+            respond("503 Service Unavailable", e instanceof MIMPCircuitOpenException open ? open.getRetryAfterSeconds() : 1);
+            return;
+        } catch (IOException ioe) {
+            LOGGER.debug("Cannot open tunnel to {}. Reason: {}", destination.remoteHostName(), ioe.getMessage());
+            respond("502 Bad Gateway", 0);
+            return;
+        }
+        tunnelSocket = socket;
+        try {
+            clientOut.write(CONNECTION_ESTABLISHED);
+            clientOut.flush();
+            exchanges.increment();
+            tunnel(socket.getInputStream(), socket.getOutputStream(), () -> {
+                try {
+                    socket.close();
+                } catch (IOException ioe) {
+                    LOGGER.debug("Cannot close the tunnel to {}. Reason: {}", destination.remoteHostName(), ioe.getMessage());
+                }
+            });
+        } finally {
+            tunnelSocket = null;
+            forward.closeTunnel(destination, socket);
+        }
+    }
+
+    /**
+     * Turns the absolute URI of a forward proxy request into the origin form sent to the destination, the host of
+     * the URI becomes the {@code Host} header and the headers meant for the proxy are removed.
+     *
+     * @param request The request.
+     * @return the request to send or null if the request has no {@code http} absolute URI.
+     */
+    static HTTPRequest toOriginForm(final HTTPRequest request) {
+        String uri = request.requestURI();
+        if (!uri.regionMatches(true, 0, HTTP_SCHEME, 0, HTTP_SCHEME.length())) {
+            return null;
+        }
+        int pathStart = uri.indexOf('/', HTTP_SCHEME.length());
+        int queryStart = uri.indexOf('?', HTTP_SCHEME.length());
+        int authorityEnd = pathStart < 0 ? queryStart : queryStart < 0 ? pathStart : Math.min(pathStart, queryStart);
+        String authority = uri.substring(HTTP_SCHEME.length(), authorityEnd < 0 ? uri.length() : authorityEnd);
+        String path = authorityEnd < 0 ? "/" : uri.charAt(authorityEnd) == '/' ? uri.substring(authorityEnd) : "/" + uri.substring(authorityEnd);
+        try {
+            MIMPForwardProxy.destination(authority, 80);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+        HTTPRequest originForm = new HTTPRequest(request.method(), path, request.protocol(), request.headers());
+        originForm.headers().set("Host", authority);
+        originForm.headers().remove("Proxy-Connection");
+        originForm.headers().remove("Proxy-Authorization");
+        return originForm;
+    }
+
+    private static boolean isKeepAlive(final HTTPMessageView message, final Protocol protocol) {
+        return protocol == Protocol.HTTP_1_1 ? !message.hasToken("Connection", "close") : message.hasToken("Connection", "keep-alive");
+    }
+
+    /**
+     * Reads a message head, the empty lines before it are skipped.
+     *
+     * @param in The stream.
+     * @param request True to read into the request buffer, false for the response buffer.
+     * @return the length of the head, 0 if it is too long, -1 if the stream ended before the head started.
+     */
+    private int readHead(final InputStream in, final boolean request) throws IOException, InterruptedException {
+        byte[] buffer = request ? requestHead : responseHead;
+        int length = 0;
+        headBytes = 0;
+        int b = in.read();
+        while (b == '\r' || b == '\n') {
+            headBytes++;
+            b = in.read();
+        }
+        if (b < 0) {
+            return -1;
+        }
+        while (true) {
+            if (length == buffer.length) {
+                if (length == HEAD_LIMIT) {
+                    return 0;
+                }
+                byte[] grown = allocate(Math.min(HEAD_LIMIT, length * 2));
+                System.arraycopy(buffer, 0, grown, 0, length);
+                release(buffer);
+                buffer = grown;
+                if (request) {
+                    requestHead = buffer;
+                } else {
+                    responseHead = buffer;
+                }
+            }
+            buffer[length++] = (byte) b;
+            headBytes++;
+            if (b == '\n' && length >= 4 && buffer[length - 2] == '\r' && buffer[length - 3] == '\n' && buffer[length - 4] == '\r') {
+                return length;
+            }
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("message head ended by the end of stream");
+            }
+        }
+    }
+
+    /**
+     * Copies a body of known length, or until the end of stream for {@link Long#MAX_VALUE}.
+     */
+    private void relay(final InputStream in, final OutputStream out, final long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(body, 0, (int) Math.min(body.length, remaining));
+            if (read < 0) {
+                if (length == Long.MAX_VALUE) {
+                    return;
+                }
+                throw new EOFException("body ended by the end of stream");
+            }
+            out.write(body, 0, read);
+            remaining -= read;
+            lastActivityNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Copies a chunked body including its trailers.
+     */
+    private void relayChunked(final InputStream in, final OutputStream out) throws IOException {
+        while (true) {
+            int lineLength = readLine(in);
+            out.write(line, 0, lineLength);
+            long size = 0;
+            for (int i = 0; i < lineLength; i++) {
+                int digit = Character.digit(line[i], 16);
+                if (digit < 0) {
+                    break;
+                }
+                if (size > (Long.MAX_VALUE >> 4)) {
+                    throw new IOException("invalid chunk size");
+                }
+                size = (size << 4) + digit;
+            }
+            if (size == 0) {
+                // trailers up to the empty line
+                do {
+                    lineLength = readLine(in);
+                    out.write(line, 0, lineLength);
+                } while (lineLength > 2);
+                return;
+            }
+            // the data and its line break
+            relay(in, out, size + 2);
+        }
+    }
+
+    /**
+     * Reads a line including its line break into the line buffer.
+     *
+     * @return the length of the line.
+     */
+    private int readLine(final InputStream in) throws IOException {
+        int length = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("chunked body ended by the end of stream");
+            }
+            if (length == line.length) {
+                throw new IOException("chunk line too long");
+            }
+            line[length++] = (byte) b;
+            if (b == '\n') {
+                return length;
+            }
+        }
+    }
+
+    /**
+     * Answers the client and asks it to close the connection.
+     */
+    private void respond(final String status, final long retryAfter) throws IOException {
+        clientOut.write(("HTTP/1.1 " + status + (retryAfter > 0 ? "\r\nRetry-After: " + retryAfter : "")
+                + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        clientOut.flush();
+    }
+
+    /**
+     * Relays the bytes of both sides of an upgraded connection or of a {@code CONNECT} tunnel until one of them
+     * closes. The bytes are not parsed; reads of a whole buffer bypass the buffers of the streams.
+     *
+     * @param in The input of the upstream.
+     * @param out The output of the upstream.
+     * @param upstream Closes the upstream.
+     */
+    private void tunnel(final InputStream in, final OutputStream out, final Runnable upstream) throws InterruptedException {
+        Thread upstreamWriter = Thread.ofVirtual().name("mimp-tunnel-" + proxySocket.getLocalPort()).start(() -> {
+            byte[] buffer = null;
+            try {
+                buffer = memory == null ? new byte[BUFFER_SIZE] : memory.allocate(BUFFER_SIZE);
+                for (int read = buffer == null ? -1 : clientIn.read(buffer); read >= 0; read = clientIn.read(buffer)) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                    lastActivityNanos = System.nanoTime();
+                }
+            } catch (IOException ioe) {
+                LOGGER.debug("Tunnel from {} closed. Reason: {}", proxySocket.getRemoteSocketAddress(), ioe.getMessage());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (memory != null && buffer != null) {
+                    memory.release(buffer);
+                }
+            }
+            upstream.run();
+        });
+        try {
+            for (int read = in.read(body); read >= 0; read = in.read(body)) {
+                clientOut.write(body, 0, read);
+                clientOut.flush();
+                lastActivityNanos = System.nanoTime();
+            }
+        } catch (IOException ioe) {
+            LOGGER.debug("Tunnel to {} closed. Reason: {}", proxySocket.getRemoteSocketAddress(), ioe.getMessage());
+        }
+        cleanup("tunnel closed");
+        upstreamWriter.join();
+    }
+
+    /**
+     * Writes the response head, rewritten by the response rules of the channel.
+     */
+    private void writeResponseHead(final int length) throws IOException {
+        HTTPHeaderRewriter rewriter = context.getResponseRewriter();
+        if (rewriter.isEmpty()) {
+            clientOut.write(responseHead, 0, length);
+            return;
+        }
+        int maxLength = rewriter.maxLength(length);
+        if (responseRewritten.length < maxLength) {
+            responseRewritten = new byte[maxLength];
+        }
+        clientOut.write(responseRewritten, 0, rewriter.rewrite(responseHead, 0, length, responseRewritten));
+    }
+
+    @Override
+    public Socket getProxySocket() {
+        return proxySocket;
+    }
+
+    /**
+     * @return the upstream socket of the exchange in flight or null between the exchanges.
+     */
+    @Override
+    public Socket getRemoteSocket() {
+        MIMPUpstreamPool.Connection connection = current;
+        return connection == null ? null : connection.getSocket();
+    }
+
+    @Override
+    public MIMPSocketHandlerStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean isNotConnectedOrOpen() {
+        return proxySocket.isClosed() || !MIMPSocketHandlerStatus.CONNECTED.equals(status);
+    }
+
+    /**
+     * Buffered input stream of the client over a given buffer, so that the buffer can be leased from the memory
+     * arena. Reads of at least a whole buffer bypass it.
+     */
+    private static final class ClientInputStream extends FilterInputStream {
+
+        private final byte[] buffer;
+
+        private int count;
+
+        private int position;
+
+        private ClientInputStream(final InputStream in, final byte[] buffer) {
+            super(in);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return count - position + in.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == count && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == count) {
+                if (len >= buffer.length) {
+                    return in.read(b, off, len);
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, count - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            if (position == count) {
+                return in.skip(n);
+            }
+            int skipped = (int) Math.min(n, count - position);
+            position += skipped;
+            return skipped;
+        }
+
+        private boolean fill() throws IOException {
+            int read = in.read(buffer, 0, buffer.length);
+            position = 0;
+            count = Math.max(0, read);
+            return read > 0;
+        }
+    }
+
+    /**
+     * Buffered output stream of the client over a given buffer, so that the buffer can be leased from the memory
+     * arena. Writes of at least a whole buffer bypass it.
+     */
+    private static final class ClientOutputStream extends FilterOutputStream {
+
+        private final byte[] buffer;
+
+        private int count;
+
+        private ClientOutputStream(final OutputStream out, final byte[] buffer) {
+            super(out);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len >= buffer.length) {
+                flushBuffer();
+                out.write(b, off, len);
+                return;
+            }
+            if (len > buffer.length - count) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
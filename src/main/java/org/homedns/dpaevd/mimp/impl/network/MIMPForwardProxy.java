@@ -0,0 +1,184 @@
+/*
+ * @(#)MIMPForwardProxy.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.homedns.dpaevd.mimp.api.network.MIMPPoolExhaustedException;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRoute;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The forward proxy of a channel: the destination of each request is taken from its absolute URI or, for
+ * {@code CONNECT}, from its authority instead of being the fixed remote of the channel.
+ * <p>
+ * A destination is handled as a route matching everything, so the pool, the circuit breakers and the connection
+ * events of the channel apply per destination. The tunnels of a destination are counted and capped, a tunnel over the
+ * cap is refused instead of opening yet another connection to the same destination.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPForwardProxy {
+
+    private final MIMPRemoteConnector connector;
+
+    private final AtomicInteger open;
+
+    private final LongAdder opened;
+
+    private final LongAdder rejected;
+
+    private final Settings settings;
+
+    private final Map<String, Integer> tunnels;
+
+    /**
+     * @param settings The settings of the forward proxy.
+     * @param connector Connects the sockets to a destination.
+     * @param metrics The metrics of the channel.
+     */
+    public MIMPForwardProxy(final Settings settings, final MIMPRemoteConnector connector, final MIMPChannelMetrics metrics) {
+        this.settings = settings;
+        this.connector = connector;
+        this.tunnels = new ConcurrentHashMap<>();
+        this.open = new AtomicInteger();
+        this.opened = metrics.counter("tunnels.opened");
+        this.rejected = metrics.counter("tunnels.rejected");
+        metrics.gauge("tunnels.open", open::get);
+    }
+
+    /**
+     * Parses the destination of a request.
+     *
+     * @param authority The authority, {@code host}, {@code host:port} or {@code [address]:port}.
+     * @param defaultPort The port of an authority without port.
+     * @return the destination as a route matching everything.
+     * @throws IllegalArgumentException if the authority is invalid.
+     */
+    public static HTTPRoute destination(final String authority, final int defaultPort) {
+        int portSeparator = authority.lastIndexOf(':');
+        if (portSeparator < authority.lastIndexOf(']')) {
+            portSeparator = -1;
+        }
+        String host = portSeparator < 0 ? authority : authority.substring(0, portSeparator);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        int port;
+        try {
+            port = portSeparator < 0 ? defaultPort : Integer.parseInt(authority.substring(portSeparator + 1));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid destination port: " + authority);
+        }
+        if (host.isEmpty() || host.indexOf('@') >= 0 || host.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("Invalid destination: " + authority);
+        }
+        return new HTTPRoute("*", "/", host.toLowerCase(Locale.ROOT), port);
+    }
+
+    /**
+     * @return the settings of the forward proxy.
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Opens a tunnel to a destination.
+     *
+     * @param destination The destination.
+     * @return the connected socket, it must be closed with {@link #closeTunnel(HTTPRoute, Socket)}.
+     * @throws MIMPPoolExhaustedException if the destination has as many tunnels as allowed.
+     * @throws IOException if the destination cannot be connected.
+     */
+    public Socket openTunnel(final HTTPRoute destination) throws IOException {
+        final String key = key(destination);
+        if (tunnels.merge(key, 1, Integer::sum) > settings.tunnels()) {
+            release(key);
+            rejected.increment();
+            throw new MIMPPoolExhaustedException("Tunnel limit of " + settings.tunnels() + " reached for " + key(destination));
+        }
+        Socket socket = new Socket();
+        try {
+            connector.connect(socket, destination);
+        } catch (IOException | RuntimeException e) {
+            release(key);
+            socket.close();
+            throw e;
+        }
+        open.incrementAndGet();
+        opened.increment();
+        return socket;
+    }
+
+    /**
+     * Closes a tunnel opened by {@link #openTunnel(HTTPRoute)}.
+     *
+     * @param destination The destination.
+     * @param socket The socket of the tunnel.
+     */
+    public void closeTunnel(final HTTPRoute destination, final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // the tunnel is released anyway
+        }
+        open.decrementAndGet();
+        release(key(destination));
+    }
+
+    private static String key(final HTTPRoute destination) {
+        return destination.remoteHostName() + ":" + destination.remoteIpPort();
+    }
+
+    private void release(final String key) {
+        // destinations without tunnels are forgotten, the map does not grow with every destination ever seen
+        tunnels.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * The forward proxy settings of a proxy channel.
+     *
+     * @param tunnels The tunnels open at once per destination.
+     */
+    public record Settings(int tunnels) {
+
+        public Settings {
+            if (tunnels <= 0) {
+                throw new IllegalArgumentException("Invalid forward proxy settings: tunnels " + tunnels);
+            }
+        }
+
+        /**
+         * Parses the forward proxy settings of a proxy port. Channels are separated by commas, each channel has the
+         * form {@code port@setting=value;setting=value}. The setting is {@code tunnels}.
+         *
+         * @param forwardString The forward proxy settings of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the settings of the port, null if the port is not a forward proxy.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Settings of(final String forwardString, final int proxyIpPort) {
+            int tunnels = 64;
+            MIMPChannelSettings settings = MIMPChannelSettings.of(forwardString, proxyIpPort, "forward proxy");
+            for (MIMPChannelSettings.Setting setting : settings) {
+                switch (setting.name()) {
+                    case "tunnels" -> tunnels = setting.intValue();
+                    default -> throw setting.invalid();
+                }
+            }
+            return settings.isConfigured() ? new Settings(tunnels) : null;
+        }
+    }
+}
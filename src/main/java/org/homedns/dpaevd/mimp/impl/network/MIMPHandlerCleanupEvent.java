@@ -0,0 +1,38 @@
+/*
+ * @(#)MIMPHandlerCleanupEvent.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event committed when a socket handler releases its connections.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@Name("org.homedns.dpaevd.mimp.HandlerCleanup")
+@Label("Handler Cleanup")
+@Category({"MIMP", "Network"})
+@Description("Socket handler released its connections")
+class MIMPHandlerCleanupEvent extends Event {
+
+    @Label("Proxy Port")
+    int proxyPort;
+
+    @Label("Reason")
+    String reason;
+
+    @Label("Lifetime")
+    @Timespan(Timespan.MILLISECONDS)
+    long lifetime;
+}
@@ -0,0 +1,38 @@
+/*
+ * @(#)MIMPHeaderPatchedEvent.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event committed when the proxy patches the headers of a request or a response.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@Name("org.homedns.dpaevd.mimp.HeaderPatched")
+@Label("Header Patched")
+@Category({"MIMP", "Network"})
+@Description("Request or response headers patched by the proxy")
+class MIMPHeaderPatchedEvent extends Event {
+
+    @Label("Proxy Port")
+    int proxyPort;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Bytes Added")
+    @DataAmount
+    int bytesAdded;
+}
@@ -0,0 +1,298 @@
+/*
+ * @(#)MIMPHealthChecker.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The active health check of an upstream.
+ * <p>
+ * A check connects to the upstream and, with a path, sends a {@code GET} and expects a status below 400. After a
+ * number of consecutive failed checks the upstream is ejected and new connections to it fail at once; after a number
+ * of consecutive successful checks it is healthy again and warms up: the share of new connections let through grows
+ * linearly over the warm-up time, so a restarted backend is not hit by the whole load while it is still cold.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPHealthChecker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MIMPHealthChecker.class);
+
+    /** The share of the new connections let through at the start of the warm-up. */
+    private static final double WARMUP_MINIMUM = 0.1;
+
+    /** The longest status line read from the upstream. */
+    private static final int STATUS_LINE_LIMIT = 256;
+
+    private final AtomicBoolean checking;
+
+    private int failures;
+
+    private boolean healthy;
+
+    private final SocketAddress address;
+
+    private volatile long latencyMicros;
+
+    private final Listener listener;
+
+    private volatile long recoveredAt;
+
+    private final Settings settings;
+
+    private int successes;
+
+    private final String upstream;
+
+    /**
+     * @param upstream The name of the upstream.
+     * @param address The address of the upstream, an unresolved address is resolved by each check.
+     * @param settings The settings of the checks.
+     * @param listener Receives the changes of the health.
+     */
+    public MIMPHealthChecker(final String upstream, final SocketAddress address, final Settings settings, final Listener listener) {
+        this.upstream = upstream;
+        this.address = address;
+        this.settings = settings;
+        this.listener = listener;
+        this.checking = new AtomicBoolean();
+        this.healthy = true;
+        this.recoveredAt = System.nanoTime() - settings.warmupNanos();
+    }
+
+    /**
+     * Decides whether a new connection may use the upstream.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     * @return false if the upstream is ejected or the connection is not part of the share of the warm-up.
+     */
+    public boolean allows(final long now) {
+        if (!isHealthy()) {
+            return false;
+        }
+        long warm = now - recoveredAt;
+        if (warm >= settings.warmupNanos()) {
+            return true;
+        }
+        double share = WARMUP_MINIMUM + (1 - WARMUP_MINIMUM) * warm / settings.warmupNanos();
+        return ThreadLocalRandom.current().nextDouble() < share;
+    }
+
+    /**
+     * Runs a check and updates the health of the upstream, a check still running is not started twice.
+     */
+    public void check() {
+        if (!checking.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            boolean passed = probe();
+            latencyMicros = (System.nanoTime() - start) / 1000;
+            record(passed, System.nanoTime());
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    /**
+     * @return the duration of the last check.
+     */
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    /**
+     * @return the settings of the checks.
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return the name of the upstream.
+     */
+    public String getUpstream() {
+        return upstream;
+    }
+
+    /**
+     * @return false if the upstream is ejected.
+     */
+    public synchronized boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * @param fraction The largest jitter as a fraction of the interval.
+     * @return a random delay up to the fraction of the interval, so the checks of many upstreams do not run in step.
+     */
+    public long jitterNanos(final double fraction) {
+        return ThreadLocalRandom.current().nextLong((long) (settings.intervalNanos() * fraction) + 1);
+    }
+
+    /**
+     * @return true if the upstream answered within the timeout, the timeout bounds the whole check.
+     */
+    private boolean probe() {
+        final boolean unix = address instanceof UnixDomainSocketAddress;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.timeoutMillis());
+        try (Socket socket = unix ? new MIMPUnixSocket() : new Socket()) {
+            socket.connect(address instanceof InetSocketAddress inet && inet.isUnresolved()
+                    ? new InetSocketAddress(inet.getHostString(), inet.getPort()) : address, (int) settings.timeoutMillis());
+            if (settings.path().isEmpty()) {
+                return true;
+            }
+            String host = address instanceof InetSocketAddress inet ? inet.getHostString() + ":" + inet.getPort() : "localhost";
+            socket.getOutputStream().write(("GET " + settings.path() + " HTTP/1.1\r\nHost: " + host
+                    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            String statusLine = readLine(socket, deadline);
+            String[] parts = statusLine.split(" ");
+            return parts.length >= 2 && parts[0].startsWith("HTTP/") && Integer.parseInt(parts[1]) < 400;
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.debug("Health check of {} failed. Reason: {}", upstream, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the status line, an upstream sending it byte by byte cannot stretch the check beyond its deadline.
+     */
+    private static String readLine(final Socket socket, final long deadline) throws IOException {
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+        while (line.length() < STATUS_LINE_LIMIT) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Health check timed out");
+            }
+            socket.setSoTimeout((int) remaining);
+            int b = in.read();
+            if (b < 0 || b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Records the result of a check.
+     *
+     * @param passed True if the check passed.
+     * @param now The current {@link System#nanoTime()}.
+     */
+    void record(final boolean passed, final long now) {
+        boolean changed = false;
+        synchronized (this) {
+            if (passed) {
+                failures = 0;
+                if (!healthy && ++successes >= settings.rise()) {
+                    healthy = true;
+                    recoveredAt = now;
+                    changed = true;
+                }
+            } else {
+                successes = 0;
+                if (healthy && ++failures >= settings.fall()) {
+                    healthy = false;
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            listener.onHealthChange(this, passed);
+        }
+    }
+
+    /**
+     * Receives the changes of the health of an upstream.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * @param checker The checker of the upstream.
+         * @param healthy The new health.
+         */
+        void onHealthChange(MIMPHealthChecker checker, boolean healthy);
+    }
+
+    /**
+     * The health check settings of a proxy channel.
+     *
+     * @param intervalNanos The time between two checks.
+     * @param timeoutMillis The time a check may take.
+     * @param path The path of the HTTP check, empty for a connect check.
+     * @param fall The consecutive failed checks ejecting an upstream.
+     * @param rise The consecutive successful checks bringing an ejected upstream back.
+     * @param warmupNanos The time over which a recovered upstream ramps up to its full share of connections.
+     */
+    public record Settings(long intervalNanos, long timeoutMillis, String path, int fall, int rise, long warmupNanos) {
+
+        public Settings {
+            if (intervalNanos <= 0 || timeoutMillis <= 0 || fall <= 0 || rise <= 0 || warmupNanos < 0) {
+                throw new IllegalArgumentException("Invalid health check settings: interval "
+                        + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + " ms, timeout " + timeoutMillis + " ms, fall "
+                        + fall + ", rise " + rise + ", warm-up " + TimeUnit.NANOSECONDS.toMillis(warmupNanos) + " ms");
+            }
+            if (!path.isEmpty() && !path.startsWith("/")) {
+                throw new IllegalArgumentException("Invalid health check path: " + path);
+            }
+        }
+
+        /**
+         * Parses the health check settings of a proxy port. Channels are separated by commas, each channel has the
+         * form {@code port@setting=value;setting=value}. The settings are {@code interval}, {@code timeout} and
+         * {@code warmup} in milliseconds, {@code path}, {@code fall} and {@code rise}.
+         *
+         * @param healthString The health check settings of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the settings of the port, null if the port has no health checks.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Settings of(final String healthString, final int proxyIpPort) {
+            long intervalMillis = 5000;
+            long timeoutMillis = 1000;
+            String path = "";
+            int fall = 3;
+            int rise = 2;
+            long warmupMillis = 10000;
+            MIMPChannelSettings settings = MIMPChannelSettings.of(healthString, proxyIpPort, "health check");
+            for (MIMPChannelSettings.Setting setting : settings) {
+                switch (setting.name()) {
+                    case "interval" -> intervalMillis = setting.longValue();
+                    case "timeout" -> timeoutMillis = setting.longValue();
+                    case "path" -> path = setting.value();
+                    case "fall" -> fall = setting.intValue();
+                    case "rise" -> rise = setting.intValue();
+                    case "warmup" -> warmupMillis = setting.longValue();
+                    default -> throw setting.invalid();
+                }
+            }
+            return settings.isConfigured() ? new Settings(TimeUnit.MILLISECONDS.toNanos(intervalMillis), timeoutMillis, path, fall, rise,
+                    TimeUnit.MILLISECONDS.toNanos(warmupMillis)) : null;
+        }
+    }
+}
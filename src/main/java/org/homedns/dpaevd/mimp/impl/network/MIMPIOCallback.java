@@ -8,6 +8,7 @@
 
 import org.homedns.dpaevd.mimp.api.MIMPConstants;
 import org.homedns.dpaevd.mimp.api.network.IMIMPIOCallback;
+import org.homedns.dpaevd.mimp.api.network.MIMPEndOfStreamException;
 import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
 import org.homedns.dpaevd.mimp.api.network.MIMPServerSocketHandlerException;
 import org.slf4j.Logger;
@@ -31,17 +32,17 @@ public class MIMPIOCallback implements IMIMPIOCallback {
 
     @Override
     public byte[] in(final DataInputStream in) {
+        return in(in, MIMPConstants.BUFFER_SIZE);
+    }
 
-        byte[] buffer = new byte[MIMPConstants.BUFFER_SIZE];
-        int bytesRead;
-        try {
-            bytesRead = in.read(buffer);
-        } catch (Exception e) {
-            throw new MIMPServerSocketHandlerException("Error reading data from the input stream: " + e.getMessage());
-        }
-        if (bytesRead == -1) {
-            // the connection has to be considered as stale. Both channels have to be closed.
-            throw new MIMPServerSocketHandlerException("Connection closed by the client/remote");
+    @Override
+    public byte[] in(final DataInputStream in, final int length) {
+
+        byte[] buffer = new byte[length];
+        int bytesRead = in(in, buffer, length);
+        if (bytesRead == length) {
+            // a full read is returned as is, bulk transfers are not copied
+            return buffer;
         } else if (bytesRead > 0) {
             byte[] inBuffer = new byte[bytesRead];
             System.arraycopy(buffer, 0, inBuffer, 0, bytesRead);
@@ -51,6 +52,21 @@ public byte[] in(final DataInputStream in) {
         }
     }
 
+    @Override
+    public int in(final DataInputStream in, final byte[] buffer, final int length) {
+        int bytesRead;
+        try {
+            bytesRead = in.read(buffer, 0, length);
+        } catch (Exception e) {
+            throw new MIMPServerSocketHandlerException("Error reading data from the input stream: " + e.getMessage());
+        }
+        if (bytesRead == -1) {
+            // the peer has closed its side, the other direction may still be open
+            throw new MIMPEndOfStreamException("Connection closed by the client/remote");
+        }
+        return bytesRead;
+    }
+
     @Override
     public byte[] inAndWait(final DataInputStream in) {
 
@@ -81,6 +97,16 @@ public void out(final DataOutputStream out, byte[] buffer) {
         }
     }
 
+    @Override
+    public void out(final DataOutputStream out, final byte[] buffer, final int offset, final int length) {
+        try {
+            out.write(buffer, offset, length);
+            out.flush();
+        } catch (IOException ioe) {
+            throw new MIMPServerSocketHandlerException("Error writing data to the output stream: " + ioe.getMessage());
+        }
+    }
+
     @Override public void proxyInRemoteOut(IMIMPServerSocketHandler handler, DataInputStream proxyIn, DataOutputStream remoteOut) {
         while(!handler.isNotConnectedOrOpen()) {
             byte[] buffer = in(proxyIn);
@@ -0,0 +1,73 @@
+/*
+ * @(#)MIMPReadSizer.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+/**
+ * Adapts the size of the reads of a relay direction to the sizes read recently.
+ * <p>
+ * A read that fills the buffer doubles the next read size, so bulk transfers reach the maximum after a few reads and
+ * need fewer system calls. Two reads in a row that would have fit into half of the buffer halve it, so chatty or idle
+ * connections keep small buffers; a single small read, e.g. the end of a response, does not shrink it. The instance is
+ * used by a single relay thread.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPReadSizer {
+
+    private final int maximum;
+
+    private final int minimum;
+
+    private boolean shrinking;
+
+    private int size;
+
+    /**
+     * @param minimum The smallest read size.
+     * @param initial The size of the first read.
+     * @param maximum The largest read size.
+     * @throws IllegalArgumentException if the sizes are not ordered or the minimum is not positive.
+     */
+    public MIMPReadSizer(final int minimum, final int initial, final int maximum) {
+        if (minimum <= 0 || minimum > maximum) {
+            throw new IllegalArgumentException("Invalid read sizes: " + minimum + ".." + maximum);
+        }
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.size = Math.max(minimum, Math.min(maximum, initial));
+    }
+
+    /**
+     * @return the size of the next read.
+     */
+    public int next() {
+        return size;
+    }
+
+    /**
+     * Records the result of a read.
+     *
+     * @param bytesRead The bytes read with the size returned by {@link #next()}.
+     */
+    public void record(final int bytesRead) {
+        if (bytesRead >= size) {
+            size = (int) Math.min(maximum, 2L * size);
+            shrinking = false;
+        } else if (bytesRead <= size / 2 && size > minimum) {
+            if (shrinking) {
+                size = Math.max(minimum, size / 2);
+                shrinking = false;
+            } else {
+                shrinking = true;
+            }
+        } else {
+            shrinking = false;
+        }
+    }
+}
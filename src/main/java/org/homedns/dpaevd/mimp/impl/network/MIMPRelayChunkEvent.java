@@ -0,0 +1,38 @@
+/*
+ * @(#)MIMPRelayChunkEvent.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event describing a relayed chunk, committed for one chunk out of a configurable sample interval.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@Name("org.homedns.dpaevd.mimp.RelayChunk")
+@Label("Relay Chunk")
+@Category({"MIMP", "Network"})
+@Description("Sampled chunk relayed by the proxy")
+class MIMPRelayChunkEvent extends Event {
+
+    @Label("Proxy Port")
+    int proxyPort;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+}
@@ -0,0 +1,30 @@
+/*
+ * @(#)MIMPRemoteConnector.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import org.homedns.dpaevd.mimp.impl.http.HTTPRoute;
+
+/**
+ * Connects the remote sockets of a handler to the upstreams of the channel.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@FunctionalInterface
+public interface MIMPRemoteConnector {
+
+    /**
+     * @param remoteSocket The unconnected remote socket.
+     * @param route The route whose upstream is connected or null for the default upstream of the channel.
+     * @throws IOException if the connection cannot be established.
+     */
+    void connect(final Socket remoteSocket, final HTTPRoute route) throws IOException;
+}
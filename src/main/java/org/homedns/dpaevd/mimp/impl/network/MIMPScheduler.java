@@ -0,0 +1,339 @@
+/*
+ * @(#)MIMPScheduler.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The scheduler shared by all proxy channels for the setup of their connections and for their periodic checks.
+ * <p>
+ * Each channel queues its work in a lane. At most {@link #getCapacity() capacity} tasks run at once, each on a
+ * virtual thread, so a blocked connect costs no platform thread and idle channels cost nothing. A free slot goes to
+ * the lane with the smallest pass (stride scheduling): a lane advances its pass by the inverse of its weight for every
+ * task it starts, so busy lanes share the capacity in proportion to their weights while a lane alone may use all of
+ * it. A lane never runs more tasks at once than its quota, a channel whose upstream hangs cannot take the slots of the
+ * others. The periodic checks of all channels run on a single timer thread.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MIMPScheduler.class);
+
+    /** The default number of tasks running at once. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** The pass added to a lane of weight 1 for each started task. */
+    private static final long STRIDE = 1 << 20;
+
+    private int capacity;
+
+    private final List<Lane> lanes;
+
+    /** The pass of the last started task, a lane becoming busy starts there so it cannot bank an idle period. */
+    private long pass;
+
+    private int running;
+
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param capacity The number of tasks running at once.
+     */
+    public MIMPScheduler(final int capacity) {
+        this.capacity = checkPositive(capacity, "capacity");
+        this.lanes = new ArrayList<>();
+        ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "mimp-scheduler-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        this.timer = scheduledExecutor;
+    }
+
+    /**
+     * @return the scheduler shared by all channels of the process, created on first use.
+     */
+    public static MIMPScheduler shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * @return the number of tasks running at once.
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Opens the lane of a channel.
+     *
+     * @param name The name of the lane, used for the threads of its tasks.
+     * @param weight The share of the capacity of the lane while other lanes are busy.
+     * @param quota The number of tasks of the lane running at once, 0 for the capacity.
+     * @param metrics The metrics of the channel, receiving the depth of the queue and the wait times.
+     * @return the lane.
+     * @throws IllegalArgumentException if the weight is not positive or the quota is negative.
+     */
+    public synchronized Lane register(final String name, final int weight, final int quota, final MIMPChannelMetrics metrics) {
+        Lane lane = new Lane(this, name, checkPositive(weight, "weight"), quota == 0 ? Integer.MAX_VALUE : checkPositive(quota, "quota"), metrics);
+        lanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * Runs a periodic task on the timer thread, the task must be short.
+     *
+     * @param task The task.
+     * @param initialDelay The delay of the first run.
+     * @param period The period.
+     * @param unit The unit of the delay and of the period.
+     * @return the future cancelling the task.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable task, final long initialDelay, final long period, final TimeUnit unit) {
+        return timer.scheduleAtFixedRate(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException re) {
+                // a failed run must not cancel the next ones
+                LOGGER.error("Periodic task failed. Reason: {}", re.getMessage());
+            }
+        }, initialDelay, period, unit);
+    }
+
+    /**
+     * Changes the number of tasks running at once, the running tasks are not interrupted.
+     *
+     * @param capacity The new capacity.
+     */
+    public void setCapacity(final int capacity) {
+        synchronized (this) {
+            this.capacity = checkPositive(capacity, "capacity");
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts queued tasks while there is capacity, choosing the eligible lane with the smallest pass.
+     */
+    private void dispatch() {
+        while (true) {
+            Lane lane = null;
+            Task task;
+            synchronized (this) {
+                if (running >= capacity) {
+                    return;
+                }
+                for (Lane candidate : lanes) {
+                    if (!candidate.queue.isEmpty() && candidate.running < candidate.quota && (lane == null || candidate.pass < lane.pass)) {
+                        lane = candidate;
+                    }
+                }
+                if (lane == null) {
+                    return;
+                }
+                task = lane.queue.poll();
+                lane.running++;
+                running++;
+                pass = lane.pass;
+                lane.pass += STRIDE / lane.weight;
+            }
+            final Lane started = lane;
+            final Task runnable = task;
+            long waitMicros = (System.nanoTime() - task.queuedNanos) / 1000;
+            started.waitMicros.add(waitMicros);
+            started.maxWaitMicros.accumulate(waitMicros);
+            started.tasks.increment();
+            try {
+                Thread.ofVirtual().name(started.name).start(() -> run(started, runnable.task));
+            } catch (RuntimeException re) {
+                LOGGER.error("Cannot start a task of {}. Reason: {}", started.name, re.getMessage());
+                complete(started);
+            }
+        }
+    }
+
+    private void run(final Lane lane, final Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException re) {
+            LOGGER.error("Task of {} failed. Reason: {}", lane.name, re.getMessage());
+        } finally {
+            complete(lane);
+        }
+    }
+
+    private void complete(final Lane lane) {
+        synchronized (this) {
+            lane.running--;
+            running--;
+            if (lane.closed && lane.queue.isEmpty() && lane.running == 0) {
+                lanes.remove(lane);
+            }
+        }
+        dispatch();
+    }
+
+    private static int checkPositive(final int value, final String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Invalid scheduler " + name + ": " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Queued task.
+     */
+    private record Task(Runnable task, long queuedNanos) {
+    }
+
+    /**
+     * The queue of a channel, guarded by its scheduler.
+     */
+    public static final class Lane {
+
+        private boolean closed;
+
+        private final LongAccumulator maxWaitMicros;
+
+        private final String name;
+
+        private long pass;
+
+        private final Queue<Task> queue;
+
+        private final int quota;
+
+        private int running;
+
+        private final MIMPScheduler scheduler;
+
+        private final LongAdder tasks;
+
+        private final LongAdder waitMicros;
+
+        private final int weight;
+
+        private Lane(final MIMPScheduler scheduler, final String name, final int weight, final int quota, final MIMPChannelMetrics metrics) {
+            this.scheduler = scheduler;
+            this.name = name;
+            this.weight = weight;
+            this.quota = quota;
+            this.queue = new ArrayDeque<>();
+            this.tasks = metrics.counter("scheduler.tasks");
+            this.waitMicros = metrics.counter("scheduler.wait.micros");
+            this.maxWaitMicros = new LongAccumulator(Math::max, 0);
+            metrics.gauge("scheduler.wait.max.micros", maxWaitMicros::get);
+            metrics.gauge("scheduler.queued", () -> {
+                synchronized (scheduler) {
+                    return queue.size();
+                }
+            });
+            metrics.gauge("scheduler.running", () -> {
+                synchronized (scheduler) {
+                    return running;
+                }
+            });
+        }
+
+        /**
+         * Closes the lane, the queued tasks still run.
+         */
+        public void close() {
+            synchronized (scheduler) {
+                closed = true;
+                if (queue.isEmpty() && running == 0) {
+                    scheduler.lanes.remove(this);
+                }
+            }
+        }
+
+        /**
+         * Queues a task of the channel.
+         *
+         * @param task The task.
+         * @throws RejectedExecutionException if the lane is closed.
+         */
+        public void execute(final Runnable task) {
+            synchronized (scheduler) {
+                if (closed) {
+                    throw new RejectedExecutionException("Lane " + name + " is closed");
+                }
+                if (queue.isEmpty() && running == 0) {
+                    // an idle lane competes from the current pass on
+                    pass = Math.max(pass, scheduler.pass);
+                }
+                queue.add(new Task(task, System.nanoTime()));
+            }
+            scheduler.dispatch();
+        }
+    }
+
+    /**
+     * The share of a channel.
+     *
+     * @param weight The share of the capacity while other channels are busy.
+     * @param quota The number of tasks running at once, 0 for the capacity.
+     */
+    public record Share(int weight, int quota) {
+
+        /** The share of a channel without settings. */
+        public static final Share DEFAULT = new Share(1, 0);
+
+        public Share {
+            if (weight <= 0 || quota < 0) {
+                throw new IllegalArgumentException("Invalid scheduler share: weight " + weight + ", quota " + quota);
+            }
+        }
+
+        /**
+         * Parses the share of a proxy port. Channels are separated by commas, each channel has the form
+         * {@code port@setting=value;setting=value}. The settings are {@code weight} and {@code quota}.
+         *
+         * @param shareString The shares of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the share of the port, {@link #DEFAULT} if the port has none.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Share of(final String shareString, final int proxyIpPort) {
+            int weight = DEFAULT.weight;
+            int quota = DEFAULT.quota;
+            for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(shareString, proxyIpPort, "scheduler")) {
+                switch (setting.name()) {
+                    case "weight" -> weight = setting.intValue();
+                    case "quota" -> quota = setting.intValue();
+                    default -> throw setting.invalid();
+                }
+            }
+            return new Share(weight, quota);
+        }
+    }
+
+    /**
+     * The scheduler shared by all channels, created on first use.
+     */
+    private static final class Shared {
+
+        private static final MIMPScheduler INSTANCE = new MIMPScheduler(DEFAULT_CAPACITY);
+    }
+}
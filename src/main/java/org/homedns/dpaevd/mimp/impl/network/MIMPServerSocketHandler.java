@@ -8,21 +8,46 @@
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.homedns.dpaevd.mimp.api.MIMPConstants;
 import org.homedns.dpaevd.mimp.api.config.IMIMPProperties;
 import org.homedns.dpaevd.mimp.api.network.IMIMPIOCallback;
 import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.MIMPEndOfStreamException;
+import org.homedns.dpaevd.mimp.api.network.MIMPServerSocketHandlerException;
 import org.homedns.dpaevd.mimp.api.network.MIMPSocketHandlerStatus;
+import org.homedns.dpaevd.mimp.api.util.HexDumpEncoder;
+import org.homedns.dpaevd.mimp.impl.cache.MIMPResponseCache;
 import org.homedns.dpaevd.mimp.impl.http.HTTPFunctions;
 import org.homedns.dpaevd.mimp.impl.http.HTTPHeader;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRewriter;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRules;
+import org.homedns.dpaevd.mimp.impl.http.HTTPMethod;
 import org.homedns.dpaevd.mimp.impl.http.HTTPRequest;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRequestView;
 import org.homedns.dpaevd.mimp.impl.http.HTTPResponse;
+import org.homedns.dpaevd.mimp.impl.http.HTTPResponseView;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRoute;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRouteTable;
+import org.homedns.dpaevd.mimp.impl.http.HTTPStub;
+import org.homedns.dpaevd.mimp.impl.http.HTTPStubs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,45 +62,302 @@ public class MIMPServerSocketHandler implements IMIMPServerSocketHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MIMPServerSocketHandler.class);
 
+    private static final byte[] LAST_CHUNK = {'\r', '\n', '0', '\r', '\n', '\r', '\n'};
+
+    /** The largest head held back until its end is read, a larger head is relayed as it is. */
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    private static final byte[] HTTP_VERSION = {'H', 'T', 'T', 'P', '/', '1', '.'};
+
+    private final MIMPAdmissionControl admission;
+
+    private volatile boolean trackingLost;
+
+    private long trackedBodyRemaining;
+
+    private MIMPResponseCache.Capture cacheCapture;
+
+    private boolean trackedChunkedBody;
+
+    private final Queue<PendingExchange> pendingExchanges;
+
+    private final MIMPRemoteConnector connector;
+
+    private final MIMPChannelContext context;
+
+    private volatile boolean awaitingResponse;
+
+    private volatile boolean clientEnded;
+
+    /** Released once the handler has been cleaned up, both sides of the connection are then finished. */
+    private final long createdNanos;
+
+    private final LongAdder halfCloses;
+
+    private HTTPRoute currentRoute;
+
+    private final HexDumpEncoder inBoundDumpEncoder;
+
+    private int inBoundChunks;
+
+    private long inBoundDumpOffset;
+
     private ExecutorService inBoundWorkerExecutor;
 
     private final IMIMPIOCallback iOCallback;
 
+    private final HexDumpEncoder outBoundDumpEncoder;
+
+    private int outBoundChunks;
+
+    private long outBoundDumpOffset;
+
     private ExecutorService outBoundWorkerExecutor;
 
     private final IMIMPProperties properties;
 
+    private volatile long lastActivityNanos;
+
+    private final LongAdder lifetimeTimeouts;
+
+    private final List<WatchedOutputStream> outputs;
+
     private final Socket proxySocket;
 
     private DataInputStream proxySocketIn;
 
     private DataOutputStream proxySocketOut;
 
+    private final LongAdder readIdleTimeouts;
+
+    private final int relaySampleInterval;
+
+    private final AtomicBoolean released;
+
+    private volatile boolean remoteEnded;
+
     private final Socket remoteSocket;
 
+    private final HTTPRequestView requestView;
+
+    private final boolean remoteOnDemand;
+
+    private final MIMPResponseCache responseCache;
+
+    private byte[] responseHeadBuffer;
+
+    private volatile boolean responseIdle;
+
+    private final LongAdder routeSwitches;
+
+    private final LongAdder routesRefused;
+
+    private final HTTPRouteTable routes;
+
     private DataInputStream remoteSocketIn;
 
     private DataOutputStream remoteSocketOut;
 
-    private final String remoteInfo;
+    private String remoteInfo;
 
     private volatile MIMPSocketHandlerStatus status;
 
+    private final HTTPStubs stubs;
+
+    private final MIMPTimeouts timeouts;
+
+    private final LongAdder stubsServed;
+
+    private boolean requestBodyDiscarded;
+
+    private long requestBodyRemaining;
+
     private final boolean traceHeaders;
 
+    private final boolean tracking;
+
+    private final Map<HTTPRoute, Upstream> upstreams;
+
+    private final boolean tracePayload;
+
+    private final LongAdder writeIdleTimeouts;
+
     public MIMPServerSocketHandler(final IMIMPIOCallback iOCallback, IMIMPProperties properties, final Socket proxySocket, final Socket remoteSocket) {
-        this.iOCallback = iOCallback;
+        this(iOCallback, properties, proxySocket, remoteSocket, contextOf(properties));
+    }
+
+    /**
+     * @param iOCallback Callback interface to handle the data exchange.
+     * @param properties Properties.
+     * @param proxySocket The socket of the client connection.
+     * @param remoteSocket The socket of the remote connection, it is connected by the context on demand if the
+     *                     context provides a remote connector.
+     * @param context The state shared by the handlers of the channel.
+     */
+    public MIMPServerSocketHandler(final IMIMPIOCallback iOCallback, IMIMPProperties properties, final Socket proxySocket,
+                                   final Socket remoteSocket, final MIMPChannelContext context) {
+        this.iOCallback = context.getShaper() == null ? iOCallback : context.getShaper().wrap(iOCallback, out -> out == proxySocketOut);
         this.properties = properties;
         this.proxySocket = proxySocket;
         this.remoteSocket = remoteSocket;
         this.status = MIMPSocketHandlerStatus.CONNECTED;
-        this.remoteInfo = remoteSocket.getInetAddress().getHostAddress() + ":" + remoteSocket.getPort();
+        this.createdNanos = System.nanoTime();
+        this.lastActivityNanos = createdNanos;
+        this.released = new AtomicBoolean();
+        this.admission = context.getAdmission();
+        this.context = context;
+        this.requestView = new HTTPRequestView();
+        this.responseHeadBuffer = new byte[0];
+        this.responseCache = context.getResponseCache();
+        this.stubs = context.getStubs();
+        this.stubsServed = context.getMetrics().counter("stubs.served");
+        this.routes = context.getRoutes();
+        this.routeSwitches = context.getMetrics().counter("routes.switched");
+        this.routesRefused = context.getMetrics().counter("routes.refused");
+        this.timeouts = context.getTimeouts();
+        this.outputs = new CopyOnWriteArrayList<>();
+        this.halfCloses = context.getMetrics().counter("connections.half.closed");
+        this.readIdleTimeouts = context.getMetrics().counter("timeouts.read.idle");
+        this.writeIdleTimeouts = context.getMetrics().counter("timeouts.write.idle");
+        this.lifetimeTimeouts = context.getMetrics().counter("timeouts.lifetime");
+        this.upstreams = new ConcurrentHashMap<>();
+        this.connector = context.getRemoteConnector();
+        this.remoteOnDemand = !remoteSocket.isConnected() && connector != null;
+        this.tracking = responseCache != null || !stubs.isEmpty() || !routes.isEmpty();
+        this.responseIdle = true;
+        this.pendingExchanges = new ConcurrentLinkedQueue<>();
+        this.relaySampleInterval = Math.max(1, properties.getIntValue(MIMPConstants.PROXY_JFR_RELAY_SAMPLE_KEY, 100));
+        this.remoteInfo = remoteSocket.isConnected() ? remoteSocket.getInetAddress().getHostAddress() + ":" + remoteSocket.getPort() : "(on demand)";
         this.traceHeaders = Boolean.parseBoolean(properties.getProperty(MIMPConstants.PROXY_TRACE_HEADERS_KEY, "false"));
+        this.tracePayload = Boolean.parseBoolean(properties.getProperty(MIMPConstants.PROXY_TRACE_PAYLOAD_KEY, "false"));
+        this.inBoundDumpEncoder = tracePayload ? new HexDumpEncoder() : null;
+        this.outBoundDumpEncoder = tracePayload ? new HexDumpEncoder() : null;
     }
 
     @Override
     public void cleanup() {
+        cleanup("closed");
+    }
+
+    @Override
+    public boolean closeIfIdle(final long quietNanos) {
+        // the exchanges are known exactly while they are tracked, otherwise the last chunk must have been a response
+        boolean idle = tracking && !trackingLost ? pendingExchanges.isEmpty() && responseIdle : !awaitingResponse;
+        if (idle && System.nanoTime() - lastActivityNanos >= quietNanos && !isNotConnectedOrOpen()) {
+            cleanup("drained while idle");
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean closeIfExpired(final long now) {
+        if (timeouts.isEmpty() || isNotConnectedOrOpen()) {
+            return false;
+        }
+        if (timeouts.lifetimeNanos() > 0 && now - createdNanos >= timeouts.lifetimeNanos()) {
+            return expire(lifetimeTimeouts, "lifetime expired");
+        }
+        boolean writing = false;
+        for (WatchedOutputStream output : outputs) {
+            long since = output.writingSince;
+            if (since != 0 && now - since >= timeouts.writeIdleNanos()) {
+                return expire(writeIdleTimeouts, "write idle");
+            }
+            writing |= since != 0;
+        }
+        if (timeouts.readIdleNanos() > 0 && !writing && now - lastActivityNanos >= timeouts.readIdleNanos()) {
+            return expire(readIdleTimeouts, "read idle");
+        }
+        return false;
+    }
+
+    private boolean expire(final LongAdder counter, final String reason) {
+        counter.increment();
+        LOGGER.info("Closing connection from {} to {}: {}", proxySocket.getRemoteSocketAddress(), remoteInfo, reason);
+        cleanup(reason);
+        return true;
+    }
+
+    /**
+     * Propagates the end of stream of a side with {@link Socket#shutdownOutput()}, so the other side still receives
+     * the rest of the data and then sees the end of stream too. The connection is released once both sides have
+     * ended. With routes the client connection is shared by several upstreams, the end of one of them releases it.
+     *
+     * @param client true if the client has ended its stream, false if the remote has.
+     */
+    private void endOfStream(final boolean client) {
+        List<Socket> targets = new ArrayList<>();
+        if (client) {
+            clientEnded = true;
+            if (remoteSocketOut != null) {
+                targets.add(remoteSocket);
+            }
+            upstreams.values().stream().filter(upstream -> upstream.socket.isConnected()).forEach(upstream -> targets.add(upstream.socket));
+        } else {
+            remoteEnded = true;
+            if (routes.isEmpty()) {
+                targets.add(proxySocket);
+            }
+        }
+        if (targets.isEmpty() || (clientEnded && remoteEnded)) {
+            cleanup(client ? "closed by the client" : "closed by the remote");
+            return;
+        }
+        try {
+            if (iOCallback instanceof MIMPShapedIOCallback shapedIOCallback) {
+                // the delayed writes are sent before the end of stream
+                shapedIOCallback.awaitDrained();
+            }
+            for (Socket target : targets) {
+                if (!target.isOutputShutdown()) {
+                    target.shutdownOutput();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            cleanup("half close failed: " + e.getMessage());
+            return;
+        }
+        halfCloses.increment();
+        LOGGER.debug("Half closed by the {}: {}", client ? "client" : "remote", remoteInfo);
+    }
+
+    /**
+     * Creates the context of a handler used without a channel, its header rules are read from the properties.
+     */
+    private static MIMPChannelContext contextOf(final IMIMPProperties properties) {
+        MIMPChannelContext context = new MIMPChannelContext();
+        context.setHeaderRules(HTTPHeaderRules.of(properties.getProperty(MIMPConstants.PROXY_HEADERS_KEY, ""),
+                properties.getProperty(MIMPConstants.PROXY_RESPONSE_HEADERS_KEY, "")));
+        return context;
+    }
+
+    /**
+     * Releases all resources.
+     *
+     * @param reason The reason reported to the flight recorder by the first call.
+     */
+    protected void cleanup(final String reason) {
         status = MIMPSocketHandlerStatus.DISCONNECTED;
+        if (released.compareAndSet(false, true)) {
+            MIMPHandlerCleanupEvent event = new MIMPHandlerCleanupEvent();
+            if (event.shouldCommit()) {
+                event.proxyPort = proxySocket.getLocalPort();
+                event.reason = reason;
+                event.lifetime = (System.nanoTime() - createdNanos) / 1_000_000;
+                event.commit();
+            }
+            if (admission != null) {
+                admission.release(proxySocket.getInetAddress());
+            }
+        }
+        if (iOCallback instanceof MIMPShapedIOCallback shapedIOCallback) {
+            try {
+                shapedIOCallback.awaitDrained();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (remoteSocketIn != null) {
             try {
                 remoteSocketIn.close();
@@ -128,6 +410,7 @@ public void cleanup() {
             }
             LOGGER.debug("Closed proxy socket");
         }
+        upstreams.values().forEach(Upstream::close);
         if (inBoundWorkerExecutor != null) {
             inBoundWorkerExecutor.shutdown();
             LOGGER.info("Shutdown worker executor for inbound traffic {}", remoteInfo);
@@ -140,15 +423,7 @@ public void cleanup() {
 
     @Override
     public void execute() {
-        try {
-            proxySocketIn = new DataInputStream(proxySocket.getInputStream());
-            proxySocketOut = new DataOutputStream((proxySocket.getOutputStream()));
-            remoteSocketIn = new DataInputStream(remoteSocket.getInputStream());
-            remoteSocketOut = new DataOutputStream((remoteSocket.getOutputStream()));
-        } catch (IOException ioe) {
-            LOGGER.error("Cannot initialize socket IO! Cause: {}", ioe.getMessage());
-            status = MIMPSocketHandlerStatus.ERROR;
-            cleanup();
+        if (!openStreams()) {
             return;
         }
 
@@ -158,24 +433,116 @@ public void execute() {
         outBoundWorkerExecutor = Executors.newFixedThreadPool(1);
 
         outBoundWorkerExecutor.submit(() -> handleProxyToRemoteStream(proxySocketIn, remoteSocketOut));
-        inBoundWorkerExecutor.submit(() -> handleRemoteToProxyStream(remoteSocketIn, proxySocketOut));
+        if (remoteSocketIn != null) {
+            inBoundWorkerExecutor.submit(() -> handleRemoteToProxyStream(remoteSocketIn, proxySocketOut));
+        }
 
     }
 
-    protected int getHttpProtocolStartIndex(final byte[] buffer) {
-        int index = -1;
-        for (int i = 0; i < buffer.length - 5; i++) {
-            if (buffer[i] == 'H' && buffer[i + 1] == 'T' && buffer[i + 2] == 'T' && buffer[i + 3] == 'P' && buffer[i + 4] == '/' && buffer[i + 5] == '1') {
-                index = i;
-                break;
+    /**
+     * @return false if the streams of the sockets cannot be opened, the handler is then cleaned up.
+     */
+    private boolean openStreams() {
+        try {
+            proxySocketIn = new DataInputStream(proxySocket.getInputStream());
+            proxySocketOut = watched(proxySocket.getOutputStream());
+            if (!remoteOnDemand) {
+                remoteSocketIn = new DataInputStream(remoteSocket.getInputStream());
+                remoteSocketOut = watched(remoteSocket.getOutputStream());
             }
+        } catch (IOException ioe) {
+            LOGGER.error("Cannot initialize socket IO! Cause: {}", ioe.getMessage());
+            status = MIMPSocketHandlerStatus.ERROR;
+            cleanup("io initialization failed: " + ioe.getMessage());
+            return false;
         }
-        return index;
+        return true;
+    }
+
+    /**
+     * Waits until all pending responses have been relayed.
+     *
+     * @return false if the pending responses cannot be followed anymore or the handler is disconnected.
+     */
+    private boolean awaitIdle() throws InterruptedException {
+        synchronized (pendingExchanges) {
+            while (!pendingExchanges.isEmpty() || !responseIdle) {
+                if (trackingLost || isNotConnectedOrOpen()) {
+                    return false;
+                }
+                pendingExchanges.wait(100);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops following the exchanges on this connection, used as soon as the message framing cannot be followed
+     * reliably. Afterwards requests are neither stubbed nor served from the cache.
+     */
+    private void stopTracking(final String reason) {
+        if (!trackingLost) {
+            trackingLost = true;
+            synchronized (pendingExchanges) {
+                pendingExchanges.notifyAll();
+            }
+            LOGGER.debug("Exchange tracking stopped for {}: {}", remoteInfo, reason);
+        }
+    }
+
+    private void commitRelayChunk(final String direction, final int size) {
+        MIMPRelayChunkEvent event = new MIMPRelayChunkEvent();
+        if (event.shouldCommit()) {
+            event.proxyPort = proxySocket.getLocalPort();
+            event.direction = direction;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Logs the hex dump of a relayed chunk. Each direction owns its encoder, the method is called only by the
+     * worker thread of that direction.
+     */
+    private void dumpPayload(final String direction, final HexDumpEncoder encoder, final long offset, final byte[] buffer, final int length) {
+        StringBuilder buf = new StringBuilder(96 + encoder.encodedLength(length));
+        buf.append('\n').append(direction).append(" port ").append(proxySocket.getLocalPort())
+                .append(">>".equals(direction) ? " --> port " : " <-- port ").append(remoteSocket.getPort())
+                .append(", ").append(length).append(" bytes\n");
+        try {
+            encoder.dump(buffer, 0, length, offset, buf);
+        } catch (IOException ioe) {
+            // a StringBuilder never throws
+            return;
+        }
+        LOGGER.info(buf.toString());
+    }
+
+    /**
+     * Called by the response worker when the body of the current response has been relayed.
+     */
+    private void completeExchange() {
+        cacheCapture = null;
+        responseIdle = true;
+        synchronized (pendingExchanges) {
+            pendingExchanges.notifyAll();
+        }
+    }
+
+    protected int getHttpProtocolStartIndex(final byte[] buffer) {
+        return getHttpProtocolStartIndex(buffer, 0, buffer.length);
     }
 
     protected int getRequestStartIndex(final byte[] buffer) {
+        return getRequestStartIndex(buffer, buffer.length);
+    }
+
+    /**
+     * @param to The index after the last byte read into the buffer.
+     */
+    protected int getRequestStartIndex(final byte[] buffer, final int to) {
         int index = -1;
-        for (int i = 0; i < buffer.length - 5; i++) {
+        for (int i = 0; i < to - 5; i++) {
             if (buffer[i] == 'G' && buffer[i + 1] == 'E' && buffer[i + 2] == 'T' && buffer[i + 3] == ' ' && buffer[i + 4] == '/') {
                 index = i;
                 break;
@@ -196,9 +563,38 @@ protected int getRequestStartIndex(final byte[] buffer) {
         return index;
     }
 
+    protected int getHttpProtocolStartIndex(final byte[] buffer, final int from) {
+        return getHttpProtocolStartIndex(buffer, from, buffer.length);
+    }
+
+    /**
+     * @param to The index after the last byte read into the buffer.
+     */
+    protected int getHttpProtocolStartIndex(final byte[] buffer, final int from, final int to) {
+        int index = -1;
+        for (int i = from; i < to - 5; i++) {
+            if (buffer[i] == 'H' && buffer[i + 1] == 'T' && buffer[i + 2] == 'T' && buffer[i + 3] == 'P' && buffer[i + 4] == '/' && buffer[i + 5] == '1') {
+                index = i;
+                break;
+            }
+        }
+        return index;
+    }
+
     protected int getHttpHeaderEndIndex(final byte[] buffer) {
+        return getHttpHeaderEndIndex(buffer, 0);
+    }
+
+    protected int getHttpHeaderEndIndex(final byte[] buffer, final int from) {
+        return getHttpHeaderEndIndex(buffer, from, buffer.length);
+    }
+
+    /**
+     * @param to The index after the last byte read into the buffer.
+     */
+    protected int getHttpHeaderEndIndex(final byte[] buffer, final int from, final int to) {
         int index = -1;
-        for (int i = 0; i < buffer.length - 3; i++) {
+        for (int i = from; i < to - 3; i++) {
             if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
                 index = i;
                 break;
@@ -207,6 +603,90 @@ protected int getHttpHeaderEndIndex(final byte[] buffer) {
         return index;
     }
 
+    /**
+     * @param out The remote output stream given to the worker, null if the remote is connected on demand.
+     * @return the output stream of the upstream of the current route, the upstream is connected and its worker
+     * started on first use.
+     */
+    private DataOutputStream remote(final DataOutputStream out) throws IOException {
+        if (currentRoute != null) {
+            return routed(currentRoute);
+        }
+        if (out != null) {
+            return out;
+        }
+        if (remoteSocketOut == null) {
+            connector.connect(remoteSocket, null);
+            remoteInfo = remoteSocket.getInetAddress().getHostAddress() + ":" + remoteSocket.getPort();
+            remoteSocketIn = new DataInputStream(remoteSocket.getInputStream());
+            remoteSocketOut = watched(remoteSocket.getOutputStream());
+            LOGGER.info("Establish IO with remote {} on demand", remoteInfo);
+            final DataInputStream in = remoteSocketIn;
+            inBoundWorkerExecutor.submit(() -> handleRemoteToProxyStream(in, proxySocketOut));
+        }
+        return remoteSocketOut;
+    }
+
+    /**
+     * @return the output stream of a socket, its blocked writes are watched if the channel has a write timeout.
+     */
+    private DataOutputStream watched(final OutputStream out) {
+        if (timeouts.writeIdleNanos() == 0) {
+            return new DataOutputStream(out);
+        }
+        WatchedOutputStream output = new WatchedOutputStream(out);
+        outputs.add(output);
+        return new DataOutputStream(output);
+    }
+
+    /**
+     * @return the output stream of the upstream of a route, the upstream is connected on first use.
+     */
+    private DataOutputStream routed(final HTTPRoute route) throws IOException {
+        Upstream upstream = upstreams.get(route);
+        if (upstream == null) {
+            upstream = new Upstream(new Socket());
+            upstreams.put(route, upstream);
+            connector.connect(upstream.socket, route);
+            upstream.in = new DataInputStream(upstream.socket.getInputStream());
+            upstream.out = watched(upstream.socket.getOutputStream());
+            upstream.worker = Executors.newFixedThreadPool(1);
+            LOGGER.info("Establish IO with remote {} for route {}", route.remoteHostName() + ":" + route.remoteIpPort(), route);
+            final DataInputStream in = upstream.in;
+            upstream.worker.submit(() -> handleRemoteToProxyStream(in, proxySocketOut));
+        }
+        return upstream.out;
+    }
+
+    /**
+     * Selects the upstream of a request. The upstream is switched only once the pending responses of the previous
+     * one have been relayed, otherwise the responses could overtake each other.
+     *
+     * @return false if the upstream must be switched while the pending responses cannot be followed anymore, the
+     * request must not be sent.
+     */
+    private boolean selectRoute(final String host, final String requestURI) throws InterruptedException {
+        HTTPRoute route = routes.match(host, requestURI);
+        if (route != currentRoute) {
+            if (trackingLost || !awaitIdle()) {
+                return false;
+            }
+            currentRoute = route;
+            routeSwitches.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Closes the connection instead of sending a request whose upstream cannot be selected safely, responses may
+     * still be pending so no error response can be written.
+     */
+    private void refuseRoute(final String reason) {
+        routesRefused.increment();
+        LOGGER.warn("Closing connection from {}: {}", proxySocket.getRemoteSocketAddress(), reason);
+        cleanup(reason);
+    }
+
     @Override
     public Socket getProxySocket() {
         return proxySocket;
@@ -223,89 +703,681 @@ public MIMPSocketHandlerStatus getStatus() {
     }
 
     public void handleProxyToRemoteStream(final DataInputStream in, final DataOutputStream out) {
+        Reader reader = new Reader(in);
+        // the bytes of a chunk following a complete request, they are handled before the next read
+        byte[] remainder = null;
+        // the start of a request head whose end has not been read yet
+        byte[] partialHead = null;
         try {
             while(!isNotConnectedOrOpen()) {
-                byte[] buffer = iOCallback.in(in);
-                if (buffer.length > 0) {
-                    int httpStartIndex = getRequestStartIndex(buffer);
-                    if (httpStartIndex < 0) {
-                        iOCallback.out(out, buffer);
+                byte[] buffer;
+                // the bytes of the buffer from 0 to length are the chunk, a leased buffer is longer
+                int length;
+                if (remainder != null) {
+                    buffer = remainder;
+                    length = remainder.length;
+                    remainder = null;
+                } else {
+                    buffer = reader.next();
+                    length = reader.length();
+                    if (length == 0) {
+                        continue;
+                    }
+                    lastActivityNanos = System.nanoTime();
+                    if (++outBoundChunks == relaySampleInterval) {
+                        outBoundChunks = 0;
+                        commitRelayChunk(">>", length);
+                    }
+                    if (tracePayload) {
+                        dumpPayload(">>", outBoundDumpEncoder, outBoundDumpOffset, buffer, length);
+                        outBoundDumpOffset += length;
+                    }
+                    if (partialHead != null) {
+                        buffer = concat(partialHead, buffer, length);
+                        length = buffer.length;
+                        partialHead = null;
+                    }
+                }
+                awaitingResponse = true;
+                if (requestBodyRemaining > 0) {
+                    // the body of the current request is forwarded, or discarded if the request has been stubbed
+                    int count = (int) Math.min(requestBodyRemaining, length);
+                    requestBodyRemaining -= count;
+                    if (!requestBodyDiscarded) {
+                        iOCallback.out(remote(out), buffer, 0, count);
+                    }
+                    if (count < length) {
+                        remainder = Arrays.copyOfRange(buffer, count, length);
+                    }
+                    continue;
+                }
+                int httpStartIndex = getRequestStartIndex(buffer, length);
+                if (httpStartIndex < 0) {
+                    iOCallback.out(remote(out), buffer, 0, length);
+                } else {
+                    int httpEndIndex = getHttpHeaderEndIndex(buffer, httpStartIndex, length);
+                    if (httpEndIndex < 0 && length - httpStartIndex < MAX_HEAD_SIZE && isRequestLineStart(buffer, httpStartIndex, length)) {
+                        // the head is held back until its end is read, so it is patched and routed as a whole
+                        if (httpStartIndex > 0) {
+                            iOCallback.out(remote(out), buffer, 0, httpStartIndex);
+                        }
+                        partialHead = Arrays.copyOfRange(buffer, httpStartIndex, length);
+                        continue;
+                    }
+                    if (httpEndIndex < 0 || !requestView.wrap(buffer, httpStartIndex, httpEndIndex + 4)) {
+                        String reason = httpEndIndex < 0 ? "request head too large" : "invalid request line";
+                        if (!routes.isEmpty()) {
+                            refuseRoute(reason);
+                            break;
+                        }
+                        if (tracking) {
+                            stopTracking(reason);
+                        }
+                        iOCallback.out(remote(out), buffer, 0, length);
                     } else {
-                        int httpEndIndex = getHttpHeaderEndIndex(buffer);
-                        if (httpEndIndex < 0) {
-                            iOCallback.out(out, buffer);
-                        } else {
-                            String httpHeader = new String(buffer, httpStartIndex, httpEndIndex - httpStartIndex + 4);
-                            HTTPRequest request = HTTPFunctions.createRequest(httpHeader);
-
-                            // patch headers
-                            List<HTTPHeader> additionalHeaders = HTTPFunctions.getHeaders(properties.getProperty(MIMPConstants.PROXY_HEADERS_KEY, ""));
-                            if (!additionalHeaders.isEmpty()) {
-                                HTTPFunctions.addOrReplaceHeaders(request, additionalHeaders);
+                        // the request is materialized only if it is patched, looked up or traced
+                        HTTPRequest request = null;
+                        List<HTTPHeader> additionalHeaders = context.getHeaderRules().requestHeaders();
+                        if (!additionalHeaders.isEmpty() && additionalHeaders.stream().anyMatch(h -> !requestView.contains(h.name()))) {
+                            request = requestView.toRequest();
+                            HTTPFunctions.addOrReplaceHeaders(request, additionalHeaders);
+                        }
+                        if (!routes.isEmpty() && !selectRoute(request == null ? requestView.get("Host") : request.headers().get("Host"),
+                                requestView.requestURI())) {
+                            refuseRoute("route switch while the pending responses cannot be followed");
+                            break;
+                        }
+                        if (tracking && !trackingLost) {
+                            HTTPMethod method = requestView.method();
+                            // the length of the body is unknown for a transfer coding
+                            long bodyLength = requestView.contains("Transfer-Encoding") ? -1
+                                    : requestView.contains("Content-Length") ? requestView.contentLength() : 0;
+                            int headEnd = httpEndIndex + 4;
+                            if (httpStartIndex != 0) {
+                                stopTracking("request framing lost");
+                            } else {
+                                if (bodyLength >= 0 && length - headEnd > bodyLength) {
+                                    // pipelined requests are handled one by one
+                                    remainder = Arrays.copyOfRange(buffer, headEnd + (int) bodyLength, length);
+                                    length = headEnd + (int) bodyLength;
+                                }
+                                requestBodyRemaining = Math.max(0, bodyLength - (length - headEnd));
+                                requestBodyDiscarded = false;
+                                if (request == null && (responseCache != null || !stubs.isEmpty())) {
+                                    request = requestView.toRequest();
+                                }
+                                // a request is stubbed only if the end of its body is known, the body is not forwarded
+                                HTTPStub stub = stubs.isEmpty() || bodyLength < 0 ? null : stubs.match(request);
+                                if (stub != null && serveStub(stub)) {
+                                    requestBodyDiscarded = true;
+                                    continue;
+                                }
+                                if (responseCache == null) {
+                                    pendingExchanges.add(new PendingExchange(null, method, null, null));
+                                } else if (serveFromCache(request)) {
+                                    continue;
+                                }
                             }
+                        }
+                        if (request == null || request.headers().size() == requestView.size()) {
                             if (traceHeaders) {
-                                StringBuilder buf = new StringBuilder();
-                                buf.append("\n>> ").append("port ").append(proxySocket.getLocalPort()).append(" --> port ").append(remoteSocket.getPort());
-                                buf.append("\n>> ").append(request.method().name()).append(" ").append(request.requestURI()).append(" ").append(request.protocol().getProtocolString());
-                                request.headers().forEach(h -> buf.append(String.format("\n>> %s: %s", h.name(), String.join(",", h.values()))));
-                                buf.append('\n');
-                                LOGGER.info(buf.toString());
+                                traceRequest(requestView.toRequest());
                             }
-                            byte[] requestBuffer = HTTPFunctions.requestToBytes(request);
-                            byte[] outBuffer = new byte[buffer.length - httpHeader.length() + requestBuffer.length];
-                            System.arraycopy(buffer, 0, outBuffer, 0, httpStartIndex);
-                            System.arraycopy(requestBuffer, 0, outBuffer, httpStartIndex, requestBuffer.length);
-                            System.arraycopy(buffer, httpEndIndex + 4, outBuffer, httpStartIndex + requestBuffer.length, buffer.length - httpEndIndex - 4);
+                            iOCallback.out(remote(out), buffer, 0, length);
+                            continue;
+                        }
+                        if (traceHeaders) {
+                            traceRequest(request);
+                        }
+                        byte[] requestBuffer = HTTPFunctions.requestToBytes(request);
+                        byte[] outBuffer = new byte[length - requestView.length() + requestBuffer.length];
+                        System.arraycopy(buffer, 0, outBuffer, 0, httpStartIndex);
+                        System.arraycopy(requestBuffer, 0, outBuffer, httpStartIndex, requestBuffer.length);
+                        System.arraycopy(buffer, httpEndIndex + 4, outBuffer, httpStartIndex + requestBuffer.length, length - httpEndIndex - 4);
 
-                            iOCallback.out(remoteSocketOut, outBuffer);
+                        MIMPHeaderPatchedEvent event = new MIMPHeaderPatchedEvent();
+                        if (event.shouldCommit()) {
+                            event.proxyPort = proxySocket.getLocalPort();
+                            event.direction = ">>";
+                            event.bytesAdded = requestBuffer.length - requestView.length();
+                            event.commit();
                         }
+
+                        iOCallback.out(remote(out), outBuffer);
                     }
                 }
             }
+        } catch (MIMPEndOfStreamException eos) {
+            if (partialHead != null) {
+                relayPartialHead(true, out, partialHead);
+            }
+            endOfStream(true);
         } catch (Exception e) {
             LOGGER.error("Error handling proxy to remote stream! Cause: {}", e.getMessage());
             status = MIMPSocketHandlerStatus.ERROR;
-            cleanup();
+            cleanup("proxy to remote: " + e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Relays the incomplete head held back when its stream ended, as it is.
+     *
+     * @param request true for the head of a request, written to the upstream of the current route.
+     */
+    private void relayPartialHead(final boolean request, final DataOutputStream out, final byte[] partialHead) {
+        try {
+            iOCallback.out(request ? remote(out) : out, partialHead);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Cannot relay the incomplete {} head. Reason: {}", request ? "request" : "response", e.getMessage());
         }
     }
 
     public void handleRemoteToProxyStream(final DataInputStream in, final DataOutputStream out) {
+        HTTPResponseView responseView = new HTTPResponseView();
+        Reader reader = new Reader(in);
+        // the start of a response head whose end has not been read yet
+        byte[] partialHead = null;
         try {
             while(!isNotConnectedOrOpen()) {
-                byte[] buffer = iOCallback.in(in);
-                if (buffer.length > 0) {
-                    int httpStartIndex = getHttpProtocolStartIndex(buffer);
-                    if (httpStartIndex < 0) {
-                        iOCallback.out(out, buffer);
-                    } else {
-                        int httpEndIndex = getHttpHeaderEndIndex(buffer);
-                        if (httpEndIndex < 0) {
-                            iOCallback.out(out, buffer);
-                        } else {
-                            String httpHeader = new String(buffer, httpStartIndex, httpEndIndex - httpStartIndex + 4);
-                            HTTPResponse response = HTTPFunctions.createResponse(httpHeader);
-                            if (traceHeaders) {
-                                StringBuilder buf = new StringBuilder();
-                                buf.append("\n<< ").append("port ").append(proxySocket.getLocalPort()).append(" <-- port ").append(remoteSocket.getPort());
-                                buf.append("\n<< ").append(response.protocol().getProtocolString()).append(" ").append(response.statusCode()).append(" ").append(response.reasonPhrase());
-                                response.headers().forEach(h -> buf.append(String.format("\n<< %s: %s", h.name(), String.join(",", h.values()))));
-                                buf.append('\n');
-                                LOGGER.info(buf.toString());
-                            }
-                            iOCallback.out(out, buffer);
+                byte[] buffer = reader.next();
+                // the bytes of the buffer from 0 to length are the chunk, a leased buffer is longer
+                int length = reader.length();
+                if (length > 0) {
+                    if (++inBoundChunks == relaySampleInterval) {
+                        inBoundChunks = 0;
+                        commitRelayChunk("<<", length);
+                    }
+                    if (tracePayload) {
+                        dumpPayload("<<", inBoundDumpEncoder, inBoundDumpOffset, buffer, length);
+                        inBoundDumpOffset += length;
+                    }
+                    if (partialHead != null) {
+                        buffer = concat(partialHead, buffer, length);
+                        length = buffer.length;
+                        partialHead = null;
+                    }
+                    int httpStartIndex = getHttpProtocolStartIndex(buffer, 0, length);
+                    int httpEndIndex = httpStartIndex < 0 ? -1 : getHttpHeaderEndIndex(buffer, httpStartIndex, length);
+                    if (httpEndIndex >= 0 && traceHeaders && responseView.wrap(buffer, httpStartIndex, httpEndIndex + 4)) {
+                        HTTPResponse response = responseView.toResponse();
+                        StringBuilder buf = new StringBuilder();
+                        buf.append("\n<< ").append("port ").append(proxySocket.getLocalPort()).append(" <-- port ").append(remoteSocket.getPort());
+                        buf.append("\n<< ").append(response.protocol().getProtocolString()).append(" ").append(response.statusCode()).append(" ").append(response.reasonPhrase());
+                        response.headers().forEach(h -> buf.append(String.format("\n<< %s: %s", h.name(), h.value())));
+                        buf.append('\n');
+                        LOGGER.info(buf.toString());
+                    }
+                    if (tracking && !trackingLost) {
+                        int held = relayTracked(out, buffer, length, responseView);
+                        if (held < length) {
+                            partialHead = Arrays.copyOfRange(buffer, held, length);
                         }
+                    } else if (httpEndIndex < 0 && !context.getResponseRewriter().isEmpty() && length < MAX_HEAD_SIZE
+                            && isStatusLineStart(buffer, 0, length)) {
+                        // the head is held back until its end is read, so it is rewritten as a whole
+                        partialHead = Arrays.copyOf(buffer, length);
+                    } else {
+                        relayResponses(out, buffer, 0, length);
                     }
+                    awaitingResponse = false;
+                    lastActivityNanos = System.nanoTime();
                 }
             }
+        } catch (MIMPEndOfStreamException eos) {
+            if (partialHead != null) {
+                relayPartialHead(false, out, partialHead);
+            }
+            endOfStream(false);
         } catch (Exception e) {
             LOGGER.error("Error handling proxy to remote stream! Cause: {}", e.getMessage());
             status = MIMPSocketHandlerStatus.ERROR;
-            cleanup();
+            cleanup("remote to proxy: " + e.getMessage());
+        } finally {
+            reader.close();
+            if (cacheCapture != null) {
+                cacheCapture.abort();
+                cacheCapture = null;
+            }
+        }
+    }
+
+    private void traceRequest(final HTTPRequest request) {
+        StringBuilder buf = new StringBuilder();
+        buf.append("\n>> ").append("port ").append(proxySocket.getLocalPort()).append(" --> port ").append(remoteSocket.getPort());
+        buf.append("\n>> ").append(request.method().name()).append(" ").append(request.requestURI()).append(" ").append(request.protocol().getProtocolString());
+        request.headers().forEach(h -> buf.append(String.format("\n>> %s: %s", h.name(), h.value())));
+        buf.append('\n');
+        LOGGER.info(buf.toString());
+    }
+
+    /**
+     * @param to The index after the last byte read into the buffer.
+     * @return true if the bytes from the index can be the start of a request line: they start a line and are
+     * printable up to the end of the line, which ends with the protocol version.
+     */
+    protected boolean isRequestLineStart(final byte[] buffer, final int index, final int to) {
+        if (index > 0 && buffer[index - 1] != '\n') {
+            return false;
+        }
+        int end = index;
+        while (end < to && buffer[end] != '\r') {
+            if (buffer[end] < 0x20 || buffer[end] > 0x7e) {
+                return false;
+            }
+            end++;
         }
+        return end == to || (end - index > HTTP_VERSION.length + 1
+                && Arrays.equals(buffer, end - HTTP_VERSION.length - 1, end - 1, HTTP_VERSION, 0, HTTP_VERSION.length));
+    }
+
+    /**
+     * @param to The index after the last byte read into the buffer.
+     * @return true if the bytes from the index can be the start of a status line whose head has not been read
+     * completely.
+     */
+    protected boolean isStatusLineStart(final byte[] buffer, final int index, final int to) {
+        int length = Math.min(to - index, HTTP_VERSION.length);
+        return Arrays.equals(buffer, index, index + length, HTTP_VERSION, 0, length)
+                && (to - index <= 12 || isStatusLine(buffer, index, to));
+    }
+
+    /**
+     * @return the bytes of the first array followed by the first bytes of the second.
+     */
+    private static byte[] concat(final byte[] first, final byte[] second, final int length) {
+        byte[] bytes = Arrays.copyOf(first, first.length + length);
+        System.arraycopy(second, 0, bytes, first.length, length);
+        return bytes;
+    }
+
+    /**
+     * @return true if the buffer contains a HTTP/1.x status line at the index.
+     */
+    protected boolean isStatusLine(final byte[] buffer, final int index) {
+        return isStatusLine(buffer, index, buffer.length);
+    }
+
+    /**
+     * @param to The index after the last byte read into the buffer.
+     * @return true if the buffer contains a HTTP/1.x status line at the index.
+     */
+    protected boolean isStatusLine(final byte[] buffer, final int index, final int to) {
+        return to > index + 12 && buffer[index + 8] == ' '
+                && Character.isDigit(buffer[index + 9]) && Character.isDigit(buffer[index + 10]) && Character.isDigit(buffer[index + 11])
+                && (index == 0 || buffer[index - 1] == '\n');
+    }
+
+    /**
+     * Writes a slice of a chunk, the first response header block within the slice is rewritten.
+     */
+    private void relayResponses(final DataOutputStream out, final byte[] buffer, final int from, final int to) {
+        if (from >= to) {
+            return;
+        }
+        HTTPHeaderRewriter responseRewriter = context.getResponseRewriter();
+        int headStart = responseRewriter.isEmpty() ? -1 : getHttpProtocolStartIndex(buffer, from, to);
+        int headEnd = headStart < 0 || !isStatusLine(buffer, headStart, to) ? -1 : getHttpHeaderEndIndex(buffer, headStart, to);
+        if (headEnd >= 0 && buffer[headStart + 9] == '1' && context.isDraining()) {
+            // interim responses and protocol switches keep their connection header while draining
+            responseRewriter = context.getHeaderRules().responseRewriter();
+            headEnd = responseRewriter.isEmpty() ? -1 : headEnd;
+        }
+        if (headEnd < 0 || headEnd + 4 > to) {
+            iOCallback.out(out, buffer, from, to - from);
+        } else {
+            rewriteResponseHead(responseRewriter, out, buffer, from, headStart, headEnd + 4, to);
+        }
+    }
+
+    /**
+     * Writes a slice of a chunk containing a response header block, the header block is replaced by its rewritten
+     * copy while the bytes before and after it are written from the original buffer.
+     */
+    private synchronized void rewriteResponseHead(final HTTPHeaderRewriter responseRewriter, final DataOutputStream out, final byte[] buffer, final int from, final int headStart, final int headEnd, final int to) {
+        int maxLength = responseRewriter.maxLength(headEnd - headStart);
+        if (responseHeadBuffer.length < maxLength) {
+            responseHeadBuffer = new byte[maxLength];
+        }
+        int headLength = responseRewriter.rewrite(buffer, headStart, headEnd, responseHeadBuffer);
+        if (headStart > from) {
+            iOCallback.out(out, buffer, from, headStart - from);
+        }
+        iOCallback.out(out, responseHeadBuffer, 0, headLength);
+        if (headEnd < to) {
+            iOCallback.out(out, buffer, headEnd, to - headEnd);
+        }
+        MIMPHeaderPatchedEvent event = new MIMPHeaderPatchedEvent();
+        if (event.shouldCommit()) {
+            event.proxyPort = proxySocket.getLocalPort();
+            event.direction = "<<";
+            event.bytesAdded = headLength - (headEnd - headStart);
+            event.commit();
+        }
+    }
+
+    /**
+     * Relays a chunk of responses following the message framing, so that responses can be stored and the
+     * {@code 304} answers to revalidations can be replaced by the stored responses. Framing that cannot be
+     * followed (close delimited bodies, heads larger than {@value #MAX_HEAD_SIZE} bytes, upgrades) disables the
+     * cache for the connection.
+     *
+     * @return the index of a head whose end has not been read, the bytes from there are held back; the length of
+     * the chunk if it was relayed completely.
+     */
+    private int relayTracked(final DataOutputStream out, final byte[] buffer, final int length, final HTTPResponseView response) {
+        int position = 0;
+        int written = 0;
+        while (position < length && !trackingLost) {
+            if (trackedBodyRemaining > 0) {
+                int count = (int) Math.min(trackedBodyRemaining, length - position);
+                if (cacheCapture != null) {
+                    cacheCapture.append(buffer, position, count);
+                }
+                position += count;
+                trackedBodyRemaining -= count;
+                if (trackedBodyRemaining == 0) {
+                    completeExchange();
+                }
+            } else if (trackedChunkedBody) {
+                int lastChunk = indexOf(buffer, position, length, LAST_CHUNK);
+                if (lastChunk < 0) {
+                    position = length;
+                } else {
+                    position = lastChunk + LAST_CHUNK.length;
+                    trackedChunkedBody = false;
+                    completeExchange();
+                }
+            } else {
+                int headEnd = isStatusLine(buffer, position, length) ? getHttpHeaderEndIndex(buffer, position, length) : -1;
+                if (headEnd < 0 && length - position < MAX_HEAD_SIZE && isStatusLineStart(buffer, position, length)) {
+                    relayResponses(out, buffer, written, position);
+                    return position;
+                }
+                if (headEnd < 0 || !response.wrap(buffer, position, headEnd + 4)) {
+                    stopTracking("response framing lost");
+                    break;
+                }
+                headEnd += 4;
+                if (response.statusCode() == 101) {
+                    stopTracking("protocol upgrade");
+                    break;
+                }
+                if (response.statusCode() < 200) {
+                    position = headEnd;
+                    continue;
+                }
+                responseIdle = false;
+                PendingExchange exchange = pendingExchanges.poll();
+                if (exchange == null) {
+                    stopTracking("unexpected response");
+                    break;
+                }
+                if (exchange.entry() != null && response.statusCode() == 304) {
+                    byte[] stored = responseCache.read(exchange.entry());
+                    if (stored != null) {
+                        responseCache.revalidated(exchange.entry(), response.toResponse());
+                        relayResponses(out, buffer, written, position);
+                        writeCachedResponse(stored, exchange.entry().getHeadLength());
+                        written = headEnd;
+                    }
+                    position = headEnd;
+                    completeExchange();
+                    continue;
+                }
+                long contentLength = 0;
+                if (exchange.method() != HTTPMethod.HEAD && response.statusCode() != 204 && response.statusCode() != 304) {
+                    boolean chunked = response.hasToken("Transfer-Encoding", "chunked");
+                    contentLength = chunked ? -1 : response.contentLength();
+                    if (contentLength < 0) {
+                        if (!chunked) {
+                            stopTracking("close delimited response");
+                            break;
+                        }
+                        trackedChunkedBody = true;
+                    }
+                }
+                if (exchange.key() != null && contentLength >= 0) {
+                    cacheCapture = responseCache.capture(exchange.key(), exchange.request(), response.toResponse(), headEnd - position, contentLength);
+                    if (cacheCapture != null) {
+                        cacheCapture.append(buffer, position, headEnd - position);
+                    }
+                }
+                position = headEnd;
+                if (contentLength > 0) {
+                    trackedBodyRemaining = contentLength;
+                } else if (contentLength == 0) {
+                    completeExchange();
+                }
+            }
+        }
+        if (trackingLost && cacheCapture != null) {
+            cacheCapture.abort();
+            cacheCapture = null;
+        }
+        relayResponses(out, buffer, written, length);
+        return length;
+    }
+
+    /**
+     * Serves a stub once all pending responses have been relayed, so the order of the responses on the connection is
+     * preserved. The encoded response is written with a single write.
+     *
+     * @return false if the pending responses cannot be followed anymore, the request is forwarded.
+     */
+    private boolean serveStub(final HTTPStub stub) throws InterruptedException {
+        if (!awaitIdle()) {
+            return false;
+        }
+        iOCallback.out(proxySocketOut, stub.response());
+        stubsServed.increment();
+        LOGGER.debug("Served stub {} on port {}", stub.name(), proxySocket.getLocalPort());
+        return true;
+    }
+
+    /**
+     * Serves a fresh stored response or prepares the request for its exchange with the remote. Stored responses are
+     * served only while no response is pending, so the order of the responses on the connection is preserved.
+     *
+     * @return true if the response has been served from the cache.
+     */
+    private boolean serveFromCache(final HTTPRequest request) {
+        String key = MIMPResponseCache.key(request);
+        MIMPResponseCache.Entry entry = key == null ? null : responseCache.lookup(key, request);
+        boolean fresh = entry != null && responseCache.isFresh(entry, request);
+        if (fresh && pendingExchanges.isEmpty() && responseIdle) {
+            byte[] stored = responseCache.read(entry);
+            if (stored != null) {
+                writeCachedResponse(stored, entry.getHeadLength());
+                return true;
+            }
+        }
+        boolean revalidate = entry != null && !fresh && responseCache.prepareRevalidation(entry, request);
+        pendingExchanges.add(new PendingExchange(key, request.method(), request, revalidate ? entry : null));
+        return false;
+    }
+
+    private void writeCachedResponse(final byte[] response, final int headLength) {
+        HTTPHeaderRewriter responseRewriter = context.getResponseRewriter();
+        if (responseRewriter.isEmpty()) {
+            iOCallback.out(proxySocketOut, response);
+        } else {
+            rewriteResponseHead(responseRewriter, proxySocketOut, response, 0, 0, headLength, response.length);
+        }
+    }
+
+    private static int indexOf(final byte[] buffer, final int from, final int to, final byte[] pattern) {
+        for (int i = from; i <= to - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && buffer[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
     public boolean isNotConnectedOrOpen() {
         return proxySocket.isClosed() || remoteSocket.isClosed() || !MIMPSocketHandlerStatus.CONNECTED.equals(status);
     }
+
+    /**
+     * Request waiting for its response.
+     *
+     * @param key The cache key, null if the response must not be stored.
+     * @param method The method of the request.
+     * @param request The request as forwarded, null if it has not been materialized.
+     * @param entry The stored entry being revalidated or null.
+     */
+    private record PendingExchange(String key, HTTPMethod method, HTTPRequest request, MIMPResponseCache.Entry entry) {
+    }
+
+    /**
+     * Reads the chunks of a relay direction into buffers leased from the memory arena of the channel. A full read is
+     * relayed from the leased buffer itself, which is given back before the next read; a partial read is copied to a
+     * buffer of its length and the leased buffer is given back at once. The instance is used by a single relay thread.
+     */
+    private final class Reader {
+
+        private final DataInputStream in;
+
+        private byte[] lease;
+
+        private int length;
+
+        private final MIMPBufferArena.Account memory;
+
+        private final MIMPReadSizer readSizer;
+
+        private Reader(final DataInputStream in) {
+            this.in = in;
+            this.memory = context.getMemory();
+            this.readSizer = context.getSocketProfile().newReadSizer();
+        }
+
+        /**
+         * @return the buffer of the next chunk, valid until the next call; the chunk is its first {@link #length()}
+         * bytes.
+         */
+        private byte[] next() {
+            close();
+            byte[] buffer;
+            if (memory == null) {
+                buffer = iOCallback.in(in, readSizer.next());
+                length = buffer.length;
+            } else {
+                buffer = allocate(readSizer.next());
+                try {
+                    length = iOCallback.in(in, buffer, buffer.length);
+                } catch (RuntimeException re) {
+                    memory.release(buffer);
+                    throw re;
+                }
+                // a partial read keeps its lease as well, so the relayed bytes are never copied out of the arena
+                lease = buffer;
+            }
+            readSizer.record(length);
+            return buffer;
+        }
+
+        /**
+         * @return the length of the last chunk.
+         */
+        private int length() {
+            return length;
+        }
+
+        /**
+         * Leases a buffer, a read waiting for memory leaves the bytes to the flow control of TCP.
+         */
+        private byte[] allocate(final int size) {
+            byte[] leased;
+            try {
+                leased = memory.allocate(size);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new MIMPServerSocketHandlerException("Interrupted while waiting for relay memory");
+            }
+            if (leased == null) {
+                throw new MIMPServerSocketHandlerException("No relay memory free within "
+                        + TimeUnit.NANOSECONDS.toMillis(memory.getSettings().waitNanos()) + " ms");
+            }
+            return leased;
+        }
+
+        /**
+         * Gives the buffer of the last read back.
+         */
+        private void close() {
+            if (lease != null) {
+                memory.release(lease);
+                lease = null;
+            }
+        }
+    }
+
+    /**
+     * Output stream of a socket that records since when its current write is blocked.
+     */
+    private static final class WatchedOutputStream extends FilterOutputStream {
+
+        private volatile long writingSince;
+
+        private WatchedOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            writingSince = System.nanoTime();
+            try {
+                out.write(b);
+            } finally {
+                writingSince = 0;
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            writingSince = System.nanoTime();
+            try {
+                out.write(b, off, len);
+            } finally {
+                writingSince = 0;
+            }
+        }
+    }
+
+    /**
+     * Connection to the upstream of a route.
+     */
+    private static final class Upstream {
+
+        private DataInputStream in;
+
+        private DataOutputStream out;
+
+        private final Socket socket;
+
+        private ExecutorService worker;
+
+        private Upstream(final Socket socket) {
+            this.socket = socket;
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                LOGGER.error("Cannot close route socket! Cause: {}", ioe.getMessage());
+            }
+            if (worker != null) {
+                worker.shutdown();
+            }
+        }
+    }
 }
@@ -0,0 +1,268 @@
+/*
+ * @(#)MIMPShapedIOCallback.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.homedns.dpaevd.mimp.api.network.IMIMPIOCallback;
+import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.MIMPServerSocketHandlerException;
+import org.homedns.dpaevd.mimp.api.util.TimerWheel;
+
+/**
+ * Callback shaping the writes of a handler, see {@link MIMPTrafficShaper}.
+ * <p>
+ * Every output stream of the handler has a lane. A write which conforms to the shaping while its lane is idle is
+ * written at once, otherwise it is copied to the lane and written by a writer thread once the timer wheel releases it.
+ * A lane holds at most {@link #MAX_QUEUED_BYTES}, beyond that the writing relay thread waits, which slows down the
+ * reading side as the network would. Reads and the exchange loops of the wrapped callback are not shaped.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPShapedIOCallback implements IMIMPIOCallback {
+
+    /** The maximal number of bytes waiting in a lane. */
+    public static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+    private static final long DRAIN_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final IMIMPIOCallback delegate;
+
+    private final Function<DataOutputStream, MIMPTrafficShaper.Direction> directions;
+
+    private final Map<DataOutputStream, Lane> lanes;
+
+    private final TimerWheel wheel;
+
+    MIMPShapedIOCallback(final IMIMPIOCallback delegate, final Function<DataOutputStream, MIMPTrafficShaper.Direction> directions,
+                         final TimerWheel wheel) {
+        this.delegate = delegate;
+        this.directions = directions;
+        this.wheel = wheel;
+        this.lanes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Waits until the delayed writes have been written, at most until one second after the release of the last one.
+     * Called before the streams are closed, so that data received before a close is not lost.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public void awaitDrained() throws InterruptedException {
+        for (Lane lane : lanes.values()) {
+            lane.awaitDrained();
+        }
+    }
+
+    @Override
+    public byte[] in(final DataInputStream in) {
+        return delegate.in(in);
+    }
+
+    @Override
+    public byte[] in(final DataInputStream in, final int length) {
+        return delegate.in(in, length);
+    }
+
+    @Override
+    public int in(final DataInputStream in, final byte[] buffer, final int length) {
+        return delegate.in(in, buffer, length);
+    }
+
+    @Override
+    public byte[] inAndWait(final DataInputStream in) {
+        return delegate.inAndWait(in);
+    }
+
+    @Override
+    public void out(final DataOutputStream out, final byte[] buffer) {
+        out(out, buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void out(final DataOutputStream out, final byte[] buffer, final int offset, final int length) {
+        if (length > 0) {
+            lanes.computeIfAbsent(out, o -> new Lane(o, directions.apply(o))).write(buffer, offset, length);
+        }
+    }
+
+    @Override
+    public void proxyInRemoteOut(final IMIMPServerSocketHandler handler, final DataInputStream proxyIn, final DataOutputStream remoteOut) {
+        delegate.proxyInRemoteOut(handler, proxyIn, remoteOut);
+    }
+
+    @Override
+    public void remoteInProxyOut(final IMIMPServerSocketHandler handler, final DataInputStream remoteIn, final DataOutputStream proxyOut) {
+        delegate.remoteInProxyOut(handler, remoteIn, proxyOut);
+    }
+
+    @Override
+    public void wsProxyInRemoteOut(final IMIMPServerSocketHandler handler, final DataInputStream proxyIn, final DataOutputStream remoteOut,
+                                   final AtomicBoolean isWebSocketClosed) {
+        delegate.wsProxyInRemoteOut(handler, proxyIn, remoteOut, isWebSocketClosed);
+    }
+
+    @Override
+    public void wsRemoteInProxyOut(final IMIMPServerSocketHandler handler, final DataInputStream remoteIn, final DataOutputStream proxyOut,
+                                   final AtomicBoolean isWebSocketClosed) {
+        delegate.wsRemoteInProxyOut(handler, remoteIn, proxyOut, isWebSocketClosed);
+    }
+
+    /**
+     * Delayed write.
+     */
+    private record Chunk(byte[] data, long release) {
+    }
+
+    /**
+     * Writes of an output stream in their order. The lane itself is the task scheduled on the wheel, a run writes all
+     * chunks released so far.
+     */
+    private final class Lane implements Runnable {
+
+        private final ArrayDeque<Chunk> chunks;
+
+        private final MIMPTokenBucket connectionBucket;
+
+        private final MIMPTrafficShaper.Direction direction;
+
+        private RuntimeException failure;
+
+        private long lastRelease;
+
+        private final DataOutputStream out;
+
+        private long queuedBytes;
+
+        private boolean writing;
+
+        private Lane(final DataOutputStream out, final MIMPTrafficShaper.Direction direction) {
+            this.out = out;
+            this.direction = direction;
+            this.connectionBucket = MIMPTrafficShaper.Shaping.bucket(direction.shaping.connectionRate());
+            this.chunks = new ArrayDeque<>();
+        }
+
+        private void write(final byte[] buffer, final int offset, final int length) {
+            long now = System.nanoTime();
+            long release = direction.release(length, now, connectionBucket);
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                release = Math.max(release, lastRelease);
+                lastRelease = release;
+                if (release <= now && chunks.isEmpty() && !writing) {
+                    writing = true;
+                } else {
+                    while (queuedBytes > 0 && queuedBytes + length > MAX_QUEUED_BYTES && failure == null) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw new MIMPServerSocketHandlerException("Interrupted while shaping");
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    chunks.add(new Chunk(Arrays.copyOfRange(buffer, offset, offset + length), release));
+                    queuedBytes += length;
+                    direction.queuedBytes.addAndGet(length);
+                    direction.delayed.increment();
+                    direction.delayMicros.add((release - now) / 1000);
+                    schedule(release - System.nanoTime());
+                    return;
+                }
+            }
+            try {
+                delegate.out(out, buffer, offset, length);
+            } catch (RuntimeException re) {
+                fail(re);
+                throw re;
+            }
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+                if (!chunks.isEmpty()) {
+                    schedule(chunks.peek().release() - System.nanoTime());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (writing) {
+                    return;
+                }
+                writing = true;
+            }
+            while (true) {
+                Chunk chunk;
+                synchronized (this) {
+                    chunk = chunks.peek();
+                    if (chunk == null || chunk.release() > System.nanoTime() || failure != null) {
+                        // the wheel runs the lane again for the next chunk
+                        writing = false;
+                        notifyAll();
+                        return;
+                    }
+                    chunks.poll();
+                }
+                direction.released(System.nanoTime() - chunk.release());
+                try {
+                    delegate.out(out, chunk.data());
+                } catch (RuntimeException re) {
+                    fail(re);
+                    return;
+                }
+                synchronized (this) {
+                    queuedBytes -= chunk.data().length;
+                    direction.queuedBytes.addAndGet(-chunk.data().length);
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized void awaitDrained() throws InterruptedException {
+            long deadline = lastRelease + DRAIN_GRACE_NANOS;
+            long remaining;
+            while ((!chunks.isEmpty() || writing) && failure == null && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+
+        private synchronized void fail(final RuntimeException failure) {
+            this.failure = failure;
+            this.writing = false;
+            direction.queuedBytes.addAndGet(-queuedBytes);
+            queuedBytes = 0;
+            chunks.clear();
+            notifyAll();
+        }
+
+        private void schedule(final long delayNanos) {
+            try {
+                wheel.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ree) {
+                fail(new MIMPServerSocketHandlerException("Shaping stopped"));
+            }
+        }
+    }
+}
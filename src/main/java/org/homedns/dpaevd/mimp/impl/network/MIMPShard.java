@@ -0,0 +1,97 @@
+/*
+ * @(#)MIMPShard.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shard of a proxy channel: one of several listeners bound to the same port with {@code SO_REUSEPORT}, each with
+ * its own accept loop, so the kernel spreads the connections over the listeners instead of queueing them all on one.
+ * <p>
+ * Sharding only multiplies the accept loops. A connection accepted by a shard is admitted, set up in the lane of the
+ * channel and relayed on the worker threads of its handler like any other connection; the shard does not own it.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPShard {
+
+    private final LongAdder accepted;
+
+    private final int index;
+
+    private final String name;
+
+    /**
+     * @param proxyIpPort The proxy port.
+     * @param index The index of the shard.
+     * @param metrics The metrics of the channel, the shard adds {@code shards.<index>.accepted}.
+     */
+    public MIMPShard(final int proxyIpPort, final int index, final MIMPChannelMetrics metrics) {
+        this.index = index;
+        this.name = "mimp-shard-" + proxyIpPort + "-" + index;
+        this.accepted = metrics.counter("shards." + index + ".accepted");
+    }
+
+    /**
+     * @return the index of the shard.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the name of the accept loop of the shard.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Counts a connection accepted by the listener of the shard.
+     */
+    public void countAccepted() {
+        accepted.increment();
+    }
+
+    /**
+     * The shard settings of a proxy channel.
+     *
+     * @param count The listeners bound to the port.
+     */
+    public record Settings(int count) {
+
+        public Settings {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Invalid shard settings: count " + count);
+            }
+        }
+
+        /**
+         * Parses the shard settings of a proxy port. Channels are separated by commas, each channel has the form
+         * {@code port@setting=value;setting=value}. The setting is {@code count}, by default the available
+         * processors.
+         *
+         * @param shardsString The shard settings of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the settings of the port, null if the port has a single listener.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Settings of(final String shardsString, final int proxyIpPort) {
+            int count = Runtime.getRuntime().availableProcessors();
+            MIMPChannelSettings settings = MIMPChannelSettings.of(shardsString, proxyIpPort, "shard");
+            for (MIMPChannelSettings.Setting setting : settings) {
+                switch (setting.name()) {
+                    case "count" -> count = setting.intValue();
+                    default -> throw setting.invalid();
+                }
+            }
+            return settings.isConfigured() ? new Settings(count) : null;
+        }
+    }
+}
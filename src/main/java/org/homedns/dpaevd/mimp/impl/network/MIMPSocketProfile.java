@@ -0,0 +1,195 @@
+/*
+ * @(#)MIMPSocketProfile.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import jdk.net.ExtendedSocketOptions;
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.util.Locale;
+
+/**
+ * The socket options of a proxy channel, for the client and for the remote sockets, and the bounds of the adaptive
+ * read sizes of its relays.
+ *
+ * @param client The options of the accepted client sockets.
+ * @param remote The options of the remote sockets.
+ * @param readMinimum The smallest read size of a relay.
+ * @param readMaximum The largest read size of a relay.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record MIMPSocketProfile(Options client, Options remote, int readMinimum, int readMaximum) {
+
+    private static final int DEFAULT_READ_MAXIMUM = 64 * 1024;
+
+    private static final int DEFAULT_READ_MINIMUM = 512;
+
+    /** The profile of a channel without settings and without buffer size. */
+    public static final MIMPSocketProfile DEFAULT = of("", 0, 0);
+
+    public MIMPSocketProfile {
+        if (readMinimum <= 0 || readMinimum > readMaximum) {
+            throw new IllegalArgumentException("Invalid read sizes: " + readMinimum + ".." + readMaximum);
+        }
+    }
+
+    /**
+     * Parses the socket profile of a proxy port. Channels are separated by commas, each channel has the form
+     * {@code port@setting=value;setting=value}. The socket settings are {@code rcvbuf} and {@code sndbuf}, the kernel
+     * buffer sizes (suffixes {@code K} and {@code M}, 0 keeps the auto-tuning of the system), {@code nodelay},
+     * {@code keepalive}, {@code keepalive.idle} and {@code keepalive.interval} in seconds, {@code keepalive.count} and
+     * {@code linger} in seconds, -1 to disable it; they apply to both sides unless prefixed by {@code client.} or
+     * {@code remote.}. {@code read.min} and {@code read.max} bound the adaptive read sizes.
+     *
+     * @param profileString The socket profiles of all ports.
+     * @param proxyIpPort The proxy port.
+     * @param bufferSize The kernel buffer size of the ports without {@code rcvbuf} or {@code sndbuf}, 0 for the
+     *                   auto-tuning of the system.
+     * @return the profile of the port.
+     * @throws IllegalArgumentException if a setting of the port is invalid.
+     */
+    public static MIMPSocketProfile of(final String profileString, final int proxyIpPort, final int bufferSize) {
+        // remote connections are reset when closed unless configured otherwise, as before the profiles
+        Options client = new Options(bufferSize, bufferSize, true, true, 0, 0, 0, -1);
+        Options remote = new Options(bufferSize, bufferSize, true, true, 0, 0, 0, 0);
+        int readMinimum = DEFAULT_READ_MINIMUM;
+        int readMaximum = DEFAULT_READ_MAXIMUM;
+        for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(profileString, proxyIpPort, "socket")) {
+            String name = setting.name();
+            switch (name) {
+                case "read.min" -> readMinimum = setting.as(MIMPSocketProfile::parseSize);
+                case "read.max" -> readMaximum = setting.as(MIMPSocketProfile::parseSize);
+                default -> {
+                    if (name.startsWith("client.")) {
+                        client = client.with(name.substring(7), setting);
+                    } else if (name.startsWith("remote.")) {
+                        remote = remote.with(name.substring(7), setting);
+                    } else {
+                        client = client.with(name, setting);
+                        remote = remote.with(name, setting);
+                    }
+                }
+            }
+        }
+        return new MIMPSocketProfile(client, remote, readMinimum, readMaximum);
+    }
+
+    /**
+     * @return a read sizer for a relay direction, starting at the default buffer size.
+     */
+    public MIMPReadSizer newReadSizer() {
+        return new MIMPReadSizer(readMinimum, MIMPConstants.BUFFER_SIZE, readMaximum);
+    }
+
+    private static int parseSize(final String value) {
+        String size = value.toUpperCase(Locale.ROOT);
+        long unit = switch (size.isEmpty() ? ' ' : size.charAt(size.length() - 1)) {
+            case 'K' -> 1024L;
+            case 'M' -> 1024L * 1024;
+            default -> 1L;
+        };
+        long bytes = Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1).trim()) * unit;
+        if (bytes < 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * Options of a socket.
+     *
+     * @param receiveBufferSize The kernel receive buffer size, 0 for the auto-tuning of the system.
+     * @param sendBufferSize The kernel send buffer size, 0 for the auto-tuning of the system.
+     * @param tcpNoDelay True to send small writes at once instead of coalescing them (Nagle).
+     * @param keepAlive True to probe idle connections.
+     * @param keepAliveIdle The idle seconds before the first probe, 0 for the system default.
+     * @param keepAliveInterval The seconds between the probes, 0 for the system default.
+     * @param keepAliveCount The unanswered probes after which the connection is dropped, 0 for the system default.
+     * @param linger The seconds a close waits for unsent data, 0 resets the connection, -1 closes it in the background.
+     */
+    public record Options(int receiveBufferSize, int sendBufferSize, boolean tcpNoDelay, boolean keepAlive,
+                          int keepAliveIdle, int keepAliveInterval, int keepAliveCount, int linger) {
+
+        /**
+         * Applies the options to a socket, the buffer sizes are best set before the socket is connected, the window
+         * scaling of TCP is negotiated by the connect.
+         *
+         * @param socket The socket.
+         * @throws IOException if an option cannot be set.
+         */
+        public void apply(final Socket socket) throws IOException {
+            if (receiveBufferSize > 0) {
+                socket.setReceiveBufferSize(receiveBufferSize);
+            }
+            if (sendBufferSize > 0) {
+                socket.setSendBufferSize(sendBufferSize);
+            }
+            socket.setTcpNoDelay(tcpNoDelay);
+            socket.setKeepAlive(keepAlive);
+            if (keepAlive) {
+                setOption(socket, ExtendedSocketOptions.TCP_KEEPIDLE, keepAliveIdle);
+                setOption(socket, ExtendedSocketOptions.TCP_KEEPINTERVAL, keepAliveInterval);
+                setOption(socket, ExtendedSocketOptions.TCP_KEEPCOUNT, keepAliveCount);
+            }
+            socket.setSoLinger(linger >= 0, Math.max(0, linger));
+        }
+
+        /**
+         * Applies the receive buffer size to a listener before it is bound, the accepted sockets inherit it.
+         *
+         * @param serverSocket The unbound listener.
+         * @throws IOException if the option cannot be set.
+         */
+        public void apply(final ServerSocket serverSocket) throws IOException {
+            if (receiveBufferSize > 0) {
+                serverSocket.setReceiveBufferSize(receiveBufferSize);
+            }
+        }
+
+        private Options with(final String name, final MIMPChannelSettings.Setting setting) {
+            return switch (name) {
+                case "rcvbuf" -> new Options(setting.as(MIMPSocketProfile::parseSize), sendBufferSize, tcpNoDelay, keepAlive, keepAliveIdle, keepAliveInterval, keepAliveCount, linger);
+                case "sndbuf" -> new Options(receiveBufferSize, setting.as(MIMPSocketProfile::parseSize), tcpNoDelay, keepAlive, keepAliveIdle, keepAliveInterval, keepAliveCount, linger);
+                case "nodelay" -> new Options(receiveBufferSize, sendBufferSize, setting.as(Options::parseBoolean), keepAlive, keepAliveIdle, keepAliveInterval, keepAliveCount, linger);
+                case "keepalive" -> new Options(receiveBufferSize, sendBufferSize, tcpNoDelay, setting.as(Options::parseBoolean), keepAliveIdle, keepAliveInterval, keepAliveCount, linger);
+                case "keepalive.idle" -> new Options(receiveBufferSize, sendBufferSize, tcpNoDelay, keepAlive, setting.as(Options::parseCount), keepAliveInterval, keepAliveCount, linger);
+                case "keepalive.interval" -> new Options(receiveBufferSize, sendBufferSize, tcpNoDelay, keepAlive, keepAliveIdle, setting.as(Options::parseCount), keepAliveCount, linger);
+                case "keepalive.count" -> new Options(receiveBufferSize, sendBufferSize, tcpNoDelay, keepAlive, keepAliveIdle, keepAliveInterval, setting.as(Options::parseCount), linger);
+                case "linger" -> new Options(receiveBufferSize, sendBufferSize, tcpNoDelay, keepAlive, keepAliveIdle, keepAliveInterval, keepAliveCount, Math.max(-1, setting.intValue()));
+                default -> throw setting.invalid();
+            };
+        }
+
+        private static boolean parseBoolean(final String value) {
+            if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                throw new IllegalArgumentException("Invalid socket flag: " + value);
+            }
+            return Boolean.parseBoolean(value);
+        }
+
+        private static int parseCount(final String value) {
+            int count = Integer.parseInt(value);
+            if (count < 0) {
+                throw new IllegalArgumentException("Negative socket setting: " + value);
+            }
+            return count;
+        }
+
+        private static void setOption(final Socket socket, final SocketOption<Integer> option, final int value) throws IOException {
+            // the probe settings are not supported on every system, the system defaults apply there
+            if (value > 0 && socket.supportedOptions().contains(option)) {
+                socket.setOption(option, value);
+            }
+        }
+    }
+}
@@ -9,6 +9,11 @@
 import org.homedns.dpaevd.mimp.api.MIMPConstants;
 import org.homedns.dpaevd.mimp.api.config.IMIMPProperties;
 import org.homedns.dpaevd.mimp.api.network.*;
+import org.homedns.dpaevd.mimp.impl.cache.MIMPResponseCache;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaderRules;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRoute;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRouteTable;
+import org.homedns.dpaevd.mimp.impl.http.HTTPStubs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,12 +21,20 @@
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 /**
  * The MIMP socket server.
@@ -34,25 +47,53 @@ public class MIMPSocketServer implements IMIMPSocketServer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MIMPSocketServer.class);
 
+    private static final long DRAIN_POLL_MILLIS = 100;
+
+    private static final long DRAIN_QUIET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MIMPCircuitBreaker.Settings breakerSettings;
+
+    private final Map<String, MIMPCircuitBreaker> breakers;
+
     private IMIMPSocketServerStatusCallback callback;
 
-    private ExecutorService clientExecutorService;
+    private final MIMPChannelContext context;
+
+    private volatile boolean draining;
+
+    private final MIMPForwardProxy forward;
+
+    private final Map<String, MIMPHealthChecker> healthCheckers;
 
     private final int proxyIpPort;
 
+    private volatile MIMPScheduler.Lane lane;
+
     private final IMIMPIOCallback iOCallback;
 
+    private final MIMPChannelMetrics metrics;
+
+    private final MIMPUpstreamPool pool;
+
     private final IMIMPProperties properties;
 
     private final String remoteHostName;
 
+    private final MIMPScheduler scheduler;
+
+    private final MIMPScheduler.Share share;
+
+    private final List<MIMPShard> shards;
+
+    private final List<ServerSocket> shardSockets;
+
     private final int remoteIpPort;
 
-    private ExecutorService serverExecutorService;
+    private final MIMPUnixPaths unixPaths;
 
     private final List<IMIMPServerSocketHandler> serverSocketHandlers;
 
-    private ServerSocket serverSocket;
+    private volatile ServerSocket serverSocket;
 
     private volatile MIMPSocketServerStatus serviceStatus;
 
@@ -76,14 +117,239 @@ public MIMPSocketServer(
         this.remoteHostName = remoteHostName;
         this.remoteIpPort = remoteIpPort;
         this.serverSocketHandlers = new CopyOnWriteArrayList<>();
+        this.metrics = new MIMPChannelMetrics();
+        MIMPResponseCache responseCache = null;
+        if (Boolean.parseBoolean(properties.getProperty(MIMPConstants.PROXY_CACHE_ENABLED_KEY, "false"))) {
+            responseCache = MIMPResponseCache.of(
+                    properties.getIntValue(MIMPConstants.PROXY_CACHE_SIZE_KEY, 64 * 1024 * 1024),
+                    MIMPConstants.BUFFER_SIZE,
+                    properties.getIntValue(MIMPConstants.PROXY_CACHE_ENTRY_SIZE_KEY, 1024 * 1024),
+                    metrics);
+        }
+        HTTPStubs stubs = HTTPStubs.EMPTY;
+        String stubsFile = properties.getProperty(MIMPConstants.PROXY_STUBS_KEY, "");
+        if (!stubsFile.isBlank()) {
+            try {
+                stubs = HTTPStubs.load(Path.of(stubsFile.trim()));
+                LOGGER.info("Loaded {} stubs for port {} from {}", stubs.getStubs().size(), proxyIpPort, stubsFile);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Cannot load the stubs from {}. Reason: {}", stubsFile, e.getMessage());
+            }
+        }
+        HTTPRouteTable routes = HTTPRouteTable.EMPTY;
+        try {
+            routes = HTTPRouteTable.of(properties.getProperty(MIMPConstants.PROXY_ROUTES_KEY, ""), proxyIpPort);
+            routes.getRoutes().forEach(route -> LOGGER.info("Route on port {}: {}", proxyIpPort, route));
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid routes for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        MIMPTrafficShaper shaper = null;
+        try {
+            shaper = MIMPTrafficShaper.of(properties.getProperty(MIMPConstants.PROXY_SHAPING_KEY, ""), proxyIpPort, metrics);
+            if (shaper != null) {
+                LOGGER.info("Shaping on port {}: up {}, down {}", proxyIpPort, shaper.getUp(), shaper.getDown());
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid shaping for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        MIMPAdmissionControl admission = null;
+        try {
+            admission = MIMPAdmissionControl.of(properties.getProperty(MIMPConstants.PROXY_ADMISSION_KEY, ""), proxyIpPort, metrics);
+            if (admission != null) {
+                LOGGER.info("Admission on port {}: {}", proxyIpPort, admission.getLimits());
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid admission for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        MIMPScheduler.Share share = MIMPScheduler.Share.DEFAULT;
+        try {
+            share = MIMPScheduler.Share.of(properties.getProperty(MIMPConstants.PROXY_SCHEDULER_KEY, ""), proxyIpPort);
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid scheduler share for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        this.scheduler = MIMPScheduler.shared();
+        this.share = share;
+        final int bufferSize = properties.getIntValue(MIMPConstants.LOCAL_SERVER_BUFFER_SIZE_KEY, 0);
+        MIMPSocketProfile socketProfile = MIMPSocketProfile.of("", proxyIpPort, bufferSize);
+        try {
+            socketProfile = MIMPSocketProfile.of(properties.getProperty(MIMPConstants.PROXY_SOCKET_KEY, ""), proxyIpPort, bufferSize);
+            LOGGER.info("Sockets on port {}: {}", proxyIpPort, socketProfile);
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid socket profile for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        MIMPTimeouts timeouts = MIMPTimeouts.NONE;
+        try {
+            timeouts = MIMPTimeouts.of(properties.getProperty(MIMPConstants.PROXY_TIMEOUTS_KEY, ""), proxyIpPort);
+            if (!timeouts.isEmpty()) {
+                LOGGER.info("Timeouts on port {}: {}", proxyIpPort, timeouts);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid timeouts for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        MIMPUnixPaths unixPaths = MIMPUnixPaths.NONE;
+        try {
+            unixPaths = MIMPUnixPaths.of(properties.getProperty(MIMPConstants.PROXY_UNIX_KEY, ""), proxyIpPort);
+            if (!MIMPUnixPaths.NONE.equals(unixPaths)) {
+                LOGGER.info("Unix domain sockets on port {}: {}", proxyIpPort, unixPaths);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid Unix domain sockets for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        this.unixPaths = unixPaths;
+        List<MIMPShard> shards = List.of();
+        try {
+            MIMPShard.Settings shardSettings = MIMPShard.Settings.of(properties.getProperty(MIMPConstants.PROXY_SHARDS_KEY, ""), proxyIpPort);
+            if (shardSettings != null) {
+                int count = shardSettings.count();
+                if (count > 1 && (unixPaths.listen() != null || !supportsReusePort())) {
+                    LOGGER.warn("Port {} cannot be bound {} times without SO_REUSEPORT, it keeps a single listener", proxyIpPort, count);
+                    count = 1;
+                }
+                LOGGER.info("Shards on port {}: {}", proxyIpPort, count);
+                shards = IntStream.range(0, count).mapToObj(index -> new MIMPShard(proxyIpPort, index, metrics)).toList();
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid shards for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        this.shards = shards;
+        this.shardSockets = new CopyOnWriteArrayList<>();
+        MIMPCircuitBreaker.Settings breakerSettings = null;
+        try {
+            breakerSettings = MIMPCircuitBreaker.Settings.of(properties.getProperty(MIMPConstants.PROXY_BREAKER_KEY, ""), proxyIpPort);
+            if (breakerSettings != null) {
+                LOGGER.info("Circuit breaker on port {}: {}", proxyIpPort, breakerSettings);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid circuit breaker for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        this.breakerSettings = breakerSettings;
+        this.breakers = new ConcurrentHashMap<>();
+        metrics.gauge("breaker.open", () -> breakers.values().stream().filter(b -> b.getState() != MIMPCircuitState.CLOSED).count());
+        MIMPForwardProxy forward = null;
+        try {
+            MIMPForwardProxy.Settings forwardSettings = MIMPForwardProxy.Settings.of(
+                    properties.getProperty(MIMPConstants.PROXY_FORWARD_KEY, ""), proxyIpPort);
+            if (forwardSettings != null) {
+                LOGGER.info("Forward proxy on port {}: {}", proxyIpPort, forwardSettings);
+                forward = new MIMPForwardProxy(forwardSettings, this::connectRemote, metrics);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid forward proxy for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        this.forward = forward;
+        this.healthCheckers = new LinkedHashMap<>();
+        try {
+            MIMPHealthChecker.Settings healthSettings = MIMPHealthChecker.Settings.of(
+                    properties.getProperty(MIMPConstants.PROXY_HEALTH_KEY, ""), proxyIpPort);
+            if (healthSettings != null) {
+                LOGGER.info("Health checks on port {}: {}", proxyIpPort, healthSettings);
+                if (forward == null) {
+                    // a forward proxy has no upstream of its own
+                    addHealthChecker(null, healthSettings);
+                }
+                routes.getRoutes().forEach(route -> addHealthChecker(route, healthSettings));
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid health checks for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        metrics.gauge("health.unhealthy", () -> healthCheckers.values().stream().filter(c -> !c.isHealthy()).count());
+        MIMPUpstreamPool pool = null;
+        try {
+            MIMPUpstreamPool.Settings poolSettings = MIMPUpstreamPool.Settings.of(properties.getProperty(MIMPConstants.PROXY_POOL_KEY, ""), proxyIpPort);
+            if (poolSettings == null && forward != null) {
+                // a forward proxy relays requests, its destinations are pooled with the default settings
+                poolSettings = MIMPUpstreamPool.Settings.of(proxyIpPort + "@", proxyIpPort);
+            }
+            if (poolSettings != null) {
+                LOGGER.info("Upstream pool on port {}: {}", proxyIpPort, poolSettings);
+                pool = new MIMPUpstreamPool(poolSettings, route -> route == null && this.unixPaths.remote() != null ? new MIMPUnixSocket() : new Socket(),
+                        this::connectRemote, this::upstreamName, metrics);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid upstream pool for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        this.pool = pool;
+        // with stubs or routes the remote is connected only once a request needs it
+        this.context = new MIMPChannelContext(metrics, responseCache, stubs, routes,
+                stubs.isEmpty() && routes.isEmpty() ? null : this::connectRemote, shaper, admission, socketProfile, timeouts);
+        try {
+            context.setHeaderRules(HTTPHeaderRules.of(properties.getProperty(MIMPConstants.PROXY_HEADERS_KEY, ""),
+                    properties.getProperty(MIMPConstants.PROXY_RESPONSE_HEADERS_KEY, "")));
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid header rules for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        MIMPBufferArena.Settings memory = MIMPBufferArena.Settings.DEFAULT;
+        try {
+            memory = MIMPBufferArena.Settings.of(properties.getProperty(MIMPConstants.PROXY_MEMORY_KEY, ""), proxyIpPort);
+            if (!memory.equals(MIMPBufferArena.Settings.DEFAULT)) {
+                LOGGER.info("Memory on port {}: {}", proxyIpPort, memory);
+            }
+        } catch (RuntimeException re) {
+            LOGGER.error("Invalid memory settings for port {}. Reason: {}", proxyIpPort, re.getMessage());
+        }
+        context.setMemory(MIMPBufferArena.shared().register(memory, metrics));
+    }
+
+    /**
+     * Adds the health checker of an upstream, an upstream shared by several routes is checked once.
+     *
+     * @param route The route or null for the upstream of the channel.
+     * @param settings The settings of the checks.
+     */
+    private void addHealthChecker(final HTTPRoute route, final MIMPHealthChecker.Settings settings) {
+        final String upstream = upstreamName(route);
+        if (healthCheckers.containsKey(upstream)) {
+            return;
+        }
+        final SocketAddress address = route == null && unixPaths.remote() != null ? unixPaths.remoteAddress()
+                : InetSocketAddress.createUnresolved(route == null ? remoteHostName : route.remoteHostName(),
+                        route == null ? remoteIpPort : route.remoteIpPort());
+        MIMPHealthChecker checker = new MIMPHealthChecker(upstream, address, settings, (c, healthy) -> {
+            if (healthy) {
+                LOGGER.info("Upstream {} of port {} is healthy again, warming up", upstream, proxyIpPort);
+            } else {
+                LOGGER.warn("Upstream {} of port {} is unhealthy, ejected", upstream, proxyIpPort);
+                metrics.increment("health.ejected");
+            }
+            if (callback != null) {
+                callback.onUpstreamHealthChange(upstream, healthy, c.getLatencyMicros());
+            }
+        });
+        healthCheckers.put(upstream, checker);
+        metrics.gauge("health." + upstream + ".healthy", () -> checker.isHealthy() ? 1 : 0);
+        metrics.gauge("health." + upstream + ".latency.micros", checker::getLatencyMicros);
     }
 
     public void cleanup() {
-        LOGGER.info("Cleaning up MIMP proxy server on port {} -> {}:{}", proxyIpPort, remoteHostName, remoteIpPort);
+        LOGGER.info("Cleaning up MIMP proxy server on port {} -> {}", proxyIpPort, upstreamName(null));
+        closeServerSocket();
         serverSocketHandlers.forEach(IMIMPServerSocketHandler::cleanup);
-        if (serverExecutorService != null && !serverExecutorService.isShutdown()) {
-            serverExecutorService.shutdownNow();
+        if (pool != null) {
+            pool.close();
+        }
+        MIMPScheduler.Lane lane = this.lane;
+        if (lane != null) {
+            // the queued connections are still set up and then closed by their handlers
+            lane.close();
         }
+    }
+
+    private void changeStatus(final MIMPSocketServerStatus status) {
+        serviceStatus = status;
+        if (callback != null) {
+            callback.onServiceStatusChange(status);
+        }
+    }
+
+    private void closeServerSocket() {
+        shardSockets.forEach(listener -> {
+            try {
+                listener.close();
+            } catch (IOException ioe) {
+                LOGGER.error("Cannot close a shard of the server channel on port {}. Reason: {}", proxyIpPort, ioe.getMessage());
+            }
+        });
+        ServerSocket serverSocket = this.serverSocket;
         if (serverSocket != null && !serverSocket.isClosed()) {
             try {
                 serverSocket.close();
@@ -94,6 +360,142 @@ public void cleanup() {
         }
     }
 
+    /**
+     * Connects a remote socket to the upstream of the channel or of a route. With a circuit breaker an upstream that
+     * keeps failing is not connected until its open time has passed.
+     *
+     * @param remoteSocket The unconnected remote socket.
+     * @param route The route or null for the upstream of the channel.
+     * @throws MIMPCircuitOpenException if the breaker of the upstream is open.
+     * @throws IOException if the connection cannot be established.
+     */
+    private void connectRemote(final Socket remoteSocket, final HTTPRoute route) throws IOException {
+        final String remoteHostName = route == null ? this.remoteHostName : route.remoteHostName();
+        final int remoteIpPort = route == null ? this.remoteIpPort : route.remoteIpPort();
+        final String upstream = upstreamName(route);
+        final MIMPHealthChecker checker = healthCheckers.get(upstream);
+        if (checker != null && !checker.allows(System.nanoTime())) {
+            metrics.increment("health.rejected");
+            throw new MIMPCircuitOpenException("Upstream " + upstream
+                    + (checker.isHealthy() ? " is warming up" : " is unhealthy"),
+                    Math.max(1, TimeUnit.NANOSECONDS.toSeconds(checker.getSettings().intervalNanos())));
+        }
+        final MIMPCircuitBreaker breaker = breakerSettings == null ? null
+                : breakers.computeIfAbsent(upstream, this::newBreaker);
+        if (breaker != null && !breaker.tryAcquire(System.nanoTime())) {
+            metrics.increment("breaker.rejected");
+            throw new MIMPCircuitOpenException("Circuit breaker open for " + upstream,
+                    breaker.retryAfterSeconds(System.nanoTime()));
+        }
+        MIMPUpstreamConnectedEvent connectedEvent = new MIMPUpstreamConnectedEvent();
+        context.getSocketProfile().remote().apply(remoteSocket);
+        connectedEvent.begin();
+        try {
+            remoteSocket.connect(route == null && unixPaths.remote() != null ? unixPaths.remoteAddress()
+                    : new InetSocketAddress(remoteHostName, remoteIpPort));
+            connectedEvent.success = true;
+        } finally {
+            connectedEvent.end();
+            if (breaker != null) {
+                if (connectedEvent.success) {
+                    breaker.onSuccess();
+                } else {
+                    breaker.onFailure(System.nanoTime());
+                }
+            }
+            if (connectedEvent.shouldCommit()) {
+                connectedEvent.proxyPort = proxyIpPort;
+                connectedEvent.remoteHost = remoteHostName;
+                connectedEvent.remotePort = remoteIpPort;
+                connectedEvent.commit();
+            }
+        }
+    }
+
+    /**
+     * @param route The route or null for the upstream of the channel.
+     * @return the name of the upstream, {@code host:port} or {@code unix:path}.
+     */
+    private String upstreamName(final HTTPRoute route) {
+        if (route != null) {
+            return route.remoteHostName() + ":" + route.remoteIpPort();
+        }
+        return unixPaths.remote() != null ? "unix:" + unixPaths.remote() : remoteHostName + ":" + remoteIpPort;
+    }
+
+    /**
+     * Creates the circuit breaker of an upstream, its changes are logged, counted and published to the callback.
+     *
+     * @param upstream The name of the upstream.
+     * @return the breaker.
+     */
+    private MIMPCircuitBreaker newBreaker(final String upstream) {
+        return new MIMPCircuitBreaker(breakerSettings, state -> {
+            if (state == MIMPCircuitState.OPEN) {
+                LOGGER.warn("Circuit breaker of port {} opened for {}", proxyIpPort, upstream);
+                metrics.increment("breaker.opened");
+            } else {
+                LOGGER.info("Circuit breaker of port {} for {} is {}", proxyIpPort, upstream, state);
+            }
+            if (callback != null) {
+                callback.onCircuitBreakerChange(upstream, state);
+            }
+        });
+    }
+
+    /**
+     * Drains the channel: the listener is closed, the responses ask the clients to close their connection, idle
+     * keep-alive connections are closed at a message boundary and the connections still open at the deadline are
+     * closed. The callback receives the status {@link MIMPSocketServerStatus#DRAINING}, the progress and finally
+     * {@link MIMPSocketServerStatus#DOWN}.
+     */
+    @Override
+    public CompletableFuture<Void> drain(final long timeout, final TimeUnit unit) {
+        LOGGER.info("Draining MIMP proxy server on port {} -> {}", proxyIpPort, upstreamName(null));
+        draining = true;
+        context.setDraining();
+        closeServerSocket();
+        changeStatus(MIMPSocketServerStatus.DRAINING);
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final CompletableFuture<Void> drained = new CompletableFuture<>();
+        Thread.ofVirtual().name("mimp-drain-" + proxyIpPort).start(() -> {
+            int reported = -1;
+            try {
+                while (true) {
+                    int open = (int) serverSocketHandlers.stream()
+                            .filter(h -> !h.isNotConnectedOrOpen() && !h.closeIfIdle(DRAIN_QUIET_NANOS))
+                            .count();
+                    long remaining = deadline - System.nanoTime();
+                    if (open != reported) {
+                        reported = open;
+                        LOGGER.info("Draining port {}: {} connections open, {} ms left", proxyIpPort, open, TimeUnit.NANOSECONDS.toMillis(Math.max(0, remaining)));
+                        if (callback != null) {
+                            callback.onDrainProgress(open, TimeUnit.NANOSECONDS.toMillis(Math.max(0, remaining)));
+                        }
+                    }
+                    if (open == 0 || remaining <= 0) {
+                        break;
+                    }
+                    Thread.sleep(DRAIN_POLL_MILLIS);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            if (reported > 0) {
+                LOGGER.warn("Closing {} connections still open on port {}", reported, proxyIpPort);
+            }
+            cleanup();
+            changeStatus(MIMPSocketServerStatus.DOWN);
+            drained.complete(null);
+        });
+        return drained;
+    }
+
+    @Override
+    public Map<String, Long> getMetrics() {
+        return metrics.snapshot();
+    }
+
     @Override
     public int getProxyIpPort() {
         return proxyIpPort;
@@ -110,15 +512,20 @@ public int getRemoteIpPort() {
     }
 
     public void initialize() {
-        LOGGER.info("Initializing MIMP proxy server on port {} -> {}:{}", proxyIpPort, remoteHostName, remoteIpPort);
-        final int byteBufferSize = properties.getIntValue(MIMPConstants.LOCAL_SERVER_BUFFER_SIZE_KEY, 2048);
-        final InetSocketAddress serverAddress = new InetSocketAddress(proxyIpPort);
-        clientExecutorService = Executors.newWorkStealingPool(8);
-        serverExecutorService = Executors.newSingleThreadExecutor();
-        serverExecutorService.submit(() -> {
+        LOGGER.info("Initializing MIMP proxy server on port {} -> {}", proxyIpPort, upstreamName(null));
+        final SocketAddress serverAddress = unixPaths.listen() != null ? unixPaths.listenAddress() : new InetSocketAddress(proxyIpPort);
+        lane = scheduler.register("mimp-setup-" + proxyIpPort, share.weight(), share.quota(), metrics);
+        Thread.ofVirtual().name("mimp-accept-" + proxyIpPort).start(() -> {
             try {
-                serverSocket = new ServerSocket();
-                serverSocket.bind(serverAddress);
+                serverSocket = listen(serverAddress);
+                for (int index = 1; index < shards.size(); index++) {
+                    shardSockets.add(listen(serverAddress));
+                }
+                if (draining) {
+                    // drained before the listener was bound
+                    closeServerSocket();
+                    return;
+                }
                 serviceStatus = MIMPSocketServerStatus.UP;
                 if (callback != null) {
                     callback.onServiceStatusChange(serviceStatus);
@@ -130,71 +537,281 @@ public void initialize() {
                     callback.onServiceStatusChange(serviceStatus);
                 }
             }
-            Timer watchdogTimer = new Timer();
-            try {
-                watchdogTimer.scheduleAtFixedRate(new TimerTask() {
-                    @Override public void run() {
-                        if (MIMPSocketServerStatus.UP.equals(serviceStatus) || MIMPSocketServerStatus.CONNECTED.equals(serviceStatus)) {
-                            if (serverSocketHandlers.stream().anyMatch(h -> MIMPSocketHandlerStatus.CONNECTED.equals(h.getStatus()))) {
-                                serviceStatus = MIMPSocketServerStatus.CONNECTED;
-                                if (callback != null) {
-                                    callback.onServiceStatusChange(serviceStatus);
-                                }
-                            } else {
-                                serviceStatus = MIMPSocketServerStatus.UP;
-                                if (callback != null) {
-                                    callback.onServiceStatusChange(serviceStatus);
-                                }
-                            }
-                        }
+            ScheduledFuture<?> watchdog = scheduler.scheduleAtFixedRate(() -> {
+                if (MIMPSocketServerStatus.UP.equals(serviceStatus) || MIMPSocketServerStatus.CONNECTED.equals(serviceStatus)) {
+                    if (serverSocketHandlers.stream().anyMatch(h -> MIMPSocketHandlerStatus.CONNECTED.equals(h.getStatus()))) {
+                        changeStatus(MIMPSocketServerStatus.CONNECTED);
+                    } else {
+                        changeStatus(MIMPSocketServerStatus.UP);
                     }
-                }, 0, 5000);
-
-                while (!serverSocket.isClosed()) {
-                    Socket proxySocket = serverSocket.accept();
+                }
+            }, 0, 5000, TimeUnit.MILLISECONDS);
+            // the random initial delay keeps the checks of many upstreams from running in step, each check runs on a
+            // virtual thread of its own so a slow upstream never holds a slot of the scheduler
+            final List<ScheduledFuture<?>> healthChecks = healthCheckers.values().stream()
+                    .<ScheduledFuture<?>>map(checker -> scheduler.scheduleAtFixedRate(
+                            () -> Thread.ofVirtual().name("mimp-health-" + proxyIpPort).start(checker::check),
+                            checker.jitterNanos(1), checker.getSettings().intervalNanos(), TimeUnit.NANOSECONDS))
+                    .toList();
+            ScheduledFuture<?> expiry = null;
+            final MIMPTimeouts timeouts = context.getTimeouts();
+            if (!timeouts.isEmpty()) {
+                expiry = scheduler.scheduleAtFixedRate(() -> {
+                    final long now = System.nanoTime();
+                    serverSocketHandlers.forEach(h -> h.closeIfExpired(now));
+                }, timeouts.checkIntervalNanos(), timeouts.checkIntervalNanos(), TimeUnit.NANOSECONDS);
+            }
+            final ScheduledFuture<?> eviction = pool == null ? null
+                    : scheduler.scheduleAtFixedRate(() -> pool.evict(System.nanoTime()), 1, 1, TimeUnit.SECONDS);
+            for (int index = 1; index < shards.size() && index <= shardSockets.size(); index++) {
+                final MIMPShard shard = shards.get(index);
+                final ServerSocket listener = shardSockets.get(index - 1);
+                Thread.ofVirtual().name(shard.getName() + "-accept").start(() -> {
+                    try {
+                        accept(listener, shard);
+                    } catch (IOException ioe) {
+                        LOGGER.debug("Shard {} of port {} terminated: {}", shard.getIndex(), proxyIpPort, ioe.getMessage());
+                    }
+                });
+            }
+            try {
 
-                    clientExecutorService.execute(() -> {
-                        LOGGER.info("Accepted connection from {}", proxySocket.getRemoteSocketAddress());
+                accept(serverSocket, shards.isEmpty() ? null : shards.get(0));
 
-                        try {
-                            proxySocket.setReceiveBufferSize(byteBufferSize);
-                            proxySocket.setSendBufferSize(byteBufferSize);
-                            proxySocket.setKeepAlive(true);
-                            proxySocket.setSoLinger(true, 0);
+            } catch (IOException ioe) {
+                LOGGER.info("Server channel terminated: {}", ioe.getMessage());
+                // a draining server reports DOWN once its connections are closed
+                if (!draining) {
+                    changeStatus(MIMPSocketServerStatus.DOWN);
+                }
+            } finally {
+                watchdog.cancel(false);
+                healthChecks.forEach(check -> check.cancel(false));
+                if (expiry != null) {
+                    expiry.cancel(false);
+                }
+                if (eviction != null) {
+                    eviction.cancel(false);
+                }
+                // a draining server releases its connections once they are finished
+                if (!draining) {
+                    cleanup();
+                }
+            }
+        });
+    }
 
-                            Socket remoteSocket = new Socket();
-                            remoteSocket.connect(new InetSocketAddress(remoteHostName, remoteIpPort));
-                            remoteSocket.setReceiveBufferSize(byteBufferSize);
-                            remoteSocket.setSendBufferSize(byteBufferSize);
-                            remoteSocket.setSoLinger(true, 0);
-                            remoteSocket.setKeepAlive(true);
+    /**
+     * Opens a listener of the channel, the listeners of a sharded channel share the port with {@code SO_REUSEPORT}.
+     *
+     * @param address The address to bind.
+     * @return the bound listener.
+     * @throws IOException if the listener cannot be bound.
+     */
+    private ServerSocket listen(final SocketAddress address) throws IOException {
+        ServerSocket listener = unixPaths.listen() != null ? new MIMPUnixServerSocket(proxyIpPort) : new ServerSocket();
+        try {
+            context.getSocketProfile().client().apply(listener);
+            if (shards.size() > 1) {
+                listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            listener.bind(address);
+        } catch (IOException ioe) {
+            listener.close();
+            throw ioe;
+        }
+        return listener;
+    }
 
-                            IMIMPServerSocketHandler handler = new MIMPServerSocketHandler(iOCallback, properties, proxySocket, remoteSocket);
-                            serverSocketHandlers.add(handler);
-                            handler.execute();
+    /**
+     * Accepts the connections of a listener until it is closed.
+     *
+     * @param listener The listener.
+     * @param shard The shard of the listener or null if the channel is not sharded.
+     * @throws IOException once the listener is closed.
+     */
+    private void accept(final ServerSocket listener, final MIMPShard shard) throws IOException {
+        if (listener == null) {
+            throw new SocketException("Server channel not bound");
+        }
+        while (!listener.isClosed()) {
+            Socket proxySocket = listener.accept();
+            if (shard != null) {
+                shard.countAccepted();
+            }
+            if (admit(proxySocket)) {
+                schedule(proxySocket);
+            }
 
-                        } catch (IOException ioe) {
-                            LOGGER.error("Cannot establish connection with remote {}. Reason: {}", remoteHostName, ioe.getMessage());
-                        }
+            List<IMIMPServerSocketHandler> zombies = serverSocketHandlers.stream().filter(IMIMPServerSocketHandler::isNotConnectedOrOpen).toList();
+            zombies.forEach(IMIMPServerSocketHandler::cleanup);
+            zombies.forEach(serverSocketHandlers::remove);
+        }
+    }
 
-                    });
+    private static boolean supportsReusePort() {
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
 
-                    List<IMIMPServerSocketHandler> zombies = serverSocketHandlers.stream().filter(IMIMPServerSocketHandler::isNotConnectedOrOpen).toList();
-                    zombies.forEach(IMIMPServerSocketHandler::cleanup);
-                    zombies.forEach(serverSocketHandlers::remove);
+    /**
+     * Applies the admission control of the channel to an accepted connection. A connection over the limits is refused
+     * or, in queue mode, waits on a virtual thread so the accept loop is never blocked. A channel with the reject memory
+     * policy refuses the connections while its relay buffers are exhausted.
+     *
+     * @param proxySocket The accepted socket.
+     * @return true if the connection can be served at once.
+     */
+    private boolean admit(final Socket proxySocket) {
+        final MIMPBufferArena.Account memory = context.getMemory();
+        if (memory != null && memory.getSettings().policy() == MIMPBufferArena.Policy.REJECT && memory.isExhausted()) {
+            LOGGER.debug("Connection from {} refused, the relay buffers are exhausted", proxySocket.getRemoteSocketAddress());
+            metrics.increment("memory.rejected");
+            Thread.ofVirtual().name("mimp-memory-" + proxyIpPort)
+                    .start(() -> MIMPAdmissionControl.answer(proxySocket, "503 Service Unavailable", 1));
+            return false;
+        }
+        final MIMPAdmissionControl admission = context.getAdmission();
+        if (admission == null) {
+            return true;
+        }
+        final MIMPAdmissionControl.Result result = admission.admit(proxySocket.getInetAddress(), System.nanoTime());
+        if (result == MIMPAdmissionControl.Result.ADMITTED) {
+            return true;
+        }
+        LOGGER.debug("Connection from {} over the limits: {}", proxySocket.getRemoteSocketAddress(), result);
+        switch (admission.getLimits().mode()) {
+            case QUEUE -> Thread.ofVirtual().name("mimp-admission-" + proxyIpPort).start(() -> {
+                try {
+                    if (admission.await(proxySocket.getInetAddress())) {
+                        schedule(proxySocket);
+                        return;
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
                 }
+                admission.refuse(proxySocket, result);
+            });
+            case TOO_MANY_REQUESTS -> Thread.ofVirtual().name("mimp-admission-" + proxyIpPort)
+                    .start(() -> admission.refuse(proxySocket, result));
+            default -> admission.refuse(proxySocket, result);
+        }
+        return false;
+    }
 
+    /**
+     * Queues the setup of an admitted connection in the lane of the channel.
+     *
+     * @param proxySocket The accepted socket.
+     */
+    private void schedule(final Socket proxySocket) {
+        try {
+            lane.execute(() -> serve(proxySocket));
+        } catch (RejectedExecutionException ree) {
+            // accepted while the channel is being cleaned up
+            if (context.getAdmission() != null) {
+                context.getAdmission().release(proxySocket.getInetAddress());
+            }
+            try {
+                proxySocket.close();
             } catch (IOException ioe) {
-                LOGGER.info("Server channel terminated: {}", ioe.getMessage());
-                serviceStatus = MIMPSocketServerStatus.DOWN;
-                if (callback != null) {
-                    callback.onServiceStatusChange(serviceStatus);
-                }
-            } finally {
-                watchdogTimer.cancel();
-                cleanup();
+                LOGGER.debug("Cannot close the connection from {}. Reason: {}", proxySocket.getRemoteSocketAddress(), ioe.getMessage());
             }
-        });
+        }
+    }
+
+    /**
+     * Creates and starts the handler of an admitted connection.
+     *
+     * @param proxySocket The accepted socket.
+     */
+    private void serve(final Socket proxySocket) {
+        LOGGER.info("Accepted connection from {}", proxySocket.getRemoteSocketAddress());
+        metrics.increment("connections.accepted");
+        MIMPConnectionAcceptedEvent acceptedEvent = new MIMPConnectionAcceptedEvent();
+        if (acceptedEvent.shouldCommit()) {
+            acceptedEvent.proxyPort = proxyIpPort;
+            acceptedEvent.clientAddress = String.valueOf(proxySocket.getRemoteSocketAddress());
+            acceptedEvent.commit();
+        }
+
+        if (pool != null) {
+            try {
+                context.getSocketProfile().client().apply(proxySocket);
+            } catch (IOException ioe) {
+                LOGGER.debug("Cannot apply the socket options to the connection from {}. Reason: {}", proxySocket.getRemoteSocketAddress(), ioe.getMessage());
+            }
+            // the exchanges lease their upstream connections from the pool
+            IMIMPServerSocketHandler handler = new MIMPExchangeHandler(proxySocket, pool, forward, context);
+            serverSocketHandlers.add(handler);
+            handler.execute();
+            return;
+        }
+        Socket remoteSocket = unixPaths.remote() != null ? new MIMPUnixSocket() : new Socket();
+        try {
+            context.getSocketProfile().client().apply(proxySocket);
+
+            if (context.getRemoteConnector() == null) {
+                connectRemote(remoteSocket, null);
+            }
+
+            IMIMPServerSocketHandler handler = new MIMPServerSocketHandler(iOCallback, properties, proxySocket, remoteSocket, context);
+            serverSocketHandlers.add(handler);
+            handler.execute();
+
+        } catch (IOException ioe) {
+            if (ioe instanceof MIMPCircuitOpenException) {
+                LOGGER.debug("Failing connection from {}. Reason: {}", proxySocket.getRemoteSocketAddress(), ioe.getMessage());
+            } else {
+                LOGGER.error("Cannot establish connection with remote {}. Reason: {}", remoteHostName, ioe.getMessage());
+            }
+            metrics.increment("connections.failed");
+            if (context.getAdmission() != null) {
+                context.getAdmission().release(proxySocket.getInetAddress());
+            }
+            fail(proxySocket, remoteSocket, ioe);
+        }
+    }
+
+    /**
+     * Fails a connection whose upstream cannot be connected, the client is never left waiting on an accepted socket.
+     * In 503 mode the request is answered with 503 and Retry-After if the breaker is open, with 502 otherwise.
+     *
+     * @param proxySocket The accepted socket.
+     * @param remoteSocket The unconnected remote socket.
+     * @param cause The reason of the failure.
+     */
+    private void fail(final Socket proxySocket, final Socket remoteSocket, final IOException cause) {
+        try {
+            remoteSocket.close();
+        } catch (IOException ioe) {
+            // never connected
+        }
+        if (breakerSettings != null && breakerSettings.mode() == MIMPCircuitBreaker.Mode.SERVICE_UNAVAILABLE) {
+            if (cause instanceof MIMPCircuitOpenException open) {
+                MIMPAdmissionControl.answer(proxySocket, "503 Service Unavailable", open.getRetryAfterSeconds());
+            } else {
+                MIMPAdmissionControl.answer(proxySocket, "502 Bad Gateway", 0);
+            }
+            return;
+        }
+        try {
+            proxySocket.close();
+        } catch (IOException ioe) {
+            LOGGER.debug("Cannot close the connection from {}. Reason: {}", proxySocket.getRemoteSocketAddress(), ioe.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the header rules of the channel, the open connections apply them from their next message on.
+     *
+     * @param headerRules The new rules.
+     */
+    public void setHeaderRules(final HTTPHeaderRules headerRules) {
+        context.setHeaderRules(headerRules);
     }
 
     /**
@@ -0,0 +1,82 @@
+/*
+ * @(#)MIMPTimeouts.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * The timeouts of the connections of a proxy channel, 0 disables a timeout.
+ *
+ * @param readIdleNanos The time without data in either direction after which a connection is closed.
+ * @param writeIdleNanos The time a write may stay blocked, e.g. by a peer that does not read, before the connection
+ *                       is closed.
+ * @param lifetimeNanos The time after which a connection is closed regardless of its traffic.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record MIMPTimeouts(long readIdleNanos, long writeIdleNanos, long lifetimeNanos) {
+
+    /** No timeouts. */
+    public static final MIMPTimeouts NONE = new MIMPTimeouts(0, 0, 0);
+
+    /** The shortest interval between two checks. */
+    private static final long MIN_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** The longest interval between two checks. */
+    private static final long MAX_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public MIMPTimeouts {
+        if (readIdleNanos < 0 || writeIdleNanos < 0 || lifetimeNanos < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+    }
+
+    /**
+     * Parses the timeouts of a proxy port. Channels are separated by commas, each channel has the form
+     * {@code port@setting=value;setting=value}. The settings are {@code read.idle}, {@code write.idle} and
+     * {@code lifetime} in milliseconds.
+     *
+     * @param timeoutsString The timeouts of all ports.
+     * @param proxyIpPort The proxy port.
+     * @return the timeouts of the port, {@link #NONE} if the port has none.
+     * @throws IllegalArgumentException if a setting of the port is invalid.
+     */
+    public static MIMPTimeouts of(final String timeoutsString, final int proxyIpPort) {
+        long readIdleMillis = 0;
+        long writeIdleMillis = 0;
+        long lifetimeMillis = 0;
+        for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(timeoutsString, proxyIpPort, "timeout")) {
+            switch (setting.name()) {
+                case "read.idle" -> readIdleMillis = setting.longValue();
+                case "write.idle" -> writeIdleMillis = setting.longValue();
+                case "lifetime" -> lifetimeMillis = setting.longValue();
+                default -> throw setting.invalid();
+            }
+        }
+        return new MIMPTimeouts(TimeUnit.MILLISECONDS.toNanos(readIdleMillis), TimeUnit.MILLISECONDS.toNanos(writeIdleMillis),
+                TimeUnit.MILLISECONDS.toNanos(lifetimeMillis));
+    }
+
+    /**
+     * @return the interval of the checks, a quarter of the shortest timeout between 100 ms and 1 s, so a connection is
+     * closed at most a quarter late.
+     */
+    public long checkIntervalNanos() {
+        long shortest = LongStream.of(readIdleNanos, writeIdleNanos, lifetimeNanos).filter(t -> t > 0).min().orElse(MAX_CHECK_NANOS);
+        return Math.max(MIN_CHECK_NANOS, Math.min(MAX_CHECK_NANOS, shortest / 4));
+    }
+
+    /**
+     * @return true if no timeout is set.
+     */
+    public boolean isEmpty() {
+        return readIdleNanos == 0 && writeIdleNanos == 0 && lifetimeNanos == 0;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * @(#)MIMPTokenBucket.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting a rate, e.g. of bytes or of connections.
+ * <p>
+ * The bucket is kept as the theoretical time at which it is empty again (generic cell rate algorithm), a reservation
+ * is a single compare and set. Reservations are never refused: a sender reserves its bytes and is told when they
+ * conform to the rate, so concurrent senders share the rate in the order of their reservations. Admissions instead
+ * only take the units which conform at once.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPTokenBucket {
+
+    private final long burstNanos;
+
+    private final double nanosPerByte;
+
+    private final AtomicLong emptyAt;
+
+    /**
+     * @param bytesPerSecond The rate.
+     * @param burst The number of bytes that can be sent at once after an idle period.
+     */
+    public MIMPTokenBucket(final long bytesPerSecond, final long burst) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Invalid rate");
+        }
+        this.nanosPerByte = 1_000_000_000d / bytesPerSecond;
+        this.burstNanos = (long) (Math.max(0, burst) * nanosPerByte);
+        this.emptyAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes units if they conform to the rate now.
+     *
+     * @param units The number of units.
+     * @param now The current {@link System#nanoTime()}.
+     * @return false if the units do not conform, nothing has been taken then.
+     */
+    public boolean tryAcquire(final int units, final long now) {
+        long cost = (long) (units * nanosPerByte);
+        while (true) {
+            long current = emptyAt.get();
+            long next = Math.max(current, now) + cost;
+            if (next - burstNanos > now) {
+                return false;
+            }
+            if (emptyAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserves bytes.
+     *
+     * @param bytes The number of bytes.
+     * @param now The current {@link System#nanoTime()}.
+     * @return the {@link System#nanoTime()} from which the bytes conform to the rate, not before now.
+     */
+    public long reserve(final int bytes, final long now) {
+        long cost = (long) (bytes * nanosPerByte);
+        while (true) {
+            long current = emptyAt.get();
+            long next = Math.max(current, now) + cost;
+            if (emptyAt.compareAndSet(current, next)) {
+                return Math.max(now, next - burstNanos);
+            }
+        }
+    }
+}
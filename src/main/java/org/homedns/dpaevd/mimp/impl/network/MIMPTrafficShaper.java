@@ -0,0 +1,243 @@
+/*
+ * @(#)MIMPTrafficShaper.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.DataOutputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import org.homedns.dpaevd.mimp.api.network.IMIMPIOCallback;
+import org.homedns.dpaevd.mimp.api.util.TimerWheel;
+
+/**
+ * Bandwidth and latency shaping of a channel.
+ * <p>
+ * Each direction can be limited by a rate shared by all connections of the channel and by a rate per connection, and
+ * can be delayed by a fixed latency with an optional uniform jitter. The writes of the handlers are released by a timer
+ * wheel shared by all channels, so a shaped connection costs no thread while its data waits. The order of the bytes
+ * on a connection is preserved, a jitter never reorders them.
+ * <p>
+ * The metrics report per direction the shaped bytes, the delayed writes, the total imposed delay and the lateness of
+ * the delayed writes, the time between their release and their actual write, as accuracy of the shaping.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPTrafficShaper {
+
+    /** Client to remote. */
+    public static final String UP = "up";
+
+    /** Remote to client. */
+    public static final String DOWN = "down";
+
+    private final Direction down;
+
+    private final Direction up;
+
+    /**
+     * @param up The shaping of the client to remote direction.
+     * @param down The shaping of the remote to client direction.
+     * @param metrics The metrics of the channel.
+     */
+    public MIMPTrafficShaper(final Shaping up, final Shaping down, final MIMPChannelMetrics metrics) {
+        this.up = new Direction(UP, up, metrics);
+        this.down = new Direction(DOWN, down, metrics);
+    }
+
+    /**
+     * Parses the shaping of a proxy port. Channels are separated by commas, each channel has the form
+     * {@code port@setting=value;setting=value}. The settings are prefixed by the direction {@code up} or {@code down}:
+     * {@code rate} and {@code connection.rate} in bytes per second with an optional {@code K}, {@code M} or {@code G}
+     * suffix, {@code latency} and {@code jitter} in milliseconds.
+     *
+     * @param shapingString The shaping of all ports.
+     * @param proxyIpPort The proxy port.
+     * @param metrics The metrics of the channel.
+     * @return the shaper of the port or null if the port is not shaped.
+     * @throws IllegalArgumentException if a setting of the port is invalid.
+     */
+    public static MIMPTrafficShaper of(final String shapingString, final int proxyIpPort, final MIMPChannelMetrics metrics) {
+        long[][] settings = new long[2][4];
+        boolean shaped = false;
+        for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(shapingString, proxyIpPort, "shaping")) {
+            int dot = setting.name().indexOf('.');
+            int d = switch (dot < 0 ? "" : setting.name().substring(0, dot)) {
+                case UP -> 0;
+                case DOWN -> 1;
+                default -> throw setting.invalid();
+            };
+            switch (setting.name().substring(dot + 1)) {
+                case "rate" -> settings[d][0] = setting.as(MIMPTrafficShaper::parseRate);
+                case "connection.rate" -> settings[d][1] = setting.as(MIMPTrafficShaper::parseRate);
+                case "latency" -> settings[d][2] = TimeUnit.MILLISECONDS.toNanos(setting.longValue());
+                case "jitter" -> settings[d][3] = TimeUnit.MILLISECONDS.toNanos(setting.longValue());
+                default -> throw setting.invalid();
+            }
+            shaped = true;
+        }
+        return shaped ? new MIMPTrafficShaper(new Shaping(settings[0][0], settings[0][1], settings[0][2], settings[0][3]),
+                new Shaping(settings[1][0], settings[1][1], settings[1][2], settings[1][3]), metrics) : null;
+    }
+
+    /**
+     * @return the shaping of the remote to client direction.
+     */
+    public Shaping getDown() {
+        return down.shaping;
+    }
+
+    /**
+     * @return the shaping of the client to remote direction.
+     */
+    public Shaping getUp() {
+        return up.shaping;
+    }
+
+    /**
+     * Shapes the writes of a handler.
+     *
+     * @param iOCallback The callback of the handler.
+     * @param downstream Tells whether a stream written by the handler goes to the client.
+     * @return the shaping callback, it keeps the per connection state of the handler.
+     */
+    public MIMPShapedIOCallback wrap(final IMIMPIOCallback iOCallback, final Predicate<DataOutputStream> downstream) {
+        return new MIMPShapedIOCallback(iOCallback, out -> downstream.test(out) ? down : up, Wheel.INSTANCE);
+    }
+
+    private static long parseRate(final String value) {
+        String rate = value.toUpperCase(Locale.ROOT);
+        long unit = switch (rate.isEmpty() ? ' ' : rate.charAt(rate.length() - 1)) {
+            case 'K' -> 1024L;
+            case 'M' -> 1024L * 1024;
+            case 'G' -> 1024L * 1024 * 1024;
+            default -> 1L;
+        };
+        long bytes = Long.parseLong(unit == 1 ? rate : rate.substring(0, rate.length() - 1).trim()) * unit;
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Invalid shaping rate: " + value);
+        }
+        return bytes;
+    }
+
+    /**
+     * Shaping of a direction.
+     *
+     * @param rate The rate of the channel in bytes per second, 0 if unlimited.
+     * @param connectionRate The rate of each connection in bytes per second, 0 if unlimited.
+     * @param latencyNanos The added latency.
+     * @param jitterNanos The maximal deviation from the added latency.
+     */
+    public record Shaping(long rate, long connectionRate, long latencyNanos, long jitterNanos) {
+
+        /**
+         * @return true if the direction is not shaped.
+         */
+        public boolean isEmpty() {
+            return rate == 0 && connectionRate == 0 && latencyNanos == 0 && jitterNanos == 0;
+        }
+
+        /**
+         * Creates the bucket of a rate, the burst is the amount of 10 milliseconds.
+         *
+         * @return the bucket or null if the rate is unlimited.
+         */
+        static MIMPTokenBucket bucket(final long rate) {
+            return rate == 0 ? null : new MIMPTokenBucket(rate, Math.max(1, rate / 100));
+        }
+    }
+
+    /**
+     * State of a direction shared by the connections of the channel.
+     */
+    static final class Direction {
+
+        final MIMPTokenBucket bucket;
+
+        final LongAdder bytes;
+
+        final LongAdder delayMicros;
+
+        final LongAdder delayed;
+
+        final LongAdder latenessMicros;
+
+        final LongAccumulator maxLatenessMicros;
+
+        final AtomicLong queuedBytes;
+
+        final Shaping shaping;
+
+        private Direction(final String name, final Shaping shaping, final MIMPChannelMetrics metrics) {
+            this.shaping = shaping;
+            this.bucket = Shaping.bucket(shaping.rate());
+            this.bytes = metrics.counter("shaping." + name + ".bytes");
+            this.delayed = metrics.counter("shaping." + name + ".delayed");
+            this.delayMicros = metrics.counter("shaping." + name + ".delay.micros");
+            this.latenessMicros = metrics.counter("shaping." + name + ".lateness.micros");
+            this.maxLatenessMicros = new LongAccumulator(Math::max, 0);
+            this.queuedBytes = new AtomicLong();
+            metrics.gauge("shaping." + name + ".lateness.max.micros", maxLatenessMicros::get);
+            metrics.gauge("shaping." + name + ".queued.bytes", queuedBytes::get);
+        }
+
+        /**
+         * Computes the release of a write.
+         *
+         * @param length The number of bytes.
+         * @param now The current {@link System#nanoTime()}.
+         * @param connectionBucket The bucket of the connection or null.
+         * @return the {@link System#nanoTime()} at which the bytes may be written.
+         */
+        long release(final int length, final long now, final MIMPTokenBucket connectionBucket) {
+            bytes.add(length);
+            long release = now;
+            if (bucket != null) {
+                release = Math.max(release, bucket.reserve(length, now));
+            }
+            if (connectionBucket != null) {
+                release = Math.max(release, connectionBucket.reserve(length, now));
+            }
+            long latency = shaping.latencyNanos();
+            if (shaping.jitterNanos() > 0) {
+                latency += ThreadLocalRandom.current().nextLong(-shaping.jitterNanos(), shaping.jitterNanos() + 1);
+            }
+            return release + Math.max(0, latency);
+        }
+
+        void released(final long lateNanos) {
+            long micros = Math.max(0, lateNanos) / 1000;
+            latenessMicros.add(micros);
+            maxLatenessMicros.accumulate(micros);
+        }
+    }
+
+    /**
+     * The timer wheel shared by all shaped channels, created on first use.
+     */
+    private static final class Wheel {
+
+        private static final TimerWheel INSTANCE;
+
+        static {
+            ExecutorService writers = Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "mimp-shaping-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            INSTANCE = new TimerWheel("mimp-shaping", TimeUnit.MILLISECONDS.toNanos(1), 1024, writers).start();
+        }
+    }
+}
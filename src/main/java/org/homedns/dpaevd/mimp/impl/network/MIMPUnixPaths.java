@@ -0,0 +1,65 @@
+/*
+ * @(#)MIMPUnixPaths.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+
+/**
+ * The Unix domain sockets of a proxy channel, a side without a path uses TCP.
+ *
+ * @param listen The socket file the channel listens on, null to listen on the TCP port.
+ * @param remote The socket file of the remote, null to connect to the remote host and port.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record MIMPUnixPaths(Path listen, Path remote) {
+
+    /** A channel using TCP on both sides. */
+    public static final MIMPUnixPaths NONE = new MIMPUnixPaths(null, null);
+
+    /**
+     * Parses the Unix domain sockets of a proxy port. Channels are separated by commas, each channel has the form
+     * {@code port@setting=value;setting=value}. The settings are {@code listen} and {@code remote}, both paths.
+     *
+     * @param unixString The Unix domain sockets of all ports.
+     * @param proxyIpPort The proxy port.
+     * @return the sockets of the port, {@link #NONE} if the port has none.
+     * @throws IllegalArgumentException if a setting of the port is invalid.
+     */
+    public static MIMPUnixPaths of(final String unixString, final int proxyIpPort) {
+        Path listen = null;
+        Path remote = null;
+        for (MIMPChannelSettings.Setting setting : MIMPChannelSettings.of(unixString, proxyIpPort, "Unix domain socket")) {
+            if (setting.value().isEmpty()) {
+                throw setting.invalid();
+            }
+            switch (setting.name()) {
+                case "listen" -> listen = setting.as(Path::of);
+                case "remote" -> remote = setting.as(Path::of);
+                default -> throw setting.invalid();
+            }
+        }
+        return new MIMPUnixPaths(listen, remote);
+    }
+
+    /**
+     * @return the address of the listener, null for TCP.
+     */
+    public UnixDomainSocketAddress listenAddress() {
+        return listen == null ? null : UnixDomainSocketAddress.of(listen);
+    }
+
+    /**
+     * @return the address of the remote, null for TCP.
+     */
+    public UnixDomainSocketAddress remoteAddress() {
+        return remote == null ? null : UnixDomainSocketAddress.of(remote);
+    }
+}
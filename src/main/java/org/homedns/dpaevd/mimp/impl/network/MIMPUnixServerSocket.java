@@ -0,0 +1,133 @@
+/*
+ * @(#)MIMPUnixServerSocket.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A Unix domain socket listener seen as a {@link ServerSocket}, accepting {@link MIMPUnixSocket}s.
+ * <p>
+ * The socket file is created by the bind and deleted by the close; a file left over by a process that did not close
+ * its listener is replaced, a regular file or a directory is never touched.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPUnixServerSocket extends ServerSocket {
+
+    private volatile ServerSocketChannel channel;
+
+    private final int localPort;
+
+    private volatile Path path;
+
+    private int receiveBufferSize;
+
+    /**
+     * @param localPort The proxy port reported as local port of the listener and of its connections.
+     * @throws IOException never, declared by the constructor of the listener.
+     */
+    public MIMPUnixServerSocket(final int localPort) throws IOException {
+        this.localPort = localPort;
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+        ServerSocketChannel channel = this.channel;
+        if (channel == null) {
+            throw new SocketException("Socket is not bound yet");
+        }
+        return new MIMPUnixSocket(channel.accept(), localPort);
+    }
+
+    @Override
+    public void bind(final SocketAddress endpoint) throws IOException {
+        bind(endpoint, 0);
+    }
+
+    @Override
+    public synchronized void bind(final SocketAddress endpoint, final int backlog) throws IOException {
+        if (!(endpoint instanceof UnixDomainSocketAddress address)) {
+            throw new IllegalArgumentException("Not a Unix domain socket address: " + endpoint);
+        }
+        if (channel != null) {
+            throw new SocketException("Already bound");
+        }
+        Path file = address.getPath();
+        if (Files.isRegularFile(file) || Files.isDirectory(file)) {
+            throw new SocketException("Not a socket file: " + file);
+        }
+        Files.deleteIfExists(file);
+        ServerSocketChannel binding = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            if (receiveBufferSize > 0) {
+                binding.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            binding.bind(address, backlog);
+        } catch (IOException | UnsupportedOperationException e) {
+            binding.close();
+            throw e;
+        }
+        path = file;
+        channel = binding;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        ServerSocketChannel channel = this.channel;
+        if (channel != null && channel.isOpen()) {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        Path path = this.path;
+        return path == null ? null : UnixDomainSocketAddress.of(path);
+    }
+
+    @Override
+    public boolean isBound() {
+        return channel != null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        ServerSocketChannel channel = this.channel;
+        return channel != null && !channel.isOpen();
+    }
+
+    /**
+     * Keeps the size for the bind, the accepted connections inherit it.
+     */
+    @Override
+    public synchronized void setReceiveBufferSize(final int size) {
+        this.receiveBufferSize = size;
+    }
+
+    @Override
+    public String toString() {
+        return "MIMPUnixServerSocket[" + path + "]";
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * @(#)MIMPUnixSocket.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+
+/**
+ * A Unix domain socket seen as a {@link Socket}, so the handlers relay local connections without knowing their kind.
+ * <p>
+ * The JDK offers Unix domain sockets only as channels, the socket delegates to a blocking {@link SocketChannel}. The
+ * TCP options are ignored, the peer is always reported as the loopback address and reads have no timeout.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPUnixSocket extends Socket {
+
+    private volatile SocketChannel channel;
+
+    private InputStream in;
+
+    private volatile boolean inputShutdown;
+
+    private final int localPort;
+
+    private OutputStream out;
+
+    private volatile boolean outputShutdown;
+
+    private int soTimeout;
+
+    /**
+     * Creates an unconnected socket.
+     */
+    public MIMPUnixSocket() {
+        this(null, 0);
+    }
+
+    /**
+     * @param channel The connected channel, null for an unconnected socket.
+     * @param localPort The proxy port reported as local port, the path of the listener has no port.
+     */
+    MIMPUnixSocket(final SocketChannel channel, final int localPort) {
+        this.channel = channel;
+        this.localPort = localPort;
+    }
+
+    private SocketChannel channel() throws SocketException {
+        SocketChannel channel = this.channel;
+        if (channel == null) {
+            throw new SocketException("Socket is not connected");
+        }
+        return channel;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        SocketChannel channel = this.channel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void connect(final SocketAddress endpoint) throws IOException {
+        connect(endpoint, 0);
+    }
+
+    /**
+     * Connects the socket, a local connect does not wait so the timeout is ignored.
+     */
+    @Override
+    public synchronized void connect(final SocketAddress endpoint, final int timeout) throws IOException {
+        if (!(endpoint instanceof UnixDomainSocketAddress)) {
+            throw new IllegalArgumentException("Not a Unix domain socket address: " + endpoint);
+        }
+        if (channel != null) {
+            throw new SocketException("Already connected");
+        }
+        SocketChannel connecting = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            connecting.connect(endpoint);
+        } catch (IOException ioe) {
+            connecting.close();
+            throw ioe;
+        }
+        channel = connecting;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return channel == null ? null : InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            in = Channels.newInputStream(channel());
+        }
+        return in;
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        try {
+            return channel == null ? null : channel.getLocalAddress();
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = Channels.newOutputStream(channel());
+        }
+        return out;
+    }
+
+    @Override
+    public int getPort() {
+        return 0;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        try {
+            return channel == null ? null : channel.getRemoteAddress();
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized int getSoTimeout() {
+        return soTimeout;
+    }
+
+    @Override
+    public boolean isBound() {
+        return channel != null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        SocketChannel channel = this.channel;
+        return channel != null && !channel.isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        SocketChannel channel = this.channel;
+        return channel != null && channel.isConnected();
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+        return inputShutdown;
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+        return outputShutdown;
+    }
+
+    @Override
+    public <T> Socket setOption(final SocketOption<T> name, final T value) throws IOException {
+        if (supportedOptions().contains(name)) {
+            channel().setOption(name, value);
+        }
+        return this;
+    }
+
+    @Override
+    public void setKeepAlive(final boolean on) {
+    }
+
+    @Override
+    public void setReceiveBufferSize(final int size) throws SocketException {
+        setIntOption(StandardSocketOptions.SO_RCVBUF, size);
+    }
+
+    @Override
+    public void setSendBufferSize(final int size) throws SocketException {
+        setIntOption(StandardSocketOptions.SO_SNDBUF, size);
+    }
+
+    @Override
+    public void setSoLinger(final boolean on, final int linger) throws SocketException {
+        setIntOption(StandardSocketOptions.SO_LINGER, on ? linger : -1);
+    }
+
+    /**
+     * Keeps the timeout for {@link #getSoTimeout()}, the reads of a channel stream cannot time out.
+     */
+    @Override
+    public synchronized void setSoTimeout(final int timeout) {
+        this.soTimeout = timeout;
+    }
+
+    @Override
+    public void setTcpNoDelay(final boolean on) {
+    }
+
+    private void setIntOption(final SocketOption<Integer> option, final int value) throws SocketException {
+        // the options of an unconnected socket are dropped, the system defaults apply
+        SocketChannel channel = this.channel;
+        if (channel != null) {
+            try {
+                channel.setOption(option, value);
+            } catch (IOException ioe) {
+                throw new SocketException(ioe.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        channel().shutdownInput();
+        inputShutdown = true;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel().shutdownOutput();
+        outputShutdown = true;
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        SocketChannel channel = this.channel;
+        return channel == null ? Set.of() : channel.supportedOptions();
+    }
+
+    @Override
+    public String toString() {
+        return "MIMPUnixSocket[" + getRemoteSocketAddress() + "]";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * @(#)MIMPUpstreamConnectedEvent.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event measuring the connection setup towards the remote of a channel.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@Name("org.homedns.dpaevd.mimp.UpstreamConnected")
+@Label("Upstream Connected")
+@Category({"MIMP", "Network"})
+@Description("Connection setup towards the remote of a proxy channel")
+class MIMPUpstreamConnectedEvent extends Event {
+
+    @Label("Proxy Port")
+    int proxyPort;
+
+    @Label("Remote Host")
+    String remoteHost;
+
+    @Label("Remote Port")
+    int remotePort;
+
+    @Label("Success")
+    boolean success;
+}
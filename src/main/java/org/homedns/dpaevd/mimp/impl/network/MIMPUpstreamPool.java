@@ -0,0 +1,348 @@
+/*
+ * @(#)MIMPUpstreamPool.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import org.homedns.dpaevd.mimp.api.network.MIMPPoolExhaustedException;
+import org.homedns.dpaevd.mimp.impl.http.HTTPMethod;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRoute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The bounded keep-alive pool of the upstream connections of a proxy channel in request mode.
+ * <p>
+ * A client connection leases an upstream connection for a single exchange and gives it back once the response has
+ * been relayed, so many mostly idle client connections share a few upstream connections. At most {@code max}
+ * connections are leased at once, a lease waits up to {@code wait} milliseconds for a free one. Connections given
+ * back are kept per upstream, at most {@code idle} of them and for at most {@code idle.timeout} milliseconds; the most
+ * recently used one is leased first so the others can expire.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPUpstreamPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MIMPUpstreamPool.class);
+
+    /** The buffer of the streams of a connection. */
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    private volatile boolean closed;
+
+    private final MIMPRemoteConnector connector;
+
+    private final LongAdder created;
+
+    private final AtomicInteger idleCount;
+
+    private final Map<String, Deque<Connection>> idle;
+
+    private final Semaphore leases;
+
+    private final Function<HTTPRoute, String> names;
+
+    private final LongAdder reused;
+
+    private final Settings settings;
+
+    private final Function<HTTPRoute, Socket> sockets;
+
+    private final LongAdder waitTimeouts;
+
+    /**
+     * @param settings The settings of the pool.
+     * @param sockets Creates the unconnected socket of the upstream of a route or of the channel.
+     * @param connector Connects the sockets to the upstream of a route or of the channel.
+     * @param names Names the upstream of a route or of the channel, the connections are pooled by name.
+     * @param metrics The metrics of the channel.
+     */
+    public MIMPUpstreamPool(final Settings settings, final Function<HTTPRoute, Socket> sockets, final MIMPRemoteConnector connector,
+                            final Function<HTTPRoute, String> names, final MIMPChannelMetrics metrics) {
+        this.settings = settings;
+        this.sockets = sockets;
+        this.connector = connector;
+        this.names = names;
+        this.leases = new Semaphore(settings.max(), true);
+        this.idle = new ConcurrentHashMap<>();
+        this.idleCount = new AtomicInteger();
+        this.created = metrics.counter("pool.created");
+        this.reused = metrics.counter("pool.reused");
+        this.waitTimeouts = metrics.counter("pool.wait.timeouts");
+        metrics.gauge("pool.leased", () -> settings.max() - leases.availablePermits());
+        metrics.gauge("pool.idle", idleCount::get);
+    }
+
+    /**
+     * Closes the idle connections, the leased ones are closed when they are given back.
+     */
+    public void close() {
+        closed = true;
+        idle.values().forEach(connections -> {
+            for (Connection connection = connections.pollFirst(); connection != null; connection = connections.pollFirst()) {
+                idleCount.decrementAndGet();
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    public void evict(final long now) {
+        idle.values().forEach(connections -> {
+            for (Connection connection : connections) {
+                // a connection leased meanwhile is not removed and stays open
+                if (now - connection.releasedNanos >= settings.idleNanos() && connections.removeFirstOccurrence(connection)) {
+                    idleCount.decrementAndGet();
+                    connection.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the settings of the pool.
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Leases a connection to an upstream, an idle one if there is one and a new one otherwise.
+     *
+     * @param route The route whose upstream is leased or null for the upstream of the channel.
+     * @return the connection, it must be given back with {@link #release(Connection, boolean)}.
+     * @throws MIMPPoolExhaustedException if no connection is given back within the wait time.
+     * @throws IOException if a new connection cannot be established.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Connection lease(final HTTPRoute route) throws IOException, InterruptedException {
+        if (!leases.tryAcquire(settings.waitMillis(), TimeUnit.MILLISECONDS)) {
+            waitTimeouts.increment();
+            throw new MIMPPoolExhaustedException("No upstream connection free within " + settings.waitMillis() + " ms");
+        }
+        final String upstream = names.apply(route);
+        try {
+            Deque<Connection> connections = idle.get(upstream);
+            final long now = System.nanoTime();
+            for (Connection connection = connections == null ? null : connections.pollFirst(); connection != null;
+                 connection = connections.pollFirst()) {
+                idleCount.decrementAndGet();
+                if (now - connection.releasedNanos < settings.idleNanos() && !connection.socket.isClosed()) {
+                    reused.increment();
+                    connection.reused = true;
+                    return connection;
+                }
+                connection.close();
+            }
+            Socket socket = sockets.apply(route);
+            try {
+                connector.connect(socket, route);
+                Connection connection = new Connection(upstream, socket);
+                created.increment();
+                return connection;
+            } catch (IOException | RuntimeException e) {
+                socket.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            leases.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a leased connection back.
+     *
+     * @param connection The connection.
+     * @param reusable True if the exchange ended at a message boundary and the upstream keeps the connection open.
+     */
+    public void release(final Connection connection, final boolean reusable) {
+        try {
+            if (!reusable || closed || connection.socket.isClosed() || idleCount.get() >= settings.idle()) {
+                connection.close();
+                return;
+            }
+            connection.releasedNanos = System.nanoTime();
+            connection.reused = false;
+            idleCount.incrementAndGet();
+            idle.computeIfAbsent(connection.upstream, key -> new ConcurrentLinkedDeque<>()).offerFirst(connection);
+        } finally {
+            leases.release();
+        }
+    }
+
+    /**
+     * A pooled upstream connection, used by one exchange at a time.
+     */
+    public static final class Connection {
+
+        private final InputStream in;
+
+        private final OutputStream out;
+
+        private volatile long releasedNanos;
+
+        private boolean reused;
+
+        private final Socket socket;
+
+        private final String upstream;
+
+        private Connection(final String upstream, final Socket socket) throws IOException {
+            this.upstream = upstream;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_SIZE);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE);
+        }
+
+        /**
+         * Closes the connection.
+         */
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                LOGGER.debug("Cannot close the upstream connection to {}. Reason: {}", upstream, ioe.getMessage());
+            }
+        }
+
+        /**
+         * @return the buffered input of the connection.
+         */
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        /**
+         * @return the buffered output of the connection, flushed by the exchange.
+         */
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        /**
+         * @return the socket of the connection.
+         */
+        public Socket getSocket() {
+            return socket;
+        }
+
+        /**
+         * @return the name of the upstream.
+         */
+        public String getUpstream() {
+            return upstream;
+        }
+
+        /**
+         * @return true if the connection was taken from the idle connections, the upstream may have closed it since.
+         */
+        public boolean isReused() {
+            return reused;
+        }
+    }
+
+    /**
+     * The requests sent again when their reused connection turns out to be closed by the upstream before it answered
+     * anything. Requests with a body are never sent again, it has been consumed.
+     */
+    public enum Retry {
+
+        /** No request is sent again. */
+        NONE,
+
+        /** The safe methods {@code GET}, {@code HEAD}, {@code OPTIONS} and {@code TRACE} are sent again. */
+        SAFE,
+
+        /** The safe methods, {@code PUT} and {@code DELETE} are sent again, for upstreams implementing them idempotently. */
+        IDEMPOTENT;
+
+        /**
+         * @param method The method of the request.
+         * @return true if a request with the method may be sent again.
+         */
+        public boolean allows(final HTTPMethod method) {
+            return switch (method) {
+                case GET, HEAD, OPTIONS, TRACE -> this != NONE;
+                case PUT, DELETE -> this == IDEMPOTENT;
+                default -> false;
+            };
+        }
+    }
+
+    /**
+     * The pool settings of a proxy channel.
+     *
+     * @param max The upstream connections leased at once.
+     * @param idle The idle upstream connections kept open.
+     * @param idleNanos The time an idle upstream connection is kept open.
+     * @param waitMillis The time a lease waits for a free connection.
+     * @param retry The requests sent again on a new connection when their reused connection was closed.
+     */
+    public record Settings(int max, int idle, long idleNanos, long waitMillis, Retry retry) {
+
+        public Settings {
+            if (max <= 0 || idle < 0 || idleNanos < 0 || waitMillis < 0 || retry == null) {
+                throw new IllegalArgumentException("Invalid pool settings: max " + max + ", idle " + idle + ", idle timeout "
+                        + TimeUnit.NANOSECONDS.toMillis(idleNanos) + " ms, wait " + waitMillis + " ms, retry " + retry);
+            }
+        }
+
+        /**
+         * Parses the pool settings of a proxy port. Channels are separated by commas, each channel has the form
+         * {@code port@setting=value;setting=value}. The settings are {@code max}, {@code idle}, {@code idle.timeout}
+         * and {@code wait}, the times in milliseconds, and {@code retry} ({@code none}, {@code safe} or
+         * {@code idempotent}).
+         *
+         * @param poolString The pool settings of all ports.
+         * @param proxyIpPort The proxy port.
+         * @return the settings of the port, null if the port relays connections rather than requests.
+         * @throws IllegalArgumentException if a setting of the port is invalid.
+         */
+        public static Settings of(final String poolString, final int proxyIpPort) {
+            int max = 64;
+            int idle = -1;
+            long idleMillis = 60000;
+            long waitMillis = 5000;
+            Retry retry = Retry.SAFE;
+            MIMPChannelSettings settings = MIMPChannelSettings.of(poolString, proxyIpPort, "pool");
+            for (MIMPChannelSettings.Setting setting : settings) {
+                switch (setting.name()) {
+                    case "max" -> max = setting.intValue();
+                    case "idle" -> idle = setting.intValue();
+                    case "idle.timeout" -> idleMillis = setting.longValue();
+                    case "wait" -> waitMillis = setting.longValue();
+                    case "retry" -> retry = setting.as(value -> Retry.valueOf(value.toUpperCase(Locale.ROOT)));
+                    default -> throw setting.invalid();
+                }
+            }
+            return settings.isConfigured() ? new Settings(max, idle < 0 ? max : idle, TimeUnit.MILLISECONDS.toNanos(idleMillis), waitMillis, retry)
+                    : null;
+        }
+    }
+}
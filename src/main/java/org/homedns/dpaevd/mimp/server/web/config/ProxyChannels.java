@@ -10,20 +10,35 @@
 import jakarta.annotation.PreDestroy;
 import org.homedns.dpaevd.mimp.api.MIMPConstants;
 import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServer;
-import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
-import org.homedns.dpaevd.mimp.impl.network.MIMPIOCallback;
-import org.homedns.dpaevd.mimp.impl.network.MIMPSocketServer;
+import org.homedns.dpaevd.mimp.impl.network.MIMPBufferArena;
+import org.homedns.dpaevd.mimp.impl.network.MIMPChannels;
+import org.homedns.dpaevd.mimp.impl.network.MIMPScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  * Multiple proxy channels configuration.
+ * <p>
+ * The channels are reloaded when the file named by {@code mimp.proxy.reload.file} changes or when the
+ * {@code channels} actuator endpoint is written. The properties of the file take precedence over those of the
+ * environment, placeholders are resolved against the environment.
  *
  * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
  * @version 2024.1
@@ -34,51 +49,146 @@ public class ProxyChannels {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProxyChannels.class);
 
+    /** The settings passed to the channels with their defaults. */
+    private static final Map<String, String> CHANNEL_SETTINGS = Map.ofEntries(
+            Map.entry(MIMPConstants.LOCAL_SERVER_BUFFER_SIZE_KEY, "0"),
+            Map.entry(MIMPConstants.PROXY_ADMISSION_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_BREAKER_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_CACHE_ENABLED_KEY, "false"),
+            Map.entry(MIMPConstants.PROXY_CACHE_SIZE_KEY, "67108864"),
+            Map.entry(MIMPConstants.PROXY_CACHE_ENTRY_SIZE_KEY, "1048576"),
+            Map.entry(MIMPConstants.PROXY_DATAGRAM_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_FORWARD_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_HEADERS_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_HEALTH_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_JFR_RELAY_SAMPLE_KEY, "100"),
+            Map.entry(MIMPConstants.PROXY_MEMORY_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_POOL_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_RESPONSE_HEADERS_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_ROUTES_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_SCHEDULER_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_SHAPING_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_SHARDS_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_SOCKET_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_STUBS_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_TIMEOUTS_KEY, ""),
+            Map.entry(MIMPConstants.PROXY_TRACE_HEADERS_KEY, "false"),
+            Map.entry(MIMPConstants.PROXY_TRACE_PAYLOAD_KEY, "false"),
+            Map.entry(MIMPConstants.PROXY_UNIX_KEY, ""));
+
+    /** Editors usually write a file in several steps, the reload waits for the last one. */
+    private static final long RELOAD_DELAY_MILLIS = 200;
+
+    private final MIMPChannels channels;
+
     private final Environment environment;
 
-    private final List<IMIMPSocketServer> proxyChannelList;
+    private WatchService watchService;
 
-    public ProxyChannels(final Environment environment) {
+    public ProxyChannels(final Environment environment, final ObjectProvider<SimpMessageSendingOperations> messaging) {
         this.environment = environment;
-        this.proxyChannelList = new ArrayList<>();
+        this.channels = new MIMPChannels(environment.getProperty(MIMPConstants.PROXY_DRAIN_TIMEOUT_KEY, Long.class, 30000L));
+        messaging.ifAvailable(operations -> channels.setCallback(new ProxyChannelsPublisher(operations)));
+        MIMPScheduler.shared().setCapacity(environment.getProperty(MIMPConstants.PROXY_SCHEDULER_CAPACITY_KEY, Integer.class,
+                MIMPScheduler.DEFAULT_CAPACITY));
+        long memoryBudget = environment.getProperty(MIMPConstants.PROXY_MEMORY_BUDGET_KEY, Long.class, 0L);
+        if (memoryBudget > 0) {
+            MIMPBufferArena.shared().setBudget(memoryBudget);
+        }
     }
 
     @PreDestroy
     public void cleanup() {
-        proxyChannelList.forEach(IMIMPSocketServer::cleanup);
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ioe) {
+                LOGGER.error("Cannot close the watch service. Reason: {}", ioe.getMessage());
+            }
+        }
+        channels.cleanup();
+    }
+
+    /**
+     * @return the running channels.
+     */
+    public List<IMIMPSocketServer> getChannels() {
+        return channels.getServers();
     }
 
     @PostConstruct
     public void initialize() {
-        String proxyChannelCollection = environment.getProperty(MIMPConstants.PROXY_CHANNELS_KEY);
+        reload();
+        String reloadFile = environment.getProperty(MIMPConstants.PROXY_RELOAD_FILE_KEY, "");
+        if (!reloadFile.isBlank()) {
+            watch(Path.of(reloadFile.trim()).toAbsolutePath());
+        }
+    }
+
+    /**
+     * Reads the configuration again and applies the differences to the running channels.
+     *
+     * @return the changes.
+     */
+    public synchronized MIMPChannels.Reload reload() {
+        Properties overrides = readReloadFile();
+        String proxyChannelCollection = property(overrides, MIMPConstants.PROXY_CHANNELS_KEY, null);
         if (proxyChannelCollection == null) {
             LOGGER.error("No proxy channels!");
-            return;
+            proxyChannelCollection = "";
         }
-        String[] proxyChannels = proxyChannelCollection.split(",");
-        Arrays.asList(proxyChannels).forEach(proxyChannel -> {
-            String[] proxyChannelParts = proxyChannel.split(":");
-            if (proxyChannelParts.length <3 || proxyChannelParts.length > 4) {
-                LOGGER.error("Invalid proxy channel: " + proxyChannel);
-                return;
-            }
-            int proxyIpPort = Integer.parseInt(proxyChannelParts[0]);
-            String remoteHostName = proxyChannelParts[1];
-            int remotePort = Integer.parseInt(proxyChannelParts[2]);
-
-            boolean secure = proxyChannelParts.length == 4 && "secure".equalsIgnoreCase(proxyChannelParts[3]);
-
-            MIMPProperties properties = new MIMPProperties();
-            properties.put(MIMPConstants.LOCAL_SERVER_BUFFER_SIZE_KEY, 2048);
-            properties.put(MIMPConstants.PROXY_HEADERS_KEY, environment.getProperty(MIMPConstants.PROXY_HEADERS_KEY, ""));
-            properties.put(MIMPConstants.PROXY_TRACE_HEADERS_KEY, environment.getProperty(MIMPConstants.PROXY_TRACE_HEADERS_KEY, "false"));
+        Map<String, String> settings = new HashMap<>();
+        CHANNEL_SETTINGS.forEach((key, defaultValue) -> settings.put(key, property(overrides, key, defaultValue)));
+        return channels.apply(MIMPChannels.parse(proxyChannelCollection, settings));
+    }
 
-            MIMPIOCallback iOCallback = new MIMPIOCallback();
+    private String property(final Properties overrides, final String key, final String defaultValue) {
+        String value = overrides.getProperty(key);
+        return value == null ? environment.getProperty(key, defaultValue) : environment.resolvePlaceholders(value);
+    }
 
-            MIMPSocketServer proxy = new MIMPSocketServer(iOCallback, properties, proxyIpPort, remoteHostName, remotePort);
-            proxy.initialize();
+    private Properties readReloadFile() {
+        Properties overrides = new Properties();
+        String reloadFile = environment.getProperty(MIMPConstants.PROXY_RELOAD_FILE_KEY, "");
+        if (!reloadFile.isBlank()) {
+            try (Reader reader = Files.newBufferedReader(Path.of(reloadFile.trim()))) {
+                overrides.load(reader);
+            } catch (IOException ioe) {
+                LOGGER.error("Cannot read the reload file {}. Reason: {}", reloadFile, ioe.getMessage());
+            }
+        }
+        return overrides;
+    }
 
-            proxyChannelList.add(proxy);
-        });
+    private void watch(final Path file) {
+        try {
+            watchService = file.getFileSystem().newWatchService();
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ioe) {
+            LOGGER.error("Cannot watch the reload file {}. Reason: {}", file, ioe.getMessage());
+            return;
+        }
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    boolean changed = key.pollEvents().stream().anyMatch(event -> file.getFileName().equals(event.context()));
+                    key.reset();
+                    if (changed) {
+                        Thread.sleep(RELOAD_DELAY_MILLIS);
+                        for (WatchKey pending = watchService.poll(); pending != null; pending = watchService.poll()) {
+                            pending.pollEvents();
+                            pending.reset();
+                        }
+                        LOGGER.info("Reloading the proxy channels from {}", file);
+                        reload();
+                    }
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                LOGGER.info("Stopped watching the reload file {}", file);
+            }
+        }, "mimp-reload-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
     }
 }
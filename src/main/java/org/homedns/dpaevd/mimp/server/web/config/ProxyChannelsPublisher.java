@@ -0,0 +1,64 @@
+/*
+ * @(#)ProxyChannelsPublisher.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.server.web.config;
+
+import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServerStatusCallback;
+import org.homedns.dpaevd.mimp.api.network.MIMPCircuitState;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketServerStatus;
+import org.homedns.dpaevd.mimp.server.web.rest.ProxyChannelEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+
+/**
+ * Publishes the changes of the upstreams of the proxy channels on {@code /topic/mimp}.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class ProxyChannelsPublisher implements IMIMPSocketServerStatusCallback {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyChannelsPublisher.class);
+
+    /** The topic of the events. */
+    public static final String TOPIC = "/topic/mimp";
+
+    private final SimpMessageSendingOperations messaging;
+
+    public ProxyChannelsPublisher(final SimpMessageSendingOperations messaging) {
+        this.messaging = messaging;
+    }
+
+    @Override
+    public void onServiceStatusChange(final MIMPSocketServerStatus status) {
+    }
+
+    @Override
+    public void onHandler(final IMIMPServerSocketHandler handler) {
+    }
+
+    @Override
+    public void onCircuitBreakerChange(final String upstream, final MIMPCircuitState state) {
+        publish(new ProxyChannelEvent("breaker", upstream, state.name(), 0, System.currentTimeMillis()));
+    }
+
+    @Override
+    public void onUpstreamHealthChange(final String upstream, final boolean healthy, final long latencyMicros) {
+        publish(new ProxyChannelEvent("health", upstream, healthy ? "HEALTHY" : "UNHEALTHY", latencyMicros, System.currentTimeMillis()));
+    }
+
+    private void publish(final ProxyChannelEvent event) {
+        try {
+            messaging.convertAndSend(TOPIC, event);
+        } catch (MessagingException me) {
+            LOGGER.debug("Cannot publish {}. Reason: {}", event, me.getMessage());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * @(#)ProxyChannelEvent.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.server.web.rest;
+
+/**
+ * A change of an upstream of a proxy channel, published on {@code /topic/mimp}.
+ *
+ * @param type The kind of change, {@code breaker} or {@code health}.
+ * @param upstream The upstream as {@code host:port}.
+ * @param state The new state: {@code CLOSED}, {@code OPEN} or {@code HALF_OPEN} for a breaker, {@code HEALTHY} or
+ *              {@code UNHEALTHY} for a health check.
+ * @param latencyMicros The duration of the health check causing the change, 0 for a breaker.
+ * @param timestamp The time of the change in milliseconds since the epoch.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public record ProxyChannelEvent(String type, String upstream, String state, long latencyMicros, long timestamp) {
+}
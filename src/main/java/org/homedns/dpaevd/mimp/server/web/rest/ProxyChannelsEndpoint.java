@@ -0,0 +1,53 @@
+/*
+ * @(#)ProxyChannelsEndpoint.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.server.web.rest;
+
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServer;
+import org.homedns.dpaevd.mimp.impl.network.MIMPChannels;
+import org.homedns.dpaevd.mimp.server.web.config.ProxyChannels;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Administration of the proxy channels: {@code GET /actuator/channels} lists the channels with their metrics,
+ * {@code POST /actuator/channels} reloads them.
+ *
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+@Component
+@Endpoint(id = "channels")
+public class ProxyChannelsEndpoint {
+
+    private final ProxyChannels proxyChannels;
+
+    public ProxyChannelsEndpoint(final ProxyChannels proxyChannels) {
+        this.proxyChannels = proxyChannels;
+    }
+
+    @ReadOperation
+    public Map<Integer, Map<String, Object>> channels() {
+        Map<Integer, Map<String, Object>> channels = new LinkedHashMap<>();
+        for (IMIMPSocketServer channel : proxyChannels.getChannels()) {
+            channels.put(channel.getProxyIpPort(), Map.of(
+                    "remote", channel.getRemoteHostName() + ":" + channel.getRemoteIpPort(),
+                    "metrics", channel.getMetrics()));
+        }
+        return channels;
+    }
+
+    @WriteOperation
+    public MIMPChannels.Reload reload() {
+        return proxyChannels.reload();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * @(#)HexDumpEncoderTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.api.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test suite for the hex dump encoder.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class HexDumpEncoderTest {
+
+    private static final byte[] DATA = "GET / HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String EXPECTED = """
+            00000010 47 45 54 20 2F 20 48 54 54 50 2F 31 2E 31 0D 0A GET / HTTP/1.1..
+            00000020 48 6F 73 74 3A 20 78 0D 0A 0D 0A                Host: x....
+            """;
+
+    @Test
+    void dumpToStreamTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HexDumpEncoder("\n").dump(DATA, 0, DATA.length, 16, out);
+        assertEquals(EXPECTED, out.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void dumpDirectSliceTest() throws IOException {
+        ByteBuffer direct = ByteBuffer.allocateDirect(DATA.length + 8);
+        direct.position(4);
+        direct.put(DATA);
+        direct.position(4).limit(4 + DATA.length);
+        StringBuilder buf = new StringBuilder();
+        new HexDumpEncoder("\n").dump(direct.slice(), 16, buf);
+        assertEquals(EXPECTED, buf.toString());
+        assertEquals(4, direct.position());
+    }
+
+    @Test
+    void legacyDumpTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HexDumpFunctions.dump(DATA, 16, out, 0);
+        assertEquals(EXPECTED.replace("\n", HexDumpFunctions.EOL), out.toString(StandardCharsets.US_ASCII));
+        assertEquals(EXPECTED.replace("\n", HexDumpFunctions.EOL), HexDumpFunctions.dump(DATA, 16, 0));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * @(#)MIMPResponseCacheTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.cache;
+
+import org.homedns.dpaevd.mimp.impl.http.HTTPFunctions;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRequest;
+import org.homedns.dpaevd.mimp.impl.http.HTTPResponse;
+import org.homedns.dpaevd.mimp.impl.network.MIMPChannelMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the response cache.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPResponseCacheTest {
+
+    private static HTTPRequest request(final String uri, final String headers) {
+        return HTTPFunctions.createRequest("GET " + uri + " HTTP/1.1\r\nHost: test\r\n" + headers + "\r\n");
+    }
+
+    private static byte[] store(final MIMPResponseCache cache, final HTTPRequest request, final String head, final int bodyLength) {
+        byte[] response = new byte[head.length() + bodyLength];
+        System.arraycopy(head.getBytes(StandardCharsets.US_ASCII), 0, response, 0, head.length());
+        for (int i = head.length(); i < response.length; i++) {
+            response[i] = (byte) i;
+        }
+        HTTPResponse parsed = HTTPFunctions.createResponse(head);
+        MIMPResponseCache.Capture capture = cache.capture(MIMPResponseCache.key(request), request, parsed, head.length(), bodyLength);
+        if (capture != null) {
+            // relayed in two chunks
+            capture.append(response, 0, 10);
+            capture.append(response, 10, response.length - 10);
+        }
+        return response;
+    }
+
+    @Test
+    void storeAndVaryTest() {
+        MIMPChannelMetrics metrics = new MIMPChannelMetrics();
+        MIMPResponseCache cache = MIMPResponseCache.of(64 * 1024, 1024, 16 * 1024, metrics);
+        HTTPRequest gzip = request("/a", "Accept-Encoding: gzip\r\n");
+        byte[] response = store(cache, gzip, "HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\nVary: Accept-Encoding\r\nContent-Length: 3000\r\n\r\n", 3000);
+
+        MIMPResponseCache.Entry entry = cache.lookup(MIMPResponseCache.key(gzip), gzip);
+        assertNotNull(entry);
+        assertTrue(cache.isFresh(entry, gzip));
+        assertFalse(cache.isFresh(entry, request("/a", "Accept-Encoding: gzip\r\nCache-Control: no-cache\r\n")));
+        assertArrayEquals(response, cache.read(entry));
+
+        HTTPRequest identity = request("/a", "Accept-Encoding: identity\r\n");
+        assertNull(cache.lookup(MIMPResponseCache.key(identity), identity));
+        assertEquals(1L, metrics.snapshot().get("cache.hits"));
+        assertEquals(1L, metrics.snapshot().get("cache.misses"));
+    }
+
+    @Test
+    void notStorableTest() {
+        MIMPResponseCache cache = MIMPResponseCache.of(64 * 1024, 1024, 16 * 1024, new MIMPChannelMetrics());
+        HTTPRequest request = request("/b", "");
+        store(cache, request, "HTTP/1.1 200 OK\r\nCache-Control: no-store\r\nContent-Length: 10\r\n\r\n", 10);
+        store(cache, request, "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n", 10);
+        store(cache, request, "HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\nContent-Length: 20000\r\n\r\n", 20000);
+        assertEquals(0, cache.size());
+        assertNull(MIMPResponseCache.key(request("/b", "Authorization: Basic eDp5\r\n")));
+    }
+
+    @Test
+    void evictionTest() {
+        MIMPChannelMetrics metrics = new MIMPChannelMetrics();
+        MIMPResponseCache cache = MIMPResponseCache.of(8 * 1024, 1024, 8 * 1024, metrics);
+        for (int i = 0; i < 4; i++) {
+            store(cache, request("/" + i, ""), "HTTP/1.1 200 OK\r\nETag: \"" + i + "\"\r\nContent-Length: 2000\r\n\r\n", 2000);
+        }
+        HTTPRequest first = request("/3", "");
+        assertNull(cache.lookup(MIMPResponseCache.key(request("/0", "")), request("/0", "")));
+        MIMPResponseCache.Entry stale = cache.lookup(MIMPResponseCache.key(first), first);
+        assertNotNull(stale);
+        assertFalse(cache.isFresh(stale, first));
+        assertTrue(cache.prepareRevalidation(stale, first));
+        assertTrue(first.headers().contains("If-None-Match"));
+        assertEquals(2L, metrics.snapshot().get("cache.evictions"));
+        assertEquals(2L, cache.size());
+    }
+}
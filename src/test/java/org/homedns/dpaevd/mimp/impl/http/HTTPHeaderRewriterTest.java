@@ -0,0 +1,60 @@
+/*
+ * @(#)HTTPHeaderRewriterTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test suite for the header rewriter.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class HTTPHeaderRewriterTest {
+
+    private static final String RESPONSE = "HTTP/1.1 200 OK\r\nCache-Control: max-age=3600\r\nETag: \"2c\"\r\n"
+            + "Content-Length: 2\r\npragma: cache\r\n\r\nOK";
+
+    @Test
+    void rewriteTest() {
+        List<HTTPHeaderRule> rules = HTTPFunctions.getHeaderRules("-Pragma:::Cache-Control:no-store:::+Server-Timing:proxy;dur=0");
+        assertEquals(3, rules.size());
+        HTTPHeaderRewriter rewriter = new HTTPHeaderRewriter(rules);
+
+        byte[] buffer = RESPONSE.getBytes(StandardCharsets.US_ASCII);
+        int headEnd = RESPONSE.indexOf("\r\n\r\n") + 4;
+        byte[] target = new byte[rewriter.maxLength(headEnd)];
+        int length = rewriter.rewrite(buffer, 0, headEnd, target);
+
+        assertEquals("HTTP/1.1 200 OK\r\nETag: \"2c\"\r\nContent-Length: 2\r\nCache-Control: no-store\r\n"
+                + "Server-Timing: proxy;dur=0\r\n\r\n", new String(target, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void localeTest() {
+        Locale locale = Locale.getDefault();
+        try {
+            // the dotless i of the Turkish lower case must not break the name matching
+            Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+            HTTPHeaderRewriter rewriter = new HTTPHeaderRewriter(HTTPFunctions.getHeaderRules("-X-REQUEST-ID"));
+            String response = "HTTP/1.1 204 No Content\r\nx-request-id: 1\r\n\r\n";
+            byte[] buffer = response.getBytes(StandardCharsets.US_ASCII);
+            byte[] target = new byte[rewriter.maxLength(buffer.length)];
+            int length = rewriter.rewrite(buffer, 0, buffer.length, target);
+
+            assertEquals("HTTP/1.1 204 No Content\r\n\r\n", new String(target, 0, length, StandardCharsets.US_ASCII));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
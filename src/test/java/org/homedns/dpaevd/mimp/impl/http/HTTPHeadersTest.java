@@ -0,0 +1,61 @@
+/*
+ * @(#)HTTPHeadersTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the header container.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class HTTPHeadersTest {
+
+    @Test
+    void lookupTest() {
+        HTTPHeaders headers = new HTTPHeaders(2);
+        headers.add("Date", "Sun, 19 May 2024 17:07:52 GMT");
+        headers.add("set-cookie", "a=1; Expires=Wed, 21 Oct 2026 07:28:00 GMT");
+        headers.add("Connection", "Upgrade, Keep-Alive");
+        headers.add("Set-Cookie", "b=2");
+        headers.add("X-Custom", "\"x, y\", z");
+        assertEquals(5, headers.size());
+        assertEquals("Sun, 19 May 2024 17:07:52 GMT", headers.get("DATE"));
+        assertEquals(List.of("a=1; Expires=Wed, 21 Oct 2026 07:28:00 GMT", "b=2"), headers.getAll("Set-Cookie"));
+        assertTrue(headers.hasToken("connection", "keep-alive"));
+        assertFalse(headers.hasToken("Connection", "close"));
+        assertEquals(List.of("\"x, y\"", "z"), new HTTPHeader("X-Custom", headers.get("x-custom")).values());
+        assertNull(headers.get("Host"));
+        assertSame("Content-Length", HTTPHeaders.name("Content-Length: 44", 0, 14));
+    }
+
+    @Test
+    void replaceTest() {
+        HTTPHeaders headers = new HTTPHeaders();
+        headers.add("Accept", "text/html");
+        headers.add("Via", "1.1 a");
+        headers.add("Host", "localhost");
+        headers.add("VIA", "1.1 b");
+        headers.set("via", "1.1 c");
+        assertEquals(3, headers.size());
+        assertEquals("Accept: text/html\r\nVia: 1.1 c\r\nHost: localhost\r\n", headers.toString());
+        assertTrue(headers.remove("accept"));
+        assertFalse(headers.remove("Accept"));
+        assertEquals("localhost", headers.get("host"));
+        headers.add("Accept", "*/*");
+        assertEquals("Via: 1.1 c\r\nHost: localhost\r\nAccept: */*\r\n", headers.toString());
+    }
+}
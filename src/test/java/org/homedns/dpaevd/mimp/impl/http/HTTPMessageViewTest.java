@@ -0,0 +1,75 @@
+/*
+ * @(#)HTTPMessageViewTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import java.nio.charset.StandardCharsets;
+
+import org.homedns.dpaevd.mimp.api.network.Protocol;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the message views.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class HTTPMessageViewTest {
+
+    @Test
+    void requestViewTest() {
+        byte[] buffer = ("xx"
+                + "GET /orders?page=2 HTTP/1.1\r\n"
+                + "Host: api.local\r\n"
+                + "connection:Upgrade,  keep-alive \r\n"
+                + "invalid line\r\n"
+                + "If-Modified-Since: Sun, 19 May 2024 17:07:52 GMT\r\n"
+                + "\r\n"
+                + "body").getBytes(StandardCharsets.ISO_8859_1);
+        HTTPRequestView view = new HTTPRequestView();
+        assertTrue(view.wrap(buffer, 2, buffer.length - 4));
+        assertEquals(HTTPMethod.GET, view.method());
+        assertEquals("/orders?page=2", view.requestURI());
+        assertEquals(Protocol.HTTP_1_1, view.protocol());
+        assertEquals(3, view.size());
+        assertEquals("api.local", view.get("HOST"));
+        assertTrue(view.hasToken("Connection", "Keep-Alive"));
+        assertNull(view.get("Content-Length"));
+        assertEquals(-1, view.contentLength());
+
+        HTTPRequest request = view.toRequest();
+        assertEquals("Sun, 19 May 2024 17:07:52 GMT", request.headers().get("If-Modified-Since"));
+        assertTrue(request.isKeepAlive());
+        assertEquals(HTTPFunctions.createRequest(new String(buffer, 2, buffer.length - 6, StandardCharsets.ISO_8859_1)).toString(), request.toString());
+
+        byte[] invalid = "BREW /pot HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        assertFalse(view.wrap(invalid, 0, invalid.length));
+    }
+
+    @Test
+    void responseViewTest() {
+        byte[] buffer = ("HTTP/1.1 304 Not Modified\r\nETag: \"2c\"\r\nContent-Length: 44\r\n\r\n"
+                + "HTTP/1.0 200\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        HTTPResponseView view = new HTTPResponseView();
+        int first = buffer.length - 16;
+        assertTrue(view.wrap(buffer, 0, first));
+        assertEquals(304, view.statusCode());
+        assertEquals("Not Modified", view.reasonPhrase());
+        assertEquals(44, view.contentLength());
+        assertEquals("\"2c\"", view.toResponse().headers().get("etag"));
+
+        assertTrue(view.wrap(buffer, first, buffer.length));
+        assertEquals(200, view.statusCode());
+        assertEquals(Protocol.HTTP_1_0, view.protocol());
+        assertEquals("N/A", view.reasonPhrase());
+        assertEquals(0, view.size());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * @(#)HTTPRouteTableTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test suite for the route table.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class HTTPRouteTableTest {
+
+    @Test
+    void matchTest() {
+        HTTPRouteTable routes = HTTPRouteTable.of(
+                "8182@Api.Local/orders=localhost:9001, 8182@api.local/orders/archive=localhost:9002,"
+                        + "8182@/users=users:9003, 8182@static.local=cdn:9004, 8183@/orders=other:9005", 8182);
+        assertEquals(4, routes.getRoutes().size());
+        assertEquals(9001, routes.match("api.local", "/orders/4711").remoteIpPort());
+        assertEquals(9002, routes.match("API.LOCAL:8182", "/orders/archive?year=2024").remoteIpPort());
+        assertEquals(9003, routes.match("api.local", "/users/1").remoteIpPort());
+        assertEquals(9003, routes.match(null, "/users").remoteIpPort());
+        assertEquals(9004, routes.match("static.local", "/index.html").remoteIpPort());
+        assertNull(routes.match("static.localhost", "/index.html"));
+        assertNull(routes.match("other.local", "/orders"));
+    }
+
+    @Test
+    void segmentTest() {
+        HTTPRouteTable routes = HTTPRouteTable.of("8182@/users=users:9003, 8182@/static/=cdn:9004", 8182);
+        assertEquals(9003, routes.match(null, "/users?id=1").remoteIpPort());
+        assertNull(routes.match(null, "/users-admin"));
+        assertNull(routes.match(null, "/usersadmin/1"));
+        assertEquals(9004, routes.match(null, "/static/app.js").remoteIpPort());
+        assertNull(routes.match(null, "/static"));
+    }
+
+    @Test
+    void hostTest() {
+        HTTPRouteTable routes = HTTPRouteTable.of("8182@[::1]/=local:9001, 8182@[fe80::1]=link:9002", 8182);
+        assertEquals(9001, routes.match("[::1]:8080", "/orders").remoteIpPort());
+        assertEquals(9001, routes.match("[::1]", "/orders").remoteIpPort());
+        assertEquals(9002, routes.match("[FE80::1]:8182", "/").remoteIpPort());
+        assertNull(routes.match("[::2]", "/"));
+    }
+
+    @Test
+    void malformedTest() {
+        assertEquals(1, HTTPRouteTable.of("x@/a=other:1, 8183@/a=other:port, 8182@/a=up:9001", 8182).getRoutes().size());
+        assertThrows(IllegalArgumentException.class, () -> HTTPRouteTable.of("8182@/a=up:port", 8182));
+        assertThrows(IllegalArgumentException.class, () -> HTTPRouteTable.of("8182@/a=up", 8182));
+    }
+}
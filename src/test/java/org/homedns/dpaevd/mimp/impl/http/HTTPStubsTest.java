@@ -0,0 +1,45 @@
+/*
+ * @(#)HTTPStubsTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Test suite for the stubs.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class HTTPStubsTest {
+
+    @Test
+    void matchAndEncodeTest() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("stub.a.method", "GET");
+        properties.setProperty("stub.a.path", "/api/*/status");
+        properties.setProperty("stub.a.header.accept", "*json*");
+        properties.setProperty("stub.a.headers", "Content-Type:application/json:::Location:http://x/y");
+        properties.setProperty("stub.a.body", "{}");
+        properties.setProperty("stub.b.path", "~/v[0-9]+/.*");
+        properties.setProperty("stub.b.status", "404");
+        HTTPStubs stubs = HTTPStubs.of(properties, null);
+
+        HTTPRequest request = HTTPFunctions.createRequest("GET /api/orders/status HTTP/1.1\r\nAccept: application/json\r\n\r\n");
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nLocation: http://x/y\r\nContent-Length: 2\r\n\r\n{}",
+                new String(stubs.match(request).response(), StandardCharsets.ISO_8859_1));
+        assertNull(stubs.match(HTTPFunctions.createRequest("GET /api/orders/status HTTP/1.1\r\nAccept: text/html\r\n\r\n")));
+        assertNull(stubs.match(HTTPFunctions.createRequest("POST /api/orders/status HTTP/1.1\r\nAccept: application/json\r\n\r\n")));
+        assertEquals("b", stubs.match(HTTPFunctions.createRequest("DELETE /v2/orders HTTP/1.1\r\n\r\n")).name());
+    }
+}
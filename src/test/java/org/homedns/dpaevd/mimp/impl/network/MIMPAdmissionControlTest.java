@@ -0,0 +1,123 @@
+/*
+ * @(#)MIMPAdmissionControlTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the admission control.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPAdmissionControlTest {
+
+    @Test
+    void parseTest() {
+        MIMPAdmissionControl admission = MIMPAdmissionControl.of(
+                "8183@connections=1, 8182@connections=10;client.connections=2;client.rate=5;mode=queue;queue.timeout=200", 8182,
+                new MIMPChannelMetrics());
+        assertEquals(new MIMPAdmissionControl.Limits(10, 2, 5, 5, MIMPAdmissionControl.Mode.QUEUE, 100,
+                TimeUnit.MILLISECONDS.toNanos(200)), admission.getLimits());
+        assertNull(MIMPAdmissionControl.of("8183@connections=1", 8182, new MIMPChannelMetrics()));
+        assertThrows(IllegalArgumentException.class, () -> MIMPAdmissionControl.of("8182@mode=drop", 8182, new MIMPChannelMetrics()));
+    }
+
+    @Test
+    void limitsTest() throws Exception {
+        MIMPChannelMetrics metrics = new MIMPChannelMetrics();
+        MIMPAdmissionControl admission = MIMPAdmissionControl.of("8182@connections=3;client.connections=2;client.rate=1;client.burst=3",
+                8182, metrics);
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+        long now = System.nanoTime();
+        assertEquals(MIMPAdmissionControl.Result.ADMITTED, admission.admit(first, now));
+        assertEquals(MIMPAdmissionControl.Result.ADMITTED, admission.admit(first, now));
+        assertEquals(MIMPAdmissionControl.Result.CONNECTION_LIMITED, admission.admit(first, now));
+        admission.release(first);
+        // the burst of three connections is spent, the rate admits the next one a second later
+        assertEquals(MIMPAdmissionControl.Result.ADMITTED, admission.admit(first, now));
+        admission.release(first);
+        assertEquals(MIMPAdmissionControl.Result.RATE_LIMITED, admission.admit(first, now));
+        assertEquals(MIMPAdmissionControl.Result.ADMITTED, admission.admit(first, now + TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(MIMPAdmissionControl.Result.ADMITTED, admission.admit(second, now));
+        assertEquals(MIMPAdmissionControl.Result.CONNECTION_LIMITED, admission.admit(second, now));
+
+        assertEquals(3, metrics.snapshot().get("admission.active"));
+        assertEquals(5, metrics.snapshot().get("admission.admitted"));
+        assertEquals(1, metrics.snapshot().get("admission.limited.rate"));
+        admission.release(first);
+        admission.release(first);
+        admission.release(second);
+        assertEquals(0, metrics.snapshot().get("admission.active"));
+        assertEquals(0, metrics.snapshot().get("admission.clients"));
+    }
+
+    @Test
+    void queueTest() throws Exception {
+        MIMPAdmissionControl admission = MIMPAdmissionControl.of("8182@connections=1;mode=queue;queue.size=1;queue.timeout=5000",
+                8182, new MIMPChannelMetrics());
+        InetAddress client = InetAddress.getLoopbackAddress();
+        assertEquals(MIMPAdmissionControl.Result.ADMITTED, admission.admit(client, System.nanoTime()));
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.await(client);
+            } catch (InterruptedException ie) {
+                return false;
+            }
+        });
+        Thread.sleep(50);
+        // the queue holds a single connection
+        assertFalse(admission.await(client));
+        admission.release(client);
+        assertTrue(queued.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void tooManyRequestsTest() throws Exception {
+        MIMPAdmissionControl admission = MIMPAdmissionControl.of("8182@client.rate=2;client.burst=4;mode=429", 8182, new MIMPChannelMetrics());
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+            OutputStream out = client.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            admission.refuse(serverSocket.accept(), MIMPAdmissionControl.Result.RATE_LIMITED);
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = client.getInputStream();
+            in.transferTo(response);
+            String text = response.toString(StandardCharsets.ISO_8859_1);
+            assertTrue(text.startsWith("HTTP/1.1 429 Too Many Requests\r\n"));
+            assertTrue(text.contains("Retry-After: 2\r\n"));
+        }
+        // a client that sends nothing is answered at once
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+            client.setSoTimeout(5000);
+            long start = System.nanoTime();
+            Socket accepted = serverSocket.accept();
+            Thread.ofVirtual().start(() -> admission.refuse(accepted, MIMPAdmissionControl.Result.RATE_LIMITED));
+            String status = "HTTP/1.1 429 Too Many Requests\r\n";
+            assertEquals(status, new String(client.getInputStream().readNBytes(status.length()), StandardCharsets.ISO_8859_1));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        }
+    }
+}
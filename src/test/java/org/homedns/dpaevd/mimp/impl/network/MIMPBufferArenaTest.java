@@ -0,0 +1,159 @@
+/*
+ * @(#)MIMPBufferArenaTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the buffer arena.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPBufferArenaTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPBufferArena.Settings(MIMPBufferArena.Policy.REJECT, 4096, TimeUnit.MILLISECONDS.toNanos(100)),
+                MIMPBufferArena.Settings.of("8183@limit=1, 8182@policy=reject;limit=4096;wait=100", 8182));
+        assertEquals(MIMPBufferArena.Settings.DEFAULT, MIMPBufferArena.Settings.of("8183@policy=reject", 8182));
+        assertEquals(MIMPBufferArena.Settings.DEFAULT, MIMPBufferArena.Settings.of("", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPBufferArena.Settings.of("8182@policy=drop", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPBufferArena.Settings.of("8182@limit=-1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPBufferArena.Settings.of("8182@size=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> new MIMPBufferArena(0));
+    }
+
+    @Test
+    void allocateTest() throws Exception {
+        MIMPBufferArena arena = new MIMPBufferArena(8192);
+        MIMPChannelMetrics metrics = new MIMPChannelMetrics();
+        MIMPBufferArena.Account account = arena.register(MIMPBufferArena.Settings.DEFAULT, metrics);
+        // sizes are rounded up to their class and given back buffers are reused
+        byte[] buffer = account.allocate(1000);
+        assertEquals(1024, buffer.length);
+        assertEquals(1024, arena.getLeased());
+        account.release(buffer);
+        assertEquals(0, arena.getLeased());
+        assertEquals(1024, arena.getPooled());
+        assertEquals(1000, arena.getFragmentation());
+        assertSame(buffer, account.allocate(1024));
+        assertEquals(0, arena.getPooled());
+        account.release(buffer);
+        // a kept buffer of another class is dropped to make room
+        byte[] large = account.allocate(8000);
+        assertEquals(8192, large.length);
+        assertEquals(0, arena.getPooled());
+        assertTrue(account.isExhausted());
+        account.release(large);
+        assertEquals(8192, arena.getPeak());
+        assertEquals(8192, metrics.snapshot().get("memory.peak"));
+        assertEquals(0, metrics.snapshot().get("memory.used"));
+    }
+
+    @Test
+    void exhaustedTest() throws Exception {
+        MIMPBufferArena arena = new MIMPBufferArena(4096);
+        MIMPChannelMetrics metrics = new MIMPChannelMetrics();
+        MIMPBufferArena.Account account = arena.register(
+                new MIMPBufferArena.Settings(MIMPBufferArena.Policy.PAUSE, 0, TimeUnit.MILLISECONDS.toNanos(50)), metrics);
+        byte[] first = account.allocate(2048);
+        byte[] second = account.allocate(2048);
+        // the budget is full, the allocation gives up after the wait time
+        assertNull(account.allocate(512));
+        assertEquals(1, metrics.snapshot().get("memory.waits"));
+        assertEquals(1, metrics.snapshot().get("memory.timeouts"));
+        // a waiting allocation gets the memory once a buffer is given back
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            account.release(first);
+        });
+        MIMPBufferArena.Account waiting = arena.register(MIMPBufferArena.Settings.DEFAULT, new MIMPChannelMetrics());
+        assertNotNull(waiting.allocate(2048));
+        account.release(second);
+
+        // the limit of a channel caps its buffers without filling the arena
+        MIMPBufferArena.Account limited = new MIMPBufferArena(65536).register(
+                new MIMPBufferArena.Settings(MIMPBufferArena.Policy.REJECT, 1024, 0), new MIMPChannelMetrics());
+        assertFalse(limited.isExhausted());
+        byte[] buffer = limited.allocate(1024);
+        assertTrue(limited.isExhausted());
+        assertNull(limited.allocate(512));
+        limited.release(buffer);
+        assertFalse(limited.isExhausted());
+    }
+
+    @Test
+    void relayTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream echoes the bytes of each connection
+            Thread.ofVirtual().start(() -> {
+                while (!upstream.isClosed()) {
+                    try {
+                        Socket socket = upstream.accept();
+                        Thread.ofVirtual().start(() -> {
+                            try (socket) {
+                                socket.getInputStream().transferTo(socket.getOutputStream());
+                            } catch (IOException ioe) {
+                                // closed
+                            }
+                        });
+                    } catch (IOException ioe) {
+                        // closed
+                    }
+                }
+            });
+            int port;
+            try (ServerSocket free = new ServerSocket(0)) {
+                port = free.getLocalPort();
+            }
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            properties.put(MIMPConstants.PROXY_MEMORY_KEY, port + "@limit=1048576");
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            server.initialize();
+            Thread.sleep(200);
+            for (int i = 0; i < 4; i++) {
+                try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                    client.setSoTimeout(5000);
+                    client.getOutputStream().write(("ping" + i).getBytes(StandardCharsets.ISO_8859_1));
+                    assertEquals("ping" + i, new String(client.getInputStream().readNBytes(5), StandardCharsets.ISO_8859_1));
+                }
+            }
+            // the relays lease their buffers from the arena and give them back once the connections are closed
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.getMetrics().get("memory.used") != 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, server.getMetrics().get("memory.used"));
+            assertTrue(server.getMetrics().get("memory.peak") > 0);
+            assertTrue(server.getMetrics().get("arena.budget") > 0);
+            server.cleanup();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * @(#)MIMPChannelSettingsTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the channel settings.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPChannelSettingsTest {
+
+    @Test
+    void parseTest() {
+        MIMPChannelSettings settings = MIMPChannelSettings.of(" 8183@a=1, 8182@ a = 2 ;;b=x , 08182@c=", 8182, "test");
+        assertTrue(settings.isConfigured());
+        List<MIMPChannelSettings.Setting> parsed = new ArrayList<>();
+        settings.forEach(parsed::add);
+        assertEquals(List.of(new MIMPChannelSettings.Setting("test", "a", "2"), new MIMPChannelSettings.Setting("test", "b", "x"),
+                new MIMPChannelSettings.Setting("test", "c", "")), parsed);
+        // a port without settings is configured all the same
+        assertTrue(MIMPChannelSettings.of("8182@", 8182, "test").isConfigured());
+        assertFalse(MIMPChannelSettings.of("8183@a=1", 8182, "test").isConfigured());
+        assertFalse(MIMPChannelSettings.of("", 8182, "test").isConfigured());
+    }
+
+    @Test
+    void malformedTest() {
+        // malformed entries of other ports are not parsed
+        MIMPChannelSettings settings = MIMPChannelSettings.of("81x3@a=1, 99999999999@b, 8183@c, @d=1, 8182@e=5", 8182, "test");
+        assertEquals(5, settings.iterator().next().intValue());
+        // the malformed settings of the port name the kind and the setting
+        IllegalArgumentException missing = assertThrows(IllegalArgumentException.class,
+                () -> MIMPChannelSettings.of("8182@a=1;b", 8182, "test"));
+        assertEquals("Invalid test setting: b", missing.getMessage());
+        MIMPChannelSettings.Setting setting = MIMPChannelSettings.of("8182@a=x", 8182, "test").iterator().next();
+        IllegalArgumentException number = assertThrows(IllegalArgumentException.class, setting::intValue);
+        assertEquals("Invalid test setting: a=x", number.getMessage());
+        assertInstanceOf(NumberFormatException.class, number.getCause());
+        assertEquals("Invalid test setting: a=x", setting.invalid().getMessage());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * @(#)MIMPChannelsTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the reloadable proxy channels.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPChannelsTest {
+
+    @Test
+    void parseTest() {
+        List<MIMPChannels.Definition> definitions = MIMPChannels.parse("8182:localhost:8181, 8183:192.168.1.1:80:secure,8184:x,8053:localhost:53:udp", Map.of());
+        assertEquals(3, definitions.size());
+        assertEquals(new MIMPChannels.Definition(8183, "192.168.1.1", 80, true, Map.of()), definitions.get(1));
+        assertEquals(new MIMPChannels.Definition(8053, "localhost", 53, false, MIMPChannels.Transport.UDP, Map.of()), definitions.get(2));
+        Map<String, String> changedHeaders = Map.of(MIMPConstants.PROXY_HEADERS_KEY, "X-Test:1");
+        assertTrue(definitions.get(0).isSameListener(new MIMPChannels.Definition(8182, "localhost", 8181, false, changedHeaders)));
+        assertFalse(definitions.get(0).isSameListener(new MIMPChannels.Definition(8182, "localhost", 8181, false,
+                Map.of(MIMPConstants.PROXY_ROUTES_KEY, "8182@/api=localhost:9000"))));
+    }
+
+    @Test
+    void reloadTest() throws Exception {
+        BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread.ofVirtual().start(() -> serve(upstream, requests));
+            MIMPChannels channels = new MIMPChannels(1000);
+            int port = freePort();
+            int removedPort = freePort();
+            MIMPChannels.Reload reload = channels.apply(List.of(
+                    definition(port, upstream.getLocalPort(), "X-Reload:1"),
+                    definition(removedPort, upstream.getLocalPort(), "")));
+            assertEquals(List.of(port, removedPort), reload.added());
+
+            try (Socket client = connect(port)) {
+                client.setSoTimeout(5000);
+                assertTrue(exchange(client, requests).contains("X-Reload: 1"));
+
+                reload = channels.apply(List.of(definition(port, upstream.getLocalPort(), "X-Reload:2")));
+                assertEquals(List.of(port), reload.updated());
+                assertEquals(List.of(removedPort), reload.removed());
+                // the open connection keeps running and applies the new rules to its next request
+                assertTrue(exchange(client, requests).contains("X-Reload: 2"));
+            }
+            // the listener of a removed channel is closed at once
+            try (ServerSocket rebound = new ServerSocket(removedPort)) {
+                assertEquals(removedPort, rebound.getLocalPort());
+            }
+            reload = channels.apply(List.of(definition(port, upstream.getLocalPort() + 1, "X-Reload:2")));
+            assertEquals(List.of(port), reload.restarted());
+            channels.cleanup();
+        }
+    }
+
+    @Test
+    void shapingTest() throws Exception {
+        MIMPChannels channels = new MIMPChannels(1000);
+        int port = freePort();
+        // the shaping settings are passed to the channel with the other channel settings
+        channels.apply(MIMPChannels.parse(port + ":localhost:1", Map.of(MIMPConstants.PROXY_SHAPING_KEY, port + "@down.latency=40")));
+        assertTrue(channels.getServers().get(0).getMetrics().containsKey("shaping.down.delayed"));
+        MIMPChannels.Reload reload = channels.apply(MIMPChannels.parse(port + ":localhost:1",
+                Map.of(MIMPConstants.PROXY_SHAPING_KEY, port + "@down.latency=80")));
+        assertEquals(List.of(port), reload.restarted());
+        channels.cleanup();
+    }
+
+    @Test
+    void admissionTest() throws Exception {
+        MIMPChannels channels = new MIMPChannels(1000);
+        int port = freePort();
+        // the admission settings are passed to the channel with the other channel settings
+        channels.apply(MIMPChannels.parse(port + ":localhost:1", Map.of(MIMPConstants.PROXY_ADMISSION_KEY, port + "@connections=10")));
+        assertTrue(channels.getServers().get(0).getMetrics().containsKey("admission.admitted"));
+        MIMPChannels.Reload reload = channels.apply(MIMPChannels.parse(port + ":localhost:1",
+                Map.of(MIMPConstants.PROXY_ADMISSION_KEY, port + "@connections=20")));
+        assertEquals(List.of(port), reload.restarted());
+        channels.cleanup();
+    }
+
+    private static Socket connect(final int port) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (IOException ioe) {
+                if (System.nanoTime() > deadline) {
+                    throw ioe;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static MIMPChannels.Definition definition(final int port, final int remotePort, final String headers) {
+        return new MIMPChannels.Definition(port, "localhost", remotePort, false, Map.of(MIMPConstants.PROXY_HEADERS_KEY, headers));
+    }
+
+    private static String exchange(final Socket client, final BlockingQueue<String> requests) throws Exception {
+        OutputStream out = client.getOutputStream();
+        out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        assertTrue(readHead(client.getInputStream()).startsWith("HTTP/1.1 200"));
+        return requests.poll(5, TimeUnit.SECONDS);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String readHead(final InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        int read;
+        while (matched < 4 && (read = in.read()) >= 0) {
+            head.write(read);
+            matched = read == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : read == '\r' ? 1 : 0;
+        }
+        return head.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void serve(final ServerSocket upstream, final BlockingQueue<String> requests) {
+        while (!upstream.isClosed()) {
+            try {
+                Socket socket = upstream.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (socket) {
+                        while (true) {
+                            String head = readHead(socket.getInputStream());
+                            if (head.isEmpty()) {
+                                return;
+                            }
+                            requests.add(head);
+                            socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                        }
+                    } catch (IOException ioe) {
+                        // connection closed
+                    }
+                });
+            } catch (IOException ioe) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * @(#)MIMPCircuitBreakerTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServerStatusCallback;
+import org.homedns.dpaevd.mimp.api.network.MIMPCircuitState;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketServerStatus;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the circuit breaker.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPCircuitBreakerTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPCircuitBreaker.Settings(3, TimeUnit.SECONDS.toNanos(10), 2, MIMPCircuitBreaker.Mode.SERVICE_UNAVAILABLE),
+                MIMPCircuitBreaker.Settings.of("8183@failures=1, 8182@failures=3;open=10000;probes=2;mode=503", 8182));
+        assertEquals(new MIMPCircuitBreaker.Settings(5, TimeUnit.SECONDS.toNanos(5), 1, MIMPCircuitBreaker.Mode.REJECT),
+                MIMPCircuitBreaker.Settings.of("8182@", 8182));
+        assertNull(MIMPCircuitBreaker.Settings.of("8183@failures=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPCircuitBreaker.Settings.of("8182@failures=0", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPCircuitBreaker.Settings.of("8182@mode=429", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPCircuitBreaker.Settings.of("8182@open=soon", 8182));
+    }
+
+    @Test
+    void stateTest() {
+        List<MIMPCircuitState> changes = new CopyOnWriteArrayList<>();
+        MIMPCircuitBreaker breaker = new MIMPCircuitBreaker(
+                new MIMPCircuitBreaker.Settings(2, 1000, 1, MIMPCircuitBreaker.Mode.REJECT), changes::add);
+        assertTrue(breaker.tryAcquire(0));
+        breaker.onFailure(0);
+        assertEquals(MIMPCircuitState.CLOSED, breaker.getState());
+        breaker.onFailure(10);
+        assertEquals(MIMPCircuitState.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(500));
+        // once the open time has passed a single probe goes through
+        assertTrue(breaker.tryAcquire(1010));
+        assertFalse(breaker.tryAcquire(1020));
+        breaker.onFailure(1030);
+        assertFalse(breaker.tryAcquire(1500));
+        assertTrue(breaker.tryAcquire(2030));
+        breaker.onSuccess();
+        assertTrue(breaker.tryAcquire(2040));
+        assertEquals(List.of(MIMPCircuitState.OPEN, MIMPCircuitState.HALF_OPEN, MIMPCircuitState.OPEN,
+                MIMPCircuitState.HALF_OPEN, MIMPCircuitState.CLOSED), changes);
+    }
+
+    @Test
+    void failFastTest() throws Exception {
+        List<MIMPCircuitState> changes = new CopyOnWriteArrayList<>();
+        MIMPSocketServer server = start("failures=2;open=60000", changes);
+        for (int i = 0; i < 4; i++) {
+            try (Socket client = connect(server)) {
+                client.setSoTimeout(5000);
+                // the client is closed instead of being left on an accepted socket
+                assertEquals(-1, client.getInputStream().read());
+            }
+        }
+        assertEquals(List.of(MIMPCircuitState.OPEN), changes);
+        assertEquals(1, server.getMetrics().get("breaker.opened"));
+        assertEquals(2, server.getMetrics().get("breaker.rejected"));
+        assertEquals(1, server.getMetrics().get("breaker.open"));
+        assertEquals(4, server.getMetrics().get("connections.failed"));
+        server.cleanup();
+    }
+
+    @Test
+    void serviceUnavailableTest() throws Exception {
+        MIMPSocketServer server = start("failures=1;open=60000;mode=503", new CopyOnWriteArrayList<>());
+        assertTrue(exchange(server).startsWith("HTTP/1.1 502 Bad Gateway"));
+        String answer = exchange(server);
+        assertTrue(answer.startsWith("HTTP/1.1 503 Service Unavailable"), answer);
+        assertTrue(answer.contains("Retry-After: 60"), answer);
+        server.cleanup();
+    }
+
+    private static String exchange(final MIMPSocketServer server) throws Exception {
+        try (Socket client = connect(server)) {
+            client.setSoTimeout(5000);
+            client.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            return new String(client.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static Socket connect(final MIMPSocketServer server) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), server.getProxyIpPort());
+            } catch (IOException ioe) {
+                if (System.nanoTime() > deadline) {
+                    throw ioe;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static MIMPSocketServer start(final String settings, final List<MIMPCircuitState> changes) throws IOException {
+        int port;
+        int closedPort;
+        try (ServerSocket free = new ServerSocket(0); ServerSocket closed = new ServerSocket(0)) {
+            port = free.getLocalPort();
+            closedPort = closed.getLocalPort();
+        }
+        MIMPProperties properties = new MIMPProperties();
+        properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+        properties.put(MIMPConstants.PROXY_BREAKER_KEY, port + "@" + settings);
+        MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", closedPort);
+        server.setCallback(new IMIMPSocketServerStatusCallback() {
+            @Override
+            public void onServiceStatusChange(final MIMPSocketServerStatus status) {
+            }
+
+            @Override
+            public void onHandler(final IMIMPServerSocketHandler handler) {
+            }
+
+            @Override
+            public void onCircuitBreakerChange(final String upstream, final MIMPCircuitState state) {
+                changes.add(state);
+            }
+        });
+        server.initialize();
+        return server;
+    }
+}
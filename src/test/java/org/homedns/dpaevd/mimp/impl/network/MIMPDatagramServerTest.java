@@ -0,0 +1,109 @@
+/*
+ * @(#)MIMPDatagramServerTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketServerStatus;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test suite for the datagram channels.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPDatagramServerTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPDatagramServer.Settings(TimeUnit.SECONDS.toNanos(5), 16, 8),
+                MIMPDatagramServer.Settings.of("8183@batch=1, 8182@session.idle=5000;sessions=16;batch=8", 8182));
+        assertEquals(MIMPDatagramServer.Settings.DEFAULT, MIMPDatagramServer.Settings.of("8183@batch=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPDatagramServer.Settings.of("8182@batch=0", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPDatagramServer.Settings.of("8182@ttl=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPDatagramServer.Settings.of("8182@sessions=4294967296", 8182));
+    }
+
+    @Test
+    void relayTest() throws Exception {
+        try (DatagramSocket upstream = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket first = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket second = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            // the upstream answers each datagram in upper case to its sender
+            Thread.ofVirtual().start(() -> {
+                byte[] data = new byte[2048];
+                try {
+                    while (true) {
+                        DatagramPacket packet = new DatagramPacket(data, data.length);
+                        upstream.receive(packet);
+                        byte[] answer = new String(data, 0, packet.getLength(), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT)
+                                .getBytes(StandardCharsets.UTF_8);
+                        upstream.send(new DatagramPacket(answer, answer.length, packet.getSocketAddress()));
+                    }
+                } catch (IOException ioe) {
+                    // upstream closed
+                }
+            });
+            MIMPDatagramServer server = start("session.idle=300", upstream.getLocalPort());
+            assertEquals(MIMPSocketServerStatus.UP, server.getServiceStatus());
+            assertEquals("FIRST", exchange(first, server, "first"));
+            assertEquals("SECOND", exchange(second, server, "second"));
+            assertEquals("AGAIN", exchange(first, server, "again"));
+            assertEquals(2, server.getMetrics().get("sessions.open"));
+            assertEquals(3, server.getMetrics().get("datagrams.up"));
+            assertEquals(16, server.getMetrics().get("datagrams.up.bytes"));
+            // the answers are counted once they are sent, the idle sessions expire
+            await(server, "datagrams.down", 3);
+            await(server, "sessions.expired", 2);
+            assertEquals(0, server.getMetrics().get("sessions.open"));
+            server.drain(1, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+            assertEquals(MIMPSocketServerStatus.DOWN, server.getServiceStatus());
+        }
+    }
+
+    private static void await(final MIMPDatagramServer server, final String metric, final long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getMetrics().getOrDefault(metric, 0L) < expected && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, server.getMetrics().get(metric));
+    }
+
+    private static String exchange(final DatagramSocket client, final MIMPDatagramServer server, final String message) throws IOException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        client.setSoTimeout(5000);
+        client.send(new DatagramPacket(data, data.length, new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getProxyIpPort())));
+        DatagramPacket answer = new DatagramPacket(new byte[2048], 2048);
+        client.receive(answer);
+        return new String(answer.getData(), 0, answer.getLength(), StandardCharsets.UTF_8);
+    }
+
+    private static MIMPDatagramServer start(final String settings, final int remotePort) throws IOException {
+        int port;
+        try (DatagramSocket free = new DatagramSocket(0)) {
+            port = free.getLocalPort();
+        }
+        MIMPProperties properties = new MIMPProperties();
+        properties.put(MIMPConstants.PROXY_DATAGRAM_KEY, port + "@" + settings);
+        MIMPDatagramServer server = new MIMPDatagramServer(properties, port, "localhost", remotePort);
+        server.initialize();
+        return server;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * @(#)MIMPForwardProxyTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.api.network.Protocol;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.homedns.dpaevd.mimp.impl.http.HTTPHeaders;
+import org.homedns.dpaevd.mimp.impl.http.HTTPMethod;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRequest;
+import org.homedns.dpaevd.mimp.impl.http.HTTPRoute;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the forward proxy.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPForwardProxyTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPForwardProxy.Settings(4), MIMPForwardProxy.Settings.of("3129@tunnels=1, 3128@tunnels=4", 3128));
+        assertEquals(new MIMPForwardProxy.Settings(64), MIMPForwardProxy.Settings.of("3128@", 3128));
+        assertNull(MIMPForwardProxy.Settings.of("3129@", 3128));
+        assertThrows(IllegalArgumentException.class, () -> MIMPForwardProxy.Settings.of("3128@tunnels=0", 3128));
+        assertThrows(IllegalArgumentException.class, () -> MIMPForwardProxy.Settings.of("3128@max=1", 3128));
+        assertThrows(IllegalArgumentException.class, () -> MIMPForwardProxy.Settings.of("3128@tunnels=many", 3128));
+        MIMPChannels.Definition definition = MIMPChannels.parse("3128:forward", Map.of()).get(0);
+        assertEquals("forward", definition.remoteHostName());
+        assertEquals("3128@", definition.properties().get(MIMPConstants.PROXY_FORWARD_KEY));
+        assertEquals(Map.of(MIMPConstants.PROXY_FORWARD_KEY, "3128@tunnels=2"),
+                MIMPChannels.parse("3128:forward", Map.of(MIMPConstants.PROXY_FORWARD_KEY, "3128@tunnels=2")).get(0).properties());
+
+        assertEquals(new HTTPRoute("*", "/", "example.com", 443), MIMPForwardProxy.destination("Example.com:443", 80));
+        assertEquals(new HTTPRoute("*", "/", "example.com", 80), MIMPForwardProxy.destination("example.com", 80));
+        assertEquals(new HTTPRoute("*", "/", "::1", 8443), MIMPForwardProxy.destination("[::1]:8443", 80));
+        assertThrows(IllegalArgumentException.class, () -> MIMPForwardProxy.destination("example.com:x", 80));
+        assertThrows(IllegalArgumentException.class, () -> MIMPForwardProxy.destination("user@example.com", 80));
+
+        HTTPHeaders headers = new HTTPHeaders();
+        headers.add("Proxy-Connection", "keep-alive");
+        HTTPRequest request = MIMPExchangeHandler.toOriginForm(
+                new HTTPRequest(HTTPMethod.GET, "HTTP://example.com:8080?q=1", Protocol.HTTP_1_1, headers));
+        assertEquals("/?q=1", request.requestURI());
+        assertEquals("example.com:8080", request.headers().get("Host"));
+        assertFalse(request.headers().contains("Proxy-Connection"));
+        assertNull(MIMPExchangeHandler.toOriginForm(new HTTPRequest(HTTPMethod.GET, "/", Protocol.HTTP_1_1, new HTTPHeaders())));
+    }
+
+    @Test
+    void absoluteURITest() throws Exception {
+        AtomicReference<String> received = new AtomicReference<>();
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = upstream.accept()) {
+                    received.set(readHead(socket.getInputStream()));
+                    socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+                    socket.getOutputStream().flush();
+                    socket.getInputStream().read();
+                } catch (IOException ioe) {
+                    // closed
+                }
+            });
+            MIMPSocketServer server = start("");
+            try (Socket client = connect(server)) {
+                client.getOutputStream().write(("GET http://localhost:" + upstream.getLocalPort() + "/index.html HTTP/1.1\r\n"
+                        + "Host: localhost:" + upstream.getLocalPort() + "\r\nProxy-Connection: keep-alive\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                assertTrue(readHead(client.getInputStream()).startsWith("HTTP/1.1 200"));
+                assertEquals("ok", new String(client.getInputStream().readNBytes(2), StandardCharsets.US_ASCII));
+            }
+            // the destination receives the request in origin form without the headers meant for the proxy
+            assertTrue(received.get().startsWith("GET /index.html HTTP/1.1\r\n"), received.get());
+            assertFalse(received.get().contains("Proxy-Connection"), received.get());
+            server.cleanup();
+        }
+    }
+
+    @Test
+    void connectTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the destination echoes the bytes of each connection
+            Thread.ofVirtual().start(() -> {
+                while (!upstream.isClosed()) {
+                    try {
+                        Socket socket = upstream.accept();
+                        Thread.ofVirtual().start(() -> {
+                            try (socket) {
+                                socket.getInputStream().transferTo(socket.getOutputStream());
+                            } catch (IOException ioe) {
+                                // closed
+                            }
+                        });
+                    } catch (IOException ioe) {
+                        // closed
+                    }
+                }
+            });
+            MIMPSocketServer server = start("tunnels=1");
+            String connect = "CONNECT localhost:" + upstream.getLocalPort() + " HTTP/1.1\r\nHost: localhost:"
+                    + upstream.getLocalPort() + "\r\n\r\n";
+            try (Socket tunnel = connect(server)) {
+                tunnel.getOutputStream().write(connect.getBytes(StandardCharsets.US_ASCII));
+                assertTrue(readHead(tunnel.getInputStream()).startsWith("HTTP/1.1 200"));
+                tunnel.getOutputStream().write("ping".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("ping", new String(tunnel.getInputStream().readNBytes(4), StandardCharsets.US_ASCII));
+                // a second tunnel to the same destination is over the cap
+                try (Socket rejected = connect(server)) {
+                    rejected.getOutputStream().write(connect.getBytes(StandardCharsets.US_ASCII));
+                    assertTrue(readHead(rejected.getInputStream()).startsWith("HTTP/1.1 503"));
+                }
+                assertEquals(1, server.getMetrics().get("tunnels.open"));
+                assertEquals(1, server.getMetrics().get("tunnels.rejected"));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.getMetrics().get("tunnels.open") != 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, server.getMetrics().get("tunnels.open"));
+            assertEquals(1, server.getMetrics().get("tunnels.opened"));
+            server.cleanup();
+        }
+    }
+
+    private static String readHead(final InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        for (int b = in.read(); b >= 0; b = in.read()) {
+            head.write(b);
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : b == '\r' ? 1 : 0;
+            if (matched == 4) {
+                break;
+            }
+        }
+        return head.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static Socket connect(final MIMPSocketServer server) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getProxyIpPort());
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch (IOException ioe) {
+                if (System.nanoTime() > deadline) {
+                    throw ioe;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static MIMPSocketServer start(final String settings) throws IOException {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        MIMPProperties properties = new MIMPProperties();
+        properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+        properties.put(MIMPConstants.PROXY_FORWARD_KEY, port + "@" + settings);
+        MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "forward", 0);
+        server.initialize();
+        return server;
+    }
+}
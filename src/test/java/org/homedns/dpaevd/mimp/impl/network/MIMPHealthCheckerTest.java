@@ -0,0 +1,180 @@
+/*
+ * @(#)MIMPHealthCheckerTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServerStatusCallback;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketServerStatus;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the upstream health checks.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPHealthCheckerTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPHealthChecker.Settings(TimeUnit.SECONDS.toNanos(2), 500, "/health", 2, 3, 0),
+                MIMPHealthChecker.Settings.of("8183@fall=1, 8182@interval=2000;timeout=500;path=/health;fall=2;rise=3;warmup=0", 8182));
+        assertEquals(new MIMPHealthChecker.Settings(TimeUnit.SECONDS.toNanos(5), 1000, "", 3, 2, TimeUnit.SECONDS.toNanos(10)),
+                MIMPHealthChecker.Settings.of("8182@", 8182));
+        assertNull(MIMPHealthChecker.Settings.of("8183@fall=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPHealthChecker.Settings.of("8182@path=health", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPHealthChecker.Settings.of("8182@rise=0", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPHealthChecker.Settings.of("8182@interval=5s", 8182));
+    }
+
+    @Test
+    void warmupTest() {
+        List<Boolean> changes = new CopyOnWriteArrayList<>();
+        MIMPHealthChecker checker = new MIMPHealthChecker("localhost:1", InetSocketAddress.createUnresolved("localhost", 1), new MIMPHealthChecker.Settings(
+                1000, 100, "", 2, 2, TimeUnit.SECONDS.toNanos(10)), (c, healthy) -> changes.add(healthy));
+        long now = System.nanoTime();
+        assertTrue(checker.allows(now));
+        checker.record(false, now);
+        assertTrue(checker.isHealthy());
+        checker.record(false, now);
+        assertFalse(checker.allows(now));
+        checker.record(true, now);
+        assertFalse(checker.isHealthy());
+        checker.record(true, now);
+        assertTrue(checker.isHealthy());
+        // right after the recovery only a small share of the connections is let through
+        long allowed = IntStream.range(0, 1000).filter(i -> checker.allows(now)).count();
+        assertTrue(allowed > 30 && allowed < 200, "allowed at the start of the warm-up: " + allowed);
+        assertTrue(checker.allows(now + TimeUnit.SECONDS.toNanos(10)));
+        assertEquals(List.of(false, true), changes);
+    }
+
+    @Test
+    void timeoutTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream sends its status line one byte every 50 ms, each read alone stays below the timeout
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = upstream.accept()) {
+                    for (byte b : "HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.ISO_8859_1)) {
+                        socket.getOutputStream().write(b);
+                        socket.getOutputStream().flush();
+                        Thread.sleep(50);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // check abandoned
+                }
+            });
+            List<Boolean> changes = new CopyOnWriteArrayList<>();
+            MIMPHealthChecker checker = new MIMPHealthChecker("localhost:" + upstream.getLocalPort(),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), upstream.getLocalPort()),
+                    new MIMPHealthChecker.Settings(1000, 200, "/health", 1, 1, 0), (c, healthy) -> changes.add(healthy));
+            long start = System.nanoTime();
+            checker.check();
+            // the timeout bounds the whole check and not each read
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            assertFalse(checker.isHealthy());
+            assertEquals(List.of(false), changes);
+        }
+    }
+
+    @Test
+    void ejectTest() throws Exception {
+        AtomicInteger relayed = new AtomicInteger();
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream answers its health checks with 503 and counts the other connections
+            Thread.ofVirtual().start(() -> {
+                try {
+                    while (true) {
+                        Socket socket = upstream.accept();
+                        Thread.ofVirtual().start(() -> answer(socket, relayed));
+                    }
+                } catch (IOException ioe) {
+                    // upstream closed
+                }
+            });
+            List<Boolean> changes = new CopyOnWriteArrayList<>();
+            MIMPSocketServer server = start("interval=100;timeout=500;path=/health;fall=1", upstream.getLocalPort(), changes);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (changes.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(List.of(false), changes);
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getProxyIpPort())) {
+                client.setSoTimeout(5000);
+                assertEquals(-1, client.getInputStream().read());
+            }
+            assertEquals(0, relayed.get());
+            assertEquals(1, server.getMetrics().get("health.rejected"));
+            assertEquals(1, server.getMetrics().get("health.unhealthy"));
+            assertEquals(0, server.getMetrics().get("health.localhost:" + upstream.getLocalPort() + ".healthy"));
+            assertTrue(server.getMetrics().get("health.localhost:" + upstream.getLocalPort() + ".latency.micros") > 0);
+            server.cleanup();
+        }
+    }
+
+    private static void answer(final Socket socket, final AtomicInteger relayed) {
+        try (socket) {
+            byte[] head = new byte[1024];
+            int read = socket.getInputStream().read(head);
+            if (read > 0 && new String(head, 0, read, StandardCharsets.ISO_8859_1).startsWith("GET /health ")) {
+                socket.getOutputStream().write("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+            } else {
+                relayed.incrementAndGet();
+            }
+        } catch (IOException ioe) {
+            // connection closed
+        }
+    }
+
+    private static MIMPSocketServer start(final String settings, final int remotePort, final List<Boolean> changes) throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        MIMPProperties properties = new MIMPProperties();
+        properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+        properties.put(MIMPConstants.PROXY_HEALTH_KEY, port + "@" + settings);
+        MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", remotePort);
+        server.setCallback(new IMIMPSocketServerStatusCallback() {
+            @Override
+            public void onServiceStatusChange(final MIMPSocketServerStatus status) {
+            }
+
+            @Override
+            public void onHandler(final IMIMPServerSocketHandler handler) {
+            }
+
+            @Override
+            public void onUpstreamHealthChange(final String upstream, final boolean healthy, final long latencyMicros) {
+                changes.add(healthy);
+            }
+        });
+        server.initialize();
+        return server;
+    }
+}
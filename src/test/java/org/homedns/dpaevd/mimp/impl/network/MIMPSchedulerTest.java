@@ -0,0 +1,100 @@
+/*
+ * @(#)MIMPSchedulerTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the shared scheduler.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPSchedulerTest {
+
+    @Test
+    void shareTest() {
+        assertEquals(new MIMPScheduler.Share(4, 16), MIMPScheduler.Share.of("8183@weight=2, 8182@weight=4;quota=16", 8182));
+        assertEquals(MIMPScheduler.Share.DEFAULT, MIMPScheduler.Share.of("8183@weight=2", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPScheduler.Share.of("8182@weight=0", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPScheduler.Share.of("8182@priority=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPScheduler.Share.of("8182@weight=high", 8182));
+    }
+
+    @Test
+    void fairnessTest() throws Exception {
+        MIMPScheduler scheduler = new MIMPScheduler(1);
+        MIMPScheduler.Lane heavy = scheduler.register("heavy", 3, 0, new MIMPChannelMetrics());
+        MIMPChannelMetrics lightMetrics = new MIMPChannelMetrics();
+        MIMPScheduler.Lane light = scheduler.register("light", 1, 0, lightMetrics);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(80);
+        List<String> order = new CopyOnWriteArrayList<>();
+        // the single slot is taken until both lanes have queued their tasks
+        light.execute(() -> await(gate));
+        for (int i = 0; i < 40; i++) {
+            heavy.execute(() -> {
+                order.add("heavy");
+                done.countDown();
+            });
+            light.execute(() -> {
+                order.add("light");
+                done.countDown();
+            });
+        }
+        assertEquals(40, lightMetrics.snapshot().get("scheduler.queued"));
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long heavyStarted = order.subList(0, 20).stream().filter("heavy"::equals).count();
+        assertTrue(heavyStarted >= 14 && heavyStarted <= 16, "heavy tasks among the first 20: " + heavyStarted);
+        assertEquals(41, lightMetrics.snapshot().get("scheduler.tasks"));
+        assertTrue(lightMetrics.snapshot().get("scheduler.wait.max.micros") > 0);
+    }
+
+    @Test
+    void quotaTest() throws Exception {
+        MIMPScheduler scheduler = new MIMPScheduler(4);
+        MIMPChannelMetrics hangingMetrics = new MIMPChannelMetrics();
+        MIMPScheduler.Lane hanging = scheduler.register("hanging", 1, 1, hangingMetrics);
+        MIMPScheduler.Lane other = scheduler.register("other", 1, 0, new MIMPChannelMetrics());
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch ran = new CountDownLatch(1);
+        hanging.execute(() -> await(gate));
+        hanging.execute(() -> await(gate));
+        // the quota keeps the second task of the hanging lane queued, the other lane still gets a slot
+        other.execute(ran::countDown);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(1, hangingMetrics.snapshot().get("scheduler.running"));
+        assertEquals(1, hangingMetrics.snapshot().get("scheduler.queued"));
+        hanging.close();
+        assertThrows(RejectedExecutionException.class, () -> hanging.execute(() -> { }));
+        gate.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (hangingMetrics.snapshot().get("scheduler.tasks") < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, hangingMetrics.snapshot().get("scheduler.tasks"));
+    }
+
+    private static void await(final CountDownLatch gate) {
+        try {
+            gate.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
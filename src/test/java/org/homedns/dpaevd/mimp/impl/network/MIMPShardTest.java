@@ -0,0 +1,85 @@
+/*
+ * @(#)MIMPShardTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test suite for the shards of a channel.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPShardTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPShard.Settings(4), MIMPShard.Settings.of("8183@count=2, 8182@count=4", 8182));
+        assertEquals(new MIMPShard.Settings(Runtime.getRuntime().availableProcessors()), MIMPShard.Settings.of("8182@", 8182));
+        assertNull(MIMPShard.Settings.of("8183@count=2", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPShard.Settings.of("8182@count=0", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPShard.Settings.of("8182@size=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPShard.Settings.of("8182@count=all", 8182));
+    }
+
+    @Test
+    void relayTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream echoes the bytes of each connection
+            Thread.ofVirtual().start(() -> {
+                while (!upstream.isClosed()) {
+                    try {
+                        Socket socket = upstream.accept();
+                        Thread.ofVirtual().start(() -> {
+                            try (socket) {
+                                socket.getInputStream().transferTo(socket.getOutputStream());
+                            } catch (IOException ioe) {
+                                // closed
+                            }
+                        });
+                    } catch (IOException ioe) {
+                        // closed
+                    }
+                }
+            });
+            int port;
+            try (ServerSocket free = new ServerSocket(0)) {
+                port = free.getLocalPort();
+            }
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            properties.put(MIMPConstants.PROXY_SHARDS_KEY, port + "@count=2");
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            server.initialize();
+            Thread.sleep(200);
+            for (int i = 0; i < 8; i++) {
+                try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                    client.setSoTimeout(5000);
+                    client.getOutputStream().write(("ping" + i).getBytes(StandardCharsets.ISO_8859_1));
+                    assertEquals("ping" + i, new String(client.getInputStream().readNBytes(5), StandardCharsets.ISO_8859_1));
+                }
+            }
+            // every connection is accepted by one of the shards
+            assertEquals(8, server.getMetrics().get("shards.0.accepted") + server.getMetrics().get("shards.1.accepted"));
+            // the setup of every connection went through the lane of the channel
+            assertEquals(8, server.getMetrics().get("scheduler.tasks"));
+            server.cleanup();
+        }
+    }
+}
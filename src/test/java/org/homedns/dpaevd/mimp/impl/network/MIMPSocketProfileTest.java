@@ -0,0 +1,79 @@
+/*
+ * @(#)MIMPSocketProfileTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the socket profiles and the adaptive read sizes.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPSocketProfileTest {
+
+    @Test
+    void parseTest() {
+        MIMPSocketProfile profile = MIMPSocketProfile.of(
+                "8183@nodelay=false, 8182@rcvbuf=256K;keepalive.idle=60;remote.linger=-1;client.nodelay=false;read.max=128K", 8182, 4096);
+        assertEquals(new MIMPSocketProfile.Options(256 * 1024, 4096, false, true, 60, 0, 0, -1), profile.client());
+        assertEquals(new MIMPSocketProfile.Options(256 * 1024, 4096, true, true, 60, 0, 0, -1), profile.remote());
+        assertEquals(128 * 1024, profile.readMaximum());
+        assertEquals(0, MIMPSocketProfile.of("8183@linger=5", 8182, 0).remote().linger());
+        assertThrows(IllegalArgumentException.class, () -> MIMPSocketProfile.of("8182@nodelay=yes", 8182, 0));
+        assertThrows(IllegalArgumentException.class, () -> MIMPSocketProfile.of("8182@read.min=8K;read.max=4K", 8182, 0));
+        assertThrows(IllegalArgumentException.class, () -> MIMPSocketProfile.of("8182@client.read.max=4K", 8182, 0));
+        assertThrows(IllegalArgumentException.class, () -> MIMPSocketProfile.of("8182@linger=never", 8182, 0));
+    }
+
+    @Test
+    void applyTest() throws Exception {
+        MIMPSocketProfile profile = MIMPSocketProfile.of("8182@client.nodelay=false;linger=3", 8182, 0);
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+             Socket accepted = serverSocket.accept()) {
+            profile.client().apply(accepted);
+            profile.remote().apply(client);
+            assertFalse(accepted.getTcpNoDelay());
+            assertTrue(client.getTcpNoDelay());
+            assertTrue(accepted.getKeepAlive());
+            assertEquals(3, accepted.getSoLinger());
+        }
+    }
+
+    @Test
+    void readSizerTest() {
+        MIMPReadSizer sizer = new MIMPReadSizer(512, 4096, 16384);
+        // bulk reads grow the buffer up to the maximum
+        sizer.record(4096);
+        assertEquals(8192, sizer.next());
+        sizer.record(8192);
+        sizer.record(16384);
+        assertEquals(16384, sizer.next());
+        // a single small read keeps the size, two in a row halve it
+        sizer.record(100);
+        assertEquals(16384, sizer.next());
+        sizer.record(9000);
+        sizer.record(100);
+        assertEquals(16384, sizer.next());
+        sizer.record(100);
+        assertEquals(8192, sizer.next());
+        for (int i = 0; i < 20; i++) {
+            sizer.record(10);
+        }
+        assertEquals(512, sizer.next());
+    }
+}
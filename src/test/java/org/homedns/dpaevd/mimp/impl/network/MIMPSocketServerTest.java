@@ -0,0 +1,401 @@
+/*
+ * @(#)MIMPSocketServerTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.api.network.IMIMPServerSocketHandler;
+import org.homedns.dpaevd.mimp.api.network.IMIMPSocketServerStatusCallback;
+import org.homedns.dpaevd.mimp.api.network.MIMPSocketServerStatus;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the socket server.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPSocketServerTest {
+
+    @Test
+    void drainTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread.ofVirtual().start(() -> serve(upstream));
+            int port;
+            try (ServerSocket free = new ServerSocket(0)) {
+                port = free.getLocalPort();
+            }
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            List<MIMPSocketServerStatus> statuses = new CopyOnWriteArrayList<>();
+            List<Integer> progress = new CopyOnWriteArrayList<>();
+            CountDownLatch up = new CountDownLatch(1);
+            server.setCallback(new IMIMPSocketServerStatusCallback() {
+                @Override
+                public void onServiceStatusChange(final MIMPSocketServerStatus status) {
+                    statuses.add(status);
+                    up.countDown();
+                }
+
+                @Override
+                public void onHandler(final IMIMPServerSocketHandler handler) {
+                }
+
+                @Override
+                public void onDrainProgress(final int openConnections, final long remainingMillis) {
+                    progress.add(openConnections);
+                }
+            });
+            server.initialize();
+            assertTrue(up.await(5, TimeUnit.SECONDS));
+
+            try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                idle.setSoTimeout(5000);
+                idle.getOutputStream().write("GET /fast HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertTrue(readHead(idle.getInputStream()).startsWith("HTTP/1.1 200"));
+                long start;
+                // the busy connection is closed by the client as soon as its response is read
+                Socket busy = new Socket(InetAddress.getLoopbackAddress(), port);
+                try {
+                    busy.setSoTimeout(5000);
+                    busy.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                    Thread.sleep(100);
+
+                    start = System.nanoTime();
+                    server.drain(5, TimeUnit.SECONDS);
+                    // the in flight exchange completes and its response asks the client to close
+                    String head = readHead(busy.getInputStream());
+                    assertTrue(head.startsWith("HTTP/1.1 200"));
+                    assertTrue(head.contains("Connection: close\r\n"));
+                } finally {
+                    busy.close();
+                }
+                // the idle keep-alive connection is closed at its message boundary
+                assertEquals(-1, idle.getInputStream().read());
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!statuses.contains(MIMPSocketServerStatus.DOWN) && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(statuses.indexOf(MIMPSocketServerStatus.DRAINING) < statuses.indexOf(MIMPSocketServerStatus.DOWN));
+            assertEquals(2, progress.get(0));
+            assertEquals(0, progress.get(progress.size() - 1));
+        }
+    }
+
+    @Test
+    void halfCloseTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream answers once the client has sent its end of stream
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = upstream.accept()) {
+                    byte[] request = socket.getInputStream().readAllBytes();
+                    socket.getOutputStream().write(("received " + request.length).getBytes(StandardCharsets.ISO_8859_1));
+                } catch (IOException ioe) {
+                    // connection closed
+                }
+            });
+            int port;
+            try (ServerSocket free = new ServerSocket(0)) {
+                port = free.getLocalPort();
+            }
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            server.initialize();
+            Thread.sleep(200);
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                client.setSoTimeout(5000);
+                client.getOutputStream().write("hello".getBytes(StandardCharsets.ISO_8859_1));
+                client.shutdownOutput();
+                assertEquals("received 5", new String(client.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1));
+            }
+            assertEquals(1, server.getMetrics().get("connections.half.closed"));
+            server.cleanup();
+        }
+    }
+
+    @Test
+    void cacheTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            Thread.ofVirtual().start(() -> serve(upstream, received, head -> {
+                if (head.startsWith("GET /fresh")) {
+                    return "HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\nContent-Length: 5\r\n\r\nfresh";
+                }
+                return head.contains("If-None-Match: \"v1\"") ? "HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n"
+                        : "HTTP/1.1 200 OK\r\nCache-Control: no-cache\r\nETag: \"v1\"\r\nContent-Length: 5\r\n\r\nstale";
+            }));
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            properties.put(MIMPConstants.PROXY_CACHE_ENABLED_KEY, "true");
+            int port = freePort();
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            server.initialize();
+            Thread.sleep(200);
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                client.setSoTimeout(5000);
+                for (String path : List.of("/fresh", "/fresh", "/stale", "/stale")) {
+                    client.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    String response = readMessage(client.getInputStream());
+                    assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+                    assertTrue(response.endsWith(path.substring(1)), response);
+                }
+            }
+            // the fresh response is served from the cache, the stale one is revalidated and its 304 replaced
+            assertEquals(3, received.size());
+            assertTrue(received.get(2).startsWith("GET /stale"));
+            assertTrue(received.get(2).contains("If-None-Match: \"v1\""));
+            server.cleanup();
+        }
+    }
+
+    @Test
+    void stubTest(@TempDir final Path directory) throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            Thread.ofVirtual().start(() -> serve(upstream, received,
+                    head -> "HTTP/1.1 200 OK\r\nContent-Length: 8\r\n\r\nupstream"));
+            Path stubsFile = directory.resolve("stubs.properties");
+            Files.writeString(stubsFile, "stub.post.method=POST\nstub.post.path=/stub\nstub.post.status=201\nstub.post.body=stubbed\n");
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            properties.put(MIMPConstants.PROXY_STUBS_KEY, stubsFile.toString());
+            int port = freePort();
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            server.initialize();
+            Thread.sleep(200);
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                client.setSoTimeout(5000);
+                OutputStream out = client.getOutputStream();
+                // the body of the stubbed request arrives in several reads and is never forwarded
+                out.write("POST /stub HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\n\r\nfirst".getBytes(StandardCharsets.ISO_8859_1));
+                String stubbed = readMessage(client.getInputStream());
+                assertTrue(stubbed.startsWith("HTTP/1.1 201"), stubbed);
+                assertTrue(stubbed.endsWith("stubbed"), stubbed);
+                out.write("-rest".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                Thread.sleep(100);
+                out.write("GET /other HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertTrue(readMessage(client.getInputStream()).endsWith("upstream"));
+                // a chunked body cannot be followed, the request is forwarded rather than stubbed
+                out.write("POST /stub HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nok\r\n0\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                assertTrue(readMessage(client.getInputStream()).endsWith("upstream"));
+            }
+            assertEquals(2, received.size());
+            assertTrue(received.get(0).startsWith("GET /other"), received.get(0));
+            assertTrue(received.get(1).startsWith("POST /stub"), received.get(1));
+            assertEquals(1, server.getMetrics().get("stubs.served"));
+            server.cleanup();
+        }
+    }
+
+    @Test
+    void routeTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             ServerSocket users = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            List<String> routed = new CopyOnWriteArrayList<>();
+            Thread.ofVirtual().start(() -> serve(upstream, received,
+                    head -> "HTTP/1.1 200 OK\r\nContent-Length: 8\r\n\r\nupstream"));
+            Thread.ofVirtual().start(() -> serve(users, routed, head -> head.startsWith("GET /users/close")
+                    ? "HTTP/1.1 200 OK\r\n\r\n" : "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nusers"));
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            int port = freePort();
+            properties.put(MIMPConstants.PROXY_ROUTES_KEY, port + "@/users=localhost:" + users.getLocalPort());
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            server.initialize();
+            Thread.sleep(200);
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                client.setSoTimeout(5000);
+                OutputStream out = client.getOutputStream();
+                // pipelined requests are routed one by one and answered in order
+                out.write(("GET /users/1 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "POST /users-admin HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n\r\nbody"
+                        + "GET /users?id=2 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                assertTrue(readMessage(client.getInputStream()).endsWith("users"));
+                assertTrue(readMessage(client.getInputStream()).endsWith("upstream"));
+                assertTrue(readMessage(client.getInputStream()).endsWith("users"));
+                // a head split across reads is routed once its end is read
+                out.write("GET /users/3 HTTP/1.1\r\nHo".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                Thread.sleep(100);
+                out.write("st: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertTrue(readMessage(client.getInputStream()).endsWith("users"));
+                // the end of a close delimited response is unknown, the route cannot be switched safely anymore
+                out.write("GET /users/close HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertTrue(readHead(client.getInputStream()).startsWith("HTTP/1.1 200 OK"));
+                out.write("GET /other HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertEquals(-1, client.getInputStream().read());
+            }
+            assertEquals(1, received.size());
+            assertTrue(received.get(0).startsWith("POST /users-admin"), received.get(0));
+            assertTrue(received.get(0).endsWith("body"), received.get(0));
+            assertEquals(4, routed.size());
+            assertTrue(routed.get(1).startsWith("GET /users?id=2"), routed.get(1));
+            assertTrue(routed.get(2).startsWith("GET /users/3"), routed.get(2));
+            assertEquals(3, server.getMetrics().get("routes.switched"));
+            assertEquals(1, server.getMetrics().get("routes.refused"));
+            server.cleanup();
+        }
+    }
+
+    @Test
+    void largeHeadTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            String padding = "X-Padding: " + "p".repeat(2000) + "\r\n";
+            Thread.ofVirtual().start(() -> serve(upstream, received, head -> head.startsWith("GET /large")
+                    ? "HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\n" + padding + "Content-Length: 5\r\n\r\nlarge"
+                    : "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nsmall"));
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "X-Added:yes");
+            properties.put(MIMPConstants.PROXY_CACHE_ENABLED_KEY, "true");
+            int port = freePort();
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", upstream.getLocalPort());
+            server.initialize();
+            Thread.sleep(200);
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                client.setSoTimeout(5000);
+                OutputStream out = client.getOutputStream();
+                // small exchanges shrink the reads of both directions to their minimum
+                for (int i = 0; i < 10; i++) {
+                    out.write("GET /small HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                    assertTrue(readMessage(client.getInputStream()).endsWith("small"));
+                }
+                // heads larger than a read are patched and followed as a whole
+                for (int i = 0; i < 2; i++) {
+                    out.write(("GET /large HTTP/1.1\r\nHost: localhost\r\n" + padding + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                    String response = readMessage(client.getInputStream());
+                    assertTrue(response.contains(padding), response);
+                    assertTrue(response.endsWith("large"), response);
+                }
+            }
+            assertEquals(11, received.size());
+            assertTrue(received.get(10).startsWith("GET /large"), received.get(10));
+            assertTrue(received.get(10).contains("X-Added: yes"), received.get(10));
+            server.cleanup();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket free = new ServerSocket(0)) {
+            return free.getLocalPort();
+        }
+    }
+
+    /**
+     * Reads a message whose body is delimited by its {@code Content-Length} or a chunked body without an empty line
+     * before its last chunk.
+     */
+    private static String readMessage(final InputStream in) throws IOException {
+        String head = readHead(in);
+        int length = 0;
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Integer.parseInt(line.substring(15).trim());
+            } else if (line.equalsIgnoreCase("Transfer-Encoding: chunked")) {
+                return head + readHead(in);
+            }
+        }
+        return head + new String(in.readNBytes(length), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String readHead(final InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        int read;
+        while (matched < 4 && (read = in.read()) >= 0) {
+            head.write(read);
+            matched = read == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : read == '\r' ? 1 : 0;
+        }
+        return head.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Serves the requests of each connection, the request heads and bodies are recorded in their order.
+     *
+     * @param responder The response of a request head, null to close the connection.
+     */
+    private static void serve(final ServerSocket upstream, final List<String> received, final Function<String, String> responder) {
+        while (!upstream.isClosed()) {
+            try {
+                Socket socket = upstream.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (socket) {
+                        while (true) {
+                            String request = readMessage(socket.getInputStream());
+                            if (request.isEmpty()) {
+                                return;
+                            }
+                            received.add(request);
+                            String response = responder.apply(request);
+                            if (response == null) {
+                                return;
+                            }
+                            socket.getOutputStream().write(response.getBytes(StandardCharsets.ISO_8859_1));
+                        }
+                    } catch (IOException ioe) {
+                        // connection closed
+                    }
+                });
+            } catch (IOException ioe) {
+                return;
+            }
+        }
+    }
+
+    private static void serve(final ServerSocket upstream) {
+        while (!upstream.isClosed()) {
+            try {
+                Socket socket = upstream.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (socket) {
+                        while (true) {
+                            String head = readHead(socket.getInputStream());
+                            if (head.isEmpty()) {
+                                return;
+                            }
+                            if (head.startsWith("GET /slow")) {
+                                Thread.sleep(500);
+                            }
+                            socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        // connection closed
+                    }
+                });
+            } catch (IOException ioe) {
+                return;
+            }
+        }
+    }
+}
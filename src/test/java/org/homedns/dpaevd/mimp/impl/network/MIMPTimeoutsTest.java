@@ -0,0 +1,123 @@
+/*
+ * @(#)MIMPTimeoutsTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the connection timeouts.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPTimeoutsTest {
+
+    @Test
+    void parseTest() {
+        MIMPTimeouts timeouts = MIMPTimeouts.of("8183@lifetime=1, 8182@read.idle=2000;lifetime=60000", 8182);
+        assertEquals(new MIMPTimeouts(TimeUnit.SECONDS.toNanos(2), 0, TimeUnit.MINUTES.toNanos(1)), timeouts);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), timeouts.checkIntervalNanos());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), MIMPTimeouts.of("8182@write.idle=50", 8182).checkIntervalNanos());
+        assertTrue(MIMPTimeouts.of("8183@lifetime=1", 8182).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> MIMPTimeouts.of("8182@idle=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPTimeouts.of("8182@lifetime=-1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPTimeouts.of("8182@lifetime=1m", 8182));
+    }
+
+    @Test
+    void readIdleTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream accepts and never answers
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = upstream.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (IOException ioe) {
+                    // connection closed
+                }
+            });
+            MIMPSocketServer server = start("read.idle=300", upstream.getLocalPort());
+            try (Socket client = connect(server)) {
+                client.setSoTimeout(5000);
+                client.getOutputStream().write("ping".getBytes());
+                long start = System.nanoTime();
+                assertEquals(-1, client.getInputStream().read());
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            }
+            assertEquals(1, server.getMetrics().get("timeouts.read.idle"));
+            server.cleanup();
+        }
+    }
+
+    @Test
+    void writeIdleTest() throws Exception {
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream streams until the proxy closes the connection
+            Thread.ofVirtual().start(() -> {
+                try (Socket socket = upstream.accept()) {
+                    byte[] chunk = new byte[64 * 1024];
+                    while (true) {
+                        socket.getOutputStream().write(chunk);
+                    }
+                } catch (IOException ioe) {
+                    // connection closed
+                }
+            });
+            MIMPSocketServer server = start("write.idle=300;read.idle=60000", upstream.getLocalPort());
+            try (Socket client = connect(server)) {
+                // the client never reads, the writes of the proxy block once the buffers are full
+                client.getOutputStream().write("ping".getBytes());
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (server.getMetrics().getOrDefault("timeouts.write.idle", 0L) == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(50);
+                }
+            }
+            assertEquals(1, server.getMetrics().get("timeouts.write.idle"));
+            assertEquals(0, server.getMetrics().get("timeouts.read.idle"));
+            server.cleanup();
+        }
+    }
+
+    private static Socket connect(final MIMPSocketServer server) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), server.getProxyIpPort());
+            } catch (IOException ioe) {
+                if (System.nanoTime() > deadline) {
+                    throw ioe;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static MIMPSocketServer start(final String settings, final int remotePort) throws IOException {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        MIMPProperties properties = new MIMPProperties();
+        properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+        properties.put(MIMPConstants.PROXY_TIMEOUTS_KEY, port + "@" + settings);
+        MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", remotePort);
+        server.initialize();
+        return server;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * @(#)MIMPTrafficShaperTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the traffic shaper.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPTrafficShaperTest {
+
+    @Test
+    void parseTest() {
+        MIMPTrafficShaper shaper = MIMPTrafficShaper.of(
+                "8183@up.latency=5, 8182@down.rate=1M;down.connection.rate=64k;down.latency=40;down.jitter=10", 8182,
+                new MIMPChannelMetrics());
+        assertEquals(new MIMPTrafficShaper.Shaping(1024 * 1024, 64 * 1024, TimeUnit.MILLISECONDS.toNanos(40),
+                TimeUnit.MILLISECONDS.toNanos(10)), shaper.getDown());
+        assertTrue(shaper.getUp().isEmpty());
+        assertNull(MIMPTrafficShaper.of("8183@up.latency=5", 8182, new MIMPChannelMetrics()));
+        assertThrows(IllegalArgumentException.class, () -> MIMPTrafficShaper.of("8182@sideways.rate=1", 8182, new MIMPChannelMetrics()));
+        assertThrows(IllegalArgumentException.class, () -> MIMPTrafficShaper.of("8182@up.rate=fast", 8182, new MIMPChannelMetrics()));
+    }
+
+    @Test
+    void tokenBucketTest() {
+        MIMPTokenBucket bucket = new MIMPTokenBucket(1000, 100);
+        long now = System.nanoTime();
+        assertEquals(now, bucket.reserve(100, now));
+        // the second 100 bytes exceed the burst and conform 100 ms later
+        assertEquals(now + TimeUnit.MILLISECONDS.toNanos(100), bucket.reserve(100, now));
+        assertEquals(now + TimeUnit.MILLISECONDS.toNanos(600), bucket.reserve(500, now));
+    }
+
+    @Test
+    void shapedWritesTest() throws InterruptedException {
+        MIMPChannelMetrics metrics = new MIMPChannelMetrics();
+        MIMPTrafficShaper shaper = MIMPTrafficShaper.of("8182@down.latency=30;down.jitter=20", 8182, metrics);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        DataOutputStream downstream = new DataOutputStream(received);
+        MIMPShapedIOCallback callback = shaper.wrap(new MIMPIOCallback(), out -> out == downstream);
+
+        long start = System.nanoTime();
+        byte[] expected = new byte[100];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+            callback.out(downstream, expected, i, 1);
+        }
+        callback.awaitDrained();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertArrayEquals(expected, received.toByteArray());
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(100, snapshot.get("shaping.down.bytes"));
+        assertEquals(100, snapshot.get("shaping.down.delayed"));
+        assertEquals(0, snapshot.get("shaping.down.queued.bytes"));
+        assertEquals(0, snapshot.get("shaping.up.bytes"));
+    }
+}
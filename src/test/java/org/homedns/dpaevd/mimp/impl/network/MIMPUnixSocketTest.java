@@ -0,0 +1,109 @@
+/*
+ * @(#)MIMPUnixSocketTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test suite for the Unix domain sockets.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPUnixSocketTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPUnixPaths(Path.of("/run/l.sock"), Path.of("/run/r.sock")),
+                MIMPUnixPaths.of("8183@listen=/tmp/x.sock, 8182@listen=/run/l.sock;remote=/run/r.sock", 8182));
+        assertEquals(MIMPUnixPaths.NONE, MIMPUnixPaths.of("8183@listen=/tmp/x.sock", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPUnixPaths.of("8182@path=/run/r.sock", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPUnixPaths.of("8182@remote=", 8182));
+        MIMPChannels.Definition definition = MIMPChannels.parse("8182:unix:/run/r.sock:listen=/run/l.sock", Map.of()).get(0);
+        assertEquals(0, definition.remoteIpPort());
+        assertEquals("8182@remote=/run/r.sock;listen=/run/l.sock", definition.properties().get(MIMPConstants.PROXY_UNIX_KEY));
+    }
+
+    @Test
+    void relayTest() throws Exception {
+        Path remote = directory.resolve("remote.sock");
+        Path listen = directory.resolve("listen.sock");
+        try (ServerSocketChannel upstream = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            upstream.bind(UnixDomainSocketAddress.of(remote));
+            // the upstream echoes until the proxy closes the connection
+            Thread.ofVirtual().start(() -> {
+                try (SocketChannel socket = upstream.accept()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(1024);
+                    while (socket.read(buffer) > 0) {
+                        socket.write(buffer.flip());
+                        buffer.clear();
+                    }
+                } catch (IOException ioe) {
+                    // connection closed
+                }
+            });
+            int port;
+            try (ServerSocket free = new ServerSocket(0)) {
+                port = free.getLocalPort();
+            }
+            MIMPProperties properties = new MIMPProperties();
+            properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+            properties.put(MIMPConstants.PROXY_UNIX_KEY, port + "@listen=" + listen + ";remote=" + remote);
+            MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "unix", 0);
+            server.initialize();
+            try (SocketChannel client = connect(listen)) {
+                client.write(ByteBuffer.wrap("ping".getBytes(StandardCharsets.US_ASCII)));
+                byte[] answer = Channels.newInputStream(client).readNBytes(4);
+                assertEquals("ping", new String(answer, StandardCharsets.US_ASCII));
+            }
+            server.cleanup();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (Files.exists(listen) && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertFalse(Files.exists(listen));
+        }
+    }
+
+    private static SocketChannel connect(final Path path) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                return SocketChannel.open(UnixDomainSocketAddress.of(path));
+            } catch (IOException ioe) {
+                if (System.nanoTime() > deadline) {
+                    throw ioe;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * @(#)MIMPUpstreamPoolTest.java 2025.1
+ *
+ * Copyright (c) 2025 by DPAEVD
+ * All rights reserved
+ */
+package org.homedns.dpaevd.mimp.impl.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.homedns.dpaevd.mimp.api.MIMPConstants;
+import org.homedns.dpaevd.mimp.impl.config.MIMPProperties;
+import org.homedns.dpaevd.mimp.impl.http.HTTPMethod;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test suite for the request mode and its upstream pool.
+ * @author Daniele Denti <A HREF="mailto:daniele.denti@bluewin.ch">daniele.denti@bluewin.ch</A>
+ * @version 2025.1
+ * @since 2025.1
+ */
+public class MIMPUpstreamPoolTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MIMPUpstreamPool.Settings(8, 2, TimeUnit.SECONDS.toNanos(30), 100, MIMPUpstreamPool.Retry.IDEMPOTENT),
+                MIMPUpstreamPool.Settings.of("8183@max=1, 8182@max=8;idle=2;idle.timeout=30000;wait=100;retry=idempotent", 8182));
+        assertEquals(new MIMPUpstreamPool.Settings(64, 64, TimeUnit.MINUTES.toNanos(1), 5000, MIMPUpstreamPool.Retry.SAFE),
+                MIMPUpstreamPool.Settings.of("8182@", 8182));
+        assertNull(MIMPUpstreamPool.Settings.of("8183@max=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPUpstreamPool.Settings.of("8182@max=0", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPUpstreamPool.Settings.of("8182@size=1", 8182));
+        assertThrows(IllegalArgumentException.class, () -> MIMPUpstreamPool.Settings.of("8182@retry=always", 8182));
+        assertTrue(MIMPUpstreamPool.Retry.SAFE.allows(HTTPMethod.GET));
+        assertFalse(MIMPUpstreamPool.Retry.SAFE.allows(HTTPMethod.DELETE));
+        assertTrue(MIMPUpstreamPool.Retry.IDEMPOTENT.allows(HTTPMethod.PUT));
+        assertFalse(MIMPUpstreamPool.Retry.IDEMPOTENT.allows(HTTPMethod.POST));
+        assertFalse(MIMPUpstreamPool.Retry.NONE.allows(HTTPMethod.GET));
+    }
+
+    @Test
+    void retryTest() throws Exception {
+        String get = "GET /b HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        String post = "POST /b HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n";
+        String put = "PUT /b HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n";
+        // a GET whose reused connection is closed without any answer is sent again on a new connection
+        assertEquals(List.of("200", "3", "1"), stale("", get, ""));
+        // a POST is never sent again, the upstream may have acted on it
+        assertEquals(List.of("502", "2", "0"), stale("", post, ""));
+        // PUT is sent again only if the upstream is declared idempotent
+        assertEquals(List.of("502", "2", "0"), stale("", put, ""));
+        assertEquals(List.of("200", "3", "1"), stale("retry=idempotent", put, ""));
+        // a response head cut off by the end of stream is not retried, the upstream has started to answer
+        assertEquals(List.of("502", "2", "0"), stale("", get, "HTTP/1.1 200 OK\r\n"));
+    }
+
+    @Test
+    void multiplexTest() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            // the upstream keeps its connections alive and answers each request with a fixed body
+            Thread.ofVirtual().start(() -> {
+                while (!upstream.isClosed()) {
+                    try {
+                        Socket socket = upstream.accept();
+                        accepted.incrementAndGet();
+                        Thread.ofVirtual().start(() -> serve(socket));
+                    } catch (IOException ioe) {
+                        // closed
+                    }
+                }
+            });
+            MIMPSocketServer server = start("max=1;wait=5000", upstream.getLocalPort());
+            List<Socket> clients = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                clients.add(connect(server));
+            }
+            for (int round = 0; round < 2; round++) {
+                for (Socket client : clients) {
+                    client.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    assertEquals("ok", readBody(client.getInputStream()));
+                }
+            }
+            // the last exchange is counted and its connection given back just after its response has been flushed
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.getMetrics().get("pool.idle") != 1 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            // three keep-alive clients share the single upstream connection
+            assertEquals(1, accepted.get());
+            assertEquals(6, server.getMetrics().get("exchanges"));
+            assertEquals(1, server.getMetrics().get("pool.created"));
+            assertEquals(5, server.getMetrics().get("pool.reused"));
+            assertEquals(0, server.getMetrics().get("pool.leased"));
+            assertEquals(1, server.getMetrics().get("pool.idle"));
+            for (Socket client : clients) {
+                client.close();
+            }
+            server.cleanup();
+        }
+    }
+
+    /**
+     * Sends a request on a reused upstream connection that the upstream closes after reading it.
+     *
+     * @param settings The additional pool settings.
+     * @param request The request.
+     * @param partial What the upstream sends before closing the connection.
+     * @return the status code received by the client, the requests read by the upstream and the retries.
+     */
+    private static List<String> stale(final String settings, final String request, final String partial) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread.ofVirtual().start(() -> {
+                while (!upstream.isClosed()) {
+                    try {
+                        Socket socket = upstream.accept();
+                        Thread.ofVirtual().start(() -> {
+                            try (socket) {
+                                while (readHead(socket.getInputStream())) {
+                                    // the second request finds its kept alive connection closed
+                                    if (requests.incrementAndGet() == 2) {
+                                        socket.getOutputStream().write(partial.getBytes(StandardCharsets.US_ASCII));
+                                        socket.getOutputStream().flush();
+                                        return;
+                                    }
+                                    socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+                                    socket.getOutputStream().flush();
+                                }
+                            } catch (IOException ioe) {
+                                // connection closed
+                            }
+                        });
+                    } catch (IOException ioe) {
+                        // closed
+                    }
+                }
+            });
+            MIMPSocketServer server = start("max=1;" + settings, upstream.getLocalPort());
+            String status;
+            try (Socket client = connect(server)) {
+                client.getOutputStream().write("GET /a HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertEquals("ok", readBody(client.getInputStream()));
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (server.getMetrics().get("pool.idle") != 1 && System.nanoTime() < deadline) {
+                    Thread.sleep(20);
+                }
+                client.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+                status = new String(client.getInputStream().readNBytes(12), StandardCharsets.US_ASCII).substring(9);
+            }
+            List<String> result = List.of(status, String.valueOf(requests.get()), String.valueOf(server.getMetrics().get("pool.retries")));
+            server.cleanup();
+            return result;
+        }
+    }
+
+    private static void serve(final Socket socket) {
+        try (socket) {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            while (readHead(in)) {
+                out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            // connection closed
+        }
+    }
+
+    private static boolean readHead(final InputStream in) throws IOException {
+        int matched = 0;
+        for (int b = in.read(); b >= 0; b = in.read()) {
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : b == '\r' ? 1 : 0;
+            if (matched == 4) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String readBody(final InputStream in) throws IOException {
+        if (!readHead(in)) {
+            throw new IOException("no response");
+        }
+        return new String(in.readNBytes(2), StandardCharsets.US_ASCII);
+    }
+
+    private static Socket connect(final MIMPSocketServer server) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getProxyIpPort());
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch (IOException ioe) {
+                if (System.nanoTime() > deadline) {
+                    throw ioe;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static MIMPSocketServer start(final String settings, final int remotePort) throws IOException {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        MIMPProperties properties = new MIMPProperties();
+        properties.put(MIMPConstants.PROXY_HEADERS_KEY, "");
+        properties.put(MIMPConstants.PROXY_POOL_KEY, port + "@" + settings);
+        MIMPSocketServer server = new MIMPSocketServer(new MIMPIOCallback(), properties, port, "localhost", remotePort);
+        server.initialize();
+        return server;
+    }
+}